@@ -1,4 +1,5 @@
 import java.util.Objects;
+import java.util.UUID;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.LongAdder;
@@ -11,6 +12,9 @@ import java.util.concurrent.atomic.LongAdder;
  */
 public final class SenderWorker implements Runnable {
 
+  /** Prefix that keeps client message IDs unique across client runs. */
+  private static final String RUN_ID = UUID.randomUUID().toString().substring(0, 8);
+
   private final BlockingQueue<OutboundMessage> queue;
   private final OutboundMessage poisonPill;
   private final RoomChannelPool pool;
@@ -127,7 +131,8 @@ public final class SenderWorker implements Runnable {
         + "\"username\":\"" + escape(msg.getUsername()) + "\","
         + "\"message\":\"" + escape(msgWithSeq) + "\","
         + "\"timestamp\":\"" + msg.getTimestamp().toString() + "\","
-        + "\"messageType\":\"" + msg.getMessageType().name() + "\""
+        + "\"messageType\":\"" + msg.getMessageType().name() + "\","
+        + "\"clientMessageId\":\"" + RUN_ID + "-" + msg.getSeqId() + "\""
         + "}";
   }
 
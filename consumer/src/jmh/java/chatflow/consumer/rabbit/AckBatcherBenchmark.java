@@ -0,0 +1,94 @@
+package chatflow.consumer.rabbit;
+
+import com.rabbitmq.client.Channel;
+import java.lang.reflect.Proxy;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures completed deliveries per second through {@link AckBatcher} for several batch sizes.
+ * The stub channel charges {@code frameMicros} for every ack or nack frame, standing in for the
+ * broker round trip. With {@code shuffled}, deliveries complete in random order within windows
+ * of 64 tags, as room workers would complete them. Ack frames per delivery are printed when the
+ * trial ends.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AckBatcherBenchmark {
+
+  private static final int WINDOW = 64;
+
+  @Param({"1", "10", "50", "200", "1000"})
+  public int batchSize;
+
+  @Param({"false", "true"})
+  public boolean shuffled;
+
+  @Param({"20"})
+  public long frameMicros;
+
+  private final LongAdder frames = new LongAdder();
+  private final int[] order = new int[WINDOW];
+  private AckBatcher batcher;
+  private long completed;
+
+  @Setup
+  public void setUp() {
+    for (int i = 0; i < WINDOW; i++) {
+      order[i] = i;
+    }
+    if (shuffled) {
+      Random random = new Random(42);
+      for (int i = WINDOW - 1; i > 0; i--) {
+        int j = random.nextInt(i + 1);
+        int t = order[i];
+        order[i] = order[j];
+        order[j] = t;
+      }
+    }
+    long frameNanos = TimeUnit.MICROSECONDS.toNanos(frameMicros);
+    Channel channel = (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(),
+        new Class<?>[] {Channel.class}, (self, method, args) -> {
+          if (method.getName().equals("basicAck") || method.getName().equals("basicNack")) {
+            frames.increment();
+            long until = System.nanoTime() + frameNanos;
+            while (System.nanoTime() < until) {
+              LockSupport.parkNanos(until - System.nanoTime());
+            }
+          }
+          return null;
+        });
+    batcher = new AckBatcher(channel, batchSize, 60_000);
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    batcher.flush();
+    System.out.printf("%nack frames per delivery: %.4f%n", (double) frames.sum() / completed);
+  }
+
+  @Benchmark
+  public void complete() throws Exception {
+    long tag = completed - completed % WINDOW + order[(int) (completed % WINDOW)] + 1;
+    completed++;
+    batcher.ack(tag);
+  }
+}
@@ -0,0 +1,81 @@
+package chatflow.consumer.store;
+
+import chatflow.consumer.model.BroadcastRequest;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures sustained inserts into an embedded H2 file database. Four threads stand in for the
+ * consumer threads and submit rows with random UUID keys over 20 rooms. Each writer queue holds
+ * at most {@code queueCapacity} rows, so once the queues are full submissions run at the rate
+ * the store commits them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JdbcWriteBehindBenchmark {
+
+  @Param({"1", "100", "500"})
+  public int batchSize;
+
+  @Param({"1", "4"})
+  public int writers;
+
+  @Param({"1000"})
+  public int queueCapacity;
+
+  private Path dir;
+  private JdbcWriteBehind store;
+
+  @Setup
+  public void setUp() throws Exception {
+    dir = Files.createTempDirectory("jdbc-bench");
+    store = new JdbcWriteBehind("jdbc:h2:file:" + dir.resolve("chat"), "sa", "", "chat_messages",
+        writers, queueCapacity, batchSize, 5);
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    store.close();
+    System.out.printf("%ninserted %d rows, %d failed%n", store.inserted(), store.failed());
+    try (Stream<Path> files = Files.walk(dir)) {
+      for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(p);
+      }
+    } catch (IOException e) {
+      System.out.println("Could not delete " + dir + ": " + e.getMessage());
+    }
+  }
+
+  @Benchmark
+  @Threads(4)
+  public CompletableFuture<Void> submit() throws InterruptedException {
+    String room = String.valueOf(ThreadLocalRandom.current().nextInt(20));
+    return store.submit(new BroadcastRequest(UUID.randomUUID().toString(), room, "42",
+        "user42", "The quick brown fox jumps over the lazy dog", "2026-01-01T12:34:56Z", "TEXT",
+        "server-1", "10.0.0.1"));
+  }
+}
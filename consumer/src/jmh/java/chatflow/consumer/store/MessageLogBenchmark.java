@@ -0,0 +1,152 @@
+package chatflow.consumer.store;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the message log: appends without fsync, durable appends sharing group-commit
+ * forces, and room/time range reads over a prefilled log. Bodies are 60-140 bytes spread over
+ * 1000 rooms. Set the thread count of the durable appends with {@code -t}; the records per
+ * force are printed when the trial ends.
+ */
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageLogBenchmark {
+
+  private static final int ROOMS = 1000;
+  private static final int SEGMENT_BYTES = 64 << 20;
+  private static final byte[][] BODIES = new byte[64][];
+
+  static {
+    Random random = new Random(42);
+    for (int i = 0; i < BODIES.length; i++) {
+      BODIES[i] = "x".repeat(60 + random.nextInt(81)).getBytes(StandardCharsets.UTF_8);
+    }
+  }
+
+  private static String room() {
+    return String.valueOf(ThreadLocalRandom.current().nextInt(ROOMS));
+  }
+
+  private static byte[] body() {
+    return BODIES[ThreadLocalRandom.current().nextInt(BODIES.length)];
+  }
+
+  /** Empty log in a temporary directory, with or without fsync. */
+  @State(Scope.Benchmark)
+  public static class Log {
+    @Param({"false"})
+    public boolean fsync;
+
+    Path dir;
+    MessageLog log;
+
+    @Setup
+    public void open() throws IOException {
+      dir = Files.createTempDirectory("log-bench");
+      log = new MessageLog(dir, SEGMENT_BYTES, fsync, 0, 0, 0, Set.of());
+    }
+
+    @TearDown
+    public void close() throws IOException {
+      if (fsync) {
+        System.out.printf("%nrecords per force: %.1f%n",
+            (double) log.appended() / Math.max(1, log.forces()));
+      }
+      log.close();
+      delete(dir);
+    }
+  }
+
+  /** Log prefilled with {@code messages} records. */
+  @State(Scope.Benchmark)
+  public static class Filled {
+    @Param({"10000000"})
+    public int messages;
+
+    @Param({"10", "1000"})
+    public long windowMs;
+
+    @Param({"50", "100000"})
+    public int limit;
+
+    Path dir;
+    MessageLog log;
+    long first;
+    long last;
+
+    @Setup
+    public void fill() throws IOException {
+      dir = Files.createTempDirectory("log-bench");
+      log = new MessageLog(dir, SEGMENT_BYTES, false, 0, 0, 0, Set.of());
+      first = System.currentTimeMillis();
+      for (int i = 0; i < messages; i++) {
+        log.append(String.valueOf(i % ROOMS), "TEXT", "application/json", body());
+      }
+      last = System.currentTimeMillis();
+      System.out.printf("%n%d records in %d ms, %d segments%n", messages, last - first,
+          log.segmentCount());
+    }
+
+    @TearDown
+    public void close() throws IOException {
+      log.close();
+      delete(dir);
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public CompletableFuture<Void> append(Log state) {
+    return state.log.append(room(), "TEXT", "application/json", body());
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public void appendDurable(Log state) {
+    state.log.append(room(), "TEXT", "application/json", body()).join();
+  }
+
+  /** Reads up to {@code limit} records of a random room in a random window of the log. */
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public List<LogEntry> rangeQuery(Filled state) {
+    long span = Math.max(1, state.last - state.first - state.windowMs);
+    long from = state.first + ThreadLocalRandom.current().nextLong(span);
+    return state.log.read(room(), from, from + state.windowMs, state.limit);
+  }
+
+  private static void delete(Path dir) throws IOException {
+    try (Stream<Path> files = Files.walk(dir)) {
+      for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(p);
+      }
+    }
+  }
+}
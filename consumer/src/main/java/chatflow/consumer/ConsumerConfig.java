@@ -0,0 +1,332 @@
+package chatflow.consumer;
+
+import chatflow.consumer.broadcast.BroadcastFrames;
+import chatflow.consumer.rabbit.RoomRouting;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Consumer settings read from environment variables.
+ */
+public final class ConsumerConfig {
+
+  private final String rabbitHost;
+  private final int rabbitPort;
+  private final String rabbitUser;
+  private final String rabbitPass;
+  private final String exchangeName;
+  private final int consumerThreads;
+  private final int prefetch;
+  private final int roomCount;
+  private final int metricsIntervalSec;
+  private final int ackBatchSize;
+  private final long ackIntervalMs;
+  private final String broadcastTargets;
+  private final String broadcastSecret;
+  private final int broadcastBatch;
+  private final long broadcastLingerMicros;
+  private final MessageDeadlines deadlines;
+  private final boolean controlQueues;
+  private final int controlPrefetch;
+  private final RoomRouting routing;
+  private final String compressionDictionary;
+  private final String logDir;
+  private final int logSegmentMb;
+  private final boolean logFsync;
+  private final long logFsyncLingerMicros;
+  private final long logRetentionHours;
+  private final long logCompactAfterHours;
+  private final Set<String> logCompactTypes = new HashSet<>();
+  private final String jdbcUrl;
+  private final String jdbcUser;
+  private final String jdbcPass;
+  private final String jdbcTable;
+  private final int jdbcWriters;
+  private final int jdbcQueue;
+  private final int jdbcBatch;
+  private final long jdbcLingerMs;
+  private final int historyPort;
+  private final int historyThreads;
+  private final int historyTailMessages;
+  private final long historyTailMb;
+  private final long historyBlockCacheMb;
+  private final boolean search;
+  private final int searchFlushDocs;
+  private final int searchMergeFactor;
+  private final int searchQueue;
+
+  private ConsumerConfig() {
+    this.rabbitHost = env("RABBIT_HOST", "localhost");
+    this.rabbitPort = Integer.parseInt(env("RABBIT_PORT", "5672"));
+    this.rabbitUser = env("RABBIT_USER", "guest");
+    this.rabbitPass = env("RABBIT_PASS", "guest");
+    this.exchangeName = env("RABBIT_EXCHANGE", "chat.exchange");
+    this.consumerThreads = Integer.parseInt(env("CONSUMER_THREADS", "4"));
+    this.prefetch = Integer.parseInt(env("CONSUMER_PREFETCH", "100"));
+    this.roomCount = Integer.parseInt(env("CHATFLOW_ROOMS", "20"));
+    this.metricsIntervalSec = Integer.parseInt(env("CONSUMER_METRICS_INTERVAL_SEC", "10"));
+    this.ackBatchSize = Integer.parseInt(env("CONSUMER_ACK_BATCH", "50"));
+    this.ackIntervalMs = Long.parseLong(env("CONSUMER_ACK_INTERVAL_MS", "20"));
+    this.broadcastTargets = env("CONSUMER_BROADCAST_TARGETS", "");
+    this.broadcastSecret = env("CONSUMER_BROADCAST_SECRET", "");
+    this.broadcastBatch = Integer.parseInt(env("CONSUMER_BROADCAST_BATCH", "128"));
+    this.broadcastLingerMicros = Long.parseLong(env("CONSUMER_BROADCAST_LINGER_US", "200"));
+    this.deadlines = MessageDeadlines.parse(env("CHATFLOW_MESSAGE_MAX_AGE_MS", ""));
+    this.controlQueues = Boolean.parseBoolean(env("CONSUMER_CONTROL_QUEUES", "false"));
+    this.controlPrefetch = Integer.parseInt(env("CONSUMER_CONTROL_PREFETCH", "50"));
+    this.routing = RoomRouting.partitioned(Integer.parseInt(env("CHATFLOW_PARTITIONS", "0")));
+    this.compressionDictionary = env("CHATFLOW_COMPRESSION_DICT", "");
+    this.logDir = env("CONSUMER_LOG_DIR", "");
+    this.logSegmentMb = Integer.parseInt(env("CONSUMER_LOG_SEGMENT_MB", "256"));
+    this.logFsync = Boolean.parseBoolean(env("CONSUMER_LOG_FSYNC", "true"));
+    this.logFsyncLingerMicros = Long.parseLong(env("CONSUMER_LOG_FSYNC_LINGER_US", "0"));
+    this.logRetentionHours = Long.parseLong(env("CONSUMER_LOG_RETENTION_HOURS", "168"));
+    this.logCompactAfterHours = Long.parseLong(env("CONSUMER_LOG_COMPACT_AFTER_HOURS", "24"));
+    for (String type : env("CONSUMER_LOG_COMPACT_TYPES", "").split(",")) {
+      if (!type.isBlank()) {
+        logCompactTypes.add(type.trim());
+      }
+    }
+    this.jdbcUrl = env("CONSUMER_JDBC_URL", "");
+    this.jdbcUser = env("CONSUMER_JDBC_USER", "");
+    this.jdbcPass = env("CONSUMER_JDBC_PASS", "");
+    this.jdbcTable = env("CONSUMER_JDBC_TABLE", "chat_messages");
+    this.jdbcWriters = Integer.parseInt(env("CONSUMER_JDBC_WRITERS", "4"));
+    this.jdbcQueue = Integer.parseInt(env("CONSUMER_JDBC_QUEUE", "10000"));
+    this.jdbcBatch = Integer.parseInt(env("CONSUMER_JDBC_BATCH", "500"));
+    this.jdbcLingerMs = Long.parseLong(env("CONSUMER_JDBC_LINGER_MS", "50"));
+    this.historyPort = Integer.parseInt(env("CONSUMER_HISTORY_PORT", "0"));
+    this.historyThreads = Integer.parseInt(env("CONSUMER_HISTORY_THREADS", "8"));
+    this.historyTailMessages = Integer.parseInt(env("CONSUMER_HISTORY_TAIL_MESSAGES", "200"));
+    this.historyTailMb = Long.parseLong(env("CONSUMER_HISTORY_TAIL_MB", "64"));
+    this.historyBlockCacheMb = Long.parseLong(env("CONSUMER_HISTORY_BLOCK_CACHE_MB", "128"));
+    this.search = Boolean.parseBoolean(env("CONSUMER_SEARCH", "false"));
+    this.searchFlushDocs = Integer.parseInt(env("CONSUMER_SEARCH_FLUSH_DOCS", "50000"));
+    this.searchMergeFactor = Integer.parseInt(env("CONSUMER_SEARCH_MERGE_FACTOR", "10"));
+    this.searchQueue = Integer.parseInt(env("CONSUMER_SEARCH_QUEUE", "100000"));
+    if (consumerThreads < 1) {
+      throw new IllegalArgumentException("CONSUMER_THREADS must be >= 1");
+    }
+    if (prefetch < 1) {
+      throw new IllegalArgumentException("CONSUMER_PREFETCH must be >= 1");
+    }
+    if (ackBatchSize < 1) {
+      throw new IllegalArgumentException("CONSUMER_ACK_BATCH must be >= 1");
+    }
+    if (ackIntervalMs < 1) {
+      throw new IllegalArgumentException("CONSUMER_ACK_INTERVAL_MS must be >= 1");
+    }
+    if (controlPrefetch < 1) {
+      throw new IllegalArgumentException("CONSUMER_CONTROL_PREFETCH must be >= 1");
+    }
+    if (logSegmentMb < 1 || logSegmentMb > 1024) {
+      throw new IllegalArgumentException("CONSUMER_LOG_SEGMENT_MB must be between 1 and 1024");
+    }
+    if (historyPort > 0 && logDir.isBlank()) {
+      throw new IllegalArgumentException("CONSUMER_HISTORY_PORT requires CONSUMER_LOG_DIR");
+    }
+    if (search && historyPort <= 0) {
+      throw new IllegalArgumentException("CONSUMER_SEARCH requires CONSUMER_HISTORY_PORT");
+    }
+    if (historyThreads < 1) {
+      throw new IllegalArgumentException("CONSUMER_HISTORY_THREADS must be >= 1");
+    }
+    if (broadcastBatch < 1 || broadcastBatch > BroadcastFrames.MAX_BATCH_REQUESTS) {
+      throw new IllegalArgumentException("CONSUMER_BROADCAST_BATCH must be between 1 and "
+          + BroadcastFrames.MAX_BATCH_REQUESTS);
+    }
+    if (!broadcastTargets.isBlank() && broadcastSecret.isEmpty()) {
+      throw new IllegalArgumentException(
+          "CONSUMER_BROADCAST_TARGETS requires CONSUMER_BROADCAST_SECRET");
+    }
+  }
+
+  /**
+   * Reads the configuration from the process environment.
+   *
+   * @return consumer configuration
+   */
+  public static ConsumerConfig fromEnv() {
+    return new ConsumerConfig();
+  }
+
+  private static String env(String name, String defaultValue) {
+    return System.getenv().getOrDefault(name, defaultValue);
+  }
+
+  public String getRabbitHost() {
+    return rabbitHost;
+  }
+
+  public int getRabbitPort() {
+    return rabbitPort;
+  }
+
+  public String getRabbitUser() {
+    return rabbitUser;
+  }
+
+  public String getRabbitPass() {
+    return rabbitPass;
+  }
+
+  public String getExchangeName() {
+    return exchangeName;
+  }
+
+  public int getConsumerThreads() {
+    return consumerThreads;
+  }
+
+  public int getPrefetch() {
+    return prefetch;
+  }
+
+  public int getRoomCount() {
+    return roomCount;
+  }
+
+  public int getMetricsIntervalSec() {
+    return metricsIntervalSec;
+  }
+
+  public int getAckBatchSize() {
+    return ackBatchSize;
+  }
+
+  public long getAckIntervalMs() {
+    return ackIntervalMs;
+  }
+
+  public String getBroadcastTargets() {
+    return broadcastTargets;
+  }
+
+  public String getBroadcastSecret() {
+    return broadcastSecret;
+  }
+
+  public int getBroadcastBatch() {
+    return broadcastBatch;
+  }
+
+  public long getBroadcastLingerMicros() {
+    return broadcastLingerMicros;
+  }
+
+  public MessageDeadlines getDeadlines() {
+    return deadlines;
+  }
+
+  public boolean isControlQueues() {
+    return controlQueues;
+  }
+
+  public int getControlPrefetch() {
+    return controlPrefetch;
+  }
+
+  public RoomRouting getRouting() {
+    return routing;
+  }
+
+  public String getCompressionDictionary() {
+    return compressionDictionary;
+  }
+
+  public String getLogDir() {
+    return logDir;
+  }
+
+  public int getLogSegmentBytes() {
+    return logSegmentMb * 1024 * 1024;
+  }
+
+  public boolean isLogFsync() {
+    return logFsync;
+  }
+
+  public long getLogFsyncLingerMicros() {
+    return logFsyncLingerMicros;
+  }
+
+  public long getLogRetentionMillis() {
+    return logRetentionHours * 3_600_000L;
+  }
+
+  public long getLogCompactAfterMillis() {
+    return logCompactAfterHours * 3_600_000L;
+  }
+
+  public Set<String> getLogCompactTypes() {
+    return logCompactTypes;
+  }
+
+  public String getJdbcUrl() {
+    return jdbcUrl;
+  }
+
+  public String getJdbcUser() {
+    return jdbcUser;
+  }
+
+  public String getJdbcPass() {
+    return jdbcPass;
+  }
+
+  public String getJdbcTable() {
+    return jdbcTable;
+  }
+
+  public int getJdbcWriters() {
+    return jdbcWriters;
+  }
+
+  public int getJdbcQueue() {
+    return jdbcQueue;
+  }
+
+  public int getJdbcBatch() {
+    return jdbcBatch;
+  }
+
+  public long getJdbcLingerMs() {
+    return jdbcLingerMs;
+  }
+
+  public int getHistoryPort() {
+    return historyPort;
+  }
+
+  public int getHistoryThreads() {
+    return historyThreads;
+  }
+
+  public int getHistoryTailMessages() {
+    return historyTailMessages;
+  }
+
+  public long getHistoryTailBytes() {
+    return historyTailMb * 1024 * 1024;
+  }
+
+  public long getHistoryBlockCacheBytes() {
+    return historyBlockCacheMb * 1024 * 1024;
+  }
+
+  public boolean isSearch() {
+    return search;
+  }
+
+  public int getSearchFlushDocs() {
+    return searchFlushDocs;
+  }
+
+  public int getSearchMergeFactor() {
+    return searchMergeFactor;
+  }
+
+  public int getSearchQueue() {
+    return searchQueue;
+  }
+}
@@ -1,5 +1,19 @@
 package chatflow.consumer;
 
+import chatflow.consumer.broadcast.BroadcastSink;
+import chatflow.consumer.broadcast.DiscardingBroadcastSink;
+import chatflow.consumer.broadcast.ServerBroadcastSink;
+import chatflow.consumer.codec.PayloadDecompressor;
+import chatflow.consumer.rabbit.RoomQueueConsumer;
+import chatflow.consumer.search.SearchIndex;
+import chatflow.consumer.store.HistoryService;
+import chatflow.consumer.store.JdbcWriteBehind;
+import chatflow.consumer.store.MessageLog;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Entry point for the message consumer service.
  * This service pulls messages from the queue and
@@ -7,12 +21,95 @@ package chatflow.consumer;
  */
 public class ConsumerMain {
 
-    /**
-     * Main method that starts the consumer service.
-     *
-     * @param args command line arguments
-     */
-    public static void main(String[] args) {
-        System.out.println("Consumer service started");
-    }
-}
\ No newline at end of file
+  /**
+   * Main method that starts the consumer service.
+   *
+   * @param args command line arguments
+   * @throws Exception if the consumer cannot start
+   */
+  public static void main(String[] args) throws Exception {
+    ConsumerConfig config = ConsumerConfig.fromEnv();
+    ConsumerMetrics metrics = new ConsumerMetrics();
+    BroadcastSink sink = config.getBroadcastTargets().isBlank()
+        ? new DiscardingBroadcastSink()
+        : new ServerBroadcastSink(config.getBroadcastTargets(), config.getBroadcastSecret(),
+            config.getBroadcastBatch(), config.getBroadcastLingerMicros());
+    MessageProcessor processor = new MessageProcessor(sink, metrics, config.getDeadlines());
+    MessageLog log = config.getLogDir().isBlank()
+        ? null
+        : new MessageLog(Path.of(config.getLogDir()), config.getLogSegmentBytes(),
+            config.isLogFsync(), config.getLogFsyncLingerMicros(),
+            config.getLogRetentionMillis(), config.getLogCompactAfterMillis(),
+            config.getLogCompactTypes());
+    JdbcWriteBehind store = config.getJdbcUrl().isBlank()
+        ? null
+        : new JdbcWriteBehind(config.getJdbcUrl(), config.getJdbcUser(), config.getJdbcPass(),
+            config.getJdbcTable(), config.getJdbcWriters(), config.getJdbcQueue(),
+            config.getJdbcBatch(), config.getJdbcLingerMs());
+    HistoryService history = config.getHistoryPort() > 0
+        ? new HistoryService(log, config.getHistoryTailMessages(), config.getHistoryTailBytes(),
+            config.getHistoryBlockCacheBytes())
+        : null;
+    SearchIndex search = config.isSearch()
+        ? new SearchIndex(log, config.getSearchFlushDocs(), config.getSearchMergeFactor(),
+            config.getSearchQueue(), config.getLogRetentionMillis())
+        : null;
+    HistoryServer historyServer = history == null
+        ? null
+        : new HistoryServer(config.getHistoryPort(), config.getHistoryThreads(), history,
+            search);
+    RoomQueueConsumer consumer = new RoomQueueConsumer(config, processor,
+        PayloadDecompressor.load(config.getCompressionDictionary()), log, store);
+    consumer.start();
+
+    ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "consumer-metrics");
+      t.setDaemon(true);
+      return t;
+    });
+    int interval = config.getMetricsIntervalSec();
+    reporter.scheduleAtFixedRate(() -> {
+      System.out.println(metrics.report());
+      if (sink instanceof ServerBroadcastSink servers) {
+        System.out.println(servers.report());
+      }
+      if (log != null) {
+        System.out.println(log.report());
+      }
+      if (store != null) {
+        System.out.println(store.report());
+      }
+      if (history != null) {
+        System.out.println(history.report());
+      }
+      if (search != null) {
+        System.out.println(search.report());
+      }
+    }, interval, interval, TimeUnit.SECONDS);
+
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        if (historyServer != null) {
+          historyServer.close();
+        }
+        consumer.close();
+        if (search != null) {
+          search.close();
+        }
+        sink.close();
+        if (log != null) {
+          log.close();
+        }
+        if (store != null) {
+          store.close();
+        }
+      } catch (Exception ignored) {
+      }
+      System.out.println(metrics.report());
+    }));
+
+    System.out.println("Consumer service started: threads=" + config.getConsumerThreads()
+        + ", prefetch=" + config.getPrefetch() + ", rooms=" + config.getRoomCount()
+        + ", routing=" + config.getRouting());
+  }
+}
@@ -0,0 +1,159 @@
+package chatflow.consumer;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for the consumer.
+ *
+ * <p>Latencies are kept in power-of-two microsecond buckets, so percentiles are reported as
+ * the upper bound of the bucket they fall in. Processing latency covers decode through
+ * delivery; end-to-end latency runs from the server's publish timestamp to delivery, and is
+ * also reported separately for messages from the control queues.
+ */
+public final class ConsumerMetrics {
+
+  private static final int BUCKETS = 40;
+
+  private static final class Histogram {
+    private final LongAdder totalMicros = new LongAdder();
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    private Histogram() {
+      for (int i = 0; i < BUCKETS; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+
+    private void record(long micros) {
+      long m = Math.max(0L, micros);
+      totalMicros.add(m);
+      buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(m))].increment();
+    }
+
+    private String summary(String name) {
+      long[] counts = new long[BUCKETS];
+      long n = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        counts[i] = buckets[i].sum();
+        n += counts[i];
+      }
+      double avg = n == 0 ? 0.0 : (double) totalMicros.sum() / n;
+      return String.format("%s avg=%.1fus p50<=%dus p99<=%dus",
+          name, avg, percentile(counts, n, 0.50), percentile(counts, n, 0.99));
+    }
+  }
+
+  private final LongAdder consumed = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder stale = new LongAdder();
+  private final Histogram processing = new Histogram();
+  private final Histogram endToEnd = new Histogram();
+  private final Histogram controlEndToEnd = new Histogram();
+
+  private long lastConsumed;
+  private long lastReportNanos = System.nanoTime();
+
+  /**
+   * Returns the current wall-clock time in microseconds since the epoch.
+   */
+  public static long nowMicros() {
+    Instant now = Instant.now();
+    return now.getEpochSecond() * 1_000_000L + now.getNano() / 1_000L;
+  }
+
+  /**
+   * Records one successfully processed message.
+   *
+   * @param latencyNanos time spent processing the message
+   */
+  public void recordConsumed(long latencyNanos) {
+    consumed.increment();
+    processing.record(latencyNanos / 1_000L);
+  }
+
+  /**
+   * Records the publish-to-delivery latency of one message.
+   *
+   * @param micros latency in microseconds
+   */
+  public void recordEndToEnd(long micros) {
+    endToEnd.record(micros);
+  }
+
+  /**
+   * Records the publish-to-delivery latency of one control-queue message.
+   *
+   * @param micros latency in microseconds
+   */
+  public void recordControlEndToEnd(long micros) {
+    controlEndToEnd.record(micros);
+  }
+
+  /**
+   * Records one message that could not be processed.
+   */
+  public void recordFailed() {
+    failed.increment();
+  }
+
+  /**
+   * Records one message skipped because it was older than its maximum age.
+   */
+  public void recordStale() {
+    stale.increment();
+  }
+
+  /**
+   * Returns the total number of processed messages.
+   */
+  public long consumed() {
+    return consumed.sum();
+  }
+
+  /**
+   * Returns the total number of failed messages.
+   */
+  public long failed() {
+    return failed.sum();
+  }
+
+  /**
+   * Returns the total number of stale messages skipped.
+   */
+  public long stale() {
+    return stale.sum();
+  }
+
+  /**
+   * Returns a one-line summary and resets the rate window.
+   *
+   * @return report line
+   */
+  public synchronized String report() {
+    long now = System.nanoTime();
+    long total = consumed.sum();
+    double seconds = Math.max(1e-9, (now - lastReportNanos) / 1e9);
+    double rate = (total - lastConsumed) / seconds;
+    lastConsumed = total;
+    lastReportNanos = now;
+    return String.format("consumed=%d failed=%d stale=%d rate=%.1f msg/s %s %s %s", total,
+        failed.sum(), stale.sum(), rate, processing.summary("latency"), endToEnd.summary("e2e"),
+        controlEndToEnd.summary("control_e2e"));
+  }
+
+  private static long percentile(long[] counts, long n, double p) {
+    if (n == 0) {
+      return 0L;
+    }
+    long target = (long) Math.ceil(n * p);
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= target) {
+        return 1L << i;
+      }
+    }
+    return 1L << (counts.length - 1);
+  }
+}
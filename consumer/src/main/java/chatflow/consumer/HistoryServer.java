@@ -0,0 +1,225 @@
+package chatflow.consumer;
+
+import chatflow.consumer.model.QueueMessage;
+import chatflow.consumer.search.SearchIndex;
+import chatflow.consumer.store.HistoryService;
+import chatflow.consumer.store.LogEntry;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * HTTP endpoint for room history.
+ *
+ * <p>{@code GET /history?roomId=<id>&before=<cursor>&limit=<n>} returns the room's messages
+ * before the cursor, oldest first, and the cursor of the next older page:
+ *
+ * <pre>{"roomId":"7","messages":[{"logTime":...,"messageId":...}],"nextCursor":"..."}</pre>
+ *
+ * <p>Without {@code before} the latest messages are returned; {@code nextCursor} is null once
+ * the start of the room's history has been reached. Messages are returned as stored, without
+ * the staleness check applied to live deliveries.
+ *
+ * <p>With a search index, {@code GET /search?roomId=<id>&q=<query>&from=<t>&to=<t>&limit=<n>}
+ * returns the room's messages matching the query, newest first, optionally within a log time
+ * range. All terms of the query must occur; {@code "double quoted"} terms must occur as a
+ * phrase.
+ */
+public final class HistoryServer implements AutoCloseable {
+
+  /** Largest page a request may ask for. */
+  public static final int MAX_LIMIT = 500;
+  private static final int DEFAULT_LIMIT = 50;
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private final HistoryService history;
+  private final SearchIndex search;
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  /**
+   * Starts serving history.
+   *
+   * @param port HTTP port
+   * @param threads number of request threads
+   * @param history history service
+   * @param search search index, or null to serve history only
+   * @throws IOException if the port cannot be bound
+   */
+  public HistoryServer(int port, int threads, HistoryService history, SearchIndex search)
+      throws IOException {
+    this.history = history;
+    this.search = search;
+    // The JDK server writes headers and body separately; without TCP_NODELAY the body waits
+    // for the client's delayed ACK, adding about 40 ms to every response. The setting is read
+    // when the server implementation is first loaded.
+    if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+      System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+    this.server = HttpServer.create(new InetSocketAddress(port), 0);
+    this.executor = Executors.newFixedThreadPool(threads, r -> {
+      Thread t = new Thread(r, "history-http");
+      t.setDaemon(true);
+      return t;
+    });
+    server.createContext("/history", this::handle);
+    if (search != null) {
+      server.createContext("/search", this::handleSearch);
+    }
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      if (!"GET".equals(exchange.getRequestMethod())) {
+        respond(exchange, 405, error("Method not allowed"));
+        return;
+      }
+      Map<String, String> params = query(exchange.getRequestURI().getRawQuery());
+      String roomId = params.get("roomId");
+      if (roomId == null || roomId.isEmpty()) {
+        respond(exchange, 400, error("roomId is required"));
+        return;
+      }
+      int limit;
+      try {
+        limit = Integer.parseInt(params.getOrDefault("limit", String.valueOf(DEFAULT_LIMIT)));
+      } catch (NumberFormatException e) {
+        respond(exchange, 400, error("Invalid limit"));
+        return;
+      }
+      if (limit < 1 || limit > MAX_LIMIT) {
+        respond(exchange, 400, error("limit must be between 1 and " + MAX_LIMIT));
+        return;
+      }
+      HistoryService.Page page;
+      try {
+        page = history.query(roomId, params.get("before"), limit);
+      } catch (IllegalArgumentException e) {
+        respond(exchange, 400, error(e.getMessage()));
+        return;
+      }
+      respond(exchange, 200, render(roomId, page.getMessages(), page.getNextCursor()));
+    } catch (IOException | RuntimeException e) {
+      System.out.println("History request failed: " + e.getMessage());
+      if (exchange.getResponseCode() == -1) {
+        respond(exchange, 500, error("Internal error"));
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void handleSearch(HttpExchange exchange) throws IOException {
+    try {
+      if (!"GET".equals(exchange.getRequestMethod())) {
+        respond(exchange, 405, error("Method not allowed"));
+        return;
+      }
+      Map<String, String> params = query(exchange.getRequestURI().getRawQuery());
+      String roomId = params.get("roomId");
+      String q = params.get("q");
+      if (roomId == null || roomId.isEmpty() || q == null) {
+        respond(exchange, 400, error("roomId and q are required"));
+        return;
+      }
+      List<LogEntry> found;
+      try {
+        int limit = Integer.parseInt(params.getOrDefault("limit", String.valueOf(DEFAULT_LIMIT)));
+        if (limit < 1 || limit > MAX_LIMIT) {
+          throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT);
+        }
+        long from = params.containsKey("from") ? Long.parseLong(params.get("from")) : 0L;
+        long to = params.containsKey("to") ? Long.parseLong(params.get("to")) : Long.MAX_VALUE;
+        found = search.search(roomId, q, from, to, limit);
+      } catch (IllegalArgumentException e) {
+        respond(exchange, 400, error(e.getMessage()));
+        return;
+      }
+      respond(exchange, 200, render(roomId, found, null));
+    } catch (IOException | RuntimeException e) {
+      System.out.println("Search request failed: " + e.getMessage());
+      if (exchange.getResponseCode() == -1) {
+        respond(exchange, 500, error("Internal error"));
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /** Writes the page straight to JSON, which costs about half as much as building a tree. */
+  private static byte[] render(String roomId, List<LogEntry> messages, String nextCursor)
+      throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(256 * (messages.size() + 1));
+    try (JsonGenerator json = MAPPER.getFactory().createGenerator(out)) {
+      json.writeStartObject();
+      json.writeStringField("roomId", roomId);
+      json.writeArrayFieldStart("messages");
+      for (LogEntry entry : messages) {
+        QueueMessage qm = entry.decode();
+        json.writeStartObject();
+        json.writeNumberField("logTime", entry.getTime());
+        json.writeStringField("messageId", qm.getMessageId());
+        json.writeStringField("roomId", qm.getRoomId());
+        json.writeStringField("userId", qm.getUserId());
+        json.writeStringField("username", qm.getUsername());
+        json.writeStringField("message", qm.getMessage());
+        json.writeStringField("timestamp", qm.getTimestamp());
+        json.writeStringField("messageType", qm.getMessageType());
+        json.writeEndObject();
+      }
+      json.writeEndArray();
+      json.writeStringField("nextCursor", nextCursor);
+      json.writeEndObject();
+    }
+    return out.toByteArray();
+  }
+
+  private static Map<String, String> query(String raw) {
+    Map<String, String> params = new HashMap<>();
+    if (raw == null) {
+      return params;
+    }
+    for (String pair : raw.split("&")) {
+      int eq = pair.indexOf('=');
+      if (eq > 0) {
+        params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+            URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+      }
+    }
+    return params;
+  }
+
+  private static byte[] error(String message) throws IOException {
+    return MAPPER.writeValueAsBytes(Map.of("error", message));
+  }
+
+  private static void respond(HttpExchange exchange, int status, byte[] response)
+      throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, response.length);
+    try (OutputStream os = exchange.getResponseBody()) {
+      os.write(response);
+    }
+  }
+
+  @Override
+  public void close() {
+    server.stop(1);
+    executor.shutdownNow();
+  }
+}
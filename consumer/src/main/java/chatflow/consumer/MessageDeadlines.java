@@ -0,0 +1,72 @@
+package chatflow.consumer;
+
+import chatflow.consumer.model.QueueMessage;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maximum age of a message per message type, measured from the time the server received it.
+ *
+ * <p>Mirrors the server's deadlines: a message older than its type's maximum age is stale and
+ * is acked without being broadcast, so a consumer that fell behind catches up on fresh traffic
+ * instead of delivering a backlog nobody is waiting for.
+ */
+public final class MessageDeadlines {
+
+  /** Deadlines that never expire anything. */
+  public static final MessageDeadlines NONE = new MessageDeadlines(Map.of(), 0L);
+
+  private static final String ANY_TYPE = "*";
+
+  private final Map<String, Long> maxAgeByType;
+  private final long defaultMaxAgeMs;
+
+  private MessageDeadlines(Map<String, Long> maxAgeByType, long defaultMaxAgeMs) {
+    this.maxAgeByType = Map.copyOf(maxAgeByType);
+    this.defaultMaxAgeMs = defaultMaxAgeMs;
+  }
+
+  /**
+   * Parses a spec such as {@code TEXT=5000,JOIN=30000,*=60000}; {@code *} applies to types not
+   * listed. An empty or null spec disables deadlines.
+   *
+   * @param spec comma-separated {@code TYPE=milliseconds} entries
+   * @return deadlines
+   */
+  public static MessageDeadlines parse(String spec) {
+    if (spec == null || spec.isBlank()) {
+      return NONE;
+    }
+    Map<String, Long> byType = new HashMap<>();
+    long defaultMaxAge = 0L;
+    for (String entry : spec.split(",")) {
+      String[] typeAndAge = entry.split("=", 2);
+      if (typeAndAge.length != 2) {
+        throw new IllegalArgumentException("Max age entry must be TYPE=ms: " + entry);
+      }
+      String type = typeAndAge[0].trim();
+      long maxAge = Long.parseLong(typeAndAge[1].trim());
+      if (maxAge < 0) {
+        throw new IllegalArgumentException("Max age must be >= 0: " + entry);
+      }
+      if (ANY_TYPE.equals(type)) {
+        defaultMaxAge = maxAge;
+      } else {
+        byType.put(type, maxAge);
+      }
+    }
+    return new MessageDeadlines(byType, defaultMaxAge);
+  }
+
+  /**
+   * Returns whether the message is older than its type's maximum age.
+   *
+   * @param msg queue message
+   * @param nowMillis current epoch milliseconds
+   */
+  public boolean isStale(QueueMessage msg, long nowMillis) {
+    Long maxAge = msg.getMessageType() == null ? null : maxAgeByType.get(msg.getMessageType());
+    long limit = maxAge != null ? maxAge : defaultMaxAgeMs;
+    return limit > 0 && msg.getReceivedAt() > 0 && nowMillis - msg.getReceivedAt() >= limit;
+  }
+}
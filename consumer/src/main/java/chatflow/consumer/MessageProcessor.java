@@ -0,0 +1,167 @@
+package chatflow.consumer;
+
+import chatflow.consumer.broadcast.BroadcastSink;
+import chatflow.consumer.codec.BinaryQueueMessageCodec;
+import chatflow.consumer.model.BroadcastRequest;
+import chatflow.consumer.model.QueueMessage;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Turns a raw queue delivery into a {@link BroadcastRequest} and hands it to a sink.
+ *
+ * <p>This class has no broker dependency, so it can be driven by RabbitMQ deliveries or by an
+ * in-process stand-in.
+ *
+ * <p>Messages older than their type's maximum age are not decoded into requests; they are
+ * counted as stale and the caller acks them without delivering. Callers that keep every
+ * message, stale or not, {@link #parse} it and check {@link #isStale} themselves.
+ */
+public final class MessageProcessor {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper()
+      .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+  private final BroadcastSink sink;
+  private final ConsumerMetrics metrics;
+  private final MessageDeadlines deadlines;
+
+  /**
+   * Creates a processor that never treats a message as stale.
+   *
+   * @param sink broadcast destination
+   * @param metrics consumer metrics
+   */
+  public MessageProcessor(BroadcastSink sink, ConsumerMetrics metrics) {
+    this(sink, metrics, MessageDeadlines.NONE);
+  }
+
+  /**
+   * Creates a processor.
+   *
+   * @param sink broadcast destination
+   * @param metrics consumer metrics
+   * @param deadlines maximum message age per type
+   */
+  public MessageProcessor(BroadcastSink sink, ConsumerMetrics metrics,
+      MessageDeadlines deadlines) {
+    this.sink = Objects.requireNonNull(sink, "sink");
+    this.metrics = Objects.requireNonNull(metrics, "metrics");
+    this.deadlines = Objects.requireNonNull(deadlines, "deadlines");
+  }
+
+  /**
+   * Decodes a JSON delivery body.
+   *
+   * @param body JSON-encoded {@link QueueMessage}
+   * @return broadcast request, or null if the message is stale
+   * @throws IOException if the body is not a valid queue message
+   */
+  public BroadcastRequest decode(byte[] body) throws IOException {
+    return decode(body, null);
+  }
+
+  /**
+   * Decodes a delivery body in the format named by its content type.
+   *
+   * @param body encoded {@link QueueMessage}
+   * @param contentType AMQP content type; anything but the binary type is read as JSON
+   * @return broadcast request, or null if the message is stale
+   * @throws IOException if the body is not a valid queue message
+   */
+  public BroadcastRequest decode(byte[] body, String contentType) throws IOException {
+    QueueMessage qm = parse(body, contentType);
+    return isStale(qm) ? null : BroadcastRequest.from(qm);
+  }
+
+  /**
+   * Decodes a delivery body without checking its age.
+   *
+   * @param body encoded {@link QueueMessage}
+   * @param contentType AMQP content type; anything but the binary type is read as JSON
+   * @return queue message
+   * @throws IOException if the body is not a valid queue message
+   */
+  public QueueMessage parse(byte[] body, String contentType) throws IOException {
+    QueueMessage qm = BinaryQueueMessageCodec.CONTENT_TYPE.equals(contentType)
+        ? BinaryQueueMessageCodec.INSTANCE.decode(body)
+        : MAPPER.readValue(body, QueueMessage.class);
+    if (qm.getRoomId() == null || qm.getMessageId() == null) {
+      throw new IOException("Queue message without roomId or messageId");
+    }
+    return qm;
+  }
+
+  /**
+   * Returns whether a message is older than its type's maximum age, counting it as stale if so.
+   *
+   * @param qm parsed queue message
+   * @return whether the message should not be delivered
+   */
+  public boolean isStale(QueueMessage qm) {
+    if (deadlines.isStale(qm, System.currentTimeMillis())) {
+      metrics.recordStale();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Delivers a decoded request to the sink and records its processing latency.
+   *
+   * @param request decoded request
+   * @param startNanos {@link System#nanoTime()} when the delivery was received
+   * @param publishedAtMicros server publish time in epoch microseconds, or 0 if unknown
+   * @return future completed when the sink has delivered the request; completes exceptionally
+   *     if the message should be redelivered
+   */
+  public CompletableFuture<Void> deliver(BroadcastRequest request, long startNanos,
+      long publishedAtMicros) {
+    return deliver(request, startNanos, publishedAtMicros, false);
+  }
+
+  /**
+   * Delivers a decoded request to the sink, ahead of queued requests if it is urgent, and
+   * records its processing latency.
+   *
+   * @param request decoded request
+   * @param startNanos {@link System#nanoTime()} when the delivery was received
+   * @param publishedAtMicros server publish time in epoch microseconds, or 0 if unknown
+   * @param urgent whether the request came from a control queue
+   * @return future completed when the sink has delivered the request; completes exceptionally
+   *     if the message should be redelivered
+   */
+  public CompletableFuture<Void> deliver(BroadcastRequest request, long startNanos,
+      long publishedAtMicros, boolean urgent) {
+    CompletableFuture<Void> delivered;
+    try {
+      delivered = urgent ? sink.deliverUrgent(request) : sink.deliver(request);
+    } catch (RuntimeException e) {
+      delivered = CompletableFuture.failedFuture(e);
+    }
+    return delivered.whenComplete((v, e) -> {
+      if (e == null) {
+        metrics.recordConsumed(System.nanoTime() - startNanos);
+        if (publishedAtMicros > 0) {
+          long e2e = ConsumerMetrics.nowMicros() - publishedAtMicros;
+          metrics.recordEndToEnd(e2e);
+          if (urgent) {
+            metrics.recordControlEndToEnd(e2e);
+          }
+        }
+      } else {
+        metrics.recordFailed();
+      }
+    });
+  }
+
+  /**
+   * Returns the metrics this processor records into.
+   */
+  public ConsumerMetrics getMetrics() {
+    return metrics;
+  }
+}
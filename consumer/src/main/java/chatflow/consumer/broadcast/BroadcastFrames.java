@@ -0,0 +1,130 @@
+package chatflow.consumer.broadcast;
+
+import chatflow.consumer.model.BroadcastRequest;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Wire format of the internal consumer-to-server broadcast channel.
+ *
+ * <p>Every frame is an {@code int} length followed by that many payload bytes. The first
+ * payload byte is the frame type:
+ * <ul>
+ *   <li>{@link #HELLO} (consumer to server, first frame): the shared secret as a modified
+ *       UTF-8 string. The server grants credits only after a matching hello.</li>
+ *   <li>{@link #BATCH} (consumer to server): {@code long batchId}, {@code int count} of at
+ *       most {@link #MAX_BATCH_REQUESTS}, then {@code count} requests, each as nine nullable
+ *       strings.</li>
+ *   <li>{@link #CREDIT} (server to consumer): {@code long batchId} of the batch just
+ *       processed (0 for the initial grant) and {@code int credits} granted.</li>
+ * </ul>
+ * Must stay in sync with {@code chatflow.server.broadcast.BroadcastFrames} in server-v2.
+ */
+public final class BroadcastFrames {
+
+  /** Frame type of a request batch. */
+  public static final byte BATCH = 1;
+
+  /** Frame type of a credit grant. */
+  public static final byte CREDIT = 2;
+
+  /** Frame type of the handshake that carries the shared secret. */
+  public static final byte HELLO = 3;
+
+  /** Upper bound on the requests in one batch; the server rejects larger batches. */
+  public static final int MAX_BATCH_REQUESTS = 4096;
+
+  /** Upper bound on a frame payload, to reject corrupt length prefixes. */
+  public static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+
+  private BroadcastFrames() {}
+
+  /**
+   * Encodes a complete hello frame, length prefix included.
+   *
+   * @param secret shared secret of the broadcast ingress
+   * @return frame bytes
+   * @throws IOException if the secret cannot be encoded
+   */
+  public static byte[] encodeHello(String secret) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(0);
+    out.writeByte(HELLO);
+    out.writeUTF(secret);
+    return withLength(bytes.toByteArray());
+  }
+
+  /**
+   * Encodes a complete batch frame, length prefix included.
+   *
+   * @param batchId batch id, echoed back in the credit for this batch
+   * @param requests requests in the batch
+   * @return frame bytes
+   * @throws IOException if a field cannot be encoded
+   */
+  public static byte[] encodeBatch(long batchId, List<BroadcastRequest> requests)
+      throws IOException {
+    if (requests.size() > MAX_BATCH_REQUESTS) {
+      throw new IOException("Batch too large: " + requests.size());
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + requests.size() * 256);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(0);
+    out.writeByte(BATCH);
+    out.writeLong(batchId);
+    out.writeInt(requests.size());
+    for (BroadcastRequest r : requests) {
+      writeString(out, r.getMessageId());
+      writeString(out, r.getRoomId());
+      writeString(out, r.getUserId());
+      writeString(out, r.getUsername());
+      writeString(out, r.getMessage());
+      writeString(out, r.getTimestamp());
+      writeString(out, r.getMessageType());
+      writeString(out, r.getServerId());
+      writeString(out, r.getClientIp());
+    }
+    return withLength(bytes.toByteArray());
+  }
+
+  /** Fills in the length prefix reserved at the start of a frame. */
+  private static byte[] withLength(byte[] frame) throws IOException {
+    int length = frame.length - 4;
+    if (length > MAX_FRAME_BYTES) {
+      throw new IOException("Batch frame too large: " + length);
+    }
+    frame[0] = (byte) (length >>> 24);
+    frame[1] = (byte) (length >>> 16);
+    frame[2] = (byte) (length >>> 8);
+    frame[3] = (byte) length;
+    return frame;
+  }
+
+  /**
+   * Reads one credit frame.
+   *
+   * @param in input stream
+   * @return {@code {batchId, credits}}
+   * @throws IOException if the stream fails or the frame is not a credit
+   */
+  public static long[] readCredit(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length != 1 + 8 + 4 || in.readByte() != CREDIT) {
+      throw new IOException("Unexpected frame from server");
+    }
+    long batchId = in.readLong();
+    int credits = in.readInt();
+    return new long[] {batchId, credits};
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package chatflow.consumer.broadcast;
+
+import chatflow.consumer.model.BroadcastRequest;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Destination for broadcast requests produced by the consumer.
+ */
+public interface BroadcastSink extends AutoCloseable {
+
+  /**
+   * Delivers the given request.
+   *
+   * <p>Sinks may complete asynchronously and out of order; the returned future completes
+   * exceptionally if the message should be redelivered.
+   *
+   * @param request broadcast request
+   * @return future completed once the request has been delivered
+   */
+  CompletableFuture<Void> deliver(BroadcastRequest request);
+
+  /**
+   * Delivers a control request ahead of requests already waiting in the sink.
+   *
+   * @param request broadcast request
+   * @return future completed once the request has been delivered
+   */
+  default CompletableFuture<Void> deliverUrgent(BroadcastRequest request) {
+    return deliver(request);
+  }
+
+  /**
+   * Closes any underlying resources.
+   *
+   * @throws Exception if close fails
+   */
+  @Override
+  default void close() throws Exception {
+  }
+}
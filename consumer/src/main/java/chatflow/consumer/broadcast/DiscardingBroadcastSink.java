@@ -0,0 +1,15 @@
+package chatflow.consumer.broadcast;
+
+import chatflow.consumer.model.BroadcastRequest;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sink that drops every request; used when no broadcast target is configured.
+ */
+public final class DiscardingBroadcastSink implements BroadcastSink {
+
+  @Override
+  public CompletableFuture<Void> deliver(BroadcastRequest request) {
+    return CompletableFuture.completedFuture(null);
+  }
+}
@@ -0,0 +1,143 @@
+package chatflow.consumer.broadcast;
+
+import chatflow.consumer.model.BroadcastRequest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sink that delivers broadcast requests to the ingress endpoint of every target server.
+ *
+ * <p>Each server only broadcasts to the sessions it owns, so a request is sent to all
+ * targets, each over its own batching {@link ServerLink}. A target whose link is down is
+ * skipped: its clients have lost their sessions and reconnect to another server, and its
+ * link keeps reconnecting in the background. The delivery completes once every target it was
+ * sent to has answered, and fails only if none of them processed it. When no link is up at
+ * all, the request is queued on every link and completes as soon as one server has processed
+ * it, so an outage of all servers does not spin the broker in a requeue loop.
+ */
+public final class ServerBroadcastSink implements BroadcastSink {
+
+  private final List<ServerLink> links = new ArrayList<>();
+
+  private final LongAdder skipped = new LongAdder();
+  private final LongAdder targetFailures = new LongAdder();
+
+  /**
+   * Creates a sink.
+   *
+   * @param targets comma-separated {@code host:port} list of broadcast ingress endpoints
+   * @param secret shared secret of the broadcast ingress
+   * @param maxBatch maximum requests per batch
+   * @param lingerMicros maximum time to wait for a batch to fill
+   */
+  public ServerBroadcastSink(String targets, String secret, int maxBatch, long lingerMicros) {
+    for (String target : targets.split(",")) {
+      String t = target.trim();
+      if (t.isEmpty()) {
+        continue;
+      }
+      int colon = t.lastIndexOf(':');
+      if (colon < 1) {
+        throw new IllegalArgumentException("Broadcast target must be host:port: " + t);
+      }
+      links.add(new ServerLink(t.substring(0, colon), Integer.parseInt(t.substring(colon + 1)),
+          secret, maxBatch, lingerMicros));
+    }
+    if (links.isEmpty()) {
+      throw new IllegalArgumentException("No broadcast targets configured");
+    }
+  }
+
+  @Override
+  public CompletableFuture<Void> deliver(BroadcastRequest request) {
+    return submit(request, false);
+  }
+
+  @Override
+  public CompletableFuture<Void> deliverUrgent(BroadcastRequest request) {
+    return submit(request, true);
+  }
+
+  private CompletableFuture<Void> submit(BroadcastRequest request, boolean urgent) {
+    if (links.size() == 1) {
+      return links.get(0).submit(request, urgent);
+    }
+    List<ServerLink> targets = new ArrayList<>(links.size());
+    for (ServerLink link : links) {
+      if (link.isUp()) {
+        targets.add(link);
+      }
+    }
+    boolean waitForAll = !targets.isEmpty();
+    if (waitForAll) {
+      skipped.add(links.size() - targets.size());
+    } else {
+      targets.addAll(links);
+    }
+
+    CompletableFuture<Void> result = new CompletableFuture<>();
+    AtomicInteger remaining = new AtomicInteger(targets.size());
+    AtomicBoolean delivered = new AtomicBoolean();
+    for (ServerLink link : targets) {
+      link.submit(request, urgent).whenComplete((v, e) -> {
+        if (e == null) {
+          delivered.set(true);
+          if (!waitForAll) {
+            result.complete(null);
+          }
+        } else {
+          targetFailures.increment();
+        }
+        if (remaining.decrementAndGet() == 0) {
+          if (delivered.get()) {
+            result.complete(null);
+          } else {
+            result.completeExceptionally(e);
+          }
+        }
+      });
+    }
+    return result;
+  }
+
+  /**
+   * Returns the number of times a request skipped a target whose link was down.
+   */
+  public long skipped() {
+    return skipped.sum();
+  }
+
+  /**
+   * Returns the number of times a target's link failed a request.
+   */
+  public long targetFailures() {
+    return targetFailures.sum();
+  }
+
+  /**
+   * Returns a one-line summary of the links.
+   *
+   * @return report line
+   */
+  public String report() {
+    int up = 0;
+    for (ServerLink link : links) {
+      if (link.isUp()) {
+        up++;
+      }
+    }
+    return String.format("broadcast: targets=%d up=%d skipped=%d target_failures=%d",
+        links.size(), up, skipped.sum(), targetFailures.sum());
+  }
+
+  @Override
+  public void close() throws Exception {
+    for (ServerLink link : links) {
+      link.close();
+    }
+  }
+}
@@ -0,0 +1,326 @@
+package chatflow.consumer.broadcast;
+
+import chatflow.consumer.model.BroadcastRequest;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent, pipelined connection to one server's broadcast ingress.
+ *
+ * <p>Requests are queued and a sender thread packs them into batches of up to
+ * {@code maxBatch}, waiting at most {@code lingerMicros} for a batch to fill. A batch is sent
+ * only while the server has granted credits, so at most that many batches are in flight. The
+ * credit returned for a batch completes the futures of its requests. Every connection opens
+ * with a hello frame carrying the shared secret, and the link counts as up once the server
+ * answers with its credit grant. If the connection drops, in-flight and queued futures fail,
+ * so that no delivery waits on a dead server, and the link reconnects. Requests submitted
+ * while the link is down wait for the reconnect.
+ *
+ * <p>Urgent requests wait in a queue of their own and are taken ahead of every queued normal
+ * request when a batch is packed, so control messages skip a backlog of chat traffic.
+ */
+public final class ServerLink implements AutoCloseable {
+
+  private static final long RECONNECT_BACKOFF_MS = 500L;
+
+  /** Queued after an urgent request to wake a sender blocked on the normal queue. */
+  private static final Pending WAKE = new Pending(null);
+
+  private static final class Pending {
+    private final BroadcastRequest request;
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+    private Pending(BroadcastRequest request) {
+      this.request = request;
+    }
+  }
+
+  private final String host;
+  private final int port;
+  private final String secret;
+  private final int maxBatch;
+  private final long lingerNanos;
+  private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+  private final Queue<Pending> urgent = new ConcurrentLinkedQueue<>();
+  private final Map<Long, List<Pending>> inFlight = new ConcurrentHashMap<>();
+  private final Semaphore credits = new Semaphore(0);
+  private final Thread sender;
+
+  private volatile boolean closed;
+  private volatile boolean up;
+  private volatile Socket socket;
+  private long nextBatchId = 1;
+
+  /**
+   * Creates a link and starts its sender thread.
+   *
+   * @param host server host
+   * @param port broadcast ingress port
+   * @param secret shared secret of the broadcast ingress
+   * @param maxBatch maximum requests per batch
+   * @param lingerMicros maximum time to wait for a batch to fill
+   */
+  public ServerLink(String host, int port, String secret, int maxBatch, long lingerMicros) {
+    this.host = Objects.requireNonNull(host, "host");
+    this.port = port;
+    this.secret = Objects.requireNonNull(secret, "secret");
+    if (maxBatch < 1 || maxBatch > BroadcastFrames.MAX_BATCH_REQUESTS) {
+      throw new IllegalArgumentException(
+          "maxBatch must be between 1 and " + BroadcastFrames.MAX_BATCH_REQUESTS);
+    }
+    this.maxBatch = maxBatch;
+    this.lingerNanos = lingerMicros * 1_000L;
+    this.sender = new Thread(this::sendLoop, "server-link-" + host + ":" + port);
+    sender.setDaemon(true);
+    sender.start();
+  }
+
+  /**
+   * Returns whether the link is connected and the server has granted credits.
+   */
+  public boolean isUp() {
+    return up;
+  }
+
+  /**
+   * Queues a request for delivery.
+   *
+   * @param request broadcast request
+   * @return future completed when the server has broadcast the request
+   */
+  public CompletableFuture<Void> submit(BroadcastRequest request) {
+    return submit(request, false);
+  }
+
+  /**
+   * Queues a request for delivery, ahead of normal requests if it is urgent.
+   *
+   * @param request broadcast request
+   * @param urgent whether the request skips queued normal requests
+   * @return future completed when the server has broadcast the request
+   */
+  public CompletableFuture<Void> submit(BroadcastRequest request, boolean urgent) {
+    if (closed) {
+      return CompletableFuture.failedFuture(new IOException("Link closed"));
+    }
+    Pending pending = new Pending(request);
+    if (urgent) {
+      this.urgent.add(pending);
+      queue.add(WAKE);
+    } else {
+      queue.add(pending);
+    }
+    return pending.future;
+  }
+
+  private Pending next(long timeoutNanos) throws InterruptedException {
+    long deadline = System.nanoTime() + timeoutNanos;
+    while (true) {
+      Pending p = urgent.poll();
+      if (p != null) {
+        return p;
+      }
+      long remaining = deadline - System.nanoTime();
+      p = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+      if (p != WAKE) {
+        return p;
+      }
+    }
+  }
+
+  private void sendLoop() {
+    List<Pending> batch = new ArrayList<>(maxBatch);
+    List<BroadcastRequest> requests = new ArrayList<>(maxBatch);
+    while (!closed) {
+      try {
+        Socket s = socket;
+        if (s == null || s.isClosed()) {
+          // Batches sent on a dead connection will never get their credit back.
+          disconnect(new IOException("Connection lost"));
+          s = connect();
+        }
+
+        Pending first = next(TimeUnit.MILLISECONDS.toNanos(100));
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + lingerNanos;
+        while (batch.size() < maxBatch) {
+          Pending next = next(deadline - System.nanoTime());
+          if (next == null) {
+            break;
+          }
+          batch.add(next);
+          if (urgent.isEmpty()) {
+            queue.drainTo(batch, maxBatch - batch.size());
+            batch.removeIf(p -> p == WAKE);
+          }
+        }
+
+        while (!credits.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+          if (s.isClosed()) {
+            throw new IOException("Connection lost while waiting for credits");
+          }
+        }
+
+        for (Pending p : batch) {
+          requests.add(p.request);
+        }
+        long batchId = nextBatchId++;
+        inFlight.put(batchId, new ArrayList<>(batch));
+        batch.clear();
+        OutputStream out = s.getOutputStream();
+        out.write(BroadcastFrames.encodeBatch(batchId, requests));
+        out.flush();
+        requests.clear();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      } catch (IOException e) {
+        fail(batch, e);
+        batch.clear();
+        requests.clear();
+        disconnect(e);
+        sleepQuietly(RECONNECT_BACKOFF_MS);
+      }
+    }
+    IOException closedError = new IOException("Link closed");
+    fail(batch, closedError);
+    disconnect(closedError);
+    List<Pending> rest = new ArrayList<>(urgent);
+    queue.drainTo(rest);
+    rest.removeIf(p -> p == WAKE);
+    fail(rest, closedError);
+  }
+
+  private Socket connect() throws IOException {
+    Socket s = new Socket();
+    s.setTcpNoDelay(true);
+    s.connect(new InetSocketAddress(host, port), 5_000);
+    OutputStream out = s.getOutputStream();
+    out.write(BroadcastFrames.encodeHello(secret));
+    out.flush();
+    credits.drainPermits();
+    synchronized (this) {
+      this.socket = s;
+    }
+    Thread reader = new Thread(() -> readLoop(s), "server-link-reader-" + host + ":" + port);
+    reader.setDaemon(true);
+    reader.start();
+    return s;
+  }
+
+  private void readLoop(Socket s) {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()))) {
+      while (true) {
+        long[] credit = BroadcastFrames.readCredit(in);
+        if (credit[0] == 0L) {
+          markUp(s);
+        }
+        List<Pending> done = inFlight.remove(credit[0]);
+        if (done != null) {
+          for (Pending p : done) {
+            p.future.complete(null);
+          }
+        }
+        credits.release((int) credit[1]);
+      }
+    } catch (IOException e) {
+      // Fail the batches in flight now, so their deliveries are requeued without waiting for
+      // the sender to notice the dead connection.
+      disconnect(s, e);
+    }
+  }
+
+  /**
+   * Closes a connection and, if it is still the current one, fails its in-flight batches. A
+   * reader of an old connection must not fail batches already sent on its replacement.
+   */
+  private synchronized void disconnect(Socket expected, IOException cause) {
+    if (socket == expected) {
+      disconnect(cause);
+    } else {
+      closeQuietly(expected);
+    }
+  }
+
+  private synchronized void markUp(Socket s) {
+    if (socket == s) {
+      up = true;
+    }
+  }
+
+  /**
+   * Closes the current connection and fails its in-flight batches. When the link was up,
+   * queued requests fail as well: their senders should not wait for a server that may not
+   * come back. Requests queued while the link was already down keep waiting.
+   */
+  private synchronized void disconnect(IOException cause) {
+    Socket s = socket;
+    socket = null;
+    if (s != null) {
+      closeQuietly(s);
+    }
+    for (Long batchId : inFlight.keySet()) {
+      List<Pending> lost = inFlight.remove(batchId);
+      if (lost != null) {
+        fail(lost, cause);
+      }
+    }
+    if (up) {
+      up = false;
+      List<Pending> queued = new ArrayList<>();
+      for (Pending p = urgent.poll(); p != null; p = urgent.poll()) {
+        queued.add(p);
+      }
+      queue.drainTo(queued);
+      queued.removeIf(p -> p == WAKE);
+      fail(queued, cause);
+    }
+  }
+
+  private static void fail(List<Pending> pending, Throwable cause) {
+    for (Pending p : pending) {
+      p.future.completeExceptionally(cause);
+    }
+  }
+
+  private static void closeQuietly(Socket s) {
+    try {
+      s.close();
+    } catch (IOException ignored) {
+    }
+  }
+
+  private static void sleepQuietly(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public void close() throws InterruptedException {
+    closed = true;
+    sender.interrupt();
+    sender.join(5_000);
+  }
+}
@@ -0,0 +1,209 @@
+package chatflow.consumer.codec;
+
+import chatflow.consumer.model.QueueMessage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reader side of the server's binary {@code QueueMessage} codec; must stay in sync with
+ * {@code chatflow.server.queue.codec.BinaryQueueMessageCodec}.
+ *
+ * <p>Layout: a version byte, a 2-byte bit set of the fields present, a 2-byte bit set of the
+ * fields written in compact form, then every present field in declaration order. A field is
+ * either a varint length followed by raw UTF-8, or its compact form: a UUID message id as 16
+ * bytes, a numeric room or user id as a varint, a known message type as one byte. The
+ * server receive time follows the string fields as a varint of epoch milliseconds; decoders
+ * that predate it ignore it, since it is the last field. Room ids,
+ * server ids and client IPs are decoded into shared instances.
+ */
+public final class BinaryQueueMessageCodec {
+
+  /** AMQP content type of binary bodies. */
+  public static final String CONTENT_TYPE = "application/vnd.chatflow.message";
+
+  /** Format version this consumer understands. */
+  public static final byte VERSION = 1;
+
+  /** Shared instance. */
+  public static final BinaryQueueMessageCodec INSTANCE = new BinaryQueueMessageCodec();
+
+  private static final int MESSAGE_ID = 0;
+  private static final int ROOM_ID = 1;
+  private static final int USER_ID = 2;
+  private static final int USERNAME = 3;
+  private static final int MESSAGE = 4;
+  private static final int TIMESTAMP = 5;
+  private static final int MESSAGE_TYPE = 6;
+  private static final int SERVER_ID = 7;
+  private static final int CLIENT_IP = 8;
+  private static final int FIELDS = 9;
+  private static final int RECEIVED_AT = 9;
+
+  private static final int MASKS_END = 5;
+
+  private static final String[] MESSAGE_TYPES = {"TEXT", "JOIN", "LEAVE"};
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final StringTable roomIds = new StringTable();
+  private final StringTable serverIds = new StringTable();
+  private final StringTable clientIps = new StringTable();
+
+  private BinaryQueueMessageCodec() {}
+
+  /**
+   * Decodes a binary body.
+   *
+   * @param body encoded body
+   * @return queue message
+   * @throws IOException if the body is malformed or has an unknown version
+   */
+  public QueueMessage decode(byte[] body) throws IOException {
+    try {
+      Reader r = new Reader(body);
+      byte version = body[0];
+      if (version != VERSION) {
+        throw new IOException("Unsupported binary message version " + version);
+      }
+      int present = (body[1] & 0xFF) << 8 | (body[2] & 0xFF);
+      int compact = (body[3] & 0xFF) << 8 | (body[4] & 0xFF);
+      r.pos = MASKS_END;
+      String[] fields = new String[FIELDS];
+      for (int i = 0; i < FIELDS; i++) {
+        if ((present & (1 << i)) == 0) {
+          continue;
+        }
+        if ((compact & (1 << i)) == 0) {
+          fields[i] = r.string(tableFor(i));
+        } else if (i == MESSAGE_ID) {
+          fields[i] = r.uuid();
+        } else if (i == MESSAGE_TYPE) {
+          fields[i] = MESSAGE_TYPES[body[r.pos++]];
+        } else if (i == ROOM_ID) {
+          fields[i] = roomIds.number(r.varint());
+        } else {
+          fields[i] = Long.toString(r.varint());
+        }
+      }
+      long receivedAt = (present & (1 << RECEIVED_AT)) != 0 ? r.varint() : 0L;
+      return QueueMessage.of(fields[MESSAGE_ID], fields[ROOM_ID], fields[USER_ID],
+          fields[USERNAME], fields[MESSAGE], fields[TIMESTAMP], fields[MESSAGE_TYPE],
+          fields[SERVER_ID], fields[CLIENT_IP], receivedAt);
+    } catch (IndexOutOfBoundsException e) {
+      throw new IOException("Truncated binary message", e);
+    }
+  }
+
+  private StringTable tableFor(int field) {
+    switch (field) {
+      case ROOM_ID:
+        return roomIds;
+      case SERVER_ID:
+        return serverIds;
+      case CLIENT_IP:
+        return clientIps;
+      default:
+        return null;
+    }
+  }
+
+  /** Cursor over a body being decoded. */
+  private static final class Reader {
+    private final byte[] buf;
+    private int pos;
+
+    private Reader(byte[] buf) {
+      this.buf = buf;
+    }
+
+    private long varint() throws IOException {
+      long v = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        byte b = buf[pos++];
+        v |= (long) (b & 0x7F) << shift;
+        if (b >= 0) {
+          return v;
+        }
+      }
+      throw new IOException("Malformed varint");
+    }
+
+    private String string(StringTable table) throws IOException {
+      long len = varint();
+      if (len < 0 || len > buf.length - pos) {
+        throw new IOException("Invalid string length " + len);
+      }
+      int n = (int) len;
+      String s = table != null
+          ? table.get(buf, pos, n)
+          : new String(buf, pos, n, StandardCharsets.UTF_8);
+      pos += n;
+      return s;
+    }
+
+    private String uuid() {
+      char[] out = new char[36];
+      int o = 0;
+      for (int i = 0; i < 16; i++) {
+        if (i == 4 || i == 6 || i == 8 || i == 10) {
+          out[o++] = '-';
+        }
+        int b = buf[pos++] & 0xFF;
+        out[o++] = HEX[b >>> 4];
+        out[o++] = HEX[b & 0x0F];
+      }
+      return new String(out);
+    }
+  }
+
+  /**
+   * Small direct-mapped table of recently decoded strings. A hit returns the cached instance
+   * without allocating; a miss replaces the slot. Slots hold immutable entries, so racing
+   * decoder threads at worst overwrite each other's entry.
+   */
+  private static final class StringTable {
+    private static final int SLOTS = 256;
+    private static final int SMALL_NUMBERS = 1024;
+
+    private final Entry[] entries = new Entry[SLOTS];
+    private final String[] numbers = new String[SMALL_NUMBERS];
+
+    private static final class Entry {
+      private final byte[] utf8;
+      private final String value;
+
+      private Entry(byte[] utf8, String value) {
+        this.utf8 = utf8;
+        this.value = value;
+      }
+    }
+
+    private String get(byte[] buf, int off, int len) {
+      int h = 1;
+      for (int i = off; i < off + len; i++) {
+        h = 31 * h + buf[i];
+      }
+      int slot = (h ^ (h >>> 16)) & (SLOTS - 1);
+      Entry e = entries[slot];
+      if (e != null && Arrays.equals(e.utf8, 0, e.utf8.length, buf, off, off + len)) {
+        return e.value;
+      }
+      byte[] utf8 = Arrays.copyOfRange(buf, off, off + len);
+      String value = new String(utf8, StandardCharsets.UTF_8);
+      entries[slot] = new Entry(utf8, value);
+      return value;
+    }
+
+    private String number(long n) {
+      if (n < 0 || n >= SMALL_NUMBERS) {
+        return Long.toString(n);
+      }
+      String s = numbers[(int) n];
+      if (s == null) {
+        s = Long.toString(n);
+        numbers[(int) n] = s;
+      }
+      return s;
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package chatflow.consumer.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reader side of the server's {@code PayloadCompressor}; must stay in sync with
+ * {@code chatflow.server.queue.codec.PayloadCompressor}.
+ *
+ * <p>Bodies published with content encoding {@value #CONTENT_ENCODING} are zlib streams,
+ * optionally compressed against a preset dictionary. The dictionary file must be the one the
+ * server uses; a body that needs a different dictionary is rejected.
+ */
+public final class PayloadDecompressor {
+
+  /** AMQP content encoding of compressed bodies. */
+  public static final String CONTENT_ENCODING = "deflate";
+
+  /** Largest body a compressed payload may expand to. */
+  private static final int MAX_INFLATED_BYTES = 16 * 1024 * 1024;
+
+  private final byte[] dictionary;
+  private final int dictionaryId;
+  private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+  private final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[4096]);
+
+  /**
+   * Creates a decompressor.
+   *
+   * @param dictionary preset dictionary, or null for none
+   */
+  public PayloadDecompressor(byte[] dictionary) {
+    this.dictionary = dictionary == null || dictionary.length == 0 ? null : dictionary.clone();
+    if (this.dictionary == null) {
+      this.dictionaryId = 0;
+    } else {
+      Adler32 adler = new Adler32();
+      adler.update(this.dictionary);
+      this.dictionaryId = (int) adler.getValue();
+    }
+  }
+
+  /**
+   * Creates a decompressor with the dictionary in a file.
+   *
+   * @param path dictionary file, or null or empty for none
+   * @return decompressor
+   * @throws IOException if the file cannot be read
+   */
+  public static PayloadDecompressor load(String path) throws IOException {
+    return new PayloadDecompressor(
+        path == null || path.isEmpty() ? null : Files.readAllBytes(Path.of(path)));
+  }
+
+  /**
+   * Restores a compressed body.
+   *
+   * @param body compressed body
+   * @return original body
+   * @throws IOException if the body is corrupt, too large or needs another dictionary
+   */
+  public byte[] decompress(byte[] body) throws IOException {
+    Inflater inflater = inflaters.get();
+    inflater.reset();
+    inflater.setInput(body);
+    ByteArrayOutputStream out = new ByteArrayOutputStream(body.length * 4);
+    byte[] chunk = buffers.get();
+    try {
+      while (!inflater.finished()) {
+        int n = inflater.inflate(chunk);
+        if (n > 0) {
+          out.write(chunk, 0, n);
+          if (out.size() > MAX_INFLATED_BYTES) {
+            throw new IOException("Compressed body expands beyond " + MAX_INFLATED_BYTES);
+          }
+        } else if (inflater.needsDictionary()) {
+          if (dictionary == null || inflater.getAdler() != dictionaryId) {
+            throw new IOException("Body was compressed with an unknown dictionary");
+          }
+          inflater.setDictionary(dictionary);
+        } else if (inflater.needsInput()) {
+          throw new IOException("Truncated compressed body");
+        }
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt compressed body", e);
+    }
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,120 @@
+package chatflow.consumer.model;
+
+/**
+ * Message envelope consumed from the message queue.
+ *
+ * <p>Mirrors the envelope published by the server.
+ */
+public final class QueueMessage {
+  private String messageId;
+  private String roomId;
+  private String userId;
+  private String username;
+  private String message;
+  private String timestamp;
+  private String messageType;
+  private String serverId;
+  private String clientIp;
+  private long receivedAt;
+
+  /**
+   * Creates an empty instance for JSON serialization/deserialization.
+   */
+  public QueueMessage() {}
+
+  /**
+   * Creates a queue message from its fields, e.g. when decoding a binary body.
+   *
+   * @param messageId unique message id
+   * @param roomId room id
+   * @param userId sender user id
+   * @param username sender username
+   * @param message message text
+   * @param timestamp client timestamp
+   * @param messageType message type
+   * @param serverId id of the server that accepted the message
+   * @param clientIp client ip
+   * @return queue message
+   */
+  public static QueueMessage of(String messageId, String roomId, String userId,
+      String username, String message, String timestamp, String messageType, String serverId,
+      String clientIp) {
+    return of(messageId, roomId, userId, username, message, timestamp, messageType, serverId,
+        clientIp, 0L);
+  }
+
+  /**
+   * Creates a queue message from its fields, including the time the server received it.
+   *
+   * @param messageId unique message id
+   * @param roomId room id
+   * @param userId sender user id
+   * @param username sender username
+   * @param message message text
+   * @param timestamp client timestamp
+   * @param messageType message type
+   * @param serverId id of the server that accepted the message
+   * @param clientIp client ip
+   * @param receivedAt server receive time in epoch milliseconds, or 0 if unknown
+   * @return queue message
+   */
+  public static QueueMessage of(String messageId, String roomId, String userId,
+      String username, String message, String timestamp, String messageType, String serverId,
+      String clientIp, long receivedAt) {
+    QueueMessage qm = new QueueMessage();
+    qm.messageId = messageId;
+    qm.roomId = roomId;
+    qm.userId = userId;
+    qm.username = username;
+    qm.message = message;
+    qm.timestamp = timestamp;
+    qm.messageType = messageType;
+    qm.serverId = serverId;
+    qm.clientIp = clientIp;
+    qm.receivedAt = receivedAt;
+    return qm;
+  }
+
+  public String getMessageId() {
+    return messageId;
+  }
+
+  public String getRoomId() {
+    return roomId;
+  }
+
+  public String getUserId() {
+    return userId;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  public String getMessage() {
+    return message;
+  }
+
+  public String getTimestamp() {
+    return timestamp;
+  }
+
+  public String getMessageType() {
+    return messageType;
+  }
+
+  public String getServerId() {
+    return serverId;
+  }
+
+  public String getClientIp() {
+    return clientIp;
+  }
+
+  /**
+   * Returns when the server received the message, in epoch milliseconds, or 0 if unknown.
+   */
+  public long getReceivedAt() {
+    return receivedAt;
+  }
+}
@@ -0,0 +1,167 @@
+package chatflow.consumer.rabbit;
+
+import com.rabbitmq.client.Channel;
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Batches manual acknowledgements for one channel.
+ *
+ * <p>Deliveries may complete in any order. The batcher records completions in a bit ring
+ * indexed by delivery tag and tracks the highest tag below which every delivery has
+ * completed. Only that contiguous prefix is acknowledged, with a single
+ * {@code basicAck(tag, multiple=true)} once {@code batchSize} deliveries are pending or the
+ * oldest pending completion is older than the flush interval. Failed deliveries are nacked
+ * individually and immediately, and are never covered by a multiple ack as its target tag.
+ */
+public final class AckBatcher {
+
+  private final Channel channel;
+  private final int batchSize;
+  private final long maxDelayNanos;
+
+  private long[] completed = new long[1];
+  private long[] failed = new long[1];
+  private long contiguous;
+  private long lastSuccess;
+  private long ackedUpTo;
+  private long firstPendingNanos;
+
+  /**
+   * Creates a batcher.
+   *
+   * @param channel channel whose deliveries are acknowledged
+   * @param batchSize number of completed deliveries that triggers an ack
+   * @param maxDelayMillis maximum time a completed delivery waits for its ack
+   */
+  public AckBatcher(Channel channel, int batchSize, long maxDelayMillis) {
+    this.channel = Objects.requireNonNull(channel, "channel");
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("batchSize must be >= 1");
+    }
+    this.batchSize = batchSize;
+    this.maxDelayNanos = maxDelayMillis * 1_000_000L;
+  }
+
+  /**
+   * Records a successfully processed delivery.
+   *
+   * @param deliveryTag delivery tag
+   * @throws IOException if the ack cannot be sent
+   */
+  public synchronized void ack(long deliveryTag) throws IOException {
+    mark(deliveryTag, false);
+    if (lastSuccess - ackedUpTo >= batchSize) {
+      flushLocked();
+    }
+  }
+
+  /**
+   * Rejects a delivery and records it as completed.
+   *
+   * @param deliveryTag delivery tag
+   * @param requeue whether the broker should redeliver the message
+   * @throws IOException if the nack cannot be sent
+   */
+  public synchronized void nack(long deliveryTag, boolean requeue) throws IOException {
+    channel.basicNack(deliveryTag, false, requeue);
+    mark(deliveryTag, true);
+  }
+
+  /**
+   * Acknowledges the completed prefix if its oldest entry has waited long enough.
+   *
+   * @throws IOException if the ack cannot be sent
+   */
+  public synchronized void flushIfDue() throws IOException {
+    if (lastSuccess > ackedUpTo && System.nanoTime() - firstPendingNanos >= maxDelayNanos) {
+      flushLocked();
+    }
+  }
+
+  /**
+   * Acknowledges the completed prefix regardless of batch size or age.
+   *
+   * @throws IOException if the ack cannot be sent
+   */
+  public synchronized void flush() throws IOException {
+    if (lastSuccess > ackedUpTo) {
+      flushLocked();
+    }
+  }
+
+  /**
+   * Returns the highest tag below which every delivery has completed.
+   */
+  public synchronized long contiguous() {
+    return contiguous;
+  }
+
+  private void flushLocked() throws IOException {
+    channel.basicAck(lastSuccess, true);
+    ackedUpTo = lastSuccess;
+  }
+
+  private void mark(long tag, boolean failure) {
+    if (tag <= contiguous) {
+      return;
+    }
+    ensureCapacity(tag - contiguous);
+    setBit(completed, tag);
+    if (failure) {
+      setBit(failed, tag);
+    }
+
+    long before = lastSuccess;
+    while (testBit(completed, contiguous + 1)) {
+      contiguous++;
+      clearBit(completed, contiguous);
+      if (testBit(failed, contiguous)) {
+        clearBit(failed, contiguous);
+      } else {
+        lastSuccess = contiguous;
+      }
+    }
+    if (before == ackedUpTo && lastSuccess > ackedUpTo) {
+      firstPendingNanos = System.nanoTime();
+    }
+  }
+
+  private void ensureCapacity(long span) {
+    long bits = (long) completed.length * 64;
+    if (span < bits) {
+      return;
+    }
+    long newBits = bits;
+    while (span >= newBits) {
+      newBits <<= 1;
+    }
+    long[] newCompleted = new long[(int) (newBits / 64)];
+    long[] newFailed = new long[newCompleted.length];
+    for (long t = contiguous + 1; t <= contiguous + bits; t++) {
+      if (testBit(completed, t)) {
+        setBit(newCompleted, t);
+      }
+      if (testBit(failed, t)) {
+        setBit(newFailed, t);
+      }
+    }
+    completed = newCompleted;
+    failed = newFailed;
+  }
+
+  private static boolean testBit(long[] ring, long tag) {
+    int bit = (int) (tag & ((long) ring.length * 64 - 1));
+    return (ring[bit >>> 6] & (1L << bit)) != 0;
+  }
+
+  private static void setBit(long[] ring, long tag) {
+    int bit = (int) (tag & ((long) ring.length * 64 - 1));
+    ring[bit >>> 6] |= 1L << bit;
+  }
+
+  private static void clearBit(long[] ring, long tag) {
+    int bit = (int) (tag & ((long) ring.length * 64 - 1));
+    ring[bit >>> 6] &= ~(1L << bit);
+  }
+}
@@ -0,0 +1,62 @@
+package chatflow.consumer.rabbit;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reader side of the server's batch envelope; must stay in sync with
+ * {@code chatflow.server.queue.rabbit.BatchEnvelope}.
+ *
+ * <p>Layout: one version byte, a 4-byte message count, then for every message a 4-byte
+ * length followed by that many bytes of the message body.
+ */
+public final class BatchEnvelope {
+
+  /** AMQP content type of an envelope. */
+  public static final String CONTENT_TYPE = "application/vnd.chatflow.batch";
+
+  /** Header naming the content type of the entries; JSON when absent. */
+  public static final String ENTRY_TYPE_HEADER = "x-entry-content-type";
+
+  /** Envelope format version this consumer understands. */
+  public static final byte VERSION = 1;
+
+  private BatchEnvelope() {}
+
+  /**
+   * Unpacks the message bodies of an envelope.
+   *
+   * @param envelope envelope bytes
+   * @return encoded messages in publish order
+   * @throws IOException if the envelope is truncated or has an unknown version
+   */
+  public static List<byte[]> decode(byte[] envelope) throws IOException {
+    try {
+      ByteBuffer buf = ByteBuffer.wrap(envelope);
+      byte version = buf.get();
+      if (version != VERSION) {
+        throw new IOException("Unsupported batch envelope version " + version);
+      }
+      int count = buf.getInt();
+      if (count < 0 || count > buf.remaining() / 4) {
+        throw new IOException("Invalid batch envelope count " + count);
+      }
+      List<byte[]> bodies = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        int length = buf.getInt();
+        if (length < 0 || length > buf.remaining()) {
+          throw new IOException("Invalid batch envelope entry length " + length);
+        }
+        byte[] body = new byte[length];
+        buf.get(body);
+        bodies.add(body);
+      }
+      return bodies;
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Truncated batch envelope", e);
+    }
+  }
+}
@@ -0,0 +1,348 @@
+package chatflow.consumer.rabbit;
+
+import chatflow.consumer.ConsumerConfig;
+import chatflow.consumer.MessageProcessor;
+import chatflow.consumer.codec.PayloadDecompressor;
+import chatflow.consumer.model.BroadcastRequest;
+import chatflow.consumer.model.QueueMessage;
+import chatflow.consumer.store.JdbcWriteBehind;
+import chatflow.consumer.store.MessageLog;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Delivery;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drains the room or partition queues bound to the chat exchange.
+ *
+ * <p>The consumer opens one channel per consumer thread. Each room is assigned to a thread by
+ * hashing its room id, and all of that room's queue is consumed on the thread's channel. With
+ * partitioned routing the queues are {@code part.<n>} instead (see {@link TopologyDeclarer}),
+ * assigned to threads round-robin, so parallelism is set by the partition count rather than
+ * the number of rooms. The RabbitMQ client dispatches a channel's deliveries one at a time, so
+ * messages of one queue are handled in queue order while different queues proceed in
+ * parallel.
+ *
+ * <p>A delivery may be a batch envelope published by the server's batching publisher; its
+ * messages are delivered in order and the delivery is acked once all of them are delivered,
+ * or requeued as a whole if any fails. Stale messages, single or batched, are acked without
+ * being delivered. Deliveries the server compressed are decompressed first.
+ *
+ * <p>With a {@link MessageLog}, every consumed message, stale ones included, is also appended
+ * to the log, and the delivery is acked only once the append is durable as well. A requeued
+ * delivery is appended once: the consumer remembers the appends of recent message ids and
+ * waits on the earlier append instead. That memory does not survive a restart, so a message
+ * redelivered to a new consumer process is logged again, and history and search are
+ * at-least-once. With a {@link JdbcWriteBehind}, every consumed message is also queued for
+ * the relational store, and the delivery is acked only once its row is committed, so a slow
+ * store holds back acks until the prefetch window stops deliveries.
+ *
+ * <p>Acknowledgements are batched per channel by an {@link AckBatcher}, and a timer flushes
+ * batches that have not filled up within the configured interval.
+ *
+ * <p>With control queues enabled, each queue also gets a {@code <queue>.control} queue for
+ * the server's control lane. All control queues are consumed over a second connection with a
+ * thread and channel of their own, so control messages never wait behind room-queue
+ * deliveries on the socket, the prefetch window or the consumer threads. They are acked one
+ * by one and handed to the sink as urgent requests.
+ */
+public final class RoomQueueConsumer implements AutoCloseable {
+
+  /** Header set by the server publisher with the publish time in epoch microseconds. */
+  public static final String PUBLISHED_AT_HEADER = "x-published-us";
+
+  /** Suffix of the control queue names and routing keys. */
+  public static final String CONTROL_SUFFIX = ".control";
+
+  /** Number of message ids whose log appends are remembered to skip requeued duplicates. */
+  private static final int RECENT_APPENDS = 65_536;
+
+  private final ConsumerConfig config;
+  private final MessageProcessor processor;
+  private final PayloadDecompressor decompressor;
+  private final MessageLog log;
+  private final JdbcWriteBehind store;
+  private final List<Channel> channels = new ArrayList<>();
+  private final List<AckBatcher> batchers = new ArrayList<>();
+  private final Map<String, CompletableFuture<Void>> recentAppends =
+      new LinkedHashMap<>(1024, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<Void>> eldest) {
+          return size() > RECENT_APPENDS;
+        }
+      };
+
+  private ExecutorService executor;
+  private ScheduledExecutorService ackTimer;
+  private Connection connection;
+  private ExecutorService controlExecutor;
+  private Connection controlConnection;
+
+  /**
+   * Creates a consumer.
+   *
+   * @param config consumer configuration
+   * @param processor delivery processor
+   * @param decompressor decompresses deliveries published compressed
+   * @param log log every delivered message is appended to, or null for none
+   * @param store relational store every delivered message is written to, or null for none
+   */
+  public RoomQueueConsumer(ConsumerConfig config, MessageProcessor processor,
+      PayloadDecompressor decompressor, MessageLog log, JdbcWriteBehind store) {
+    this.config = Objects.requireNonNull(config, "config");
+    this.processor = Objects.requireNonNull(processor, "processor");
+    this.decompressor = Objects.requireNonNull(decompressor, "decompressor");
+    this.log = log;
+    this.store = store;
+  }
+
+  /**
+   * Connects, declares the room queues and starts consuming.
+   *
+   * @throws Exception if the broker cannot be reached
+   */
+  public void start() throws Exception {
+    ConnectionFactory factory = new ConnectionFactory();
+    factory.setHost(config.getRabbitHost());
+    factory.setPort(config.getRabbitPort());
+    factory.setUsername(config.getRabbitUser());
+    factory.setPassword(config.getRabbitPass());
+
+    int threads = config.getConsumerThreads();
+    AtomicInteger threadIndex = new AtomicInteger();
+    this.executor = Executors.newFixedThreadPool(threads,
+        r -> new Thread(r, "consumer-" + threadIndex.getAndIncrement()));
+    this.connection = factory.newConnection(executor, "chatflow-consumer");
+
+    for (int i = 0; i < threads; i++) {
+      Channel ch = connection.createChannel();
+      ch.basicQos(config.getPrefetch());
+      channels.add(ch);
+      batchers.add(new AckBatcher(ch, config.getAckBatchSize(), config.getAckIntervalMs()));
+    }
+
+    this.ackTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "consumer-ack-timer");
+      t.setDaemon(true);
+      return t;
+    });
+    long interval = config.getAckIntervalMs();
+    ackTimer.scheduleAtFixedRate(this::flushDueAcks, interval, interval, TimeUnit.MILLISECONDS);
+
+    TopologyDeclarer topology = new TopologyDeclarer(config.getExchangeName(),
+        config.getRouting(), config.getRoomCount());
+    List<String> queues = topology.declare(channels.get(0), "");
+    boolean partitioned = config.getRouting().partitions() > 0;
+    for (int i = 0; i < queues.size(); i++) {
+      int owner = partitioned ? i % threads : threadFor(String.valueOf(i + 1), threads);
+      AckBatcher batcher = batchers.get(owner);
+      channels.get(owner).basicConsume(queues.get(i), false,
+          (tag, delivery) -> handle(batcher, delivery, false), tag -> { });
+    }
+
+    if (config.isControlQueues()) {
+      startControl(factory, topology);
+    }
+  }
+
+  private void startControl(ConnectionFactory factory, TopologyDeclarer topology)
+      throws Exception {
+    this.controlExecutor = Executors.newSingleThreadExecutor(
+        r -> new Thread(r, "consumer-control"));
+    this.controlConnection = factory.newConnection(controlExecutor, "chatflow-consumer-control");
+    Channel ch = controlConnection.createChannel();
+    ch.basicQos(config.getControlPrefetch());
+    channels.add(ch);
+    AckBatcher batcher = new AckBatcher(ch, 1, config.getAckIntervalMs());
+    batchers.add(batcher);
+    for (String queue : topology.declare(ch, CONTROL_SUFFIX)) {
+      ch.basicConsume(queue, false, (tag, delivery) -> handle(batcher, delivery, true),
+          tag -> { });
+    }
+  }
+
+  /**
+   * Returns the consumer thread that owns the given room.
+   *
+   * @param roomId room id
+   * @param threads number of consumer threads
+   * @return thread index
+   */
+  public static int threadFor(String roomId, int threads) {
+    return Math.floorMod(roomId.hashCode(), threads);
+  }
+
+  /**
+   * Processes one delivery and acks or nacks it through the batcher once it completes.
+   * Package-private so tests can feed deliveries without a broker.
+   */
+  void handle(AckBatcher batcher, Delivery delivery, boolean urgent) throws IOException {
+    long start = System.nanoTime();
+    long tag = delivery.getEnvelope().getDeliveryTag();
+    long publishedAt = publishedAt(delivery);
+
+    byte[] payload = delivery.getBody();
+    if (PayloadDecompressor.CONTENT_ENCODING.equals(
+        delivery.getProperties().getContentEncoding())) {
+      try {
+        payload = decompressor.decompress(payload);
+      } catch (IOException e) {
+        processor.getMetrics().recordFailed();
+        batcher.nack(tag, false);
+        return;
+      }
+    }
+    String contentType = delivery.getProperties().getContentType();
+    CompletableFuture<Void> done;
+    if (BatchEnvelope.CONTENT_TYPE.equals(contentType)) {
+      List<byte[]> bodies;
+      try {
+        bodies = BatchEnvelope.decode(payload);
+      } catch (IOException e) {
+        processor.getMetrics().recordFailed();
+        batcher.nack(tag, false);
+        return;
+      }
+      String entryType = header(delivery, BatchEnvelope.ENTRY_TYPE_HEADER);
+      List<CompletableFuture<Void>> delivered = new ArrayList<>(bodies.size());
+      for (byte[] body : bodies) {
+        try {
+          QueueMessage message = processor.parse(body, entryType);
+          delivered.add(process(message, entryType, body, start, publishedAt, urgent));
+        } catch (IOException e) {
+          // A malformed entry is dropped; redelivering the batch would not fix it.
+          processor.getMetrics().recordFailed();
+        }
+      }
+      done = CompletableFuture.allOf(delivered.toArray(new CompletableFuture<?>[0]));
+    } else {
+      QueueMessage message;
+      try {
+        message = processor.parse(payload, contentType);
+      } catch (IOException e) {
+        processor.getMetrics().recordFailed();
+        batcher.nack(tag, false);
+        return;
+      }
+      done = process(message, contentType, payload, start, publishedAt, urgent);
+    }
+
+    done.whenComplete((v, e) -> {
+      try {
+        if (e == null) {
+          batcher.ack(tag);
+        } else {
+          batcher.nack(tag, true);
+        }
+      } catch (IOException ignored) {
+      }
+    });
+  }
+
+  /**
+   * Stores and logs a message, and delivers it unless it is stale.
+   */
+  private CompletableFuture<Void> process(QueueMessage message, String contentType,
+      byte[] body, long start, long publishedAt, boolean urgent) {
+    BroadcastRequest request = BroadcastRequest.from(message);
+    CompletableFuture<Void> stored = CompletableFuture.completedFuture(null);
+    if (store != null) {
+      try {
+        stored = store.submit(request);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return CompletableFuture.failedFuture(e);
+      }
+    }
+    CompletableFuture<Void> logged = log == null
+        ? CompletableFuture.completedFuture(null)
+        : appendOnce(request, contentType, body);
+    if (processor.isStale(message)) {
+      return CompletableFuture.allOf(logged, stored);
+    }
+    return CompletableFuture.allOf(
+        processor.deliver(request, start, publishedAt, urgent), logged, stored);
+  }
+
+  /**
+   * Appends a message to the log, or returns the earlier append of the same message id unless
+   * that one failed.
+   */
+  private CompletableFuture<Void> appendOnce(BroadcastRequest request, String contentType,
+      byte[] body) {
+    synchronized (recentAppends) {
+      CompletableFuture<Void> earlier = recentAppends.get(request.getMessageId());
+      if (earlier != null && !earlier.isCompletedExceptionally()) {
+        return earlier;
+      }
+      CompletableFuture<Void> appended =
+          log.append(request.getRoomId(), request.getMessageType(), contentType, body);
+      recentAppends.put(request.getMessageId(), appended);
+      return appended;
+    }
+  }
+
+  private static long publishedAt(Delivery delivery) {
+    Map<String, Object> headers = delivery.getProperties().getHeaders();
+    Object value = headers == null ? null : headers.get(PUBLISHED_AT_HEADER);
+    return value instanceof Number ? ((Number) value).longValue() : 0L;
+  }
+
+  private static String header(Delivery delivery, String name) {
+    Map<String, Object> headers = delivery.getProperties().getHeaders();
+    Object value = headers == null ? null : headers.get(name);
+    return value == null ? null : value.toString();
+  }
+
+  private void flushDueAcks() {
+    for (AckBatcher batcher : batchers) {
+      try {
+        batcher.flushIfDue();
+      } catch (Exception ignored) {
+      }
+    }
+  }
+
+  @Override
+  public void close() throws Exception {
+    if (ackTimer != null) {
+      ackTimer.shutdown();
+    }
+    for (AckBatcher batcher : batchers) {
+      try {
+        batcher.flush();
+      } catch (Exception ignored) {
+      }
+    }
+    for (Channel ch : channels) {
+      try {
+        ch.close();
+      } catch (Exception ignored) {
+      }
+    }
+    if (controlConnection != null) {
+      controlConnection.close();
+    }
+    if (connection != null) {
+      connection.close();
+    }
+    if (controlExecutor != null) {
+      controlExecutor.shutdown();
+    }
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+}
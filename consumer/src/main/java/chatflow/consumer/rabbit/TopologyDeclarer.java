@@ -0,0 +1,73 @@
+package chatflow.consumer.rabbit;
+
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Declares the queues the consumer drains and binds them to the chat exchange.
+ *
+ * <p>Each queue is named after the routing key it is bound with: one {@code room.<id>} queue
+ * per room, or one {@code part.<n>} queue per partition when the routing is partitioned, in
+ * which case the room count plays no part in the topology.
+ */
+public final class TopologyDeclarer {
+
+  private final String exchangeName;
+  private final RoomRouting routing;
+  private final int roomCount;
+
+  /**
+   * Creates a declarer.
+   *
+   * @param exchangeName topic exchange name
+   * @param routing mapping of rooms to routing keys, as used by the server
+   * @param roomCount number of rooms, used only for per-room routing
+   */
+  public TopologyDeclarer(String exchangeName, RoomRouting routing, int roomCount) {
+    this.exchangeName = Objects.requireNonNull(exchangeName, "exchangeName");
+    this.routing = Objects.requireNonNull(routing, "routing");
+    this.roomCount = roomCount;
+  }
+
+  /**
+   * Returns the queue names, in partition or room order.
+   */
+  public List<String> queueNames() {
+    int partitions = routing.partitions();
+    List<String> names = new ArrayList<>();
+    if (partitions > 0) {
+      for (int p = 0; p < partitions; p++) {
+        names.add("part." + p);
+      }
+    } else {
+      for (int room = 1; room <= roomCount; room++) {
+        names.add(routing.routingKey(String.valueOf(room)));
+      }
+    }
+    return names;
+  }
+
+  /**
+   * Declares the exchange and the durable queues, each bound with its own name.
+   *
+   * @param channel channel to declare on
+   * @param suffix appended to every queue name and routing key, e.g. for control queues
+   * @return declared queue names, in partition or room order
+   * @throws IOException if a declaration fails
+   */
+  public List<String> declare(Channel channel, String suffix) throws IOException {
+    channel.exchangeDeclare(exchangeName, BuiltinExchangeType.TOPIC, true);
+    List<String> queues = new ArrayList<>();
+    for (String name : queueNames()) {
+      String queue = name + suffix;
+      channel.queueDeclare(queue, true, false, false, null);
+      channel.queueBind(queue, exchangeName, queue);
+      queues.add(queue);
+    }
+    return queues;
+  }
+}
@@ -0,0 +1,85 @@
+package chatflow.consumer.search;
+
+import java.util.Arrays;
+
+/**
+ * Growable byte array written as variable-length integers: seven bits per byte, low bits
+ * first, the high bit set on every byte but the last.
+ */
+final class ByteSink {
+
+  private byte[] data;
+  private int length;
+
+  ByteSink(int capacity) {
+    this.data = new byte[Math.max(capacity, 8)];
+  }
+
+  void writeVarInt(int value) {
+    writeVarLong(value & 0xffffffffL);
+  }
+
+  void writeVarLong(long value) {
+    if (length + 10 > data.length) {
+      data = Arrays.copyOf(data, Math.max(data.length * 2, length + 10));
+    }
+    while ((value & ~0x7fL) != 0) {
+      data[length++] = (byte) ((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    data[length++] = (byte) value;
+  }
+
+  void write(byte[] bytes, int from, int to) {
+    int n = to - from;
+    if (length + n > data.length) {
+      data = Arrays.copyOf(data, Math.max(data.length * 2, length + n));
+    }
+    System.arraycopy(bytes, from, data, length, n);
+    length += n;
+  }
+
+  int length() {
+    return length;
+  }
+
+  /** Returns the backing array; only the first {@link #length} bytes are written. */
+  byte[] data() {
+    return data;
+  }
+
+  byte[] toArray() {
+    return Arrays.copyOf(data, length);
+  }
+
+  /** Reads variable-length integers from a byte array. */
+  static final class Reader {
+    private final byte[] data;
+    private int pos;
+
+    Reader(byte[] data, int pos) {
+      this.data = data;
+      this.pos = pos;
+    }
+
+    int readVarInt() {
+      return (int) readVarLong();
+    }
+
+    long readVarLong() {
+      long value = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = data[pos++];
+        value |= (long) (b & 0x7f) << shift;
+        shift += 7;
+      } while (b < 0);
+      return value;
+    }
+
+    int position() {
+      return pos;
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package chatflow.consumer.search;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable part of the index covering the messages of a time range, with one
+ * {@link RoomSegment} per room that has messages in it.
+ */
+final class IndexSegment {
+
+  final Map<String, RoomSegment> rooms;
+  final long docs;
+  final long minTime;
+  final long maxTime;
+  final long bytes;
+
+  IndexSegment(Map<String, RoomSegment> rooms, long minTime, long maxTime) {
+    this.rooms = Map.copyOf(rooms);
+    this.minTime = minTime;
+    this.maxTime = maxTime;
+    long docCount = 0;
+    long size = 0;
+    for (RoomSegment room : rooms.values()) {
+      docCount += room.docs();
+      size += room.bytes();
+    }
+    this.docs = docCount;
+    this.bytes = size;
+  }
+
+  /** Merges consecutive segments, oldest first, into one. */
+  static IndexSegment merge(List<IndexSegment> parts) {
+    Map<String, List<RoomSegment>> byRoom = new HashMap<>();
+    for (IndexSegment part : parts) {
+      part.rooms.forEach((room, segment) ->
+          byRoom.computeIfAbsent(room, r -> new ArrayList<>()).add(segment));
+    }
+    Map<String, RoomSegment> merged = new HashMap<>();
+    byRoom.forEach((room, segments) -> merged.put(room,
+        segments.size() == 1 ? segments.get(0) : RoomSegment.merge(segments)));
+    return new IndexSegment(merged, parts.get(0).minTime,
+        parts.get(parts.size() - 1).maxTime);
+  }
+}
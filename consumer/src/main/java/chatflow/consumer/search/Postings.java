@@ -0,0 +1,85 @@
+package chatflow.consumer.search;
+
+import java.util.Arrays;
+
+/**
+ * Decoded posting list of one term in one room of a segment: the documents containing the
+ * term, ascending, with the term's positions in each.
+ *
+ * <p>Encoded, each document is a variable-length header {@code (docDelta << 1) | single},
+ * where {@code docDelta} is the distance from the previous document (from -1 for the first)
+ * and {@code single} is set when the term occurs once; otherwise the occurrence count
+ * follows. Then come the positions, the first as is and the rest as deltas. In chat messages
+ * most terms occur once, so a posting usually takes two bytes.
+ */
+final class Postings {
+
+  final int count;
+  final int[] docs;
+  /** Positions of document {@code i} are {@code positions[starts[i]]..[starts[i + 1]]}. */
+  final int[] starts;
+  final int[] positions;
+
+  private Postings(int count, int[] docs, int[] starts, int[] positions) {
+    this.count = count;
+    this.docs = docs;
+    this.starts = starts;
+    this.positions = positions;
+  }
+
+  static Postings decode(byte[] data, int from, int to) {
+    ByteSink.Reader in = new ByteSink.Reader(data, from);
+    int capacity = Math.max(4, (to - from) / 2);
+    int[] docs = new int[capacity];
+    int[] starts = new int[capacity + 1];
+    int[] positions = new int[capacity];
+    int count = 0;
+    int used = 0;
+    int doc = -1;
+    while (in.position() < to) {
+      int header = in.readVarInt();
+      int freq = (header & 1) != 0 ? 1 : in.readVarInt();
+      doc += header >>> 1;
+      if (count == docs.length) {
+        docs = Arrays.copyOf(docs, count * 2);
+        starts = Arrays.copyOf(starts, count * 2 + 1);
+      }
+      if (used + freq > positions.length) {
+        positions = Arrays.copyOf(positions, Math.max(positions.length * 2, used + freq));
+      }
+      docs[count] = doc;
+      starts[count] = used;
+      int pos = 0;
+      for (int i = 0; i < freq; i++) {
+        pos = i == 0 ? in.readVarInt() : pos + in.readVarInt();
+        positions[used++] = pos;
+      }
+      count++;
+    }
+    starts[count] = used;
+    return new Postings(count, docs, starts, positions);
+  }
+
+  /** Returns the index of a document in this list, or -1. */
+  int find(int doc) {
+    int i = Arrays.binarySearch(docs, 0, count, doc);
+    return i < 0 ? -1 : i;
+  }
+
+  /** Returns whether the term is at {@code position} in the document at index {@code i}. */
+  boolean hasPosition(int i, int position) {
+    return Arrays.binarySearch(positions, starts[i], starts[i + 1], position) >= 0;
+  }
+
+  /** Appends one document's entry to an encoded list. */
+  static void write(ByteSink sink, int docDelta, int[] positions, int from, int to) {
+    int freq = to - from;
+    sink.writeVarInt(docDelta << 1 | (freq == 1 ? 1 : 0));
+    if (freq != 1) {
+      sink.writeVarInt(freq);
+    }
+    for (int i = from; i < to; i++) {
+      sink.writeVarInt(i == from ? positions[i] : positions[i] - positions[i - 1]);
+    }
+  }
+}
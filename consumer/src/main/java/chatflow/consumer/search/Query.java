@@ -0,0 +1,77 @@
+package chatflow.consumer.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A parsed search: every clause must match. A clause is a single term, or a phrase written
+ * in double quotes whose terms must appear next to each other in order.
+ */
+final class Query {
+
+  /** Terms of each clause. */
+  final List<List<String>> clauses;
+
+  private Query(List<List<String>> clauses) {
+    this.clauses = clauses;
+  }
+
+  static Query parse(String text) {
+    List<List<String>> clauses = new ArrayList<>();
+    String[] parts = text.split("\"", -1);
+    for (int i = 0; i < parts.length; i++) {
+      List<String> terms = Tokenizer.tokens(parts[i]);
+      if (i % 2 == 1 && !terms.isEmpty()) {
+        clauses.add(terms);
+      } else {
+        for (String term : terms) {
+          clauses.add(List.of(term));
+        }
+      }
+    }
+    if (clauses.isEmpty()) {
+      throw new IllegalArgumentException("Query has no terms: " + text);
+    }
+    return new Query(clauses);
+  }
+
+  /**
+   * Returns the term ids of each clause, or null if a term is not in the dictionary, in which
+   * case nothing can match.
+   */
+  int[][] termIds(Map<String, Integer> dictionary) {
+    int[][] ids = new int[clauses.size()][];
+    for (int c = 0; c < ids.length; c++) {
+      List<String> terms = clauses.get(c);
+      ids[c] = new int[terms.size()];
+      for (int t = 0; t < terms.size(); t++) {
+        Integer id = dictionary.get(terms.get(t));
+        if (id == null) {
+          return null;
+        }
+        ids[c][t] = id;
+      }
+    }
+    return ids;
+  }
+
+  /** Returns whether a tokenized message matches. */
+  boolean matches(List<String> tokens) {
+    for (List<String> clause : clauses) {
+      if (!contains(tokens, clause)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean contains(List<String> tokens, List<String> phrase) {
+    for (int i = 0; i + phrase.size() <= tokens.size(); i++) {
+      if (tokens.subList(i, i + phrase.size()).equals(phrase)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
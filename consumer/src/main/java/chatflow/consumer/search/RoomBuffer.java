@@ -0,0 +1,130 @@
+package chatflow.consumer.search;
+
+import java.util.Arrays;
+
+/**
+ * Mutable index of a room's documents added since the last flush.
+ *
+ * <p>Adding a document only appends its term ids to one array. Posting lists are built when
+ * the buffer is frozen into a {@link RoomSegment}, by sorting the tokens by term; buffers of
+ * many rooms are filled in turn, and keeping a posting list per term while adding cost a
+ * cache miss per token. Searching the buffer scans its tokens, which is cheap because a
+ * buffer holds at most one flush worth of messages.
+ */
+final class RoomBuffer implements RoomView {
+
+  private long[] times = new long[8];
+  /** Document {@code d} has the tokens {@code starts[d]..starts[d + 1]}. */
+  private int[] starts = new int[9];
+  private int docs;
+  private int[] terms = new int[64];
+  private int tokens;
+
+  /**
+   * Adds a document.
+   *
+   * @param time log time, not before the previous document's
+   * @param termIds term id at each position of the document
+   */
+  void add(long time, int[] termIds) {
+    if (docs + 1 == times.length) {
+      times = Arrays.copyOf(times, times.length * 2);
+      starts = Arrays.copyOf(starts, starts.length * 2);
+    }
+    if (tokens + termIds.length > terms.length) {
+      terms = Arrays.copyOf(terms, Math.max(terms.length * 2, tokens + termIds.length));
+    }
+    times[docs] = time;
+    System.arraycopy(termIds, 0, terms, tokens, termIds.length);
+    tokens += termIds.length;
+    starts[++docs] = tokens;
+  }
+
+  int docs() {
+    return docs;
+  }
+
+  @Override
+  public long timeOf(int doc) {
+    return times[doc];
+  }
+
+  @Override
+  public int search(long time, boolean inclusive) {
+    int lo = 0;
+    int hi = docs;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (inclusive ? times[mid] >= time : times[mid] > time) {
+        hi = mid;
+      } else {
+        lo = mid + 1;
+      }
+    }
+    return lo;
+  }
+
+  @Override
+  public Postings postings(int termId) {
+    ByteSink sink = new ByteSink(16);
+    int[] positions = new int[8];
+    int lastDoc = -1;
+    for (int doc = 0; doc < docs; doc++) {
+      int n = 0;
+      for (int t = starts[doc]; t < starts[doc + 1]; t++) {
+        if (terms[t] == termId) {
+          if (n == positions.length) {
+            positions = Arrays.copyOf(positions, n * 2);
+          }
+          positions[n++] = t - starts[doc];
+        }
+      }
+      if (n > 0) {
+        Postings.write(sink, doc - lastDoc, positions, 0, n);
+        lastDoc = doc;
+      }
+    }
+    return lastDoc < 0 ? null : Postings.decode(sink.data(), 0, sink.length());
+  }
+
+  RoomSegment freeze() {
+    // Sorting (term, token) pairs orders each term's tokens by document and position.
+    long[] keys = new long[tokens];
+    for (int t = 0; t < tokens; t++) {
+      keys[t] = (long) terms[t] << 32 | t;
+    }
+    Arrays.sort(keys);
+    int[] docOf = new int[tokens];
+    for (int doc = 0; doc < docs; doc++) {
+      Arrays.fill(docOf, starts[doc], starts[doc + 1], doc);
+    }
+    int[] ids = new int[tokens];
+    int[] offsets = new int[tokens + 1];
+    int termCount = 0;
+    ByteSink data = new ByteSink(tokens * 2);
+    int[] positions = new int[8];
+    int i = 0;
+    while (i < tokens) {
+      int termId = (int) (keys[i] >>> 32);
+      ids[termCount] = termId;
+      offsets[termCount++] = data.length();
+      int lastDoc = -1;
+      while (i < tokens && (int) (keys[i] >>> 32) == termId) {
+        int doc = docOf[(int) keys[i]];
+        int n = 0;
+        while (i < tokens && (int) (keys[i] >>> 32) == termId && docOf[(int) keys[i]] == doc) {
+          if (n == positions.length) {
+            positions = Arrays.copyOf(positions, n * 2);
+          }
+          positions[n++] = (int) keys[i] - starts[doc];
+          i++;
+        }
+        Postings.write(data, doc - lastDoc, positions, 0, n);
+        lastDoc = doc;
+      }
+    }
+    offsets[termCount] = data.length();
+    return new RoomSegment(new TimeColumn(times, docs), Arrays.copyOf(ids, termCount),
+        Arrays.copyOf(offsets, termCount + 1), data.toArray());
+  }
+}
@@ -0,0 +1,200 @@
+package chatflow.consumer.search;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable index of one room's documents in a segment: the ids of the terms that occur, each
+ * with its encoded posting list in one shared byte array.
+ *
+ * <p>The term directory is stored as varints too: per term the gap to the previous term id and
+ * the length of its posting list, with every {@value #SAMPLE}th term id and offset kept in
+ * plain arrays to binary search on. Two int arrays cost 8 bytes per term, nearly half of the
+ * index when rooms have many rare terms; the encoded directory costs about 3.
+ */
+final class RoomSegment implements RoomView {
+
+  private static final int SAMPLE = 16;
+
+  private final TimeColumn times;
+  private final int termCount;
+  private final byte[] directory;
+  /** Term id, directory offset and data offset of every {@value #SAMPLE}th term. */
+  private final int[] sampleTerms;
+  private final int[] sampleDirectory;
+  private final int[] sampleData;
+  private final byte[] data;
+
+  /**
+   * Creates a room segment.
+   *
+   * @param times log times of the documents
+   * @param terms sorted ids of the terms that occur
+   * @param offsets posting list of {@code terms[i]} is {@code data[offsets[i]..offsets[i + 1]]}
+   * @param data encoded posting lists
+   */
+  RoomSegment(TimeColumn times, int[] terms, int[] offsets, byte[] data) {
+    this.times = times;
+    this.termCount = terms.length;
+    int samples = (terms.length + SAMPLE - 1) / SAMPLE;
+    this.sampleTerms = new int[samples];
+    this.sampleDirectory = new int[samples];
+    this.sampleData = new int[samples];
+    ByteSink sink = new ByteSink(terms.length * 3);
+    for (int i = 0; i < terms.length; i++) {
+      if (i % SAMPLE == 0) {
+        sampleTerms[i / SAMPLE] = terms[i];
+        sampleDirectory[i / SAMPLE] = sink.length();
+        sampleData[i / SAMPLE] = offsets[i];
+      }
+      sink.writeVarInt(i == 0 ? terms[0] : terms[i] - terms[i - 1]);
+      sink.writeVarInt(offsets[i + 1] - offsets[i]);
+    }
+    this.directory = sink.toArray();
+    this.data = data;
+  }
+
+  int docs() {
+    return times.count();
+  }
+
+  @Override
+  public long timeOf(int doc) {
+    return times.get(doc);
+  }
+
+  @Override
+  public int search(long time, boolean inclusive) {
+    return times.search(time, inclusive);
+  }
+
+  @Override
+  public Postings postings(int termId) {
+    int k = Arrays.binarySearch(sampleTerms, termId);
+    if (k < 0) {
+      k = -k - 2;
+      if (k < 0) {
+        return null;
+      }
+    }
+    ByteSink.Reader in = new ByteSink.Reader(directory, sampleDirectory[k]);
+    int term = sampleTerms[k];
+    int offset = sampleData[k];
+    int end = Math.min(termCount, (k + 1) * SAMPLE);
+    for (int i = k * SAMPLE; i < end; i++) {
+      int gap = in.readVarInt();
+      if (i > k * SAMPLE) {
+        term += gap;
+      }
+      int length = in.readVarInt();
+      if (term == termId) {
+        return Postings.decode(data, offset, offset + length);
+      }
+      if (term > termId) {
+        return null;
+      }
+      offset += length;
+    }
+    return null;
+  }
+
+  long bytes() {
+    return times.bytes() + directory.length + sampleTerms.length * 12L + data.length;
+  }
+
+  /** Decodes the term directory into the term ids and the offsets of their posting lists. */
+  private int[][] decodeDirectory() {
+    int[] terms = new int[termCount];
+    int[] offsets = new int[termCount + 1];
+    ByteSink.Reader in = new ByteSink.Reader(directory, 0);
+    int term = 0;
+    int offset = 0;
+    for (int i = 0; i < termCount; i++) {
+      term += in.readVarInt();
+      terms[i] = term;
+      offsets[i] = offset;
+      offset += in.readVarInt();
+    }
+    offsets[termCount] = offset;
+    return new int[][] {terms, offsets};
+  }
+
+  /**
+   * Merges consecutive parts of a room's index; documents of later parts follow those of
+   * earlier ones.
+   */
+  static RoomSegment merge(List<RoomSegment> parts) {
+    int docCount = 0;
+    int termCount = 0;
+    int[][][] directories = new int[parts.size()][][];
+    for (int p = 0; p < parts.size(); p++) {
+      directories[p] = parts.get(p).decodeDirectory();
+      docCount += parts.get(p).docs();
+      termCount += parts.get(p).termCount;
+    }
+    long[] allTimes = new long[docCount];
+    int[] allTerms = new int[termCount];
+    int at = 0;
+    int termAt = 0;
+    for (int p = 0; p < parts.size(); p++) {
+      parts.get(p).times.copyTo(allTimes, at);
+      at += parts.get(p).docs();
+      System.arraycopy(directories[p][0], 0, allTerms, termAt, parts.get(p).termCount);
+      termAt += parts.get(p).termCount;
+    }
+    Arrays.sort(allTerms);
+    int unique = 0;
+    for (int i = 0; i < allTerms.length; i++) {
+      if (i == 0 || allTerms[i] != allTerms[i - 1]) {
+        allTerms[unique++] = allTerms[i];
+      }
+    }
+    int[] terms = Arrays.copyOf(allTerms, unique);
+    int[] offsets = new int[unique + 1];
+    ByteSink sink = new ByteSink(parts.stream().mapToInt(p -> p.data.length).sum());
+    // Each part's terms are sorted too, so a cursor per part finds them in order.
+    int[] cursors = new int[parts.size()];
+    for (int t = 0; t < unique; t++) {
+      offsets[t] = sink.length();
+      int base = 0;
+      int last = -1;
+      for (int p = 0; p < parts.size(); p++) {
+        RoomSegment part = parts.get(p);
+        int[] partTerms = directories[p][0];
+        int[] partOffsets = directories[p][1];
+        int i = cursors[p];
+        if (i < partTerms.length && partTerms[i] == terms[t]) {
+          cursors[p]++;
+          // Entries are copied as they are except the first header, whose delta now counts
+          // from the previous part's last document.
+          ByteSink.Reader in = new ByteSink.Reader(part.data, partOffsets[i]);
+          int header = in.readVarInt();
+          int doc = base + (header >>> 1) - 1;
+          sink.writeVarInt((doc - last) << 1 | (header & 1));
+          sink.write(part.data, in.position(), partOffsets[i + 1]);
+          last = base + lastDoc(in, header, partOffsets[i + 1]);
+        }
+        base += part.docs();
+      }
+    }
+    offsets[unique] = sink.length();
+    return new RoomSegment(new TimeColumn(allTimes, docCount), terms, offsets, sink.toArray());
+  }
+
+  /** Walks an encoded list whose first header has been read and returns its last document. */
+  private static int lastDoc(ByteSink.Reader in, int firstHeader, int to) {
+    int header = firstHeader;
+    int doc = (header >>> 1) - 1;
+    while (true) {
+      int freq = (header & 1) != 0 ? 1 : in.readVarInt();
+      for (int k = 0; k < freq; k++) {
+        in.readVarInt();
+      }
+      if (in.position() >= to) {
+        return doc;
+      }
+      header = in.readVarInt();
+      doc += header >>> 1;
+    }
+  }
+}
@@ -0,0 +1,19 @@
+package chatflow.consumer.search;
+
+/**
+ * A room's documents in one part of the index, numbered from 0 in time order.
+ */
+interface RoomView {
+
+  /** Returns the log time of a document. */
+  long timeOf(int doc);
+
+  /**
+   * Returns the first document with a time after {@code time}, or at or after it when
+   * {@code inclusive}.
+   */
+  int search(long time, boolean inclusive);
+
+  /** Returns the posting list of a term, or null if no document has it. */
+  Postings postings(int termId);
+}
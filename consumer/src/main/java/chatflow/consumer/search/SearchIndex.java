@@ -0,0 +1,474 @@
+package chatflow.consumer.search;
+
+import chatflow.consumer.store.LogEntry;
+import chatflow.consumer.store.MessageLog;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process full-text index of the message text in the {@link MessageLog}, with term and
+ * phrase search scoped to a room and a time range.
+ *
+ * <p>The index follows the log: it registers as an append listener and an indexer thread
+ * decodes each appended message, splits its text into terms and adds it to an in-memory
+ * buffer, which is searchable at once. The listener hands records over through a bounded
+ * queue; if the indexer falls behind, appends wait for room, which slows the consumer down
+ * instead of growing memory. Once the index is closed, appended records are dropped instead
+ * of waiting, so closing it never blocks the log. Every {@code flushDocs} messages the buffer
+ * is frozen into an immutable segment. A background thread merges runs of
+ * {@code mergeFactor} segments of the same size class into one, up to
+ * {@value #MAX_MERGE_DOCS} messages, so a search visits a few large segments rather than many
+ * small ones; segments past the log's retention are dropped.
+ *
+ * <p>Within a segment every room has its own term dictionary and posting lists (see
+ * {@link Postings}), so a search reads only the room's postings. Terms are numbered by a
+ * dictionary shared by all rooms.
+ *
+ * <p>The index lives in memory and is rebuilt from the log when the consumer starts. A hit
+ * names a room and a log time; the message is read back from the log and checked against
+ * the query, so messages removed by log compaction or retention are not returned.
+ */
+public final class SearchIndex implements AutoCloseable {
+
+  /** Merges never produce segments with more messages than this. */
+  static final int MAX_MERGE_DOCS = 5_000_000;
+  private static final long MERGE_INTERVAL_MS = 1_000L;
+  private static final long ENQUEUE_WAIT_MS = 100L;
+
+  private final MessageLog log;
+  private final int flushDocs;
+  private final int mergeFactor;
+  private final long retentionMillis;
+
+  private final Map<String, Integer> dictionary = new ConcurrentHashMap<>();
+  private final BlockingQueue<LogEntry> queue;
+  private final Thread indexer;
+  private final ScheduledExecutorService merger;
+  private volatile boolean running = true;
+
+  // Guarded by this: the buffer being filled, the one being frozen and the segment list.
+  private Map<String, RoomBuffer> buffer = new HashMap<>();
+  private Map<String, RoomBuffer> freezing = Map.of();
+  private long bufferDocs;
+  private long bufferMinTime = Long.MAX_VALUE;
+  private volatile List<IndexSegment> segments = List.of();
+
+  private final AtomicLong indexed = new AtomicLong();
+  private final AtomicLong skipped = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong flushes = new AtomicLong();
+  private final AtomicLong merges = new AtomicLong();
+  private final AtomicLong mergeMillis = new AtomicLong();
+  private final AtomicLong searches = new AtomicLong();
+
+  /**
+   * Indexes the messages already in the log, then follows new appends. Call it before the
+   * consumer starts appending.
+   *
+   * @param log message log
+   * @param flushDocs messages buffered before they are frozen into a segment
+   * @param mergeFactor number of same-sized segments merged together
+   * @param queueCapacity appended messages waiting to be indexed before appends block
+   * @param retentionMillis age after which segments are dropped, or 0 to keep them
+   */
+  public SearchIndex(MessageLog log, int flushDocs, int mergeFactor, int queueCapacity,
+      long retentionMillis) {
+    this.log = Objects.requireNonNull(log, "log");
+    if (flushDocs < 1 || mergeFactor < 2 || queueCapacity < 1) {
+      throw new IllegalArgumentException(
+          "flushDocs and queueCapacity must be >= 1 and mergeFactor >= 2");
+    }
+    this.flushDocs = flushDocs;
+    this.mergeFactor = mergeFactor;
+    this.retentionMillis = retentionMillis;
+    this.queue = new LinkedBlockingQueue<>(queueCapacity);
+
+    this.merger = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "search-merger");
+      t.setDaemon(true);
+      return t;
+    });
+    merger.scheduleWithFixedDelay(this::maintain, MERGE_INTERVAL_MS, MERGE_INTERVAL_MS,
+        TimeUnit.MILLISECONDS);
+
+    long start = System.nanoTime();
+    log.replay(this::index);
+    if (indexed.get() > 0) {
+      System.out.printf("Search index rebuilt from the log: %d messages in %.1f s%n",
+          indexed.get(), (System.nanoTime() - start) / 1e9);
+    }
+    log.addListener(this::enqueue);
+    this.indexer = new Thread(this::indexLoop, "search-indexer");
+    indexer.setDaemon(true);
+    indexer.start();
+  }
+
+  /**
+   * Log listener; runs under the log's lock. Waits for queue space only while the index is
+   * open, so that appends after {@link #close} go through without being indexed.
+   */
+  private void enqueue(LogEntry entry) {
+    try {
+      while (running) {
+        if (queue.offer(entry, ENQUEUE_WAIT_MS, TimeUnit.MILLISECONDS)) {
+          return;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    dropped.incrementAndGet();
+  }
+
+  private void indexLoop() {
+    try {
+      while (running) {
+        LogEntry entry = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (entry != null) {
+          index(entry);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void index(LogEntry entry) {
+    String text;
+    try {
+      text = entry.decode().getMessage();
+    } catch (IOException e) {
+      skipped.incrementAndGet();
+      return;
+    }
+    add(entry.getRoomId(), entry.getTime(), text);
+  }
+
+  /** Adds one message's text; called by the indexer only. */
+  void add(String roomId, long time, String text) {
+    List<String> tokens = Tokenizer.tokens(text);
+    if (tokens.isEmpty()) {
+      skipped.incrementAndGet();
+      return;
+    }
+    int[] termIds = new int[tokens.size()];
+    for (int i = 0; i < termIds.length; i++) {
+      Integer id = dictionary.get(tokens.get(i));
+      if (id == null) {
+        // Only the indexer adds terms, so the dictionary's size is the next free id.
+        id = dictionary.computeIfAbsent(tokens.get(i), term -> dictionary.size());
+      }
+      termIds[i] = id;
+    }
+    boolean full;
+    synchronized (this) {
+      buffer.computeIfAbsent(roomId, r -> new RoomBuffer()).add(time, termIds);
+      bufferMinTime = Math.min(bufferMinTime, time);
+      full = ++bufferDocs >= flushDocs;
+    }
+    indexed.incrementAndGet();
+    if (full) {
+      flush();
+    }
+  }
+
+  /** Freezes the buffer into a segment. Searches keep seeing it while it is frozen. */
+  private void flush() {
+    Map<String, RoomBuffer> frozen;
+    long minTime;
+    synchronized (this) {
+      frozen = buffer;
+      freezing = frozen;
+      minTime = bufferMinTime;
+      buffer = new HashMap<>();
+      bufferDocs = 0;
+      bufferMinTime = Long.MAX_VALUE;
+    }
+    Map<String, RoomSegment> rooms = new HashMap<>();
+    long maxTime = minTime;
+    for (Map.Entry<String, RoomBuffer> e : frozen.entrySet()) {
+      RoomBuffer room = e.getValue();
+      rooms.put(e.getKey(), room.freeze());
+      maxTime = Math.max(maxTime, room.timeOf(room.docs() - 1));
+    }
+    IndexSegment segment = new IndexSegment(rooms, minTime, maxTime);
+    synchronized (this) {
+      List<IndexSegment> next = new ArrayList<>(segments);
+      next.add(segment);
+      segments = List.copyOf(next);
+      freezing = Map.of();
+    }
+    flushes.incrementAndGet();
+  }
+
+  /** Drops expired segments and merges runs of same-sized ones. */
+  void maintain() {
+    try {
+      if (retentionMillis > 0) {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        synchronized (this) {
+          List<IndexSegment> kept = new ArrayList<>(segments);
+          kept.removeIf(segment -> segment.maxTime < cutoff);
+          segments = List.copyOf(kept);
+        }
+      }
+      List<IndexSegment> run;
+      while ((run = nextMerge()) != null) {
+        long start = System.currentTimeMillis();
+        IndexSegment merged = IndexSegment.merge(run);
+        synchronized (this) {
+          List<IndexSegment> next = new ArrayList<>(segments);
+          int at = next.indexOf(run.get(0));
+          next.subList(at, at + run.size()).clear();
+          next.add(at, merged);
+          segments = List.copyOf(next);
+        }
+        merges.incrementAndGet();
+        mergeMillis.addAndGet(System.currentTimeMillis() - start);
+      }
+    } catch (RuntimeException e) {
+      System.out.println("Search index merge failed: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Returns the oldest run of {@code mergeFactor} adjacent segments in one size class, or
+   * null. Segments too large to be merged again break runs.
+   */
+  private List<IndexSegment> nextMerge() {
+    List<IndexSegment> current = segments;
+    int runStart = 0;
+    for (int i = 0; i < current.size(); i++) {
+      IndexSegment segment = current.get(i);
+      if (segment.docs * mergeFactor > MAX_MERGE_DOCS) {
+        runStart = i + 1;
+      } else if (sizeClass(segment) != sizeClass(current.get(runStart))) {
+        runStart = i;
+      } else if (i + 1 - runStart == mergeFactor) {
+        return List.copyOf(current.subList(runStart, i + 1));
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the size class of a segment: 0 up to {@code flushDocs} messages, 1 up to
+   * {@code flushDocs * mergeFactor} and so on.
+   */
+  private int sizeClass(IndexSegment segment) {
+    int sizeClass = 0;
+    for (long limit = flushDocs; segment.docs > limit; limit *= mergeFactor) {
+      sizeClass++;
+    }
+    return sizeClass;
+  }
+
+  /**
+   * Searches a room's messages.
+   *
+   * @param roomId room id
+   * @param query terms that must all occur, and phrases in double quotes
+   * @param fromTime earliest log time, inclusive
+   * @param toTime latest log time, inclusive
+   * @param limit maximum number of messages
+   * @return matching messages, newest first
+   * @throws IllegalArgumentException if the query has no terms or the limit is below 1
+   */
+  public List<LogEntry> search(String roomId, String query, long fromTime, long toTime,
+      int limit) {
+    if (limit < 1) {
+      throw new IllegalArgumentException("limit must be >= 1");
+    }
+    Query parsed = Query.parse(query);
+    searches.incrementAndGet();
+    int[][] termIds = parsed.termIds(dictionary);
+    if (termIds == null) {
+      return List.of();
+    }
+    return resolve(roomId, parsed, hits(roomId, termIds, fromTime, toTime, limit), limit);
+  }
+
+  /**
+   * Returns the log times of a room's documents matching the query's term ids, newest first,
+   * at most {@code limit} of them.
+   */
+  List<Long> hits(String roomId, int[][] termIds, long fromTime, long toTime, int limit) {
+    List<Long> times = new ArrayList<>();
+    List<IndexSegment> snapshot;
+    synchronized (this) {
+      snapshot = segments;
+      RoomBuffer room = buffer.get(roomId);
+      if (room != null) {
+        collect(room, termIds, fromTime, toTime, limit, times);
+      }
+      room = freezing.get(roomId);
+      if (room != null && times.size() < limit) {
+        collect(room, termIds, fromTime, toTime, limit, times);
+      }
+    }
+    for (int i = snapshot.size() - 1; i >= 0 && times.size() < limit; i--) {
+      IndexSegment segment = snapshot.get(i);
+      if (segment.minTime > toTime || segment.maxTime < fromTime) {
+        continue;
+      }
+      RoomSegment room = segment.rooms.get(roomId);
+      if (room != null) {
+        collect(room, termIds, fromTime, toTime, limit, times);
+      }
+    }
+    return times;
+  }
+
+  /**
+   * Adds the log times of a room's matching documents in one part of the index to
+   * {@code out}, newest first, until it holds {@code limit}.
+   */
+  private static void collect(RoomView room, int[][] termIds, long fromTime, long toTime,
+      int limit, List<Long> out) {
+    int lo = room.search(fromTime, true);
+    int hi = room.search(toTime, false);
+    if (lo >= hi) {
+      return;
+    }
+    Map<Integer, Postings> lists = new HashMap<>();
+    Postings shortest = null;
+    for (int[] clause : termIds) {
+      for (int termId : clause) {
+        Postings postings = lists.get(termId);
+        if (postings == null) {
+          postings = room.postings(termId);
+          if (postings == null) {
+            return;
+          }
+          lists.put(termId, postings);
+        }
+        if (shortest == null || postings.count < shortest.count) {
+          shortest = postings;
+        }
+      }
+    }
+    for (int i = shortest.count - 1; i >= 0 && out.size() < limit; i--) {
+      int doc = shortest.docs[i];
+      if (doc >= hi) {
+        continue;
+      }
+      if (doc < lo) {
+        break;
+      }
+      if (matches(doc, termIds, lists)) {
+        out.add(room.timeOf(doc));
+      }
+    }
+  }
+
+  private static boolean matches(int doc, int[][] termIds, Map<Integer, Postings> lists) {
+    for (int[] clause : termIds) {
+      Postings first = lists.get(clause[0]);
+      int at = first.find(doc);
+      if (at < 0) {
+        return false;
+      }
+      if (clause.length == 1) {
+        continue;
+      }
+      int[] found = new int[clause.length];
+      for (int t = 1; t < clause.length; t++) {
+        found[t] = lists.get(clause[t]).find(doc);
+        if (found[t] < 0) {
+          return false;
+        }
+      }
+      boolean phrase = false;
+      for (int p = first.starts[at]; p < first.starts[at + 1] && !phrase; p++) {
+        int start = first.positions[p];
+        phrase = true;
+        for (int t = 1; t < clause.length && phrase; t++) {
+          phrase = lists.get(clause[t]).hasPosition(found[t], start + t);
+        }
+      }
+      if (!phrase) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Reads the messages at the hit times back from the log and keeps those that match. */
+  private List<LogEntry> resolve(String roomId, Query query, List<Long> times, int limit) {
+    List<LogEntry> out = new ArrayList<>(times.size());
+    long previous = Long.MIN_VALUE;
+    for (long time : times) {
+      if (time == previous) {
+        continue;
+      }
+      previous = time;
+      List<LogEntry> entries = log.read(roomId, time, time, Integer.MAX_VALUE);
+      Collections.reverse(entries);
+      for (LogEntry entry : entries) {
+        try {
+          if (query.matches(Tokenizer.tokens(entry.decode().getMessage()))) {
+            out.add(entry);
+          }
+        } catch (IOException e) {
+          // Undecodable records are never indexed.
+        }
+      }
+      if (out.size() >= limit) {
+        return out.subList(0, limit);
+      }
+    }
+    return out;
+  }
+
+  /**
+   * Returns the number of messages indexed.
+   */
+  public long indexed() {
+    return indexed.get();
+  }
+
+  /**
+   * Returns the number of appended messages dropped because the index was closed.
+   */
+  public long dropped() {
+    return dropped.get();
+  }
+
+  /**
+   * Returns a one-line summary of the index.
+   *
+   * @return report line
+   */
+  public String report() {
+    List<IndexSegment> current = segments;
+    long bytes = 0;
+    for (IndexSegment segment : current) {
+      bytes += segment.bytes;
+    }
+    long mergeCount = merges.get();
+    return String.format("search: indexed=%d skipped=%d dropped=%d queued=%d terms=%d "
+            + "segments=%d index_mb=%.1f flushes=%d merges=%d merge_avg_ms=%d searches=%d",
+        indexed.get(), skipped.get(), dropped.get(), queue.size(), dictionary.size(),
+        current.size(), bytes / 1048576.0, flushes.get(), mergeCount,
+        mergeCount == 0 ? 0 : mergeMillis.get() / mergeCount, searches.get());
+  }
+
+  @Override
+  public void close() {
+    running = false;
+    merger.shutdownNow();
+    indexer.interrupt();
+  }
+}
@@ -0,0 +1,92 @@
+package chatflow.consumer.search;
+
+/**
+ * Non-decreasing log times of a room's documents in a segment, stored as variable-length
+ * deltas with the absolute time of every {@value #SAMPLE_EVERY}th document, so a time is
+ * decoded from at most that many deltas.
+ */
+final class TimeColumn {
+
+  private static final int SAMPLE_EVERY = 64;
+
+  private final int count;
+  private final long[] samples;
+  private final int[] offsets;
+  private final byte[] data;
+
+  TimeColumn(long[] times, int count) {
+    this.count = count;
+    int sampleCount = (count + SAMPLE_EVERY - 1) / SAMPLE_EVERY;
+    this.samples = new long[sampleCount];
+    this.offsets = new int[sampleCount];
+    ByteSink sink = new ByteSink(count);
+    for (int i = 0; i < count; i++) {
+      if (i % SAMPLE_EVERY == 0) {
+        samples[i / SAMPLE_EVERY] = times[i];
+        offsets[i / SAMPLE_EVERY] = sink.length();
+      } else {
+        sink.writeVarLong(times[i] - times[i - 1]);
+      }
+    }
+    this.data = sink.toArray();
+  }
+
+  int count() {
+    return count;
+  }
+
+  long get(int doc) {
+    int k = doc / SAMPLE_EVERY;
+    long time = samples[k];
+    ByteSink.Reader in = new ByteSink.Reader(data, offsets[k]);
+    for (int i = k * SAMPLE_EVERY + 1; i <= doc; i++) {
+      time += in.readVarLong();
+    }
+    return time;
+  }
+
+  /** Copies all times into {@code out} starting at {@code at}. */
+  void copyTo(long[] out, int at) {
+    ByteSink.Reader in = new ByteSink.Reader(data, 0);
+    long time = 0;
+    for (int i = 0; i < count; i++) {
+      time = i % SAMPLE_EVERY == 0 ? samples[i / SAMPLE_EVERY] : time + in.readVarLong();
+      out[at + i] = time;
+    }
+  }
+
+  /**
+   * Returns the first document with a time after {@code time}, or at or after it when
+   * {@code inclusive}; {@link #count} if there is none.
+   */
+  int search(long time, boolean inclusive) {
+    int lo = 0;
+    int hi = samples.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (inclusive ? samples[mid] >= time : samples[mid] > time) {
+        hi = mid;
+      } else {
+        lo = mid + 1;
+      }
+    }
+    if (lo == 0) {
+      return 0;
+    }
+    int first = (lo - 1) * SAMPLE_EVERY;
+    int end = Math.min(count, lo * SAMPLE_EVERY);
+    ByteSink.Reader in = new ByteSink.Reader(data, offsets[lo - 1]);
+    long t = samples[lo - 1];
+    for (int i = first + 1; i < end; i++) {
+      t += in.readVarLong();
+      if (inclusive ? t >= time : t > time) {
+        return i;
+      }
+    }
+    return end;
+  }
+
+  long bytes() {
+    return data.length + samples.length * 12L;
+  }
+}
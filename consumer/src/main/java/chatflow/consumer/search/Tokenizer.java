@@ -0,0 +1,38 @@
+package chatflow.consumer.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Splits message text into lower-case terms: runs of letters and digits. Terms longer than
+ * {@value #MAX_TERM_LENGTH} characters are dropped.
+ */
+final class Tokenizer {
+
+  static final int MAX_TERM_LENGTH = 64;
+
+  private Tokenizer() {}
+
+  static List<String> tokens(String text) {
+    List<String> out = new ArrayList<>();
+    if (text == null) {
+      return out;
+    }
+    int n = text.length();
+    int i = 0;
+    while (i < n) {
+      while (i < n && !Character.isLetterOrDigit(text.charAt(i))) {
+        i++;
+      }
+      int start = i;
+      while (i < n && Character.isLetterOrDigit(text.charAt(i))) {
+        i++;
+      }
+      if (i > start && i - start <= MAX_TERM_LENGTH) {
+        out.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+      }
+    }
+    return out;
+  }
+}
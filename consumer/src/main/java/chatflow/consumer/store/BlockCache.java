@@ -0,0 +1,113 @@
+package chatflow.consumer.store;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Least-recently-used cache of decoded blocks of sealed log segments, bounded by the bytes of
+ * the bodies it holds.
+ *
+ * <p>A block is the run of one room's records between two entries of the segment's room index
+ * (see {@link LogSegment#readBlock}). Sealed segments never change, so a block stays valid for
+ * as long as its segment is in use; a compacted segment is a new {@link LogSegment} object and
+ * the blocks of the old one simply age out.
+ */
+final class BlockCache {
+
+  /** Estimated bytes of a cached entry beyond its body. */
+  private static final int ENTRY_OVERHEAD = 64;
+
+  private record Key(LogSegment segment, String roomId, int block) {
+  }
+
+  private final long maxBytes;
+  private final LinkedHashMap<Key, LogEntry[]> blocks = new LinkedHashMap<>(1024, 0.75f, true);
+  private long bytes;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  BlockCache(long maxBytes) {
+    if (maxBytes < 0) {
+      throw new IllegalArgumentException("maxBytes must be >= 0");
+    }
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Adds a room's records in a sealed segment with log time in {@code [fromTime, toTime]} to
+   * {@code out}, newest first, until {@code out} holds {@code limit} entries.
+   */
+  void collect(LogSegment segment, String roomId, long fromTime, long toTime, int limit,
+      List<LogEntry> out) {
+    for (int b = segment.blockAt(roomId, toTime); b >= 0 && out.size() < limit; b--) {
+      LogEntry[] block = get(segment, roomId, b);
+      for (int i = block.length - 1; i >= 0 && out.size() < limit; i--) {
+        long time = block[i].getTime();
+        if (time < fromTime) {
+          return;
+        }
+        if (time <= toTime) {
+          out.add(block[i]);
+        }
+      }
+    }
+  }
+
+  private LogEntry[] get(LogSegment segment, String roomId, int block) {
+    Key key = new Key(segment, roomId, block);
+    synchronized (this) {
+      LogEntry[] cached = blocks.get(key);
+      if (cached != null) {
+        hits.increment();
+        return cached;
+      }
+    }
+    misses.increment();
+    LogEntry[] loaded = segment.readBlock(roomId, block);
+    long size = sizeOf(loaded);
+    if (size > maxBytes) {
+      return loaded;
+    }
+    synchronized (this) {
+      if (blocks.putIfAbsent(key, loaded) == null) {
+        bytes += size;
+        var it = blocks.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+          Map.Entry<Key, LogEntry[]> eldest = it.next();
+          bytes -= sizeOf(eldest.getValue());
+          it.remove();
+          evictions.increment();
+        }
+      }
+    }
+    return loaded;
+  }
+
+  private static long sizeOf(LogEntry[] block) {
+    long size = 0;
+    for (LogEntry entry : block) {
+      size += entry.getBody().length + ENTRY_OVERHEAD;
+    }
+    return size;
+  }
+
+  long hits() {
+    return hits.sum();
+  }
+
+  long misses() {
+    return misses.sum();
+  }
+
+  synchronized long bytes() {
+    return bytes;
+  }
+
+  long evictions() {
+    return evictions.sum();
+  }
+}
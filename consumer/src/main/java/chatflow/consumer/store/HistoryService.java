@@ -0,0 +1,254 @@
+package chatflow.consumer.store;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Paginated room history served from the {@link MessageLog}.
+ *
+ * <p>Pages go from the newest message backwards. A cursor names the position just before the
+ * oldest message of the previous page as {@code <time>-<skip>}: messages with log time up to
+ * {@code time}, leaving out the newest {@code skip} of them, which that page already returned
+ * because they share its oldest message's time. A bare {@code <time>} starts before that time.
+ * A cursor may skip at most {@value #MAX_SKIP} messages, so a forged one cannot make a query
+ * read a whole room.
+ *
+ * <p>Two caches sit in front of the log, each bounded by the bytes of the bodies it holds:
+ *
+ * <ul>
+ *   <li>a hot tail with the latest messages of each room, fed by the log as messages are
+ *       appended; whole rooms are evicted least recently used first. Most history requests
+ *       are for the first pages of active rooms and are served from here without touching the
+ *       log.
+ *   <li>a {@link BlockCache} of sealed segment blocks for older pages, so paging through a
+ *       room decodes each block of its records once.
+ * </ul>
+ *
+ * <p>A page the tail cannot fully answer is read from the log, newest segment first.
+ */
+public final class HistoryService {
+
+  /** Largest skip a cursor may carry: far more messages than share one millisecond. */
+  public static final int MAX_SKIP = 10_000;
+
+  /** Estimated bytes of a tail entry beyond its body. */
+  private static final int ENTRY_OVERHEAD = 64;
+
+  /** One page of history. */
+  public static final class Page {
+    private final List<LogEntry> messages;
+    private final String nextCursor;
+    private final boolean fromTail;
+
+    private Page(List<LogEntry> messages, String nextCursor, boolean fromTail) {
+      this.messages = messages;
+      this.nextCursor = nextCursor;
+      this.fromTail = fromTail;
+    }
+
+    /**
+     * Returns the messages of the page, oldest first.
+     */
+    public List<LogEntry> getMessages() {
+      return messages;
+    }
+
+    /**
+     * Returns the cursor of the next older page, or null if there are no older messages.
+     */
+    public String getNextCursor() {
+      return nextCursor;
+    }
+
+    /**
+     * Returns whether the page was served from the hot tail.
+     */
+    public boolean isFromTail() {
+      return fromTail;
+    }
+  }
+
+  /** Latest messages of one room, oldest first. */
+  private static final class RoomTail {
+    private final ArrayDeque<LogEntry> entries = new ArrayDeque<>();
+    private long bytes;
+    /** Whether the tail holds every message the room has in the log. */
+    private boolean complete;
+
+    private RoomTail(boolean complete) {
+      this.complete = complete;
+    }
+  }
+
+  private final MessageLog log;
+  private final int tailMessages;
+  private final long tailMaxBytes;
+  private final BlockCache blocks;
+
+  private final LinkedHashMap<String, RoomTail> tails = new LinkedHashMap<>(256, 0.75f, true);
+  private long tailBytes;
+
+  private final LongAdder queries = new LongAdder();
+  private final LongAdder tailHits = new LongAdder();
+  private final LongAdder tailEvictions = new LongAdder();
+
+  /**
+   * Creates the service and starts feeding the hot tail from the log.
+   *
+   * @param log message log
+   * @param tailMessages number of latest messages kept per room
+   * @param tailMaxBytes bytes the hot tail may hold across all rooms
+   * @param blockCacheBytes bytes the block cache may hold
+   */
+  public HistoryService(MessageLog log, int tailMessages, long tailMaxBytes,
+      long blockCacheBytes) {
+    this.log = Objects.requireNonNull(log, "log");
+    if (tailMessages < 0 || tailMaxBytes < 0) {
+      throw new IllegalArgumentException("tailMessages and tailMaxBytes must be >= 0");
+    }
+    this.tailMessages = tailMessages;
+    this.tailMaxBytes = tailMaxBytes;
+    this.blocks = new BlockCache(blockCacheBytes);
+    if (tailMessages > 0 && tailMaxBytes > 0) {
+      log.addListener(this::onAppend);
+    }
+  }
+
+  /** Called by the log, under its lock, for every appended record. */
+  private void onAppend(LogEntry entry) {
+    synchronized (tails) {
+      RoomTail tail = tails.get(entry.getRoomId());
+      if (tail == null) {
+        tail = new RoomTail(log.roomRecords(entry.getRoomId()) == 1);
+        tails.put(entry.getRoomId(), tail);
+      }
+      tail.entries.addLast(entry);
+      tail.bytes += sizeOf(entry);
+      tailBytes += sizeOf(entry);
+      while (tail.entries.size() > tailMessages) {
+        long size = sizeOf(tail.entries.removeFirst());
+        tail.bytes -= size;
+        tailBytes -= size;
+        tail.complete = false;
+      }
+      Iterator<RoomTail> eldest = tails.values().iterator();
+      while (tailBytes > tailMaxBytes && tails.size() > 1) {
+        tailBytes -= eldest.next().bytes;
+        eldest.remove();
+        tailEvictions.increment();
+      }
+    }
+  }
+
+  /**
+   * Returns a page of a room's history.
+   *
+   * @param roomId room id
+   * @param before cursor from a previous page, or null or empty for the latest messages
+   * @param limit maximum number of messages
+   * @return page of messages
+   * @throws IllegalArgumentException if the cursor is malformed or skips more than
+   *     {@value #MAX_SKIP} messages, or the limit is below 1
+   */
+  public Page query(String roomId, String before, int limit) {
+    Objects.requireNonNull(roomId, "roomId");
+    if (limit < 1) {
+      throw new IllegalArgumentException("limit must be >= 1");
+    }
+    long toTime = Long.MAX_VALUE;
+    int skip = 0;
+    if (before != null && !before.isEmpty()) {
+      try {
+        int dash = before.indexOf('-', 1);
+        if (dash < 0) {
+          toTime = Long.parseLong(before) - 1;
+        } else {
+          toTime = Long.parseLong(before.substring(0, dash));
+          skip = Integer.parseInt(before.substring(dash + 1));
+        }
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid cursor: " + before);
+      }
+      if (skip < 0 || skip > MAX_SKIP) {
+        throw new IllegalArgumentException("Invalid cursor: " + before);
+      }
+    }
+    queries.increment();
+    int need = limit + skip;
+    List<LogEntry> candidates = fromTail(roomId, toTime, need);
+    boolean fromTail = candidates != null;
+    if (fromTail) {
+      tailHits.increment();
+    } else {
+      candidates = log.read(roomId, Long.MIN_VALUE, toTime, need, blocks);
+    }
+
+    int end = Math.max(0, candidates.size() - skip);
+    List<LogEntry> page = List.copyOf(candidates.subList(Math.max(0, end - limit), end));
+    String next = null;
+    if (candidates.size() == need && !page.isEmpty()) {
+      long oldest = page.get(0).getTime();
+      int sameTime = 0;
+      while (sameTime < page.size() && page.get(sameTime).getTime() == oldest) {
+        sameTime++;
+      }
+      next = oldest + "-" + (oldest == toTime ? sameTime + skip : sameTime);
+    }
+    return new Page(page, next, fromTail);
+  }
+
+  /**
+   * Returns the newest {@code need} messages up to {@code toTime}, oldest first, if the tail
+   * holds them all, or null if the log must be read.
+   */
+  private List<LogEntry> fromTail(String roomId, long toTime, int need) {
+    synchronized (tails) {
+      RoomTail tail = tails.get(roomId);
+      if (tail == null) {
+        return null;
+      }
+      List<LogEntry> out = new ArrayList<>(Math.min(need, tail.entries.size()));
+      Iterator<LogEntry> it = tail.entries.descendingIterator();
+      while (it.hasNext() && out.size() < need) {
+        LogEntry entry = it.next();
+        if (entry.getTime() <= toTime) {
+          out.add(entry);
+        }
+      }
+      if (out.size() < need && !tail.complete) {
+        return null;
+      }
+      Collections.reverse(out);
+      return out;
+    }
+  }
+
+  private static long sizeOf(LogEntry entry) {
+    return entry.getBody().length + ENTRY_OVERHEAD;
+  }
+
+  /**
+   * Returns a one-line summary of the history caches.
+   *
+   * @return report line
+   */
+  public String report() {
+    int rooms;
+    long bytes;
+    synchronized (tails) {
+      rooms = tails.size();
+      bytes = tailBytes;
+    }
+    return String.format("history: queries=%d tail_hits=%d tail_rooms=%d tail_bytes=%d "
+            + "tail_evictions=%d block_hits=%d block_misses=%d block_bytes=%d "
+            + "block_evictions=%d",
+        queries.sum(), tailHits.sum(), rooms, bytes, tailEvictions.sum(), blocks.hits(),
+        blocks.misses(), blocks.bytes(), blocks.evictions());
+  }
+}
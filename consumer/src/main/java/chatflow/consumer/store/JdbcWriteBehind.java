@@ -0,0 +1,385 @@
+package chatflow.consumer.store;
+
+import chatflow.consumer.model.BroadcastRequest;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Write-behind persistence of consumed messages to a relational store over JDBC.
+ *
+ * <p>Messages are sharded by room over {@code writers} threads, each with its own bounded
+ * queue and connection, so a room's rows are inserted in order. A writer collects up to
+ * {@code batchSize} messages, waiting at most {@code lingerMillis} for the batch to fill, and
+ * inserts them with one multi-row {@code INSERT} in a single transaction.
+ *
+ * <p>{@link #submit} returns a future that completes once the row is committed, and the
+ * consumer acks a delivery only after that, so a crash loses no queued row: its delivery is
+ * still unacked and comes back. When the store falls behind, unacked deliveries pile up until
+ * the prefetch window is full and the broker stops delivering. {@code submit} also blocks
+ * while the room's queue is full, which bounds memory if the prefetch window is larger.
+ *
+ * <p>A batch that fails with a data or constraint error (SQL state class 22 or 23) is retried
+ * row by row. Rows whose message id is already stored (unique violation, SQL state 23505),
+ * for example after a redelivery, are skipped; other rejected rows are counted as failed and
+ * logged. Either way their futures complete, since retrying would not change the outcome.
+ * Any other error is treated as the store being unavailable: the writer reconnects and
+ * retries the batch with a growing backoff, and its queue fills up meanwhile.
+ */
+public final class JdbcWriteBehind implements AutoCloseable {
+
+  private static final Pattern TABLE_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+  private static final String COLUMNS = "message_id, room_id, user_id, username, message, ts,"
+      + " message_type, server_id, client_ip";
+  private static final long MAX_BACKOFF_MS = 5_000L;
+  private static final String UNIQUE_VIOLATION = "23505";
+
+  /** A queued row and the future completed once it is committed. */
+  private static final class Pending {
+    private final BroadcastRequest request;
+    private final CompletableFuture<Void> committed = new CompletableFuture<>();
+
+    private Pending(BroadcastRequest request) {
+      this.request = request;
+    }
+  }
+
+  private final String url;
+  private final String user;
+  private final String password;
+  private final String table;
+  private final int batchSize;
+  private final long lingerMillis;
+  private final List<Writer> writers = new ArrayList<>();
+  private volatile boolean running = true;
+
+  private final LongAdder submitted = new LongAdder();
+  private final LongAdder blocked = new LongAdder();
+  private final LongAdder inserted = new LongAdder();
+  private final LongAdder batches = new LongAdder();
+  private final LongAdder duplicates = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder retries = new LongAdder();
+
+  /**
+   * Creates the table if needed and starts the writers.
+   *
+   * @param url JDBC URL
+   * @param user database user
+   * @param password database password
+   * @param table table name
+   * @param writers number of writer threads and connections
+   * @param queueCapacity maximum number of messages waiting per writer
+   * @param batchSize maximum number of rows per insert
+   * @param lingerMillis how long a writer waits for a batch to fill
+   * @throws SQLException if the store cannot be reached or the table cannot be created
+   */
+  public JdbcWriteBehind(String url, String user, String password, String table, int writers,
+      int queueCapacity, int batchSize, long lingerMillis) throws SQLException {
+    this.url = Objects.requireNonNull(url, "url");
+    this.user = user;
+    this.password = password;
+    if (!TABLE_NAME.matcher(table).matches()) {
+      throw new IllegalArgumentException("Invalid table name: " + table);
+    }
+    this.table = table;
+    if (writers < 1 || queueCapacity < 1 || batchSize < 1) {
+      throw new IllegalArgumentException("writers, queueCapacity and batchSize must be >= 1");
+    }
+    this.batchSize = batchSize;
+    this.lingerMillis = lingerMillis;
+    try (Connection conn = DriverManager.getConnection(url, user, password);
+        Statement st = conn.createStatement()) {
+      st.execute("CREATE TABLE IF NOT EXISTS " + table + " ("
+          + "message_id VARCHAR(64) PRIMARY KEY, room_id VARCHAR(64) NOT NULL,"
+          + " user_id VARCHAR(64), username VARCHAR(64), message VARCHAR(2000),"
+          + " ts VARCHAR(40), message_type VARCHAR(16), server_id VARCHAR(64),"
+          + " client_ip VARCHAR(64))");
+    }
+    for (int i = 0; i < writers; i++) {
+      Writer writer = new Writer(i, queueCapacity);
+      this.writers.add(writer);
+      writer.start();
+    }
+  }
+
+  /**
+   * Queues a message for insertion, blocking while its writer's queue is full.
+   *
+   * @param request message to store
+   * @return future completed once the row is committed, or skipped as a duplicate or rejected;
+   *     completes exceptionally if the store is closed before that
+   * @throws InterruptedException if interrupted while waiting for queue space
+   */
+  public CompletableFuture<Void> submit(BroadcastRequest request) throws InterruptedException {
+    if (!running) {
+      return CompletableFuture.failedFuture(
+          new IllegalStateException("Write-behind store closed"));
+    }
+    Pending pending = new Pending(request);
+    BlockingQueue<Pending> queue =
+        writers.get(Math.floorMod(request.getRoomId().hashCode(), writers.size())).queue;
+    if (!queue.offer(pending)) {
+      blocked.increment();
+      queue.put(pending);
+    }
+    submitted.increment();
+    return pending.committed;
+  }
+
+  private final class Writer extends Thread {
+    private final BlockingQueue<Pending> queue;
+    private Connection connection;
+    private PreparedStatement fullBatch;
+
+    private Writer(int index, int queueCapacity) {
+      super("jdbc-writer-" + index);
+      setDaemon(true);
+      this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    @Override
+    public void run() {
+      List<Pending> batch = new ArrayList<>(batchSize);
+      try {
+        while (running || !queue.isEmpty()) {
+          Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+          if (first == null) {
+            continue;
+          }
+          batch.add(first);
+          long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+          while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            long wait = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || wait <= 0) {
+              break;
+            }
+            Pending next = queue.poll(wait, TimeUnit.NANOSECONDS);
+            if (next == null) {
+              break;
+            }
+            batch.add(next);
+          }
+          write(batch);
+          batch.clear();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        disconnect();
+        queue.drainTo(batch);
+        for (Pending pending : batch) {
+          pending.committed.completeExceptionally(
+              new IllegalStateException("Write-behind store closed"));
+        }
+      }
+    }
+
+    private void write(List<Pending> batch) throws InterruptedException {
+      long backoff = 100L;
+      while (true) {
+        try {
+          connect();
+          insert(batch);
+          connection.commit();
+          inserted.add(batch.size());
+          batches.increment();
+          for (Pending pending : batch) {
+            pending.committed.complete(null);
+          }
+          return;
+        } catch (SQLException e) {
+          rollback();
+          if (isDataError(e)) {
+            try {
+              insertOneByOne(batch);
+              return;
+            } catch (SQLException rowError) {
+              e = rowError;
+              rollback();
+            }
+          }
+          retries.increment();
+          System.out.println("JDBC write failed, retrying in " + backoff + " ms: "
+              + e.getMessage());
+          disconnect();
+          Thread.sleep(backoff);
+          backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+        }
+      }
+    }
+
+    private void insert(List<Pending> batch) throws SQLException {
+      if (batch.size() == batchSize) {
+        if (fullBatch == null) {
+          fullBatch = connection.prepareStatement(insertSql(batchSize));
+        }
+        bind(fullBatch, batch);
+        fullBatch.executeUpdate();
+        return;
+      }
+      try (PreparedStatement st = connection.prepareStatement(insertSql(batch.size()))) {
+        bind(st, batch);
+        st.executeUpdate();
+      }
+    }
+
+    /** Inserts rows one at a time, skipping duplicates and rows the store rejects. */
+    private void insertOneByOne(List<Pending> batch) throws SQLException {
+      try (PreparedStatement st = connection.prepareStatement(insertSql(1))) {
+        for (Pending pending : batch) {
+          if (pending.committed.isDone()) {
+            continue;
+          }
+          try {
+            bind(st, List.of(pending));
+            st.executeUpdate();
+            connection.commit();
+            inserted.increment();
+          } catch (SQLException e) {
+            if (!isDataError(e)) {
+              throw e;
+            }
+            rollback();
+            if (UNIQUE_VIOLATION.equals(e.getSQLState())) {
+              duplicates.increment();
+            } else {
+              failed.increment();
+              System.out.println("JDBC row rejected for " + pending.request.getMessageId()
+                  + ": " + e.getMessage());
+            }
+          }
+          pending.committed.complete(null);
+        }
+      }
+      batches.increment();
+    }
+
+    private void connect() throws SQLException {
+      if (connection == null) {
+        connection = DriverManager.getConnection(url, user, password);
+        connection.setAutoCommit(false);
+      }
+    }
+
+    private void rollback() {
+      try {
+        if (connection != null) {
+          connection.rollback();
+        }
+      } catch (SQLException ignored) {
+      }
+    }
+
+    private void disconnect() {
+      try {
+        if (connection != null) {
+          connection.close();
+        }
+      } catch (SQLException ignored) {
+      }
+      connection = null;
+      fullBatch = null;
+    }
+  }
+
+  private String insertSql(int rows) {
+    StringBuilder sql = new StringBuilder("INSERT INTO ").append(table)
+        .append(" (").append(COLUMNS).append(") VALUES ");
+    for (int i = 0; i < rows; i++) {
+      sql.append(i == 0 ? "" : ", ").append("(?, ?, ?, ?, ?, ?, ?, ?, ?)");
+    }
+    return sql.toString();
+  }
+
+  private static void bind(PreparedStatement st, List<Pending> rows) throws SQLException {
+    int p = 1;
+    for (Pending pending : rows) {
+      BroadcastRequest r = pending.request;
+      st.setString(p++, r.getMessageId());
+      st.setString(p++, r.getRoomId());
+      st.setString(p++, r.getUserId());
+      st.setString(p++, r.getUsername());
+      st.setString(p++, r.getMessage());
+      st.setString(p++, r.getTimestamp());
+      st.setString(p++, r.getMessageType());
+      st.setString(p++, r.getServerId());
+      st.setString(p++, r.getClientIp());
+    }
+  }
+
+  private static boolean isDataError(SQLException e) {
+    String state = e.getSQLState();
+    return state != null && (state.startsWith("22") || state.startsWith("23"));
+  }
+
+  /**
+   * Returns the number of messages waiting to be written.
+   */
+  public int queued() {
+    int n = 0;
+    for (Writer writer : writers) {
+      n += writer.queue.size();
+    }
+    return n;
+  }
+
+  /**
+   * Returns the number of rows inserted.
+   */
+  public long inserted() {
+    return inserted.sum();
+  }
+
+  /**
+   * Returns the number of rows skipped because their message id was already stored.
+   */
+  public long duplicates() {
+    return duplicates.sum();
+  }
+
+  /**
+   * Returns the number of rows the store rejected for other data or constraint errors.
+   */
+  public long failed() {
+    return failed.sum();
+  }
+
+  /**
+   * Returns a one-line summary of the store's activity.
+   *
+   * @return report line
+   */
+  public String report() {
+    long batchCount = batches.sum();
+    return String.format("jdbc: submitted=%d inserted=%d queued=%d batches=%d rows/batch=%.1f "
+            + "blocked=%d duplicates=%d failed=%d retries=%d",
+        submitted.sum(), inserted.sum(), queued(), batchCount,
+        batchCount == 0 ? 0.0 : (double) inserted.sum() / batchCount, blocked.sum(),
+        duplicates.sum(), failed.sum(), retries.sum());
+  }
+
+  /**
+   * Stops accepting messages and waits for the writers to drain their queues.
+   */
+  @Override
+  public void close() throws InterruptedException {
+    running = false;
+    for (Writer writer : writers) {
+      writer.join(10_000L);
+      writer.interrupt();
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package chatflow.consumer.store;
+
+import chatflow.consumer.codec.BinaryQueueMessageCodec;
+import chatflow.consumer.model.QueueMessage;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+
+/**
+ * A message read back from the {@link MessageLog}.
+ */
+public final class LogEntry {
+
+  static final byte FORMAT_JSON = 0;
+  static final byte FORMAT_BINARY = 1;
+
+  private static final ObjectMapper MAPPER = new ObjectMapper()
+      .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+  private final long time;
+  private final String roomId;
+  private final String messageType;
+  private final byte format;
+  private final byte[] body;
+
+  LogEntry(long time, String roomId, String messageType, byte format, byte[] body) {
+    this.time = time;
+    this.roomId = roomId;
+    this.messageType = messageType;
+    this.format = format;
+    this.body = body;
+  }
+
+  /**
+   * Returns the log format of a body with the given AMQP content type.
+   */
+  static byte formatOf(String contentType) {
+    return BinaryQueueMessageCodec.CONTENT_TYPE.equals(contentType) ? FORMAT_BINARY : FORMAT_JSON;
+  }
+
+  /**
+   * Returns the log time in epoch milliseconds.
+   */
+  public long getTime() {
+    return time;
+  }
+
+  public String getRoomId() {
+    return roomId;
+  }
+
+  public String getMessageType() {
+    return messageType;
+  }
+
+  /**
+   * Returns the content type the body was received with.
+   */
+  public String getContentType() {
+    return format == FORMAT_BINARY ? BinaryQueueMessageCodec.CONTENT_TYPE : "application/json";
+  }
+
+  /**
+   * Returns the encoded queue message as it was received.
+   */
+  public byte[] getBody() {
+    return body;
+  }
+
+  /**
+   * Decodes the body.
+   *
+   * @return queue message
+   * @throws IOException if the body is not a valid queue message
+   */
+  public QueueMessage decode() throws IOException {
+    return format == FORMAT_BINARY
+        ? BinaryQueueMessageCodec.INSTANCE.decode(body)
+        : MAPPER.readValue(body, QueueMessage.class);
+  }
+
+  byte getFormat() {
+    return format;
+  }
+}
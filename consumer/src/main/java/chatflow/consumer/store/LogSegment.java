@@ -0,0 +1,505 @@
+package chatflow.consumer.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * One memory-mapped file of a {@link MessageLog} with its in-memory room index.
+ *
+ * <p>A record is a 4-byte length, a 4-byte CRC32 of the body and the body: the log time, the
+ * position of the previous record of the same room in this segment (or -1), the body format,
+ * the lengths of the message type and room id, those two strings and the message body. The
+ * length is written last, so a torn record ends the segment's data on recovery.
+ *
+ * <p>The index keeps, per room, the position of its last record and every
+ * {@value #INDEX_EVERY}th record with its time. A range query binary-searches those entries and
+ * then follows the previous-record links backwards, so it touches only the room's own records.
+ * Sealed segments persist the index next to the file so reopening them needs no scan.
+ *
+ * <p>Appends are not thread-safe; the log serializes them. Records below the append position
+ * never change, so they can be read without a lock once their position is known.
+ *
+ * <p>The log holds one reference to each segment and readers take another with
+ * {@link #retain()} for as long as they walk it. {@link #close()} and {@link #delete()} drop
+ * the log's reference, and the file is closed, or deleted, once the last reader releases it.
+ */
+final class LogSegment {
+
+  static final int RECORD_HEADER = 8;
+
+  private static final int TIME = 0;
+  private static final int PREV = 8;
+  private static final int FORMAT = 12;
+  private static final int TYPE_LENGTH = 13;
+  private static final int ROOM_LENGTH = 14;
+  private static final int FIXED = 16;
+
+  private static final int INDEX_EVERY = 32;
+  private static final int INDEX_MAGIC = 0x43464c49;
+
+  /** Room index of one segment. */
+  private static final class RoomIndex {
+    private int last = -1;
+    private int count;
+    private int entries;
+    private long[] times = new long[4];
+    private int[] positions = new int[4];
+
+    private void add(long time, int pos) {
+      if (count++ % INDEX_EVERY == 0) {
+        if (entries == times.length) {
+          times = Arrays.copyOf(times, entries * 2);
+          positions = Arrays.copyOf(positions, entries * 2);
+        }
+        times[entries] = time;
+        positions[entries] = pos;
+        entries++;
+      }
+      last = pos;
+    }
+  }
+
+  final long id;
+  final Path file;
+  private final int capacity;
+  private final FileChannel channel;
+  private final MappedByteBuffer buffer;
+  private final CRC32 crc = new CRC32();
+  private final Map<String, RoomIndex> rooms = new HashMap<>();
+
+  private int end;
+  private int records;
+  private long minTime = Long.MAX_VALUE;
+  private long maxTime = Long.MIN_VALUE;
+  private boolean compacted;
+  private int forced;
+
+  private final AtomicInteger refs = new AtomicInteger(1);
+  private volatile boolean deleteOnRelease;
+
+  private LogSegment(long id, Path file, int capacity) throws IOException {
+    this.id = id;
+    this.file = file;
+    this.capacity = capacity;
+    this.channel = FileChannel.open(file,
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+  }
+
+  /**
+   * Creates an empty segment file.
+   */
+  static LogSegment create(long id, Path file, int capacity) throws IOException {
+    return new LogSegment(id, file, capacity);
+  }
+
+  /**
+   * Opens an existing segment file, loading its index file or rebuilding the index by scanning.
+   */
+  static LogSegment open(long id, Path file, boolean sealed) throws IOException {
+    LogSegment segment = new LogSegment(id, file, (int) Files.size(file));
+    if (!sealed || !segment.loadIndex()) {
+      segment.scan();
+      if (sealed) {
+        segment.writeIndex();
+      }
+    }
+    return segment;
+  }
+
+  /**
+   * Returns the stored size of an entry's record.
+   */
+  static int recordSize(LogEntry entry) {
+    return RECORD_HEADER + FIXED
+        + entry.getMessageType().getBytes(StandardCharsets.UTF_8).length
+        + entry.getRoomId().getBytes(StandardCharsets.UTF_8).length + entry.getBody().length;
+  }
+
+  /**
+   * Appends a record.
+   *
+   * @return false if the segment has no room left for it
+   */
+  boolean append(long time, String roomId, String messageType, byte format, byte[] body) {
+    byte[] type = messageType.getBytes(StandardCharsets.UTF_8);
+    byte[] room = roomId.getBytes(StandardCharsets.UTF_8);
+    int length = FIXED + type.length + room.length + body.length;
+    if (end + RECORD_HEADER + length > capacity) {
+      return false;
+    }
+    RoomIndex index = rooms.computeIfAbsent(roomId, k -> new RoomIndex());
+    int pos = end;
+    int at = pos + RECORD_HEADER;
+    buffer.putLong(at + TIME, time);
+    buffer.putInt(at + PREV, index.last);
+    buffer.put(at + FORMAT, format);
+    buffer.put(at + TYPE_LENGTH, (byte) type.length);
+    buffer.putShort(at + ROOM_LENGTH, (short) room.length);
+    buffer.put(at + FIXED, type);
+    buffer.put(at + FIXED + type.length, room);
+    buffer.put(at + FIXED + type.length + room.length, body);
+    crc.reset();
+    crc.update(buffer.slice(at, length));
+    buffer.putInt(pos + 4, (int) crc.getValue());
+    buffer.putInt(pos, length);
+    end = at + length;
+    indexRecord(roomId, time, pos, index);
+    return true;
+  }
+
+  private void indexRecord(String roomId, long time, int pos, RoomIndex index) {
+    index.add(time, pos);
+    records++;
+    minTime = Math.min(minTime, time);
+    maxTime = Math.max(maxTime, time);
+  }
+
+  /** Rebuilds the index from the records and finds the end of the data. */
+  private void scan() {
+    int pos = 0;
+    while (pos + RECORD_HEADER + FIXED <= capacity) {
+      int length = buffer.getInt(pos);
+      int at = pos + RECORD_HEADER;
+      if (length < FIXED || length > capacity - at) {
+        break;
+      }
+      crc.reset();
+      crc.update(buffer.slice(at, length));
+      if ((int) crc.getValue() != buffer.getInt(pos + 4)
+          || FIXED + (buffer.get(at + TYPE_LENGTH) & 0xff)
+              + (buffer.getShort(at + ROOM_LENGTH) & 0xffff) > length) {
+        break;
+      }
+      String roomId = roomAt(pos);
+      indexRecord(roomId, buffer.getLong(at + TIME), pos,
+          rooms.computeIfAbsent(roomId, k -> new RoomIndex()));
+      pos = at + length;
+    }
+    end = pos;
+  }
+
+  /**
+   * Returns the position to start a backward walk from for records of a room up to a time, or
+   * -1 if the room has no records here.
+   */
+  int startFor(String roomId, long toTime) {
+    RoomIndex index = rooms.get(roomId);
+    if (index == null) {
+      return -1;
+    }
+    int lo = 0;
+    int hi = index.entries;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (index.times[mid] > toTime) {
+        hi = mid;
+      } else {
+        lo = mid + 1;
+      }
+    }
+    return lo < index.entries ? index.positions[lo] : index.last;
+  }
+
+  /**
+   * Walks a room's records backwards from {@code start}, adding those within the time range to
+   * {@code out}, newest first, until it holds {@code limit} entries.
+   */
+  void collect(int start, long fromTime, long toTime, int limit, List<LogEntry> out) {
+    int pos = start;
+    while (pos >= 0 && out.size() < limit) {
+      long time = buffer.getLong(pos + RECORD_HEADER + TIME);
+      if (time < fromTime) {
+        break;
+      }
+      if (time <= toTime) {
+        out.add(entryAt(pos));
+      }
+      pos = buffer.getInt(pos + RECORD_HEADER + PREV);
+    }
+  }
+
+  /**
+   * Returns the number of records a room has in this segment.
+   */
+  int roomRecords(String roomId) {
+    RoomIndex index = rooms.get(roomId);
+    return index == null ? 0 : index.count;
+  }
+
+  /**
+   * Returns the block holding a room's last record at or before a time, or -1 if there is none.
+   * Block {@code i} runs from the room's index entry {@code i} up to the next one, so it holds
+   * {@value #INDEX_EVERY} records, or fewer for the last block.
+   */
+  int blockAt(String roomId, long time) {
+    RoomIndex index = rooms.get(roomId);
+    if (index == null) {
+      return -1;
+    }
+    int lo = 0;
+    int hi = index.entries;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (index.times[mid] > time) {
+        hi = mid;
+      } else {
+        lo = mid + 1;
+      }
+    }
+    return lo - 1;
+  }
+
+  /**
+   * Reads one block of a room's records, oldest first.
+   */
+  LogEntry[] readBlock(String roomId, int block) {
+    RoomIndex index = rooms.get(roomId);
+    int first = index.positions[block];
+    int pos = block + 1 < index.entries
+        ? buffer.getInt(index.positions[block + 1] + RECORD_HEADER + PREV)
+        : index.last;
+    List<LogEntry> entries = new ArrayList<>(INDEX_EVERY);
+    while (true) {
+      entries.add(entryAt(pos));
+      if (pos == first) {
+        break;
+      }
+      pos = buffer.getInt(pos + RECORD_HEADER + PREV);
+    }
+    Collections.reverse(entries);
+    return entries.toArray(new LogEntry[0]);
+  }
+
+  /**
+   * Passes every record of the segment to {@code action} in append order.
+   */
+  void forEach(int limitPos, Consumer<LogEntry> action) {
+    int pos = 0;
+    while (pos < limitPos) {
+      action.accept(entryAt(pos));
+      pos += RECORD_HEADER + buffer.getInt(pos);
+    }
+  }
+
+  private LogEntry entryAt(int pos) {
+    int at = pos + RECORD_HEADER;
+    int length = buffer.getInt(pos);
+    int typeLength = buffer.get(at + TYPE_LENGTH) & 0xff;
+    int roomLength = buffer.getShort(at + ROOM_LENGTH) & 0xffff;
+    byte[] strings = new byte[typeLength + roomLength];
+    buffer.get(at + FIXED, strings);
+    byte[] body = new byte[length - FIXED - strings.length];
+    buffer.get(at + FIXED + strings.length, body);
+    return new LogEntry(buffer.getLong(at + TIME),
+        new String(strings, typeLength, roomLength, StandardCharsets.UTF_8),
+        new String(strings, 0, typeLength, StandardCharsets.UTF_8),
+        buffer.get(at + FORMAT), body);
+  }
+
+  private String roomAt(int pos) {
+    int at = pos + RECORD_HEADER;
+    int typeLength = buffer.get(at + TYPE_LENGTH) & 0xff;
+    byte[] room = new byte[buffer.getShort(at + ROOM_LENGTH) & 0xffff];
+    buffer.get(at + FIXED + typeLength, room);
+    return new String(room, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Writes the index next to the segment file, replacing any previous one.
+   */
+  void writeIndex() throws IOException {
+    Path tmp = indexFile().resolveSibling(indexFile().getFileName() + ".tmp");
+    CRC32 checksum = new CRC32();
+    try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(tmp)), checksum))) {
+      out.writeInt(INDEX_MAGIC);
+      out.writeInt(end);
+      out.writeInt(records);
+      out.writeLong(minTime);
+      out.writeLong(maxTime);
+      out.writeBoolean(compacted);
+      out.writeInt(rooms.size());
+      for (Map.Entry<String, RoomIndex> room : rooms.entrySet()) {
+        RoomIndex index = room.getValue();
+        out.writeUTF(room.getKey());
+        out.writeInt(index.last);
+        out.writeInt(index.count);
+        out.writeInt(index.entries);
+        for (int i = 0; i < index.entries; i++) {
+          out.writeLong(index.times[i]);
+          out.writeInt(index.positions[i]);
+        }
+      }
+      out.writeInt((int) checksum.getValue());
+    }
+    Files.move(tmp, indexFile(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private boolean loadIndex() {
+    Path path = indexFile();
+    if (!Files.exists(path)) {
+      return false;
+    }
+    CRC32 checksum = new CRC32();
+    try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+        new BufferedInputStream(Files.newInputStream(path)), checksum))) {
+      if (in.readInt() != INDEX_MAGIC) {
+        return false;
+      }
+      int indexEnd = in.readInt();
+      int indexRecords = in.readInt();
+      long indexMin = in.readLong();
+      long indexMax = in.readLong();
+      boolean indexCompacted = in.readBoolean();
+      int roomCount = in.readInt();
+      Map<String, RoomIndex> loaded = new HashMap<>();
+      for (int r = 0; r < roomCount; r++) {
+        String roomId = in.readUTF();
+        RoomIndex index = new RoomIndex();
+        index.last = in.readInt();
+        index.count = in.readInt();
+        index.entries = in.readInt();
+        index.times = new long[Math.max(1, index.entries)];
+        index.positions = new int[Math.max(1, index.entries)];
+        for (int i = 0; i < index.entries; i++) {
+          index.times[i] = in.readLong();
+          index.positions[i] = in.readInt();
+        }
+        loaded.put(roomId, index);
+      }
+      int expected = (int) checksum.getValue();
+      if (in.readInt() != expected || indexEnd > capacity) {
+        return false;
+      }
+      end = indexEnd;
+      records = indexRecords;
+      minTime = indexMin;
+      maxTime = indexMax;
+      compacted = indexCompacted;
+      rooms.putAll(loaded);
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  Path indexFile() {
+    String name = file.getFileName().toString();
+    return file.resolveSibling(name.substring(0, name.lastIndexOf('.')) + ".idx");
+  }
+
+  int end() {
+    return end;
+  }
+
+  int records() {
+    return records;
+  }
+
+  long minTime() {
+    return minTime;
+  }
+
+  long maxTime() {
+    return maxTime;
+  }
+
+  boolean isCompacted() {
+    return compacted;
+  }
+
+  void markCompacted() {
+    compacted = true;
+  }
+
+  void force() {
+    buffer.force();
+  }
+
+  /**
+   * Forces the records written since the last call, up to {@code upTo}. Only the flusher calls
+   * this, so the forced range needs no lock.
+   */
+  void forceTo(int upTo) {
+    if (upTo > forced) {
+      buffer.force(forced, upTo - forced);
+      forced = upTo;
+    }
+  }
+
+  /**
+   * Takes a reader reference, to be dropped with {@link #release()}.
+   *
+   * @return false if the segment is already closed
+   */
+  boolean retain() {
+    while (true) {
+      int n = refs.get();
+      if (n == 0) {
+        return false;
+      }
+      if (refs.compareAndSet(n, n + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Drops a reference; the last one closes the segment, deleting its files if it was deleted.
+   */
+  void release() {
+    if (refs.decrementAndGet() != 0) {
+      return;
+    }
+    try {
+      if (deleteOnRelease) {
+        channel.close();
+        Files.deleteIfExists(indexFile());
+        Files.deleteIfExists(file);
+      } else {
+        buffer.force();
+        channel.close();
+      }
+    } catch (IOException e) {
+      System.out.println("Failed to close log segment " + file + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Drops the log's reference, closing the segment once no reader holds it.
+   */
+  void close() {
+    release();
+  }
+
+  /**
+   * Drops the log's reference and deletes the segment's files once no reader holds it.
+   */
+  void delete() {
+    deleteOnRelease = true;
+    release();
+  }
+}
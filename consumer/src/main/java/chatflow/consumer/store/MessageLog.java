@@ -0,0 +1,540 @@
+package chatflow.consumer.store;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Durable, append-only log of consumed messages in memory-mapped segment files.
+ *
+ * <p>Every record carries a log time: the append time in epoch milliseconds, never earlier
+ * than the previous record's, so the whole log is ordered by time and each segment covers a
+ * disjoint time range. A range query for one room skips segments outside the range and uses
+ * each segment's sparse room index (see {@link LogSegment}) to read only that room's records.
+ *
+ * <p>With fsync on, {@link #append} returns a future that completes once the record has been
+ * forced to disk. A single flusher thread forces the part of the active segment written since
+ * its last force and completes the futures of everything appended so far together, so appends
+ * that arrive while a force is running share the next one (group commit). Without fsync the
+ * future completes at once and records reach the disk when the kernel writes back the page
+ * cache, which survives a process crash but not a host crash.
+ *
+ * <p>A maintenance task deletes whole segments older than the retention period and compacts
+ * segments older than the compaction age by rewriting them without the listed message types
+ * (for example JOIN and LEAVE, which are not worth keeping as long as chat text). Readers
+ * retain the segments they walk, so a segment swapped out meanwhile is closed only after them.
+ */
+public final class MessageLog implements AutoCloseable {
+
+  private static final String PREFIX = "log-";
+  private static final String SUFFIX = ".log";
+  private static final long MAINTENANCE_INTERVAL_MS = 60_000L;
+
+  private final Path dir;
+  private final int segmentBytes;
+  private final boolean fsync;
+  private final long fsyncLingerMicros;
+  private final long retentionMillis;
+  private final long compactAfterMillis;
+  private final Set<String> compactTypes;
+
+  private volatile List<LogSegment> sealed;
+  private LogSegment active;
+  private long lastTime;
+  private List<CompletableFuture<Void>> waiting = new ArrayList<>();
+  private boolean closed;
+  private final List<Consumer<LogEntry>> listeners = new CopyOnWriteArrayList<>();
+
+  private final Thread flusher;
+  private final ScheduledExecutorService maintenance;
+
+  private final AtomicLong appended = new AtomicLong();
+  private final AtomicLong forces = new AtomicLong();
+  private final AtomicLong forcedRecords = new AtomicLong();
+  private final AtomicLong maxForceBatch = new AtomicLong();
+  private final AtomicLong forceMicros = new AtomicLong();
+  private final AtomicLong deletedSegments = new AtomicLong();
+  private final AtomicLong compactedSegments = new AtomicLong();
+  private final AtomicLong compactionDropped = new AtomicLong();
+
+  /**
+   * Opens the log in {@code dir}, picking up the segments of a previous run.
+   *
+   * @param dir directory holding the segment files, created if missing
+   * @param segmentBytes size of each segment file
+   * @param fsync whether appends complete only once forced to disk
+   * @param fsyncLingerMicros how long the flusher waits for more appends before forcing
+   * @param retentionMillis age after which segments are deleted, or 0 to keep them forever
+   * @param compactAfterMillis age after which segments are compacted
+   * @param compactTypes message types dropped by compaction; empty disables compaction
+   * @throws IOException if the segments cannot be opened or mapped
+   */
+  public MessageLog(Path dir, int segmentBytes, boolean fsync, long fsyncLingerMicros,
+      long retentionMillis, long compactAfterMillis, Set<String> compactTypes)
+      throws IOException {
+    this.dir = Objects.requireNonNull(dir, "dir");
+    if (segmentBytes < 1024) {
+      throw new IllegalArgumentException("segmentBytes must be >= 1024");
+    }
+    if (retentionMillis < 0 || compactAfterMillis < 0) {
+      throw new IllegalArgumentException("retention and compaction ages must be >= 0");
+    }
+    this.segmentBytes = segmentBytes;
+    this.fsync = fsync;
+    this.fsyncLingerMicros = fsyncLingerMicros;
+    this.retentionMillis = retentionMillis;
+    this.compactAfterMillis = compactAfterMillis;
+    this.compactTypes = Set.copyOf(compactTypes);
+    Files.createDirectories(dir);
+
+    List<Long> ids = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*")) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        if (name.endsWith(SUFFIX)) {
+          ids.add(Long.parseLong(
+              name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+        } else if (name.endsWith(".tmp")) {
+          Files.delete(file);
+        }
+      }
+    }
+    Collections.sort(ids);
+    List<LogSegment> opened = new ArrayList<>();
+    for (int i = 0; i < ids.size(); i++) {
+      long id = ids.get(i);
+      opened.add(LogSegment.open(id, segmentFile(id), i < ids.size() - 1));
+    }
+    if (opened.isEmpty()) {
+      opened.add(LogSegment.create(0, segmentFile(0), segmentBytes));
+    }
+    this.active = opened.remove(opened.size() - 1);
+    this.sealed = List.copyOf(opened);
+    long records = active.records();
+    for (LogSegment segment : opened) {
+      records += segment.records();
+      lastTime = Math.max(lastTime, segment.maxTime());
+    }
+    lastTime = Math.max(lastTime, active.maxTime());
+    if (records > 0) {
+      System.out.println("Message log opened with " + records + " records in "
+          + (opened.size() + 1) + " segments: " + dir);
+    }
+
+    if (fsync) {
+      this.flusher = new Thread(this::flushLoop, "message-log-flusher");
+      flusher.setDaemon(true);
+      flusher.start();
+    } else {
+      this.flusher = null;
+    }
+    this.maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "message-log-maintenance");
+      t.setDaemon(true);
+      return t;
+    });
+    maintenance.scheduleWithFixedDelay(this::maintain, 0, MAINTENANCE_INTERVAL_MS,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Appends a message.
+   *
+   * @param roomId room id
+   * @param messageType message type
+   * @param contentType AMQP content type of the body
+   * @param body encoded queue message
+   * @return future completed when the record is durable; completes exceptionally if it could
+   *     not be stored
+   */
+  public CompletableFuture<Void> append(String roomId, String messageType, String contentType,
+      byte[] body) {
+    String type = messageType == null ? "" : messageType;
+    if (type.getBytes(StandardCharsets.UTF_8).length > 255
+        || roomId.getBytes(StandardCharsets.UTF_8).length > 65_535) {
+      return CompletableFuture.failedFuture(
+          new IllegalArgumentException("messageType or roomId too long"));
+    }
+    byte format = LogEntry.formatOf(contentType);
+    synchronized (this) {
+      if (closed) {
+        return CompletableFuture.failedFuture(new IllegalStateException("Message log closed"));
+      }
+      long time = Math.max(lastTime, System.currentTimeMillis());
+      try {
+        if (!active.append(time, roomId, type, format, body)) {
+          rotate();
+          if (!active.append(time, roomId, type, format, body)) {
+            return CompletableFuture.failedFuture(
+                new IllegalArgumentException("Record larger than a segment"));
+          }
+        }
+      } catch (IOException e) {
+        return CompletableFuture.failedFuture(e);
+      }
+      lastTime = time;
+      appended.incrementAndGet();
+      if (!listeners.isEmpty()) {
+        LogEntry entry = new LogEntry(time, roomId, type, format, body);
+        for (Consumer<LogEntry> listener : listeners) {
+          listener.accept(entry);
+        }
+      }
+      if (!fsync) {
+        return CompletableFuture.completedFuture(null);
+      }
+      CompletableFuture<Void> durable = new CompletableFuture<>();
+      if (waiting.isEmpty()) {
+        notifyAll();
+      }
+      waiting.add(durable);
+      return durable;
+    }
+  }
+
+  /**
+   * Registers a listener called with every record appended from now on.
+   *
+   * <p>Listeners run in append order while the log's lock is held, so they must be quick and
+   * must not call back into the log other than through {@link #roomRecords}.
+   *
+   * @param listener listener
+   */
+  public void addListener(Consumer<LogEntry> listener) {
+    listeners.add(Objects.requireNonNull(listener, "listener"));
+  }
+
+  /**
+   * Passes every record in the log to {@code action}, oldest first. Records appended while
+   * the replay runs are not included, so call it before appends start, then use
+   * {@link #addListener} to follow new ones.
+   *
+   * @param action called for every record
+   */
+  public void replay(Consumer<LogEntry> action) {
+    List<LogSegment> segments;
+    LogSegment current;
+    int end;
+    synchronized (this) {
+      segments = retainAll(sealed);
+      current = active.retain() ? active : null;
+      end = active.end();
+    }
+    try {
+      for (LogSegment segment : segments) {
+        segment.forEach(segment.end(), action);
+      }
+      if (current != null) {
+        current.forEach(end, action);
+      }
+    } finally {
+      segments.forEach(LogSegment::release);
+      if (current != null) {
+        current.release();
+      }
+    }
+  }
+
+  /** Retains the segments for a reader; call with the log's lock held. */
+  private static List<LogSegment> retainAll(List<LogSegment> segments) {
+    List<LogSegment> retained = new ArrayList<>(segments.size());
+    for (LogSegment segment : segments) {
+      if (segment.retain()) {
+        retained.add(segment);
+      }
+    }
+    return retained;
+  }
+
+  /**
+   * Returns the number of records a room has in the log.
+   */
+  synchronized long roomRecords(String roomId) {
+    long n = active.roomRecords(roomId);
+    for (LogSegment segment : sealed) {
+      n += segment.roomRecords(roomId);
+    }
+    return n;
+  }
+
+  private void rotate() throws IOException {
+    active.force();
+    active.writeIndex();
+    List<LogSegment> next = new ArrayList<>(sealed);
+    next.add(active);
+    long id = active.id + 1;
+    active = LogSegment.create(id, segmentFile(id), segmentBytes);
+    sealed = List.copyOf(next);
+  }
+
+  private void flushLoop() {
+    while (true) {
+      List<CompletableFuture<Void>> batch;
+      LogSegment segment;
+      int upTo;
+      synchronized (this) {
+        while (waiting.isEmpty() && !closed) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        if (waiting.isEmpty()) {
+          return;
+        }
+      }
+      if (fsyncLingerMicros > 0) {
+        try {
+          TimeUnit.MICROSECONDS.sleep(fsyncLingerMicros);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      synchronized (this) {
+        batch = waiting;
+        waiting = new ArrayList<>();
+        segment = active;
+        upTo = active.end();
+      }
+      long start = System.nanoTime();
+      try {
+        segment.forceTo(upTo);
+      } catch (UncheckedIOException e) {
+        batch.forEach(f -> f.completeExceptionally(e));
+        continue;
+      }
+      forceMicros.addAndGet((System.nanoTime() - start) / 1_000L);
+      forces.incrementAndGet();
+      forcedRecords.addAndGet(batch.size());
+      maxForceBatch.accumulateAndGet(batch.size(), Math::max);
+      batch.forEach(f -> f.complete(null));
+    }
+  }
+
+  /**
+   * Reads a room's messages within a time range.
+   *
+   * @param roomId room id
+   * @param fromTime earliest log time, inclusive
+   * @param toTime latest log time, inclusive
+   * @param limit maximum number of messages; the newest ones in the range are returned
+   * @return messages in log order
+   */
+  public List<LogEntry> read(String roomId, long fromTime, long toTime, int limit) {
+    return read(roomId, fromTime, toTime, limit, null);
+  }
+
+  /**
+   * Reads like {@link #read(String, long, long, int)}, taking the records of sealed segments
+   * from {@code cache} when it is not null.
+   */
+  List<LogEntry> read(String roomId, long fromTime, long toTime, int limit, BlockCache cache) {
+    List<LogSegment> segments;
+    LogSegment current;
+    int activeStart;
+    long activeMin;
+    long activeMax;
+    synchronized (this) {
+      segments = retainAll(sealed);
+      current = active.retain() ? active : null;
+      activeStart = active.startFor(roomId, toTime);
+      activeMin = active.minTime();
+      activeMax = active.maxTime();
+    }
+    List<LogEntry> out = new ArrayList<>();
+    try {
+      if (current != null && activeStart >= 0 && activeMin <= toTime
+          && activeMax >= fromTime) {
+        current.collect(activeStart, fromTime, toTime, limit, out);
+      }
+      for (int i = segments.size() - 1; i >= 0 && out.size() < limit; i--) {
+        LogSegment segment = segments.get(i);
+        if (segment.maxTime() < fromTime) {
+          break;
+        }
+        if (segment.minTime() > toTime) {
+          continue;
+        }
+        if (cache != null) {
+          cache.collect(segment, roomId, fromTime, toTime, limit, out);
+          continue;
+        }
+        int start = segment.startFor(roomId, toTime);
+        if (start >= 0) {
+          segment.collect(start, fromTime, toTime, limit, out);
+        }
+      }
+    } finally {
+      segments.forEach(LogSegment::release);
+      if (current != null) {
+        current.release();
+      }
+    }
+    Collections.reverse(out);
+    return out;
+  }
+
+  /**
+   * Deletes segments past retention and compacts segments past the compaction age.
+   */
+  void maintain() {
+    long now = System.currentTimeMillis();
+    try {
+      if (retentionMillis > 0) {
+        List<LogSegment> expired = new ArrayList<>();
+        synchronized (this) {
+          List<LogSegment> kept = new ArrayList<>(sealed);
+          while (!kept.isEmpty() && kept.get(0).maxTime() < now - retentionMillis) {
+            expired.add(kept.remove(0));
+          }
+          sealed = List.copyOf(kept);
+        }
+        for (LogSegment segment : expired) {
+          segment.delete();
+          deletedSegments.incrementAndGet();
+        }
+      }
+      if (!compactTypes.isEmpty()) {
+        for (LogSegment segment : sealed) {
+          if (!segment.isCompacted() && segment.maxTime() < now - compactAfterMillis) {
+            compact(segment);
+          }
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      System.out.println("Message log maintenance failed: " + e.getMessage());
+    }
+  }
+
+  /** Rewrites a sealed segment without the compacted message types and swaps it in. */
+  private void compact(LogSegment segment) throws IOException {
+    long[] kept = new long[2];
+    segment.forEach(segment.end(), entry -> {
+      if (!compactTypes.contains(entry.getMessageType())) {
+        kept[0]++;
+        kept[1] += LogSegment.recordSize(entry);
+      }
+    });
+    if (kept[0] == 0) {
+      synchronized (this) {
+        List<LogSegment> next = new ArrayList<>(sealed);
+        next.remove(segment);
+        sealed = List.copyOf(next);
+      }
+      segment.delete();
+      compactedSegments.incrementAndGet();
+      compactionDropped.addAndGet(segment.records());
+      return;
+    }
+    Path tmp = dir.resolve(segment.file.getFileName() + ".tmp");
+    LogSegment rewritten = LogSegment.create(segment.id, tmp, (int) kept[1]);
+    segment.forEach(segment.end(), entry -> {
+      if (!compactTypes.contains(entry.getMessageType())) {
+        rewritten.append(entry.getTime(), entry.getRoomId(), entry.getMessageType(),
+            entry.getFormat(), entry.getBody());
+      }
+    });
+    rewritten.close();
+    // The old index is removed first, so a crash before the new one is written leaves a
+    // segment that is rescanned on open rather than one described by a stale index.
+    Files.deleteIfExists(segment.indexFile());
+    Files.move(tmp, segment.file, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    LogSegment reopened = LogSegment.open(segment.id, segment.file, false);
+    reopened.markCompacted();
+    reopened.writeIndex();
+    synchronized (this) {
+      List<LogSegment> next = new ArrayList<>(sealed);
+      next.set(next.indexOf(segment), reopened);
+      sealed = List.copyOf(next);
+    }
+    segment.close();
+    compactedSegments.incrementAndGet();
+    compactionDropped.addAndGet(segment.records() - kept[0]);
+  }
+
+  /**
+   * Returns the number of records appended since the log was opened.
+   */
+  public long appended() {
+    return appended.get();
+  }
+
+  /**
+   * Returns the number of forces done for group commits.
+   */
+  public long forces() {
+    return forces.get();
+  }
+
+  /**
+   * Returns the number of segment files in use.
+   */
+  public synchronized int segmentCount() {
+    return sealed.size() + 1;
+  }
+
+  /**
+   * Returns a one-line summary of the log's activity.
+   *
+   * @return report line
+   */
+  public String report() {
+    long forceCount = forces.get();
+    return String.format("log: appended=%d segments=%d forces=%d records/force=%.1f "
+            + "max_batch=%d force_avg_us=%d deleted=%d compacted=%d compaction_dropped=%d",
+        appended.get(), segmentCount(), forceCount,
+        forceCount == 0 ? 0.0 : (double) forcedRecords.get() / forceCount,
+        maxForceBatch.get(), forceCount == 0 ? 0 : forceMicros.get() / forceCount,
+        deletedSegments.get(), compactedSegments.get(), compactionDropped.get());
+  }
+
+  @Override
+  public void close() throws IOException {
+    maintenance.shutdown();
+    try {
+      // A compaction in progress must finish before its segments are closed under it.
+      maintenance.awaitTermination(30, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (this) {
+      closed = true;
+      notifyAll();
+    }
+    if (flusher != null) {
+      try {
+        flusher.join(5_000L);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    synchronized (this) {
+      for (LogSegment segment : sealed) {
+        segment.close();
+      }
+      active.close();
+    }
+  }
+
+  private Path segmentFile(long id) {
+    return dir.resolve(String.format("%s%020d%s", PREFIX, id, SUFFIX));
+  }
+}
@@ -0,0 +1,54 @@
+package chatflow.consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import chatflow.consumer.store.HistoryService;
+import chatflow.consumer.store.MessageLog;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class HistoryServerTest {
+
+  @TempDir
+  Path logDir;
+
+  @Test
+  void historyOmitsClientIpAndServerId() throws Exception {
+    int port;
+    try (ServerSocket probe = new ServerSocket(0)) {
+      port = probe.getLocalPort();
+    }
+    try (MessageLog log = new MessageLog(logDir, 1 << 20, false, 0, 0, 0, Set.of())) {
+      HistoryService history = new HistoryService(log, 200, 1 << 20, 1 << 20);
+      byte[] body = ("{\"messageId\":\"m1\",\"roomId\":\"7\",\"message\":\"hi\","
+          + "\"messageType\":\"TEXT\",\"serverId\":\"server-1\",\"clientIp\":\"10.0.0.9\"}")
+          .getBytes(StandardCharsets.UTF_8);
+      log.append("7", "TEXT", "application/json", body).join();
+
+      HistoryServer server = new HistoryServer(port, 1, history, null);
+      try {
+        HttpResponse<String> response = HttpClient.newHttpClient().send(
+            HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/history?roomId=7"))
+                .build(),
+            HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode());
+        assertTrue(response.body().contains("\"messageId\":\"m1\""));
+        assertFalse(response.body().contains("clientIp"));
+        assertFalse(response.body().contains("serverId"));
+        assertFalse(response.body().contains("10.0.0.9"));
+      } finally {
+        server.close();
+      }
+    }
+  }
+}
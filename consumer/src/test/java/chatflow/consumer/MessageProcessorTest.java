@@ -0,0 +1,119 @@
+package chatflow.consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import chatflow.consumer.broadcast.BroadcastSink;
+import chatflow.consumer.model.BroadcastRequest;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import org.junit.jupiter.api.Test;
+
+class MessageProcessorTest {
+
+  /** Sink that records what it is given and answers with a fixed outcome. */
+  private static final class RecordingSink implements BroadcastSink {
+    private final List<String> delivered = new ArrayList<>();
+    private CompletableFuture<Void> outcome = CompletableFuture.completedFuture(null);
+
+    @Override
+    public CompletableFuture<Void> deliver(BroadcastRequest request) {
+      delivered.add(request.getMessageId());
+      return outcome;
+    }
+
+    @Override
+    public CompletableFuture<Void> deliverUrgent(BroadcastRequest request) {
+      delivered.add("urgent " + request.getMessageId());
+      return outcome;
+    }
+  }
+
+  private final RecordingSink sink = new RecordingSink();
+  private final ConsumerMetrics metrics = new ConsumerMetrics();
+
+  static byte[] json(String messageId, String roomId, String type, long receivedAt) {
+    return ("{\"messageId\":\"" + messageId + "\",\"roomId\":\"" + roomId
+        + "\",\"userId\":\"42\",\"username\":\"user42\",\"message\":\"hello\","
+        + "\"timestamp\":\"2026-01-01T00:00:00Z\",\"messageType\":\"" + type
+        + "\",\"serverId\":\"server-1\",\"clientIp\":\"10.0.0.1\",\"receivedAt\":" + receivedAt
+        + ",\"futureField\":true}").getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  void decodesJsonIntoBroadcastRequest() throws Exception {
+    MessageProcessor processor = new MessageProcessor(sink, metrics);
+    BroadcastRequest request = processor.decode(json("m1", "7", "TEXT", 0));
+    assertEquals("m1", request.getMessageId());
+    assertEquals("7", request.getRoomId());
+    assertEquals("user42", request.getUsername());
+    assertEquals("hello", request.getMessage());
+    assertEquals("TEXT", request.getMessageType());
+  }
+
+  @Test
+  void rejectsMalformedOrIncompleteBodies() {
+    MessageProcessor processor = new MessageProcessor(sink, metrics);
+    assertThrows(IOException.class,
+        () -> processor.decode("not json".getBytes(StandardCharsets.UTF_8)));
+    assertThrows(IOException.class,
+        () -> processor.decode("{\"messageId\":\"m1\"}".getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  void staleMessagesDecodeToNull() throws Exception {
+    MessageProcessor processor =
+        new MessageProcessor(sink, metrics, MessageDeadlines.parse("TEXT=1000"));
+    long now = System.currentTimeMillis();
+    assertNull(processor.decode(json("old", "7", "TEXT", now - 5_000)));
+    assertEquals(1, metrics.stale());
+
+    assertEquals("fresh", processor.decode(json("fresh", "7", "TEXT", now)).getMessageId());
+    assertEquals("join", processor.decode(json("join", "7", "JOIN", now - 5_000))
+        .getMessageId());
+    assertEquals(1, metrics.stale());
+  }
+
+  @Test
+  void deliverRecordsConsumedOnSuccess() throws Exception {
+    MessageProcessor processor = new MessageProcessor(sink, metrics);
+    BroadcastRequest request = processor.decode(json("m1", "7", "TEXT", 0));
+    processor.deliver(request, System.nanoTime(), ConsumerMetrics.nowMicros()).join();
+    processor.deliver(request, System.nanoTime(), 0, true).join();
+
+    assertEquals(List.of("m1", "urgent m1"), sink.delivered);
+    assertEquals(2, metrics.consumed());
+    assertEquals(0, metrics.failed());
+  }
+
+  @Test
+  void deliverRecordsFailures() throws Exception {
+    MessageProcessor processor = new MessageProcessor(sink, metrics);
+    BroadcastRequest request = processor.decode(json("m1", "7", "TEXT", 0));
+    sink.outcome = CompletableFuture.failedFuture(new IOException("link down"));
+
+    CompletableFuture<Void> done = processor.deliver(request, System.nanoTime(), 0);
+    assertThrows(CompletionException.class, done::join);
+    assertEquals(0, metrics.consumed());
+    assertEquals(1, metrics.failed());
+  }
+
+  @Test
+  void sinkThatThrowsFailsTheFuture() throws Exception {
+    BroadcastSink throwing = request -> {
+      throw new IllegalStateException("closed");
+    };
+    MessageProcessor processor = new MessageProcessor(throwing, metrics);
+    BroadcastRequest request = processor.decode(json("m1", "7", "TEXT", 0));
+
+    CompletableFuture<Void> done = processor.deliver(request, System.nanoTime(), 0);
+    assertTrue(done.isCompletedExceptionally());
+    assertEquals(1, metrics.failed());
+  }
+}
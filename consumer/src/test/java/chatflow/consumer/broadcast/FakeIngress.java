@@ -0,0 +1,112 @@
+package chatflow.consumer.broadcast;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Broadcast ingress stand-in: checks the hello, grants credits and returns one credit per
+ * batch, or hangs up on the next batch once asked to.
+ */
+final class FakeIngress implements AutoCloseable {
+
+  private final ServerSocket server;
+  private final String secret;
+  private final List<String> hellos = new ArrayList<>();
+  private volatile boolean hangUp;
+  private volatile int batches;
+
+  FakeIngress(String secret) throws IOException {
+    this.server = new ServerSocket(0);
+    this.secret = secret;
+    Thread acceptor = new Thread(this::acceptLoop, "fake-ingress");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  int port() {
+    return server.getLocalPort();
+  }
+
+  /** Makes the server close the connection instead of answering the next batch. */
+  void hangUpOnNextBatch() {
+    hangUp = true;
+  }
+
+  int batches() {
+    return batches;
+  }
+
+  synchronized List<String> hellos() {
+    return new ArrayList<>(hellos);
+  }
+
+  private void acceptLoop() {
+    while (!server.isClosed()) {
+      try {
+        Socket socket = server.accept();
+        Thread reader = new Thread(() -> serve(socket), "fake-ingress-conn");
+        reader.setDaemon(true);
+        reader.start();
+      } catch (IOException e) {
+        return;
+      }
+    }
+  }
+
+  private void serve(Socket socket) {
+    try (socket;
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
+      DataInputStream hello = new DataInputStream(new ByteArrayInputStream(frame(in)));
+      if (hello.readByte() != BroadcastFrames.HELLO) {
+        return;
+      }
+      String presented = hello.readUTF();
+      synchronized (this) {
+        hellos.add(presented);
+      }
+      if (!secret.equals(presented)) {
+        return;
+      }
+      grant(out, 0, 4);
+      while (true) {
+        DataInputStream batch = new DataInputStream(new ByteArrayInputStream(frame(in)));
+        batch.readByte();
+        long batchId = batch.readLong();
+        if (hangUp) {
+          hangUp = false;
+          return;
+        }
+        batches++;
+        grant(out, batchId, 1);
+      }
+    } catch (IOException e) {
+      // Link closed.
+    }
+  }
+
+  private static byte[] frame(DataInputStream in) throws IOException {
+    byte[] payload = new byte[in.readInt()];
+    in.readFully(payload);
+    return payload;
+  }
+
+  static void grant(DataOutputStream out, long batchId, int credits) throws IOException {
+    out.writeInt(1 + 8 + 4);
+    out.writeByte(BroadcastFrames.CREDIT);
+    out.writeLong(batchId);
+    out.writeInt(credits);
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    server.close();
+  }
+}
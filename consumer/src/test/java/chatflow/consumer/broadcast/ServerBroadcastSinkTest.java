@@ -0,0 +1,59 @@
+package chatflow.consumer.broadcast;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import chatflow.consumer.model.BroadcastRequest;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class ServerBroadcastSinkTest {
+
+  private static BroadcastRequest request(String messageId) {
+    return new BroadcastRequest(messageId, "7", "42", "user42", "hi", "t", "TEXT", "server-1",
+        "10.0.0.1");
+  }
+
+  private static int deadPort() throws Exception {
+    try (ServerSocket probe = new ServerSocket(0)) {
+      return probe.getLocalPort();
+    }
+  }
+
+  @Test
+  void aDownServerDoesNotFailDeliveries() throws Exception {
+    try (FakeIngress live = new FakeIngress("s3cret");
+        ServerBroadcastSink sink = new ServerBroadcastSink(
+            "localhost:" + live.port() + ",localhost:" + deadPort(), "s3cret", 16, 0)) {
+      // No link is up yet: the request waits for the first server to take it.
+      sink.deliver(request("m1")).get(5, TimeUnit.SECONDS);
+
+      for (int i = 2; i <= 10; i++) {
+        sink.deliver(request("m" + i)).get(5, TimeUnit.SECONDS);
+      }
+      assertEquals(9, sink.skipped());
+      assertEquals(10, live.batches());
+      assertEquals("s3cret", live.hellos().get(0));
+    }
+  }
+
+  @Test
+  void aServerThatHangsUpMidBatchDoesNotFailTheDelivery() throws Exception {
+    try (FakeIngress first = new FakeIngress("s3cret");
+        FakeIngress second = new FakeIngress("s3cret");
+        ServerBroadcastSink sink = new ServerBroadcastSink(
+            "localhost:" + first.port() + ",localhost:" + second.port(), "s3cret", 16, 0)) {
+      sink.deliver(request("m1")).get(5, TimeUnit.SECONDS);
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (!sink.report().contains("up=2") && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+      assertTrue(sink.report().contains("up=2"), sink.report());
+
+      second.hangUpOnNextBatch();
+      sink.deliver(request("m2")).get(5, TimeUnit.SECONDS);
+      assertEquals(1, sink.targetFailures());
+    }
+  }
+}
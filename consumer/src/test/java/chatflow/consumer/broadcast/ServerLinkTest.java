@@ -0,0 +1,75 @@
+package chatflow.consumer.broadcast;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import chatflow.consumer.model.BroadcastRequest;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class ServerLinkTest {
+
+  private static BroadcastRequest request(String messageId) {
+    return new BroadcastRequest(messageId, "7", "42", "user42", "hi", "t", "TEXT", "server-1",
+        "10.0.0.1");
+  }
+
+  private static void grant(DataOutputStream out, long batchId, int credits)
+      throws IOException {
+    FakeIngress.grant(out, batchId, credits);
+  }
+
+  /** Reads the hello frame and returns its secret. */
+  private static String readHello(DataInputStream in) throws IOException {
+    byte[] payload = new byte[in.readInt()];
+    in.readFully(payload);
+    DataInputStream frame = new DataInputStream(new ByteArrayInputStream(payload));
+    assertEquals(BroadcastFrames.HELLO, frame.readByte());
+    return frame.readUTF();
+  }
+
+  /** Reads one batch frame and returns its id. */
+  private static long readBatch(DataInputStream in) throws IOException {
+    byte[] payload = new byte[in.readInt()];
+    in.readFully(payload);
+    return new DataInputStream(new ByteArrayInputStream(payload, 1, 8)).readLong();
+  }
+
+  @Test
+  void batchesInFlightFailWhenTheServerHangsUp() throws Exception {
+    try (ServerSocket server = new ServerSocket(0);
+        ServerLink link = new ServerLink("localhost", server.getLocalPort(), "s3cret", 16, 0)) {
+      Socket first = server.accept();
+      DataInputStream in = new DataInputStream(first.getInputStream());
+      assertEquals("s3cret", readHello(in));
+      grant(new DataOutputStream(first.getOutputStream()), 0, 1);
+
+      CompletableFuture<Void> lost = link.submit(request("m1"));
+      readBatch(in);
+      first.close();
+      ExecutionException e =
+          assertThrows(ExecutionException.class, () -> lost.get(5, TimeUnit.SECONDS));
+      assertInstanceOf(IOException.class, e.getCause());
+
+      // The link reconnects and later requests go through.
+      try (Socket second = server.accept()) {
+        DataInputStream in2 = new DataInputStream(second.getInputStream());
+        assertEquals("s3cret", readHello(in2));
+        DataOutputStream out2 = new DataOutputStream(second.getOutputStream());
+        grant(out2, 0, 1);
+        CompletableFuture<Void> delivered = link.submit(request("m2"));
+        grant(out2, readBatch(in2), 1);
+        delivered.get(5, TimeUnit.SECONDS);
+      }
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package chatflow.consumer.codec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import chatflow.consumer.model.QueueMessage;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.InputStream;
+import java.util.HexFormat;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Decodes the golden bodies written by the server's encoder (see the server's
+ * {@code codec/binary-messages.json}, added to this module's test resources by the build).
+ */
+class BinaryQueueMessageCodecTest {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  @Test
+  void decodesTheServersGoldenBodies() throws Exception {
+    JsonNode cases;
+    try (InputStream in = BinaryQueueMessageCodecTest.class.getResourceAsStream(
+        "/codec/binary-messages.json")) {
+      cases = MAPPER.readTree(in);
+    }
+    assertTrue(cases.size() > 0);
+    for (JsonNode golden : cases) {
+      QueueMessage expected = MAPPER.treeToValue(golden.get("message"), QueueMessage.class);
+      QueueMessage decoded = BinaryQueueMessageCodec.INSTANCE.decode(
+          HexFormat.of().parseHex(golden.get("body").asText()));
+      String name = golden.get("name").asText();
+      assertEquals(expected.getMessageId(), decoded.getMessageId(), name);
+      assertEquals(expected.getRoomId(), decoded.getRoomId(), name);
+      assertEquals(expected.getUserId(), decoded.getUserId(), name);
+      assertEquals(expected.getUsername(), decoded.getUsername(), name);
+      assertEquals(expected.getMessage(), decoded.getMessage(), name);
+      assertEquals(expected.getTimestamp(), decoded.getTimestamp(), name);
+      assertEquals(expected.getMessageType(), decoded.getMessageType(), name);
+      assertEquals(expected.getServerId(), decoded.getServerId(), name);
+      assertEquals(expected.getClientIp(), decoded.getClientIp(), name);
+      assertEquals(expected.getReceivedAt(), decoded.getReceivedAt(), name);
+    }
+  }
+}
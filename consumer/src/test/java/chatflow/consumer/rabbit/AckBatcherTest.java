@@ -0,0 +1,94 @@
+package chatflow.consumer.rabbit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class AckBatcherTest {
+
+  private final StubChannel stub = new StubChannel();
+
+  @Test
+  void acksOnceBatchIsFull() throws Exception {
+    AckBatcher batcher = new AckBatcher(stub.channel(), 3, 60_000);
+    batcher.ack(1);
+    batcher.ack(2);
+    assertEquals(List.of(), stub.calls());
+
+    batcher.ack(3);
+    assertEquals(List.of("ack 3 multiple"), stub.calls());
+  }
+
+  @Test
+  void outOfOrderCompletionsAckOnlyTheContiguousPrefix() throws Exception {
+    AckBatcher batcher = new AckBatcher(stub.channel(), 2, 60_000);
+    batcher.ack(3);
+    batcher.ack(2);
+    assertEquals(0, batcher.contiguous());
+    assertEquals(List.of(), stub.calls());
+
+    batcher.ack(1);
+    assertEquals(3, batcher.contiguous());
+    assertEquals(List.of("ack 3 multiple"), stub.calls());
+  }
+
+  @Test
+  void nacksImmediatelyAndNeverTargetsAFailedTag() throws Exception {
+    AckBatcher batcher = new AckBatcher(stub.channel(), 10, 60_000);
+    batcher.ack(1);
+    batcher.nack(2, true);
+    assertEquals(List.of("nack 2 requeue"), stub.calls());
+
+    batcher.flush();
+    assertEquals(List.of("nack 2 requeue", "ack 1 multiple"), stub.calls());
+
+    batcher.nack(3, false);
+    batcher.flush();
+    assertEquals(List.of("nack 2 requeue", "ack 1 multiple", "nack 3 drop"), stub.calls());
+  }
+
+  @Test
+  void flushIfDueWaitsForTheInterval() throws Exception {
+    AckBatcher slow = new AckBatcher(stub.channel(), 10, 60_000);
+    slow.ack(1);
+    slow.flushIfDue();
+    assertEquals(List.of(), stub.calls());
+
+    StubChannel other = new StubChannel();
+    AckBatcher due = new AckBatcher(other.channel(), 10, 0);
+    due.ack(1);
+    due.flushIfDue();
+    assertEquals(List.of("ack 1 multiple"), other.calls());
+    due.flushIfDue();
+    assertEquals(List.of("ack 1 multiple"), other.calls());
+  }
+
+  @Test
+  void growsTheRingForLongGaps() throws Exception {
+    AckBatcher batcher = new AckBatcher(stub.channel(), 100_000, 60_000);
+    for (long tag = 5000; tag >= 2; tag--) {
+      batcher.ack(tag);
+    }
+    assertEquals(0, batcher.contiguous());
+
+    batcher.ack(1);
+    assertEquals(5000, batcher.contiguous());
+    batcher.flush();
+    assertEquals(List.of("ack 5000 multiple"), stub.calls());
+  }
+
+  @Test
+  void ignoresTagsAlreadyCompleted() throws Exception {
+    AckBatcher batcher = new AckBatcher(stub.channel(), 1, 60_000);
+    batcher.ack(1);
+    batcher.ack(1);
+    assertEquals(List.of("ack 1 multiple"), stub.calls());
+  }
+
+  @Test
+  void rejectsEmptyBatches() {
+    assertThrows(IllegalArgumentException.class, () -> new AckBatcher(stub.channel(), 0, 10));
+  }
+}
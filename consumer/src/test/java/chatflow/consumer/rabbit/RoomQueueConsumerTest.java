@@ -0,0 +1,259 @@
+package chatflow.consumer.rabbit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import chatflow.consumer.ConsumerConfig;
+import chatflow.consumer.ConsumerMetrics;
+import chatflow.consumer.MessageDeadlines;
+import chatflow.consumer.MessageProcessor;
+import chatflow.consumer.broadcast.BroadcastSink;
+import chatflow.consumer.codec.PayloadDecompressor;
+import chatflow.consumer.model.BroadcastRequest;
+import chatflow.consumer.store.JdbcWriteBehind;
+import chatflow.consumer.store.MessageLog;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Delivery;
+import com.rabbitmq.client.Envelope;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Drives the consumer's delivery handling with a stub channel in place of the broker.
+ */
+class RoomQueueConsumerTest {
+
+  /** Sink whose deliveries complete when the test says so. */
+  private static final class ManualSink implements BroadcastSink {
+    private final Map<String, CompletableFuture<Void>> pending = new LinkedHashMap<>();
+    private boolean autoComplete = true;
+
+    @Override
+    public synchronized CompletableFuture<Void> deliver(BroadcastRequest request) {
+      CompletableFuture<Void> future = new CompletableFuture<>();
+      pending.put(request.getMessageId(), future);
+      if (autoComplete) {
+        future.complete(null);
+      }
+      return future;
+    }
+
+    synchronized List<String> delivered() {
+      return new ArrayList<>(pending.keySet());
+    }
+
+    synchronized void complete(String messageId) {
+      pending.get(messageId).complete(null);
+    }
+
+    synchronized void fail(String messageId) {
+      pending.get(messageId).completeExceptionally(new IOException("link down"));
+    }
+  }
+
+  private final StubChannel stub = new StubChannel();
+  private final AckBatcher batcher = new AckBatcher(stub.channel(), 1, 60_000);
+  private final ManualSink sink = new ManualSink();
+  private final ConsumerMetrics metrics = new ConsumerMetrics();
+
+  @TempDir
+  Path logDir;
+
+  private RoomQueueConsumer consumer(MessageDeadlines deadlines) {
+    return consumer(deadlines, null);
+  }
+
+  private RoomQueueConsumer consumer(MessageDeadlines deadlines, MessageLog log) {
+    return new RoomQueueConsumer(ConsumerConfig.fromEnv(),
+        new MessageProcessor(sink, metrics, deadlines), new PayloadDecompressor(null), log,
+        null);
+  }
+
+  private MessageLog log() throws IOException {
+    return new MessageLog(logDir, 1 << 20, false, 0, 0, 0, Set.of());
+  }
+
+  private RoomQueueConsumer consumer() {
+    return consumer(MessageDeadlines.NONE);
+  }
+
+  private static byte[] json(String messageId, long receivedAt) {
+    return ("{\"messageId\":\"" + messageId + "\",\"roomId\":\"7\",\"userId\":\"42\","
+        + "\"username\":\"user42\",\"message\":\"hi\",\"messageType\":\"TEXT\","
+        + "\"receivedAt\":" + receivedAt + "}").getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static byte[] envelope(byte[]... bodies) {
+    int size = 5;
+    for (byte[] body : bodies) {
+      size += 4 + body.length;
+    }
+    ByteBuffer buf = ByteBuffer.allocate(size).put(BatchEnvelope.VERSION).putInt(bodies.length);
+    for (byte[] body : bodies) {
+      buf.putInt(body.length).put(body);
+    }
+    return buf.array();
+  }
+
+  private static Delivery delivery(long tag, String contentType, byte[] body) {
+    AMQP.BasicProperties props = new AMQP.BasicProperties.Builder()
+        .contentType(contentType)
+        .headers(Map.of(RoomQueueConsumer.PUBLISHED_AT_HEADER, ConsumerMetrics.nowMicros()))
+        .build();
+    return new Delivery(new Envelope(tag, false, "chat.exchange", "room.7"), props, body);
+  }
+
+  @Test
+  void deliversAndAcksAMessage() throws Exception {
+    consumer().handle(batcher, delivery(1, "application/json", json("m1", 0)), false);
+
+    assertEquals(List.of("m1"), sink.delivered());
+    assertEquals(List.of("ack 1 multiple"), stub.calls());
+    assertEquals(1, metrics.consumed());
+  }
+
+  @Test
+  void requeuesWhenTheSinkFails() throws Exception {
+    sink.autoComplete = false;
+    consumer().handle(batcher, delivery(1, "application/json", json("m1", 0)), false);
+    sink.fail("m1");
+
+    assertEquals(List.of("nack 1 requeue"), stub.calls());
+    assertEquals(1, metrics.failed());
+  }
+
+  @Test
+  void dropsMalformedBodies() throws Exception {
+    consumer().handle(batcher, delivery(1, "application/json", "{oops".getBytes()), false);
+
+    assertEquals(List.of(), sink.delivered());
+    assertEquals(List.of("nack 1 drop"), stub.calls());
+    assertEquals(1, metrics.failed());
+  }
+
+  @Test
+  void acksStaleMessagesWithoutDelivering() throws Exception {
+    long old = System.currentTimeMillis() - 60_000;
+    consumer(MessageDeadlines.parse("TEXT=1000"))
+        .handle(batcher, delivery(1, "application/json", json("m1", old)), false);
+
+    assertEquals(List.of(), sink.delivered());
+    assertEquals(List.of("ack 1 multiple"), stub.calls());
+    assertEquals(1, metrics.stale());
+  }
+
+  @Test
+  void acksOutOfOrderCompletionsAsAPrefix() throws Exception {
+    sink.autoComplete = false;
+    RoomQueueConsumer consumer = consumer();
+    consumer.handle(batcher, delivery(1, "application/json", json("m1", 0)), false);
+    consumer.handle(batcher, delivery(2, "application/json", json("m2", 0)), false);
+
+    sink.complete("m2");
+    assertEquals(List.of(), stub.calls());
+    sink.complete("m1");
+    assertEquals(List.of("ack 2 multiple"), stub.calls());
+  }
+
+  @Test
+  void deliversBatchEntriesInOrderAndSkipsMalformedOnes() throws Exception {
+    byte[] batch = envelope(json("m1", 0), "{oops".getBytes(), json("m2", 0));
+    consumer().handle(batcher, delivery(1, BatchEnvelope.CONTENT_TYPE, batch), false);
+
+    assertEquals(List.of("m1", "m2"), sink.delivered());
+    assertEquals(List.of("ack 1 multiple"), stub.calls());
+    assertEquals(1, metrics.failed());
+  }
+
+  @Test
+  void requeuesAWholeBatchIfAnEntryFails() throws Exception {
+    sink.autoComplete = false;
+    byte[] batch = envelope(json("m1", 0), json("m2", 0));
+    consumer().handle(batcher, delivery(1, BatchEnvelope.CONTENT_TYPE, batch), false);
+    sink.complete("m1");
+    assertEquals(List.of(), stub.calls());
+
+    sink.fail("m2");
+    assertEquals(List.of("nack 1 requeue"), stub.calls());
+  }
+
+  @Test
+  void dropsTruncatedEnvelopes() throws Exception {
+    byte[] batch = envelope(json("m1", 0));
+    byte[] truncated = Arrays.copyOf(batch, batch.length - 3);
+    consumer().handle(batcher, delivery(1, BatchEnvelope.CONTENT_TYPE, truncated), false);
+
+    assertEquals(List.of(), sink.delivered());
+    assertEquals(List.of("nack 1 drop"), stub.calls());
+  }
+
+  @Test
+  void threadForIsStablePerRoom() {
+    for (int room = 1; room <= 100; room++) {
+      int thread = RoomQueueConsumer.threadFor(String.valueOf(room), 8);
+      assertEquals(thread, RoomQueueConsumer.threadFor(String.valueOf(room), 8));
+      assertTrue(thread >= 0 && thread < 8);
+    }
+  }
+
+  @Test
+  void logsStaleMessagesWithoutDelivering() throws Exception {
+    long old = System.currentTimeMillis() - 60_000;
+    try (MessageLog log = log()) {
+      consumer(MessageDeadlines.parse("TEXT=1000"), log)
+          .handle(batcher, delivery(1, "application/json", json("m1", old)), false);
+
+      assertEquals(List.of(), sink.delivered());
+      assertEquals(1, log.appended());
+      assertEquals(List.of("ack 1 multiple"), stub.calls());
+    }
+  }
+
+  @Test
+  void logsARequeuedDeliveryOnce() throws Exception {
+    try (MessageLog log = log()) {
+      RoomQueueConsumer consumer = consumer(MessageDeadlines.NONE, log);
+      sink.autoComplete = false;
+      consumer.handle(batcher, delivery(1, "application/json", json("m1", 0)), false);
+      sink.fail("m1");
+      assertEquals(List.of("nack 1 requeue"), stub.calls());
+
+      sink.autoComplete = true;
+      consumer.handle(batcher, delivery(2, "application/json", json("m1", 0)), false);
+      assertEquals(List.of("nack 1 requeue", "ack 2 multiple"), stub.calls());
+      assertEquals(1, log.appended());
+      assertEquals(1, log.read("7", 0, Long.MAX_VALUE, 10).size());
+    }
+  }
+
+  @Test
+  void acksOnlyOnceTheRowIsCommitted() throws Exception {
+    String url = "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+    try (JdbcWriteBehind store = new JdbcWriteBehind(url, "sa", "", "messages", 1, 16, 10, 300)) {
+      new RoomQueueConsumer(ConsumerConfig.fromEnv(), new MessageProcessor(sink, metrics),
+          new PayloadDecompressor(null), null, store)
+          .handle(batcher, delivery(1, "application/json", json("m1", 0)), false);
+      assertEquals(List.of("m1"), sink.delivered());
+      assertEquals(List.of(), stub.calls());
+
+      long deadline = System.currentTimeMillis() + 5_000;
+      while (stub.calls().isEmpty() && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(List.of("ack 1 multiple"), stub.calls());
+      assertEquals(1, store.inserted());
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package chatflow.consumer.rabbit;
+
+import com.rabbitmq.client.Channel;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Broker stand-in for one channel: records the acks and nacks sent on it and ignores every
+ * other call.
+ */
+final class StubChannel implements InvocationHandler {
+
+  private final List<String> calls = new ArrayList<>();
+  private final Channel channel = (Channel) Proxy.newProxyInstance(
+      Channel.class.getClassLoader(), new Class<?>[] {Channel.class}, this);
+
+  Channel channel() {
+    return channel;
+  }
+
+  /**
+   * Returns the acks and nacks sent so far, e.g. {@code "ack 3 multiple"} or
+   * {@code "nack 2 requeue"}.
+   */
+  synchronized List<String> calls() {
+    return List.copyOf(calls);
+  }
+
+  @Override
+  public synchronized Object invoke(Object proxy, Method method, Object[] args) {
+    switch (method.getName()) {
+      case "basicAck":
+        calls.add("ack " + args[0] + ((Boolean) args[1] ? " multiple" : ""));
+        return null;
+      case "basicNack":
+        calls.add("nack " + args[0] + ((Boolean) args[2] ? " requeue" : " drop"));
+        return null;
+      case "toString":
+        return "StubChannel";
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "equals":
+        return proxy == args[0];
+      default:
+        return defaultValue(method.getReturnType());
+    }
+  }
+
+  private static Object defaultValue(Class<?> type) {
+    if (type == boolean.class) {
+      return false;
+    }
+    if (type == int.class) {
+      return 0;
+    }
+    if (type == long.class) {
+      return 0L;
+    }
+    return null;
+  }
+}
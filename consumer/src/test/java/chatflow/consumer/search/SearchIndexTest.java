@@ -0,0 +1,55 @@
+package chatflow.consumer.search;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import chatflow.consumer.store.MessageLog;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SearchIndexTest {
+
+  @TempDir
+  Path logDir;
+
+  private static byte[] json(String messageId, String text) {
+    return ("{\"messageId\":\"" + messageId + "\",\"roomId\":\"7\",\"message\":\"" + text
+        + "\",\"messageType\":\"TEXT\"}").getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  void indexesAppendedMessages() throws Exception {
+    try (MessageLog log = new MessageLog(logDir, 1 << 20, false, 0, 0, 0, Set.of());
+        SearchIndex index = new SearchIndex(log, 1_000, 10, 16, 0)) {
+      log.append("7", "TEXT", "application/json", json("m1", "deploy failed")).join();
+      log.append("7", "TEXT", "application/json", json("m2", "deploy done")).join();
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (index.indexed() < 2 && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+
+      assertEquals(2, index.search("7", "deploy", Long.MIN_VALUE, Long.MAX_VALUE, 10).size());
+      assertEquals(1, index.search("7", "failed", Long.MIN_VALUE, Long.MAX_VALUE, 10).size());
+    }
+  }
+
+  @Test
+  void appendsAfterCloseAreDroppedInsteadOfBlocking() throws Exception {
+    try (MessageLog log = new MessageLog(logDir, 1 << 20, false, 0, 0, 0, Set.of())) {
+      SearchIndex index = new SearchIndex(log, 1_000, 10, 1, 0);
+      index.close();
+
+      assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+        for (int i = 0; i < 5; i++) {
+          log.append("7", "TEXT", "application/json", json("m" + i, "hello")).join();
+        }
+      });
+      assertEquals(5, index.dropped());
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package chatflow.consumer.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Set;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class HistoryServiceTest {
+
+  @TempDir
+  Path logDir;
+
+  private MessageLog log;
+
+  @AfterEach
+  void close() throws Exception {
+    if (log != null) {
+      log.close();
+    }
+  }
+
+  private HistoryService history(int tailMessages, int messages) throws IOException {
+    log = new MessageLog(logDir, 1 << 20, false, 0, 0, 0, Set.of());
+    HistoryService history = new HistoryService(log, tailMessages, 1 << 20, 1 << 20);
+    for (int i = 0; i < messages; i++) {
+      byte[] body = ("{\"messageId\":\"m" + i + "\",\"roomId\":\"7\",\"message\":\"hi\","
+          + "\"messageType\":\"TEXT\"}").getBytes(StandardCharsets.UTF_8);
+      log.append("7", "TEXT", "application/json", body).join();
+    }
+    return history;
+  }
+
+  @Test
+  void pagesThroughTheRoomWithCursors() throws IOException {
+    HistoryService history = history(0, 25);
+    int seen = 0;
+    String cursor = null;
+    do {
+      HistoryService.Page page = history.query("7", cursor, 10);
+      seen += page.getMessages().size();
+      cursor = page.getNextCursor();
+    } while (cursor != null);
+    assertEquals(25, seen);
+  }
+
+  @Test
+  void rejectsCursorsThatSkipTooFar() throws IOException {
+    HistoryService history = history(200, 3);
+    long now = System.currentTimeMillis() + 60_000;
+
+    assertEquals(0, history.query("7", now + "-" + HistoryService.MAX_SKIP, 10)
+        .getMessages().size());
+    assertThrows(IllegalArgumentException.class,
+        () -> history.query("7", now + "-" + (HistoryService.MAX_SKIP + 1), 10));
+    assertThrows(IllegalArgumentException.class,
+        () -> history.query("7", now + "-" + Integer.MAX_VALUE, 500));
+    assertThrows(IllegalArgumentException.class, () -> history.query("7", now + "--1", 10));
+  }
+}
@@ -0,0 +1,86 @@
+package chatflow.consumer.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import chatflow.consumer.model.BroadcastRequest;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs the write-behind store against an in-memory H2 database.
+ */
+class JdbcWriteBehindTest {
+
+  private final String url = "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+  private JdbcWriteBehind store;
+
+  private static BroadcastRequest request(String messageId) {
+    return new BroadcastRequest(messageId, "7", "42", "user42", "hi", "t", "TEXT", "server-1",
+        "10.0.0.1");
+  }
+
+  private long rows() throws Exception {
+    try (Connection conn = DriverManager.getConnection(url, "sa", "");
+        Statement st = conn.createStatement();
+        ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM messages")) {
+      rs.next();
+      return rs.getLong(1);
+    }
+  }
+
+  @AfterEach
+  void close() throws Exception {
+    if (store != null) {
+      store.close();
+    }
+  }
+
+  @Test
+  void futureCompletesOnceTheRowIsCommitted() throws Exception {
+    store = new JdbcWriteBehind(url, "sa", "", "messages", 1, 16, 2, 60_000);
+    CompletableFuture<Void> first = store.submit(request("m1"));
+    Thread.sleep(100);
+    assertFalse(first.isDone());
+    assertEquals(0, rows());
+
+    CompletableFuture<Void> second = store.submit(request("m2"));
+    first.get(5, TimeUnit.SECONDS);
+    second.get(5, TimeUnit.SECONDS);
+    assertEquals(2, rows());
+    assertEquals(2, store.inserted());
+  }
+
+  @Test
+  void onlyUniqueViolationsCountAsDuplicates() throws Exception {
+    store = new JdbcWriteBehind(url, "sa", "", "messages", 1, 16, 3, 50);
+    store.submit(request("m1")).get(5, TimeUnit.SECONDS);
+    store.close();
+
+    store = new JdbcWriteBehind(url, "sa", "", "messages", 1, 16, 3, 50);
+    CompletableFuture<Void> duplicate = store.submit(request("m1"));
+    CompletableFuture<Void> missingId = store.submit(request(null));
+    CompletableFuture<Void> fresh = store.submit(request("m2"));
+    CompletableFuture.allOf(duplicate, missingId, fresh).get(5, TimeUnit.SECONDS);
+
+    assertEquals(1, store.duplicates());
+    assertEquals(1, store.failed());
+    assertEquals(1, store.inserted());
+    assertEquals(2, rows());
+  }
+
+  @Test
+  void submitAfterCloseFails() throws Exception {
+    store = new JdbcWriteBehind(url, "sa", "", "messages", 1, 16, 1, 0);
+    store.close();
+    assertTrue(store.submit(request("m1")).isCompletedExceptionally());
+  }
+}
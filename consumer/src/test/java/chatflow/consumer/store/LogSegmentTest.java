@@ -0,0 +1,108 @@
+package chatflow.consumer.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LogSegmentTest {
+
+  @TempDir
+  Path dir;
+
+  private static byte[] body(int i) {
+    return ("m" + i).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static List<LogEntry> roomEntries(LogSegment segment, String roomId) {
+    List<LogEntry> out = new ArrayList<>();
+    int start = segment.startFor(roomId, Long.MAX_VALUE);
+    if (start >= 0) {
+      segment.collect(start, 0, Long.MAX_VALUE, Integer.MAX_VALUE, out);
+    }
+    return out;
+  }
+
+  private LogSegment filled(Path file, int records) throws Exception {
+    LogSegment segment = LogSegment.create(0, file, 1 << 16);
+    for (int i = 0; i < records; i++) {
+      assertTrue(segment.append(1_000L + i, i % 3 == 0 ? "a" : "b", "TEXT",
+          LogEntry.FORMAT_JSON, body(i)));
+    }
+    return segment;
+  }
+
+  @Test
+  void tornRecordEndsTheDataOnReopen() throws Exception {
+    Path file = dir.resolve("log-0.log");
+    LogSegment segment = filled(file, 3);
+    int third = segment.end() - LogSegment.recordSize(
+        new LogEntry(0, "a", "TEXT", LogEntry.FORMAT_JSON, body(2)));
+    segment.close();
+    try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+      raf.seek(third + 4);
+      raf.writeInt(0xdeadbeef);
+    }
+
+    LogSegment reopened = LogSegment.open(0, file, false);
+    assertEquals(2, reopened.records());
+    assertEquals(third, reopened.end());
+    reopened.close();
+  }
+
+  @Test
+  void sealedSegmentLoadsItsIndexOrRebuildsIt() throws Exception {
+    Path file = dir.resolve("log-0.log");
+    LogSegment segment = filled(file, 200);
+    List<LogEntry> expected = roomEntries(segment, "a");
+    segment.writeIndex();
+    segment.close();
+
+    LogSegment loaded = LogSegment.open(0, file, true);
+    assertEquals(200, loaded.records());
+    assertEquals(67, loaded.roomRecords("a"));
+    assertEquals(bodies(expected), bodies(roomEntries(loaded, "a")));
+    loaded.close();
+
+    Files.delete(loaded.indexFile());
+    LogSegment rescanned = LogSegment.open(0, file, true);
+    assertTrue(Files.exists(rescanned.indexFile()));
+    assertEquals(bodies(expected), bodies(roomEntries(rescanned, "a")));
+    assertEquals(1_000L, rescanned.minTime());
+    assertEquals(1_199L, rescanned.maxTime());
+    rescanned.close();
+  }
+
+  @Test
+  void retainedSegmentIsDeletedOnlyAfterRelease() throws Exception {
+    Path file = dir.resolve("log-0.log");
+    LogSegment segment = filled(file, 10);
+    segment.writeIndex();
+
+    assertTrue(segment.retain());
+    segment.delete();
+    assertTrue(Files.exists(file));
+    assertEquals(4, roomEntries(segment, "a").size());
+
+    segment.release();
+    assertFalse(Files.exists(file));
+    assertFalse(Files.exists(segment.indexFile()));
+    assertFalse(segment.retain());
+  }
+
+  private static List<String> bodies(List<LogEntry> entries) {
+    List<String> out = new ArrayList<>();
+    for (LogEntry entry : entries) {
+      out.add(new String(entry.getBody(), StandardCharsets.UTF_8));
+    }
+    return out;
+  }
+}
@@ -0,0 +1,175 @@
+package chatflow.consumer.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MessageLogTest {
+
+  @TempDir
+  Path dir;
+
+  private MessageLog log;
+
+  @AfterEach
+  void close() throws Exception {
+    if (log != null) {
+      log.close();
+    }
+  }
+
+  private static byte[] body(String text) {
+    return text.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static List<String> bodies(List<LogEntry> entries) {
+    List<String> out = new ArrayList<>();
+    for (LogEntry entry : entries) {
+      out.add(new String(entry.getBody(), StandardCharsets.UTF_8));
+    }
+    return out;
+  }
+
+  private void append(String room, String type, String text) {
+    log.append(room, type, "application/json", body(text)).join();
+  }
+
+  private long logFiles() throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.filter(f -> f.toString().endsWith(".log")).count();
+    }
+  }
+
+  @Test
+  void concurrentAppendsShareForces() throws Exception {
+    log = new MessageLog(dir, 1 << 20, true, 5_000, 0, 0, Set.of());
+    List<CompletableFuture<Void>> durable = new CopyOnWriteArrayList<>();
+    List<Thread> writers = new ArrayList<>();
+    for (int w = 0; w < 8; w++) {
+      String room = String.valueOf(w);
+      Thread t = new Thread(() -> {
+        for (int i = 0; i < 50; i++) {
+          durable.add(log.append(room, "TEXT", "application/json", body("m" + i)));
+        }
+      });
+      writers.add(t);
+      t.start();
+    }
+    for (Thread t : writers) {
+      t.join();
+    }
+    CompletableFuture.allOf(durable.toArray(new CompletableFuture[0])).join();
+
+    assertEquals(400, log.appended());
+    assertTrue(log.forces() >= 1 && log.forces() < 400, "forces: " + log.forces());
+  }
+
+  @Test
+  void reopenPicksUpEverySegment() throws Exception {
+    log = new MessageLog(dir, 1024, false, 0, 0, 0, Set.of());
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      append(String.valueOf(i % 2), "TEXT", "m" + i);
+      if (i % 2 == 0) {
+        expected.add("m" + i);
+      }
+    }
+    int segments = log.segmentCount();
+    assertTrue(segments > 2, "segments: " + segments);
+    log.close();
+
+    log = new MessageLog(dir, 1024, false, 0, 0, 0, Set.of());
+    assertEquals(segments, log.segmentCount());
+    assertEquals(50, log.roomRecords("0"));
+    assertEquals(expected, bodies(log.read("0", 0, Long.MAX_VALUE, 1_000)));
+
+    append("0", "TEXT", "after");
+    List<String> after = bodies(log.read("0", 0, Long.MAX_VALUE, 1_000));
+    assertEquals(51, after.size());
+    assertEquals("after", after.get(50));
+  }
+
+  @Test
+  void roomIndexAnswersTimeRangesAcrossSegments() throws Exception {
+    // Each room gets far more records per segment than one index entry covers.
+    log = new MessageLog(dir, 16 * 1024, false, 0, 0, 0, Set.of());
+    List<String> early = new ArrayList<>();
+    List<String> late = new ArrayList<>();
+    for (int i = 0; i < 300; i++) {
+      append("a", "TEXT", "early" + i);
+      append("b", "TEXT", "other" + i);
+      early.add("early" + i);
+    }
+    Thread.sleep(5);
+    long split = System.currentTimeMillis();
+    for (int i = 0; i < 300; i++) {
+      append("a", "TEXT", "late" + i);
+      append("b", "TEXT", "other" + i);
+      late.add("late" + i);
+    }
+    assertTrue(log.segmentCount() > 2, "segments: " + log.segmentCount());
+
+    for (int round = 0; round < 2; round++) {
+      assertEquals(early, bodies(log.read("a", 0, split - 1, 1_000)));
+      assertEquals(late, bodies(log.read("a", split, Long.MAX_VALUE, 1_000)));
+      assertEquals(late.subList(290, 300), bodies(log.read("a", 0, Long.MAX_VALUE, 10)));
+      assertEquals(List.of(), log.read("c", 0, Long.MAX_VALUE, 10));
+      // The second round reads the sealed segments through their persisted indexes.
+      log.close();
+      log = new MessageLog(dir, 16 * 1024, false, 0, 0, 0, Set.of());
+    }
+  }
+
+  @Test
+  void retentionDeletesOldSealedSegments() throws Exception {
+    log = new MessageLog(dir, 1024, false, 0, 100, 0, Set.of());
+    for (int i = 0; i < 100; i++) {
+      append("1", "TEXT", "m" + i);
+    }
+    assertTrue(log.segmentCount() > 2);
+    Thread.sleep(200);
+
+    log.maintain();
+    assertEquals(1, log.segmentCount());
+    assertEquals(1, logFiles());
+    List<String> left = bodies(log.read("1", 0, Long.MAX_VALUE, 1_000));
+    assertEquals(log.roomRecords("1"), left.size());
+    assertEquals("m99", left.get(left.size() - 1));
+  }
+
+  @Test
+  void compactionDropsListedTypesFromOldSegments() throws Exception {
+    log = new MessageLog(dir, 1024, false, 0, 0, 100, Set.of("JOIN"));
+    for (int i = 0; i < 100; i++) {
+      append("1", i % 2 == 0 ? "TEXT" : "JOIN", "m" + i);
+    }
+    int segments = log.segmentCount();
+    Thread.sleep(200);
+
+    log.maintain();
+    assertEquals(segments, log.segmentCount());
+    for (int round = 0; round < 2; round++) {
+      List<LogEntry> entries = log.read("1", 0, Long.MAX_VALUE, 1_000);
+      long text = entries.stream().filter(e -> e.getMessageType().equals("TEXT")).count();
+      long join = entries.size() - text;
+      assertEquals(50, text);
+      // Only the active segment, which is never compacted, still holds JOIN records.
+      assertTrue(join > 0 && join < 10, "join records left: " + join);
+      log.close();
+      log = new MessageLog(dir, 1024, false, 0, 0, 100, Set.of("JOIN"));
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package chatflow.server.broadcast;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@code seen()} on the mapped window against the in-heap cache, and how long reopening
+ * a full mapped window takes. Ids are random UUIDs, each looked up twice in a row so half the
+ * calls hit. Set the thread count with {@code -t}; the reopen benchmark only means something
+ * with {@code -p window=mapped}.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DedupWindowBenchmark {
+
+  private static final int IDS = 1 << 21;
+
+  @Param({"mapped", "heap"})
+  public String window;
+
+  @Param({"1048576"})
+  public int capacity;
+
+  private String[] ids;
+  private Path file;
+  private DedupWindow dedup;
+
+  @Setup
+  public void setUp() throws Exception {
+    ids = new String[IDS];
+    for (int i = 0; i < IDS; i++) {
+      ids[i] = UUID.randomUUID().toString();
+    }
+    file = Files.createTempFile("dedup", ".bin");
+    Files.delete(file);
+    dedup = "mapped".equals(window)
+        ? new MappedDedupWindow(file, capacity, 60_000)
+        : new MessageIdCache(capacity, 60);
+    for (int i = 0; i < capacity; i++) {
+      dedup.seen(ids[i]);
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    dedup.close();
+    Files.deleteIfExists(file);
+  }
+
+  /** Per-thread position in the id array, so threads do not contend on a shared counter. */
+  @State(Scope.Thread)
+  public static class Cursor {
+    int next = ThreadLocalRandom.current().nextInt(IDS) << 1;
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public boolean seen(Cursor cursor) {
+    return dedup.seen(ids[(cursor.next++ >>> 1) & (IDS - 1)]);
+  }
+
+  /** Reopens the window file written during setup, as a restarted server would. */
+  @State(Scope.Thread)
+  public static class Reopen {
+    private MappedDedupWindow reopened;
+
+    @TearDown(Level.Invocation)
+    public void close() throws Exception {
+      reopened.close();
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public MappedDedupWindow reopen(Reopen state) throws Exception {
+    state.reopened = new MappedDedupWindow(file, capacity, 60_000);
+    return state.reopened;
+  }
+}
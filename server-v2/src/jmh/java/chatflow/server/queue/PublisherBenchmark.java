@@ -0,0 +1,105 @@
+package chatflow.server.queue;
+
+import chatflow.server.queue.rabbit.ChannelPool;
+import chatflow.server.queue.rabbit.RabbitMqPublisher;
+import chatflow.server.queue.rabbit.StubBroker;
+import chatflow.server.queue.ring.RingBufferPublisher;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the ring-buffer and in-memory publishers with the Rabbit publisher on a stub
+ * connection. The stub has no network, broker or consume hop, so the Rabbit numbers are an
+ * upper bound. {@code publish} measures throughput without waiting for the consumer;
+ * {@code roundTrip} measures the time from publishing a message until the consumer callback has
+ * received it.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PublisherBenchmark {
+
+  private static final QueueMessage MESSAGE = QueueMessage.of("m1", "7", "42", "user42",
+      "hello", "2026-01-01T00:00:00Z", "TEXT", "server-1", "10.0.0.1");
+
+  @Param({"ring", "memory", "rabbit"})
+  public String publisherType;
+
+  private final AtomicLong delivered = new AtomicLong();
+  private volatile Thread waiter;
+  private MessagePublisher publisher;
+
+  @Setup
+  public void setUp() throws Exception {
+    switch (publisherType) {
+      case "ring":
+        RingBufferPublisher ring = new RingBufferPublisher(1024, 5_000);
+        ring.subscribe((msg, publishedAt, endOfBatch) -> deliver());
+        ring.start();
+        publisher = ring;
+        break;
+      case "memory":
+        InMemoryPublisher memory = new InMemoryPublisher(1024, 5_000);
+        memory.subscribe(msg -> deliver());
+        publisher = memory;
+        break;
+      default:
+        ChannelPool pool = new ChannelPool(StubBroker.connection(0, () -> (key, body) -> deliver()),
+            16, false, ChannelPool.DEFAULT_BORROW_TIMEOUT_MS);
+        publisher = new RabbitMqPublisher(pool, "chat.exchange");
+        break;
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    publisher.close();
+  }
+
+  private void deliver() {
+    delivered.incrementAndGet();
+    Thread t = waiter;
+    if (t != null) {
+      LockSupport.unpark(t);
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  @Threads(4)
+  public CompletableFuture<PublishResult> publish() {
+    return publisher.publishAsync(MESSAGE);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @Threads(1)
+  public long roundTrip() {
+    waiter = Thread.currentThread();
+    long target = delivered.get() + 1;
+    publisher.publishAsync(MESSAGE);
+    long seen;
+    while ((seen = delivered.get()) < target) {
+      LockSupport.park(this);
+    }
+    return seen;
+  }
+}
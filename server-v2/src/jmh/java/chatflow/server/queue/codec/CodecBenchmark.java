@@ -0,0 +1,72 @@
+package chatflow.server.queue.codec;
+
+import chatflow.server.queue.QueueMessage;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures encoding and decoding a message with the JSON and binary codecs. Messages have a
+ * random UUID id, numeric room and user ids, a 44-character text and a microsecond ISO
+ * timestamp. The average body size is printed when the trial starts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+  private static final int MESSAGES = 4096;
+  private static final String[] TYPES = {"TEXT", "TEXT", "TEXT", "JOIN", "LEAVE"};
+
+  @Param({"json", "binary"})
+  public String codecName;
+
+  private QueueMessageCodec codec;
+  private QueueMessage[] messages;
+  private byte[][] bodies;
+  private int next;
+
+  @Setup
+  public void setUp() throws Exception {
+    codec = QueueMessageCodec.forName(codecName);
+    Random random = new Random(42);
+    messages = new QueueMessage[MESSAGES];
+    bodies = new byte[MESSAGES][];
+    long bytes = 0;
+    for (int i = 0; i < MESSAGES; i++) {
+      int user = 1 + random.nextInt(100_000);
+      messages[i] = QueueMessage.of(UUID.randomUUID().toString(),
+          String.valueOf(1 + random.nextInt(20)), String.valueOf(user), "user" + user,
+          "The quick brown fox jumps over the lazy dog " + i % 10,
+          "2026-01-01T12:34:56." + (100_000 + random.nextInt(900_000)) + "Z",
+          TYPES[random.nextInt(TYPES.length)], "server-1", "10.0.0." + random.nextInt(255));
+      bodies[i] = codec.encode(messages[i]);
+      bytes += bodies[i].length;
+    }
+    System.out.printf("%n%s: %.1f bytes/msg%n", codecName, (double) bytes / MESSAGES);
+  }
+
+  @Benchmark
+  public byte[] encode() throws Exception {
+    return codec.encode(messages[next++ & (MESSAGES - 1)]);
+  }
+
+  @Benchmark
+  public QueueMessage decode() throws Exception {
+    return codec.decode(bodies[next++ & (MESSAGES - 1)]);
+  }
+}
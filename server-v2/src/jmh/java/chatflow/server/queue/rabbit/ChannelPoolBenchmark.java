@@ -0,0 +1,102 @@
+package chatflow.server.queue.rabbit;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a borrow and release of a pooled channel, against the blocking queue the pool used
+ * before. Channels are stubs that ignore every call, so only the leasing is timed. Set the
+ * thread count with {@code -t}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChannelPoolBenchmark {
+
+  @Param({"16"})
+  public int poolSize;
+
+  private ChannelPool pool;
+  private BlockingQueue<Channel> queue;
+
+  @Setup
+  public void setUp() throws Exception {
+    Connection connection = stub(Connection.class);
+    pool = new ChannelPool(connection, poolSize, false, ChannelPool.DEFAULT_BORROW_TIMEOUT_MS);
+    queue = new ArrayBlockingQueue<>(poolSize);
+    for (int i = 0; i < poolSize; i++) {
+      queue.add(connection.createChannel());
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    pool.close();
+  }
+
+  @Benchmark
+  public Channel pool() throws Exception {
+    Channel ch = pool.borrow();
+    pool.release(ch);
+    return ch;
+  }
+
+  @Benchmark
+  public Channel blockingQueue() throws InterruptedException {
+    Channel ch = queue.take();
+    queue.put(ch);
+    return ch;
+  }
+
+  /** Returns a proxy whose {@code createChannel} opens stub channels and that ignores the rest. */
+  private static <T> T stub(Class<T> type) {
+    Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+        (self, method, args) -> {
+          switch (method.getName()) {
+            case "createChannel":
+              return stub(Channel.class);
+            case "hashCode":
+              return System.identityHashCode(self);
+            case "equals":
+              return self == args[0];
+            case "isOpen":
+              return true;
+            default:
+              return defaultValue(method.getReturnType());
+          }
+        });
+    return type.cast(proxy);
+  }
+
+  private static Object defaultValue(Class<?> type) {
+    if (type == boolean.class) {
+      return false;
+    }
+    if (type == int.class) {
+      return 0;
+    }
+    if (type == long.class) {
+      return 0L;
+    }
+    return null;
+  }
+}
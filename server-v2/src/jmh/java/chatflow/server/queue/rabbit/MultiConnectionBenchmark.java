@@ -0,0 +1,71 @@
+package chatflow.server.queue.rabbit;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures pooled publishes when the pool's channels are spread over 1 to 8 stub connections.
+ * Each connection serializes its publishes for {@code writeMicros}, standing in for one socket
+ * and client I/O path. Run with many threads, e.g. {@code -t 32}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiConnectionBenchmark {
+
+  private static final byte[] BODY = new byte[128];
+
+  @Param({"1", "2", "4", "8"})
+  public int connections;
+
+  @Param({"16"})
+  public int poolSize;
+
+  @Param({"50"})
+  public long writeMicros;
+
+  private ChannelPool pool;
+
+  @Setup
+  public void setUp() throws Exception {
+    List<Connection> stubs = new ArrayList<>();
+    for (int i = 0; i < connections; i++) {
+      stubs.add(StubBroker.connection(TimeUnit.MICROSECONDS.toNanos(writeMicros),
+          () -> (routingKey, body) -> { }));
+    }
+    pool = new ChannelPool(stubs, poolSize, false, ChannelPool.DEFAULT_BORROW_TIMEOUT_MS);
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    pool.close();
+  }
+
+  @Benchmark
+  public void publish() throws Exception {
+    Channel ch = pool.borrow();
+    try {
+      ch.basicPublish("chat.exchange", "room.1", null, BODY);
+    } finally {
+      pool.release(ch);
+    }
+  }
+}
@@ -0,0 +1,151 @@
+package chatflow.server.queue.rabbit;
+
+import chatflow.server.queue.MessageDeadlines;
+import chatflow.server.queue.QueueMessage;
+import chatflow.server.queue.codec.JsonQueueMessageCodec;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures publishing with and without ordered lanes, and counts how many messages reach their
+ * room out of order. Each stub channel forwards its publishes in FIFO order after 0-200 us of
+ * random jitter, standing in for per-channel broker processes. A message is counted as reordered
+ * when it arrives after a later message of the same room from the same producer thread. The
+ * reorder count is printed when the trial ends. Run with many threads, e.g. {@code -t 32}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderedLanesBenchmark {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final int ROOMS = 20;
+
+  @Param({"0", "16"})
+  public int lanes;
+
+  @Param({"0", "50"})
+  public long writeMicros;
+
+  private final List<Forwarder> forwarders = new ArrayList<>();
+  private final Map<String, Long> lastSeq = new ConcurrentHashMap<>();
+  private final LongAdder arrived = new LongAdder();
+  private final LongAdder reordered = new LongAdder();
+  private final AtomicInteger producers = new AtomicInteger();
+  private RabbitMqPublisher publisher;
+
+  /** Per-thread producer id and message sequence. */
+  @State(Scope.Thread)
+  public static class Producer {
+    int id = -1;
+    long seq;
+  }
+
+  @Setup
+  public void setUp() throws Exception {
+    List<Connection> connections = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      connections.add(StubBroker.connection(TimeUnit.MICROSECONDS.toNanos(writeMicros), () -> {
+        Forwarder forwarder = new Forwarder();
+        forwarders.add(forwarder);
+        return forwarder;
+      }));
+    }
+    ChannelPool pool = new ChannelPool(connections, 16, false,
+        ChannelPool.DEFAULT_BORROW_TIMEOUT_MS);
+    publisher = new RabbitMqPublisher(pool, "chat.exchange", JsonQueueMessageCodec.INSTANCE,
+        MessageDeadlines.NONE, RoomRouting.PER_ROOM, null, 0, 0L, lanes);
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    publisher.close();
+    Thread.sleep(500);
+    for (Forwarder forwarder : forwarders) {
+      forwarder.interrupt();
+    }
+    System.out.printf("%nreordered %d of %d (%.3f%%)%n", reordered.sum(), arrived.sum(),
+        100.0 * reordered.sum() / Math.max(1, arrived.sum()));
+  }
+
+  @Benchmark
+  public void publish(Producer producer) throws Exception {
+    if (producer.id < 0) {
+      producer.id = producers.getAndIncrement();
+    }
+    String room = String.valueOf(ThreadLocalRandom.current().nextInt(ROOMS));
+    publisher.publish(QueueMessage.of(producer.id + ":" + producer.seq++, room, "42", "user42",
+        "hello", "2026-01-01T00:00:00Z", "TEXT", "server-1", "10.0.0.1"));
+  }
+
+  /** Forwards one channel's publishes to the room queues in order, each after some jitter. */
+  private final class Forwarder extends Thread implements BiConsumer<String, byte[]> {
+    private final LinkedBlockingQueue<Object[]> pending = new LinkedBlockingQueue<>();
+    private long lastDue;
+
+    Forwarder() {
+      setDaemon(true);
+      start();
+    }
+
+    @Override
+    public synchronized void accept(String routingKey, byte[] body) {
+      long jitter = ThreadLocalRandom.current().nextLong(TimeUnit.MICROSECONDS.toNanos(200));
+      lastDue = Math.max(lastDue, System.nanoTime() + jitter);
+      pending.add(new Object[] {lastDue, routingKey, body});
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          Object[] next = pending.take();
+          long due = (Long) next[0];
+          while (System.nanoTime() < due) {
+            LockSupport.parkNanos(due - System.nanoTime());
+          }
+          arrive((String) next[1], MAPPER.readTree((byte[]) next[2]).get("messageId").asText());
+        }
+      } catch (Exception e) {
+        // interrupted at teardown
+      }
+    }
+  }
+
+  private void arrive(String routingKey, String messageId) {
+    int colon = messageId.indexOf(':');
+    long seq = Long.parseLong(messageId.substring(colon + 1));
+    String key = routingKey + "/" + messageId.substring(0, colon);
+    arrived.increment();
+    long last = lastSeq.merge(key, seq, Math::max);
+    if (last > seq) {
+      reordered.increment();
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package chatflow.server.queue.rabbit;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Broker stand-in for the publishing benchmarks. There is no network: a connection only models
+ * its socket write by serializing {@code basicPublish} on one lock held for a fixed time, and a
+ * channel hands each body to a sink of its own.
+ */
+public final class StubBroker {
+
+  private StubBroker() {
+  }
+
+  /**
+   * Returns a stub connection.
+   *
+   * @param writeNanos time the connection lock is held per publish, or 0 for none
+   * @param sinks supplies the sink of each new channel, called with routing key and body
+   * @return connection whose channels accept every call
+   */
+  public static Connection connection(long writeNanos, Supplier<BiConsumer<String, byte[]>> sinks) {
+    Object socket = new Object();
+    return stub(Connection.class, (method, args) -> {
+      if (!method.equals("createChannel")) {
+        return null;
+      }
+      BiConsumer<String, byte[]> sink = sinks.get();
+      return stub(Channel.class, (channelMethod, publish) -> {
+        if (!channelMethod.equals("basicPublish")) {
+          return null;
+        }
+        if (writeNanos > 0) {
+          synchronized (socket) {
+            long until = System.nanoTime() + writeNanos;
+            while (System.nanoTime() < until) {
+              LockSupport.parkNanos(until - System.nanoTime());
+            }
+          }
+        }
+        sink.accept((String) publish[1], (byte[]) publish[publish.length - 1]);
+        return null;
+      });
+    });
+  }
+
+  /** Handles the calls of a stub; returning null falls back to a default value. */
+  private interface Handler {
+    Object call(String method, Object[] args) throws Exception;
+  }
+
+  private static <T> T stub(Class<T> type, Handler handler) {
+    Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+        (self, method, args) -> {
+          switch (method.getName()) {
+            case "hashCode":
+              return System.identityHashCode(self);
+            case "equals":
+              return self == args[0];
+            case "isOpen":
+              return true;
+            default:
+              Object result = handler.call(method.getName(), args);
+              return result != null ? result : defaultValue(method.getReturnType());
+          }
+        });
+    return type.cast(proxy);
+  }
+
+  private static Object defaultValue(Class<?> type) {
+    if (type == boolean.class) {
+      return false;
+    }
+    if (type == int.class) {
+      return 0;
+    }
+    if (type == long.class) {
+      return 0L;
+    }
+    return null;
+  }
+}
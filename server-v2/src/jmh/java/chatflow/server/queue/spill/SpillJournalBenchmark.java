@@ -0,0 +1,197 @@
+package chatflow.server.queue.spill;
+
+import chatflow.server.queue.MessagePublisher;
+import chatflow.server.queue.PublishResult;
+import chatflow.server.queue.QueueMessage;
+import chatflow.server.queue.codec.BinaryQueueMessageCodec;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the spill journal: appending records, reading them back with peek and commit, and
+ * spilling and replaying whole messages through {@link SpillingPublisher}. Records are binary
+ * encoded messages of about 125 bytes. The journal lives in a temporary directory that is
+ * recreated for every iteration, so the file system under it matters.
+ */
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpillJournalBenchmark {
+
+  private static final int SEGMENT_BYTES = 64 << 20;
+  private static final int REPLAYED = 20_000;
+  private static final QueueMessage MESSAGE = QueueMessage.of(
+      "3f2b8c4e-9d1a-4e7b-8a6f-2c5d7e9b1a3c", "7", "42", "user42",
+      "The quick brown fox jumps over the lazy dog", "2026-01-01T12:34:56.123456Z", "TEXT",
+      "server-1", "10.0.0.1");
+  private static final byte[] RECORD = BinaryQueueMessageCodec.INSTANCE.encode(MESSAGE);
+
+  /** Journal in a fresh directory for every iteration. */
+  @State(Scope.Benchmark)
+  public static class Journal {
+    Path dir;
+    SpillJournal journal;
+
+    @Setup(Level.Iteration)
+    public void open() throws IOException {
+      dir = Files.createTempDirectory("spill-bench");
+      journal = new SpillJournal(dir, SEGMENT_BYTES);
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws IOException {
+      journal.close();
+      delete(dir);
+    }
+  }
+
+  /** Journal holding {@value #REPLAYED} records before every invocation. */
+  @State(Scope.Benchmark)
+  public static class Filled {
+    Path dir;
+    SpillJournal journal;
+
+    @Setup(Level.Invocation)
+    public void fill() throws IOException {
+      dir = Files.createTempDirectory("spill-bench");
+      journal = filledJournal(dir);
+    }
+
+    @TearDown(Level.Invocation)
+    public void close() throws IOException {
+      journal.close();
+      delete(dir);
+    }
+  }
+
+  /** Spilling publisher over a filled journal, replaying into a publisher that drops it all. */
+  @State(Scope.Benchmark)
+  public static class Replaying {
+    @Param({"20000", "100000000"})
+    public long replayPerSecond;
+
+    Path dir;
+    SpillJournal journal;
+    SpillingPublisher publisher;
+
+    @Setup(Level.Invocation)
+    public void start() throws IOException {
+      dir = Files.createTempDirectory("spill-bench");
+      journal = filledJournal(dir);
+      publisher = new SpillingPublisher(new NoOpPublisher(), journal, () -> true, 1, 1,
+          replayPerSecond);
+    }
+
+    @TearDown(Level.Invocation)
+    public void stop() throws Exception {
+      publisher.close();
+      delete(dir);
+    }
+  }
+
+  /** Spilling publisher whose broker is never healthy, so every message is journaled. */
+  @State(Scope.Benchmark)
+  public static class Spilling {
+    Path dir;
+    SpillingPublisher publisher;
+
+    @Setup(Level.Iteration)
+    public void start() throws IOException {
+      dir = Files.createTempDirectory("spill-bench");
+      publisher = new SpillingPublisher(new NoOpPublisher(), new SpillJournal(dir, SEGMENT_BYTES),
+          () -> false, 1, 60_000, 1);
+    }
+
+    @TearDown(Level.Iteration)
+    public void stop() throws Exception {
+      publisher.close();
+      delete(dir);
+    }
+  }
+
+  private static SpillJournal filledJournal(Path dir) throws IOException {
+    SpillJournal journal = new SpillJournal(dir, SEGMENT_BYTES);
+    for (int i = 0; i < REPLAYED; i++) {
+      journal.append(RECORD);
+    }
+    return journal;
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  @Threads(1)
+  public void append(Journal state) throws IOException {
+    state.journal.append(RECORD);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  @Threads(4)
+  public PublishResult spill(Spilling state) {
+    return state.publisher.publishAsync(MESSAGE).join();
+  }
+
+  /** Reads back and commits {@value #REPLAYED} records. */
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 3)
+  @Measurement(iterations = 10)
+  public void peekCommit(Filled state) {
+    while (state.journal.peek() != null) {
+      state.journal.commit();
+    }
+  }
+
+  /** Waits until the publisher has replayed {@value #REPLAYED} spilled messages. */
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 1)
+  @Measurement(iterations = 5)
+  public void replay(Replaying state) throws InterruptedException {
+    while (state.journal.pending() > 0) {
+      Thread.sleep(1);
+    }
+  }
+
+  private static void delete(Path dir) throws IOException {
+    try (Stream<Path> files = Files.walk(dir)) {
+      for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(p);
+      }
+    }
+  }
+
+  private static final class NoOpPublisher implements MessagePublisher {
+    @Override
+    public CompletableFuture<PublishResult> publishAsync(QueueMessage msg) {
+      return CompletableFuture.completedFuture(new PublishResult(msg.getMessageId(), false));
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
@@ -1,14 +1,39 @@
 package chatflow.server;
 
+import chatflow.server.broadcast.BroadcastIngressServer;
+import chatflow.server.broadcast.DedupWindow;
+import chatflow.server.metrics.LatencyHistogram;
+import chatflow.server.queue.IdempotencyCache;
+import chatflow.server.queue.InMemoryPublisher;
+import chatflow.server.queue.MessageDeadlines;
 import chatflow.server.queue.MessagePublisher;
+import chatflow.server.queue.PriorityPublisher;
+import chatflow.server.queue.TieredPublisher;
+import chatflow.server.queue.codec.PayloadCompressor;
+import chatflow.server.queue.codec.QueueMessageCodec;
+import chatflow.server.queue.rabbit.BatchingRabbitPublisher;
 import chatflow.server.queue.rabbit.ChannelPool;
+import chatflow.server.queue.rabbit.DeliveryTier;
+import chatflow.server.queue.rabbit.EmbeddedRoomConsumer;
 import chatflow.server.queue.rabbit.RabbitMqPublisher;
+import chatflow.server.queue.rabbit.RoomRouting;
+import chatflow.server.queue.rabbit.RoomSubscriptionManager;
+import chatflow.server.queue.ring.RingBufferPublisher;
+import chatflow.server.queue.ring.RoomBroadcastConsumer;
+import chatflow.server.queue.spill.SpillJournal;
+import chatflow.server.queue.spill.SpillingPublisher;
 import chatflow.server.room.RoomManager;
 import chatflow.server.ws.ChatWebSocketServer;
+import com.rabbitmq.client.Channel;
 import com.sun.net.httpserver.HttpServer;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Entry point for starting the ChatFlow server.
@@ -28,21 +53,235 @@ public class ServerMain {
         });
 
     String serverId = System.getenv().getOrDefault("CHATFLOW_SERVER_ID", "server-1");
+    String rabbitHost = System.getenv().getOrDefault("RABBIT_HOST", "localhost");
+    int rabbitPort = Integer.parseInt(System.getenv().getOrDefault("RABBIT_PORT", "5672"));
+    String rabbitUser = System.getenv().getOrDefault("RABBIT_USER", "guest");
+    String rabbitPass = System.getenv().getOrDefault("RABBIT_PASS", "guest");
+    String exchangeName = System.getenv().getOrDefault("RABBIT_EXCHANGE", "chat.exchange");
+    String publisherType = System.getenv().getOrDefault("CHATFLOW_PUBLISHER", "rabbit");
+    MessageDeadlines deadlines =
+        MessageDeadlines.parse(System.getenv("CHATFLOW_MESSAGE_MAX_AGE_MS"));
+    RoomRouting routing = RoomRouting.partitioned(
+        Integer.parseInt(System.getenv().getOrDefault("CHATFLOW_PARTITIONS", "0")));
+    String compression = System.getenv().getOrDefault("CHATFLOW_COMPRESSION", "none");
+    if (!"none".equals(compression) && !PayloadCompressor.CONTENT_ENCODING.equals(compression)) {
+      throw new IllegalArgumentException("Unknown CHATFLOW_COMPRESSION: " + compression);
+    }
+    // Deliveries are decompressed whenever they are marked, so this server can read messages
+    // from publishers that compress even when it does not compress itself.
+    PayloadCompressor compressor =
+        new PayloadCompressor(
+            Integer.parseInt(
+                System.getenv().getOrDefault("CHATFLOW_COMPRESSION_MIN_BYTES", "256")),
+            Integer.parseInt(System.getenv().getOrDefault("CHATFLOW_COMPRESSION_LEVEL", "1")),
+            PayloadCompressor.loadDictionary(System.getenv("CHATFLOW_COMPRESSION_DICT")));
+    PayloadCompressor publishCompressor = "none".equals(compression) ? null : compressor;
+
+    IdempotencyCache idempotencyCache =
+        new IdempotencyCache(
+            Integer.parseInt(System.getenv().getOrDefault("CHATFLOW_IDEMPOTENCY_SIZE", "100000")),
+            Long.parseLong(System.getenv().getOrDefault("CHATFLOW_IDEMPOTENCY_TTL_SEC", "120")));
+
+    RoomManager roomManager = new RoomManager();
+    BroadcastIngressServer ingress = null;
+    EmbeddedRoomConsumer embedded = null;
+    try {
+      DedupWindow dedup =
+          DedupWindow.create(
+              System.getenv("CHATFLOW_DEDUP_FILE"),
+              Integer.parseInt(System.getenv().getOrDefault("CHATFLOW_DEDUP_SIZE", "50000")),
+              Long.parseLong(System.getenv().getOrDefault("CHATFLOW_DEDUP_TTL_SEC", "60")));
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        try {
+          dedup.close();
+        } catch (Exception e) {
+          e.printStackTrace();
+        }
+      }));
+      boolean ingressEnabled =
+          Boolean.parseBoolean(System.getenv().getOrDefault("CHATFLOW_BROADCAST_INGRESS", "false"));
+      if (ingressEnabled) {
+        ingress =
+            new BroadcastIngressServer(
+                System.getenv().getOrDefault("CHATFLOW_BROADCAST_BIND", "127.0.0.1"),
+                Integer.parseInt(System.getenv().getOrDefault("CHATFLOW_BROADCAST_PORT", "8082")),
+                System.getenv("CHATFLOW_BROADCAST_SECRET"),
+                Integer.parseInt(
+                    System.getenv().getOrDefault("CHATFLOW_BROADCAST_CREDITS", "32")),
+                dedup,
+                roomManager);
+        ingress.start();
+        System.out.println("Broadcast ingress started on port " + ingress.getPort());
+      }
+
+      boolean embeddedMode =
+          Boolean.parseBoolean(System.getenv().getOrDefault("CHATFLOW_EMBEDDED_CONSUMER", "false"));
+      if (embeddedMode && "rabbit".equals(publisherType)) {
+        embedded =
+            new EmbeddedRoomConsumer(
+                rabbitHost, rabbitPort, rabbitUser, rabbitPass, exchangeName, serverId,
+                Integer.parseInt(System.getenv().getOrDefault("CHATFLOW_EMBEDDED_PREFETCH", "200")),
+                Long.parseLong(System.getenv().getOrDefault("CHATFLOW_UNBIND_DEBOUNCE_MS", "5000")),
+                routing,
+                compressor,
+                dedup,
+                deadlines,
+                roomManager);
+        embedded.start();
+        System.out.println("Embedded consumer started for " + serverId);
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+    BroadcastIngressServer broadcastIngress = ingress;
+    EmbeddedRoomConsumer embeddedConsumer = embedded;
 
+    ChannelPool channelPool = null;
+    BatchingRabbitPublisher batchingPublisher = null;
+    RingBufferPublisher ringPublisher = null;
+    RoomBroadcastConsumer localBroadcast = null;
+    SpillingPublisher spillingPublisher = null;
+    TieredPublisher tieredPublisher = null;
+    PriorityPublisher priorityPublisher = null;
+    RabbitMqPublisher controlPublisher = null;
     try {
-      ChannelPool pool =
-          new ChannelPool(
-              System.getenv().getOrDefault("RABBIT_HOST", "localhost"),
-              Integer.parseInt(System.getenv().getOrDefault("RABBIT_PORT", "5672")),
-              System.getenv().getOrDefault("RABBIT_USER", "guest"),
-              System.getenv().getOrDefault("RABBIT_PASS", "guest"),
-              Integer.parseInt(System.getenv().getOrDefault("RABBIT_CHANNEL_POOL", "16")));
-
-      MessagePublisher publisher =
-          new RabbitMqPublisher(pool, System.getenv().getOrDefault("RABBIT_EXCHANGE", "chat.exchange"));
-
-      RoomManager roomManager = new RoomManager();
-      ChatWebSocketServer wsServer = new ChatWebSocketServer(8081, publisher, serverId, roomManager);
+      MessagePublisher publisher;
+      if ("ring".equals(publisherType) || "memory".equals(publisherType)) {
+        int ringSize =
+            Integer.parseInt(System.getenv().getOrDefault("CHATFLOW_RING_SIZE", "65536"));
+        long ringTimeoutMs =
+            Long.parseLong(System.getenv().getOrDefault("CHATFLOW_RING_TIMEOUT_MS", "5000"));
+        localBroadcast = new RoomBroadcastConsumer(roomManager, deadlines);
+        if ("ring".equals(publisherType)) {
+          ringPublisher = new RingBufferPublisher(ringSize, ringTimeoutMs);
+          ringPublisher.subscribe(localBroadcast);
+          ringPublisher.start();
+          publisher = ringPublisher;
+        } else {
+          InMemoryPublisher memoryPublisher = new InMemoryPublisher(ringSize, ringTimeoutMs);
+          memoryPublisher.subscribe(localBroadcast);
+          publisher = memoryPublisher;
+        }
+        System.out.println("Publishing in-process (" + publisherType + "), no broker");
+      } else if ("rabbit".equals(publisherType)) {
+        boolean confirms =
+            Boolean.parseBoolean(System.getenv().getOrDefault("RABBIT_CONFIRMS", "false"));
+        ChannelPool pool =
+            new ChannelPool(
+                rabbitHost,
+                rabbitPort,
+                rabbitUser,
+                rabbitPass,
+                Integer.parseInt(System.getenv().getOrDefault("RABBIT_CHANNEL_POOL", "16")),
+                Integer.parseInt(System.getenv().getOrDefault("RABBIT_CONNECTIONS", "1")),
+                confirms,
+                Long.parseLong(
+                    System.getenv().getOrDefault("RABBIT_BORROW_TIMEOUT_MS", "5000")));
+        channelPool = pool;
+        System.out.println("Room routing: " + routing);
+        if (publishCompressor != null) {
+          System.out.println("Compressing queue payloads with " + compression);
+        }
+
+        int confirmInFlight =
+            Integer.parseInt(System.getenv().getOrDefault("RABBIT_CONFIRM_INFLIGHT", "1024"));
+        long confirmTimeoutMs =
+            Long.parseLong(System.getenv().getOrDefault("RABBIT_CONFIRM_TIMEOUT_MS", "5000"));
+        int orderedLanes =
+            Integer.parseInt(System.getenv().getOrDefault("RABBIT_ORDERED_LANES", "0"));
+        QueueMessageCodec codec =
+            QueueMessageCodec.forName(
+                System.getenv().getOrDefault("CHATFLOW_QUEUE_CODEC", "json"));
+        RabbitMqPublisher rabbitPublisher =
+            new RabbitMqPublisher(pool, exchangeName, codec, deadlines, routing,
+                publishCompressor, confirms ? confirmInFlight : 0, confirmTimeoutMs,
+                orderedLanes);
+        publisher = rabbitPublisher;
+        int publishBatch =
+            Integer.parseInt(System.getenv().getOrDefault("RABBIT_PUBLISH_BATCH", "1"));
+        if (publishBatch > 1) {
+          batchingPublisher = new BatchingRabbitPublisher(rabbitPublisher, publishBatch,
+              Long.parseLong(System.getenv().getOrDefault("RABBIT_PUBLISH_LINGER_US", "500")));
+          publisher = batchingPublisher;
+        }
+        Map<String, MessagePublisher> byType = new HashMap<>();
+        String qosTiers = System.getenv("CHATFLOW_QOS_TIERS");
+        if (qosTiers != null && !qosTiers.isEmpty()) {
+          Map<DeliveryTier, MessagePublisher> tierPublishers = new HashMap<>();
+          for (String entry : qosTiers.split(",")) {
+            String[] typeAndTier = entry.split("=", 2);
+            if (typeAndTier.length != 2) {
+              throw new IllegalArgumentException("CHATFLOW_QOS_TIERS entry must be TYPE=tier: "
+                  + entry);
+            }
+            DeliveryTier tier = DeliveryTier.forName(typeAndTier[1]);
+            if (!tierPublishers.containsKey(tier)) {
+              ChannelPool tierPool =
+                  new ChannelPool(rabbitHost, rabbitPort, rabbitUser, rabbitPass,
+                      Integer.parseInt(
+                          System.getenv().getOrDefault("RABBIT_TIER_CHANNEL_POOL", "4")),
+                      1, tier.isConfirms(), ChannelPool.DEFAULT_BORROW_TIMEOUT_MS);
+              Channel admin = tierPool.borrow();
+              try {
+                tier.declare(admin, exchangeName);
+              } finally {
+                tierPool.release(admin);
+              }
+              tierPublishers.put(tier, new RabbitMqPublisher(tierPool, exchangeName, codec, tier,
+                  deadlines, routing, publishCompressor, confirmInFlight, confirmTimeoutMs));
+            }
+            byType.put(typeAndTier[0].trim(), tierPublishers.get(tier));
+          }
+          tieredPublisher = new TieredPublisher(byType, publisher);
+          publisher = tieredPublisher;
+          System.out.println("QoS tiers: " + qosTiers);
+        }
+        String priorityTypes = System.getenv("CHATFLOW_PRIORITY_TYPES");
+        if (priorityTypes != null && !priorityTypes.isEmpty()) {
+          Set<String> controlTypes = new HashSet<>();
+          for (String type : priorityTypes.split(",")) {
+            controlTypes.add(type.trim());
+          }
+          // The control lane publishes to the main exchange, so it cannot honour a tier.
+          for (String type : controlTypes) {
+            if (byType.containsKey(type)) {
+              throw new IllegalArgumentException("Message type " + type
+                  + " is in both CHATFLOW_PRIORITY_TYPES and CHATFLOW_QOS_TIERS");
+            }
+          }
+          ChannelPool controlPool =
+              new ChannelPool(rabbitHost, rabbitPort, rabbitUser, rabbitPass,
+                  Integer.parseInt(
+                      System.getenv().getOrDefault("RABBIT_CONTROL_CHANNEL_POOL", "2")),
+                  1, confirms, ChannelPool.DEFAULT_BORROW_TIMEOUT_MS);
+          controlPublisher = RabbitMqPublisher.controlLane(controlPool, exchangeName, codec,
+              deadlines, routing, publishCompressor, confirms ? confirmInFlight : 0,
+              confirmTimeoutMs);
+          priorityPublisher = new PriorityPublisher(controlPublisher, publisher, controlTypes,
+              Integer.parseInt(System.getenv().getOrDefault("CHATFLOW_BULK_QUEUE", "8192")),
+              Integer.parseInt(System.getenv().getOrDefault("CHATFLOW_BULK_WORKERS", "1")));
+          publisher = priorityPublisher;
+          System.out.println("Priority lane for " + controlTypes);
+        }
+        String spillDir = System.getenv("CHATFLOW_SPILL_DIR");
+        if (spillDir != null && !spillDir.isEmpty()) {
+          SpillJournal journal = new SpillJournal(Path.of(spillDir),
+              Integer.parseInt(System.getenv().getOrDefault("CHATFLOW_SPILL_SEGMENT_MB", "64"))
+                  * 1024 * 1024);
+          spillingPublisher = new SpillingPublisher(publisher, journal, pool::canPublish,
+              Integer.parseInt(System.getenv().getOrDefault("CHATFLOW_SPILL_FAILURES", "3")),
+              Long.parseLong(System.getenv().getOrDefault("CHATFLOW_SPILL_RETRY_MS", "1000")),
+              Long.parseLong(
+                  System.getenv().getOrDefault("CHATFLOW_SPILL_REPLAY_PER_SEC", "2000")));
+          publisher = spillingPublisher;
+          System.out.println("Spill journal enabled in " + spillDir);
+        }
+      } else {
+        throw new IllegalArgumentException("Unknown CHATFLOW_PUBLISHER: " + publisherType);
+      }
+
+      ChatWebSocketServer wsServer =
+          new ChatWebSocketServer(8081, publisher, serverId, roomManager, idempotencyCache);
       wsServer.start();
       System.out.println("WebSocket bind address: " + wsServer.getAddress());
       System.out.println("WebSocket started on port 8081");
@@ -50,8 +289,112 @@ public class ServerMain {
       e.printStackTrace();
     }
 
+    ChannelPool publisherPool = channelPool;
+    BatchingRabbitPublisher batcher = batchingPublisher;
+    RingBufferPublisher ring = ringPublisher;
+    RoomBroadcastConsumer local = localBroadcast;
+    SpillingPublisher spill = spillingPublisher;
+    TieredPublisher tiered = tieredPublisher;
+    PriorityPublisher priority = priorityPublisher;
+    RabbitMqPublisher controlLane = controlPublisher;
+    server.createContext("/metrics",
+        exchange -> {
+          String response = "dedup.hits " + idempotencyCache.hits() + "\n"
+              + "dedup.misses " + idempotencyCache.misses() + "\n";
+          if (broadcastIngress != null) {
+            response += "broadcast.batches " + broadcastIngress.batches() + "\n"
+                + "broadcast.delivered " + broadcastIngress.delivered() + "\n"
+                + "broadcast.duplicates " + broadcastIngress.duplicates() + "\n"
+                + "broadcast.rejected " + broadcastIngress.rejected() + "\n";
+          }
+          if (embeddedConsumer != null) {
+            LatencyHistogram e2e = embeddedConsumer.getEndToEndLatency();
+            response += "embedded.delivered " + e2e.count() + "\n"
+                + "embedded.duplicates " + embeddedConsumer.duplicates() + "\n"
+                + "embedded.e2e_avg_us " + Math.round(e2e.meanMicros()) + "\n"
+                + "embedded.e2e_p50_us " + e2e.percentileMicros(0.50) + "\n"
+                + "embedded.e2e_p99_us " + e2e.percentileMicros(0.99) + "\n";
+            RoomSubscriptionManager subscriptions = embeddedConsumer.getSubscriptions();
+            if (subscriptions != null) {
+              response += "subscriptions.bound_rooms " + subscriptions.boundRooms() + "\n"
+                  + "subscriptions.binds " + subscriptions.binds() + "\n"
+                  + "subscriptions.unbinds " + subscriptions.unbinds() + "\n"
+                  + "subscriptions.debounced " + subscriptions.debounced() + "\n";
+            }
+          }
+          if (batcher != null) {
+            response += "publish.batches " + batcher.batches() + "\n"
+                + "publish.batched_messages " + batcher.messages() + "\n";
+          }
+          if (ring != null) {
+            response += "ring.size " + ring.size() + "\n"
+                + "ring.remaining " + ring.remainingCapacity() + "\n"
+                + "ring.published " + ring.published() + "\n"
+                + "ring.rejected " + ring.rejected() + "\n"
+                + "ring.consumer_errors " + ring.consumerErrors() + "\n";
+          }
+          if (local != null) {
+            LatencyHistogram e2e = local.getEndToEndLatency();
+            response += "local.e2e_p50_us " + e2e.percentileMicros(0.50) + "\n"
+                + "local.e2e_p99_us " + e2e.percentileMicros(0.99) + "\n";
+          }
+          for (Map.Entry<String, Long> count : deadlines.shedCounts().entrySet()) {
+            response += "stale.skipped." + count.getKey() + " " + count.getValue() + "\n";
+          }
+          if (publishCompressor != null) {
+            response += "compression.compressed " + publishCompressor.compressed() + "\n"
+                + "compression.skipped " + publishCompressor.skipped() + "\n"
+                + "compression.ratio "
+                + String.format("%.3f", publishCompressor.ratio()) + "\n";
+          }
+          if (tiered != null) {
+            for (Map.Entry<String, Long> count : tiered.counts().entrySet()) {
+              response += "qos.published." + count.getKey() + " " + count.getValue() + "\n";
+            }
+          }
+          if (priority != null) {
+            LatencyHistogram controlLatency = priority.getControlLatency();
+            LatencyHistogram bulkLatency = priority.getBulkLatency();
+            response += "priority.control_published " + priority.controlPublished() + "\n"
+                + "priority.control_returned " + controlLane.returned() + "\n"
+                + "priority.control_p50_us " + controlLatency.percentileMicros(0.50) + "\n"
+                + "priority.control_p99_us " + controlLatency.percentileMicros(0.99) + "\n"
+                + "priority.bulk_published " + priority.bulkPublished() + "\n"
+                + "priority.bulk_queued " + priority.bulkQueued() + "\n"
+                + "priority.bulk_rejected " + priority.bulkRejected() + "\n"
+                + "priority.bulk_p50_us " + bulkLatency.percentileMicros(0.50) + "\n"
+                + "priority.bulk_p99_us " + bulkLatency.percentileMicros(0.99) + "\n";
+          }
+          if (spill != null) {
+            response += "spill.open " + (spill.isOpen() ? 1 : 0) + "\n"
+                + "spill.opens " + spill.opens() + "\n"
+                + "spill.spilled " + spill.spilled() + "\n"
+                + "spill.replayed " + spill.replayed() + "\n"
+                + "spill.dropped " + spill.dropped() + "\n"
+                + "spill.pending " + spill.getJournal().pending() + "\n"
+                + "spill.segments " + spill.getJournal().segmentCount() + "\n";
+          }
+          if (publisherPool != null) {
+            LatencyHistogram waits = publisherPool.getWaitTimes();
+            response += "pool.size " + publisherPool.size() + "\n"
+                + "pool.connections " + publisherPool.connectionCount() + "\n"
+                + "pool.connections_up " + publisherPool.healthyConnections() + "\n"
+                + "pool.connections_blocked " + publisherPool.blockedConnections() + "\n"
+                + String.format("pool.utilization %.3f%n", publisherPool.utilization())
+                + "pool.exhaustions " + publisherPool.exhaustions() + "\n"
+                + "pool.borrow_waits " + waits.count() + "\n"
+                + "pool.borrow_wait_p50_us " + waits.percentileMicros(0.50) + "\n"
+                + "pool.borrow_wait_p99_us " + waits.percentileMicros(0.99) + "\n"
+                + "pool.borrow_wait_p999_us " + waits.percentileMicros(0.999) + "\n";
+          }
+          exchange.sendResponseHeaders(200, response.getBytes().length);
+          try (OutputStream os = exchange.getResponseBody()) {
+            os.write(response.getBytes());
+          }
+        });
+
     int actualPort = server.getAddress().getPort();
     server.start();
     System.out.println("Server started on port " + actualPort);
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,124 @@
+package chatflow.server.broadcast;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wire format of the internal consumer-to-server broadcast channel.
+ *
+ * <p>Every frame is an {@code int} length followed by that many payload bytes. The first
+ * payload byte is the frame type:
+ * <ul>
+ *   <li>{@link #HELLO} (consumer to server, first frame): the shared secret as a modified
+ *       UTF-8 string. The server grants credits only after a matching hello.</li>
+ *   <li>{@link #BATCH} (consumer to server): {@code long batchId}, {@code int count} of at
+ *       most {@link #MAX_BATCH_REQUESTS}, then {@code count} requests, each as nine nullable
+ *       strings.</li>
+ *   <li>{@link #CREDIT} (server to consumer): {@code long batchId} of the batch just
+ *       processed (0 for the initial grant) and {@code int credits} granted.</li>
+ * </ul>
+ * A consumer may have as many unprocessed batches in flight as it holds credits.
+ */
+public final class BroadcastFrames {
+
+  /** Frame type of a request batch. */
+  public static final byte BATCH = 1;
+
+  /** Frame type of a credit grant. */
+  public static final byte CREDIT = 2;
+
+  /** Frame type of the handshake that carries the shared secret. */
+  public static final byte HELLO = 3;
+
+  /** Upper bound on the requests in one batch. */
+  public static final int MAX_BATCH_REQUESTS = 4096;
+
+  /** Upper bound on a hello payload, read before the peer is authenticated. */
+  public static final int MAX_HELLO_BYTES = 1024;
+
+  /** Upper bound on a frame payload, to reject corrupt length prefixes. */
+  public static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+
+  private BroadcastFrames() {}
+
+  /**
+   * Reads the payload length of the next frame.
+   *
+   * @param in input stream
+   * @return payload length
+   * @throws IOException if the stream fails or the length is out of range
+   */
+  public static int readLength(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 1 || length > MAX_FRAME_BYTES) {
+      throw new IOException("Invalid frame length " + length);
+    }
+    return length;
+  }
+
+  /**
+   * Reads the hello frame and returns its secret.
+   *
+   * @param in input stream
+   * @return secret sent by the consumer
+   * @throws IOException if the stream fails or the frame is not a hello
+   */
+  public static String readHello(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 1 || length > MAX_HELLO_BYTES) {
+      throw new IOException("Invalid hello length " + length);
+    }
+    byte[] payload = new byte[length];
+    in.readFully(payload);
+    DataInputStream frame = new DataInputStream(new ByteArrayInputStream(payload));
+    if (frame.readByte() != HELLO) {
+      throw new IOException("Expected hello frame");
+    }
+    return frame.readUTF();
+  }
+
+  /**
+   * Decodes the requests of a batch frame whose type byte has been consumed.
+   *
+   * @param in payload input positioned after the type byte and batch id
+   * @return requests
+   * @throws IOException if the payload is malformed
+   */
+  public static List<BroadcastRequest> readRequests(DataInputStream in) throws IOException {
+    int count = in.readInt();
+    if (count < 0 || count > MAX_BATCH_REQUESTS) {
+      throw new IOException("Invalid batch size " + count);
+    }
+    List<BroadcastRequest> requests = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      requests.add(new BroadcastRequest(
+          readString(in), readString(in), readString(in), readString(in), readString(in),
+          readString(in), readString(in), readString(in), readString(in)));
+    }
+    return requests;
+  }
+
+  /**
+   * Writes a complete credit frame.
+   *
+   * @param out output stream
+   * @param batchId processed batch id, or 0 for the initial grant
+   * @param credits credits granted
+   * @throws IOException if the stream fails
+   */
+  public static void writeCredit(DataOutputStream out, long batchId, int credits)
+      throws IOException {
+    out.writeInt(1 + 8 + 4);
+    out.writeByte(CREDIT);
+    out.writeLong(batchId);
+    out.writeInt(credits);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+}
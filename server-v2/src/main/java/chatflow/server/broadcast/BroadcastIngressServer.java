@@ -0,0 +1,225 @@
+package chatflow.server.broadcast;
+
+import chatflow.server.room.RoomManager;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Internal endpoint that receives batched {@link BroadcastRequest}s from consumers.
+ *
+ * <p>Each consumer keeps one persistent TCP connection and pipelines batches in the
+ * {@link BroadcastFrames} format. A connection must open with a hello frame carrying the
+ * shared secret; otherwise it is closed without credits. After the hello the server grants a
+ * fixed window of credits and returns one credit, tagged with the batch id, after each batch
+ * has been broadcast. Message ids pass through the dedup window, so redelivered messages reach
+ * the room only once.
+ */
+public final class BroadcastIngressServer implements AutoCloseable {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final int HELLO_TIMEOUT_MS = 5_000;
+
+  private final String bindAddress;
+  private final int port;
+  private final byte[] secret;
+  private final int credits;
+  private final DedupWindow dedup;
+  private final RoomManager roomManager;
+  private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+
+  private final LongAdder batches = new LongAdder();
+  private final LongAdder delivered = new LongAdder();
+  private final LongAdder duplicates = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+
+  private volatile ServerSocket serverSocket;
+
+  /**
+   * Creates an ingress server.
+   *
+   * @param bindAddress address to bind, normally loopback or an internal interface
+   * @param port TCP port to bind
+   * @param secret shared secret consumers must present
+   * @param credits number of batches a consumer may have in flight
+   * @param dedup dedup window for message ids
+   * @param roomManager room manager that owns local sessions
+   */
+  public BroadcastIngressServer(String bindAddress, int port, String secret, int credits,
+      DedupWindow dedup, RoomManager roomManager) {
+    if (credits < 1) {
+      throw new IllegalArgumentException("credits must be >= 1");
+    }
+    if (secret == null || secret.isEmpty()) {
+      throw new IllegalArgumentException("A broadcast ingress secret is required");
+    }
+    this.bindAddress = Objects.requireNonNull(bindAddress, "bindAddress");
+    this.port = port;
+    this.secret = secret.getBytes(StandardCharsets.UTF_8);
+    this.credits = credits;
+    this.dedup = Objects.requireNonNull(dedup, "dedup");
+    this.roomManager = Objects.requireNonNull(roomManager, "roomManager");
+  }
+
+  /**
+   * Binds the port and starts accepting consumer connections.
+   *
+   * @throws IOException if the port cannot be bound
+   */
+  public void start() throws IOException {
+    ServerSocket ss = new ServerSocket();
+    ss.setReuseAddress(true);
+    ss.bind(new InetSocketAddress(bindAddress, port));
+    this.serverSocket = ss;
+    Thread acceptor = new Thread(this::acceptLoop, "broadcast-ingress-accept");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  /**
+   * Returns the bound port.
+   */
+  public int getPort() {
+    return serverSocket == null ? port : serverSocket.getLocalPort();
+  }
+
+  /**
+   * Returns the number of batches received.
+   */
+  public long batches() {
+    return batches.sum();
+  }
+
+  /**
+   * Returns the number of requests broadcast to local rooms.
+   */
+  public long delivered() {
+    return delivered.sum();
+  }
+
+  /**
+   * Returns the number of requests dropped as duplicates.
+   */
+  public long duplicates() {
+    return duplicates.sum();
+  }
+
+  /**
+   * Returns the number of connections closed for a missing or wrong secret.
+   */
+  public long rejected() {
+    return rejected.sum();
+  }
+
+  private void acceptLoop() {
+    while (!serverSocket.isClosed()) {
+      try {
+        Socket socket = serverSocket.accept();
+        socket.setTcpNoDelay(true);
+        connections.add(socket);
+        Thread reader = new Thread(() -> serve(socket),
+            "broadcast-ingress-" + socket.getRemoteSocketAddress());
+        reader.setDaemon(true);
+        reader.start();
+      } catch (IOException e) {
+        if (!serverSocket.isClosed()) {
+          System.out.println("Broadcast ingress accept failed: " + e.getMessage());
+        }
+      }
+    }
+  }
+
+  private void serve(Socket socket) {
+    try (socket;
+        DataInputStream in = new DataInputStream(
+            new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(socket.getOutputStream(), 1024))) {
+      if (!authenticate(socket, in)) {
+        rejected.increment();
+        System.out.println("Broadcast ingress rejected " + socket.getRemoteSocketAddress()
+            + ": missing or wrong secret");
+        return;
+      }
+      BroadcastFrames.writeCredit(out, 0L, credits);
+      out.flush();
+
+      while (true) {
+        byte[] payload = new byte[BroadcastFrames.readLength(in)];
+        in.readFully(payload);
+        DataInputStream frame = new DataInputStream(new ByteArrayInputStream(payload));
+        if (frame.readByte() != BroadcastFrames.BATCH) {
+          throw new IOException("Unexpected frame type");
+        }
+        long batchId = frame.readLong();
+        List<BroadcastRequest> requests = BroadcastFrames.readRequests(frame);
+        batches.increment();
+        for (BroadcastRequest request : requests) {
+          broadcast(request);
+        }
+        BroadcastFrames.writeCredit(out, batchId, 1);
+        if (in.available() == 0) {
+          out.flush();
+        }
+      }
+    } catch (IOException e) {
+      // Consumer disconnected or sent a malformed frame; it reconnects and redelivers.
+    } finally {
+      connections.remove(socket);
+    }
+  }
+
+  /** Reads the hello frame within a timeout and checks its secret. */
+  private boolean authenticate(Socket socket, DataInputStream in) throws IOException {
+    socket.setSoTimeout(HELLO_TIMEOUT_MS);
+    byte[] presented;
+    try {
+      presented = BroadcastFrames.readHello(in).getBytes(StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      return false;
+    }
+    socket.setSoTimeout(0);
+    return MessageDigest.isEqual(secret, presented);
+  }
+
+  private void broadcast(BroadcastRequest request) throws IOException {
+    if (request.getMessageId() == null || request.getRoomId() == null) {
+      return;
+    }
+    if (dedup.seen(request.getMessageId())) {
+      duplicates.increment();
+      return;
+    }
+    delivered.increment();
+    if (roomManager.getSessionCount(request.getRoomId()) > 0) {
+      roomManager.broadcast(request.getRoomId(), MAPPER.writeValueAsString(request));
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (serverSocket != null) {
+      serverSocket.close();
+    }
+    for (Socket socket : connections) {
+      try {
+        socket.close();
+      } catch (IOException ignored) {
+      }
+    }
+  }
+}
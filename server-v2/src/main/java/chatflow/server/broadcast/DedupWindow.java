@@ -0,0 +1,40 @@
+package chatflow.server.broadcast;
+
+import java.nio.file.Path;
+
+/**
+ * Remembers recently seen message ids so redelivered messages are broadcast only once.
+ */
+public interface DedupWindow extends AutoCloseable {
+
+  /**
+   * Records the given message id and reports whether it was already present.
+   *
+   * @param messageId message id
+   * @return true if the id was seen inside the window, false if it is new
+   */
+  boolean seen(String messageId);
+
+  /**
+   * Releases any underlying resources.
+   */
+  @Override
+  default void close() throws Exception {
+  }
+
+  /**
+   * Creates a dedup window, persistent when a file path is configured.
+   *
+   * @param path memory-mapped window file, or null/blank for the in-heap cache
+   * @param capacity approximate number of ids to retain
+   * @param ttlSeconds how long an id stays in the window
+   * @return dedup window
+   * @throws Exception if the window file cannot be opened
+   */
+  static DedupWindow create(String path, int capacity, long ttlSeconds) throws Exception {
+    if (path == null || path.isBlank()) {
+      return new MessageIdCache(capacity, ttlSeconds);
+    }
+    return new MappedDedupWindow(Path.of(path), capacity, ttlSeconds * 1000L);
+  }
+}
@@ -0,0 +1,156 @@
+package chatflow.server.broadcast;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * Dedup window stored in a memory-mapped file of fixed-size hash slots.
+ *
+ * <p>Each slot holds a 64-bit fingerprint of the message id and the time it was written.
+ * Slots are grouped into buckets of {@value #BUCKET_SLOTS}; a lookup probes the two buckets
+ * picked by the fingerprint and, when the id is new, overwrites an expired slot or the oldest
+ * one. Write times are kept distinct within a bucket pair so the oldest slot is always well
+ * defined. Because the table lives in the page cache, it survives a process restart and is
+ * usable immediately after reopening, without replaying or warming anything up.
+ */
+public final class MappedDedupWindow implements DedupWindow {
+
+  private static final int MAGIC = 0x43464457;
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 64;
+  private static final int SLOT_BYTES = 16;
+  private static final int BUCKET_SLOTS = 8;
+  private static final int BUCKET_BYTES = SLOT_BYTES * BUCKET_SLOTS;
+  private static final int LOCK_STRIPES = 1024;
+
+  private final FileChannel channel;
+  private final MappedByteBuffer buffer;
+  private final int bucketMask;
+  private final long ttlMillis;
+  private final Object[] locks = new Object[LOCK_STRIPES];
+
+  /**
+   * Opens or creates a window file.
+   *
+   * @param file window file
+   * @param capacity approximate number of ids to retain
+   * @param ttlMillis how long an id stays in the window
+   * @throws IOException if the file cannot be mapped
+   */
+  public MappedDedupWindow(Path file, int capacity, long ttlMillis) throws IOException {
+    Objects.requireNonNull(file, "file");
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be >= 1");
+    }
+    if (ttlMillis < 1) {
+      throw new IllegalArgumentException("ttlMillis must be >= 1");
+    }
+
+    int buckets = Integer.highestOneBit(Math.max(1, (capacity + BUCKET_SLOTS - 1) / BUCKET_SLOTS));
+    if (buckets * BUCKET_SLOTS < capacity) {
+      buckets <<= 1;
+    }
+    this.bucketMask = buckets - 1;
+    this.ttlMillis = ttlMillis;
+    for (int i = 0; i < locks.length; i++) {
+      locks[i] = new Object();
+    }
+
+    long size = HEADER_BYTES + (long) buckets * BUCKET_BYTES;
+    this.channel = FileChannel.open(file,
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    boolean compatible = channel.size() == size;
+    this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+    if (!compatible || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+        || buffer.getInt(8) != buckets) {
+      if (channel.size() > size) {
+        channel.truncate(size);
+      }
+      reset(buckets);
+      System.out.println("Dedup window initialized: " + file + " (" + buckets * BUCKET_SLOTS
+          + " slots)");
+    }
+  }
+
+  @Override
+  public boolean seen(String messageId) {
+    long fp = fingerprint(messageId);
+    int first = (int) (fp >>> 32) & bucketMask;
+    int second = (int) fp & bucketMask;
+    int firstLock = first & (LOCK_STRIPES - 1);
+    int secondLock = second & (LOCK_STRIPES - 1);
+    long now = System.currentTimeMillis();
+
+    synchronized (locks[Math.min(firstLock, secondLock)]) {
+      synchronized (locks[Math.max(firstLock, secondLock)]) {
+        int victim = -1;
+        long victimTime = Long.MAX_VALUE;
+        long newest = 0;
+        for (int b = 0; b < 2; b++) {
+          int base = HEADER_BYTES + (b == 0 ? first : second) * BUCKET_BYTES;
+          for (int i = 0; i < BUCKET_SLOTS; i++) {
+            int off = base + i * SLOT_BYTES;
+            long slotFp = buffer.getLong(off);
+            long slotTime = buffer.getLong(off + 8);
+            boolean live = slotFp != 0 && now - slotTime < ttlMillis;
+            if (live && slotFp == fp) {
+              return true;
+            }
+            newest = Math.max(newest, slotTime);
+            long age = live ? slotTime : Long.MIN_VALUE;
+            if (age < victimTime) {
+              victimTime = age;
+              victim = off;
+            }
+          }
+        }
+        // Stamps stay unique within the two buckets, so a burst inside one millisecond still
+        // evicts the oldest id rather than the one written just before.
+        buffer.putLong(victim + 8, Math.max(now, newest + 1));
+        buffer.putLong(victim, fp);
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Flushes dirty pages to disk. Not needed to survive a process crash, only a host crash.
+   */
+  public void force() {
+    buffer.force();
+  }
+
+  @Override
+  public void close() throws IOException {
+    force();
+    channel.close();
+  }
+
+  private void reset(int buckets) {
+    for (int off = 0; off < buffer.capacity(); off += 8) {
+      buffer.putLong(off, 0L);
+    }
+    buffer.putInt(4, VERSION);
+    buffer.putInt(8, buckets);
+    buffer.putInt(0, MAGIC);
+  }
+
+  private static long fingerprint(String messageId) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < messageId.length(); i++) {
+      h ^= messageId.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h == 0 ? 1 : h;
+  }
+}
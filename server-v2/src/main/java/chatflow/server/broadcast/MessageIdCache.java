@@ -4,15 +4,20 @@ import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import java.util.concurrent.TimeUnit;
 
-public class MessageIdCache {
+public class MessageIdCache implements DedupWindow {
 
   private final Cache<String, Boolean> cache;
 
   public MessageIdCache() {
+    this(50_000, 60);
+  }
+
+  public MessageIdCache(int capacity, long ttlSeconds) {
     this.cache = Caffeine.newBuilder()
-        .maximumSize(50_000).expireAfterWrite(60, TimeUnit.SECONDS).build();
+        .maximumSize(capacity).expireAfterWrite(ttlSeconds, TimeUnit.SECONDS).build();
   }
 
+  @Override
   public boolean seen(String messageId) {
     if (cache.getIfPresent(messageId) != null) {
       return true;
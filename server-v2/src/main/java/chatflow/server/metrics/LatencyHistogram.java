@@ -0,0 +1,89 @@
+package chatflow.server.metrics;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent latency histogram with power-of-two microsecond buckets.
+ *
+ * <p>Percentiles are reported as the upper bound of the bucket they fall in.
+ */
+public final class LatencyHistogram {
+
+  private static final int BUCKETS = 40;
+
+  private final LongAdder count = new LongAdder();
+  private final LongAdder totalMicros = new LongAdder();
+  private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+  /**
+   * Creates an empty histogram.
+   */
+  public LatencyHistogram() {
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * Returns the current wall-clock time in microseconds since the epoch.
+   */
+  public static long nowMicros() {
+    Instant now = Instant.now();
+    return now.getEpochSecond() * 1_000_000L + now.getNano() / 1_000L;
+  }
+
+  /**
+   * Records one latency sample.
+   *
+   * @param micros latency in microseconds; negative values (clock skew) count as zero
+   */
+  public void record(long micros) {
+    long m = Math.max(0L, micros);
+    count.increment();
+    totalMicros.add(m);
+    buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(m))].increment();
+  }
+
+  /**
+   * Returns the number of samples.
+   */
+  public long count() {
+    return count.sum();
+  }
+
+  /**
+   * Returns the mean latency in microseconds.
+   */
+  public double meanMicros() {
+    long n = count.sum();
+    return n == 0 ? 0.0 : (double) totalMicros.sum() / n;
+  }
+
+  /**
+   * Returns an upper bound for the given percentile in microseconds.
+   *
+   * @param p percentile in (0, 1]
+   * @return bucket upper bound
+   */
+  public long percentileMicros(double p) {
+    long[] counts = new long[BUCKETS];
+    long n = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets[i].sum();
+      n += counts[i];
+    }
+    if (n == 0) {
+      return 0L;
+    }
+    long target = (long) Math.ceil(n * p);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= target) {
+        return 1L << i;
+      }
+    }
+    return 1L << (BUCKETS - 1);
+  }
+}
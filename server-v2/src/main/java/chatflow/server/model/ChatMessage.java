@@ -4,7 +4,8 @@ package chatflow.server.model;
  * Represents a chat message sent by a client through the WebSocket server.
  *
  * <p>This model contains user information, message content, message type,
- * timestamp, and a sequence ID used for tracking or ordering.
+ * timestamp, a sequence ID used for tracking or ordering, and an optional client-chosen
+ * message ID that lets the server recognize retried sends.
  */
 public class ChatMessage {
   private String userId;
@@ -13,6 +14,7 @@ public class ChatMessage {
   private String timestamp;
   private String messageType;
   private Long seqId;
+  private String clientMessageId;
 
   /**
    * Default constructor for serialization and deserialization.
@@ -103,4 +105,18 @@ public class ChatMessage {
   public void setSeqId(Long seqId) {
     this.seqId = seqId;
   }
+
+  /**
+   * Returns the client-chosen idempotency key, or null if the client did not send one.
+   */
+  public String getClientMessageId() {
+    return clientMessageId;
+  }
+
+  /**
+   * Sets the client-chosen idempotency key.
+   */
+  public void setClientMessageId(String clientMessageId) {
+    this.clientMessageId = clientMessageId;
+  }
 }
@@ -0,0 +1,86 @@
+package chatflow.server.queue;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded window of client message IDs already accepted for publishing.
+ *
+ * <p>Keys are scoped per user, so two users may pick the same client message ID. The value is
+ * the outcome of the first publish, which lets a retried send be answered with the original
+ * ack instead of being published again. A retry that arrives while the first publish is still
+ * in flight waits for that outcome, so it is never acked for a message that then fails.
+ */
+public final class IdempotencyCache {
+
+  private final Cache<String, CompletableFuture<PublishResult>> acked;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * Creates a cache.
+   *
+   * @param capacity maximum number of remembered client message IDs
+   * @param ttlSeconds how long a client message ID is remembered
+   */
+  public IdempotencyCache(int capacity, long ttlSeconds) {
+    this.acked = Caffeine.newBuilder()
+        .maximumSize(capacity).expireAfterWrite(ttlSeconds, TimeUnit.SECONDS).build();
+  }
+
+  /**
+   * Claims a client message ID for a publish attempt.
+   *
+   * @param userId sender user id
+   * @param clientMessageId client-chosen idempotency key
+   * @param outcome future the caller completes with the outcome of its publish
+   * @return the outcome of the earlier publish if this is a duplicate, otherwise null
+   */
+  public CompletableFuture<PublishResult> claim(String userId, String clientMessageId,
+      CompletableFuture<PublishResult> outcome) {
+    Objects.requireNonNull(outcome, "outcome");
+    CompletableFuture<PublishResult> existing =
+        acked.asMap().putIfAbsent(key(userId, clientMessageId), outcome);
+    if (existing != null) {
+      hits.increment();
+    } else {
+      misses.increment();
+    }
+    return existing;
+  }
+
+  /**
+   * Forgets a claim whose publish failed, so the client's retry is published. Call it before
+   * failing the claim's outcome, so retries waiting on it can be published again.
+   *
+   * @param userId sender user id
+   * @param clientMessageId client-chosen idempotency key
+   * @param outcome future passed to {@link #claim}
+   */
+  public void release(String userId, String clientMessageId,
+      CompletableFuture<PublishResult> outcome) {
+    acked.asMap().remove(key(userId, clientMessageId), outcome);
+  }
+
+  /**
+   * Returns the number of duplicates answered without publishing.
+   */
+  public long hits() {
+    return hits.sum();
+  }
+
+  /**
+   * Returns the number of first-seen client message IDs.
+   */
+  public long misses() {
+    return misses.sum();
+  }
+
+  private static String key(String userId, String clientMessageId) {
+    return userId + '/' + clientMessageId;
+  }
+}
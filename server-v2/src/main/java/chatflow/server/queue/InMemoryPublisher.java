@@ -0,0 +1,117 @@
+package chatflow.server.queue;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Publisher that hands messages to in-process subscribers instead of a broker.
+ *
+ * <p>Messages are dispatched on a single thread in publish order, and a publish completes
+ * once every subscriber has seen the message. At most {@code maxOutstanding} messages may be
+ * waiting for dispatch; beyond that {@link #publishAsync} blocks for up to
+ * {@code blockTimeoutMs} and then fails with a {@link TimeoutException}.
+ */
+public final class InMemoryPublisher implements MessagePublisher {
+
+  private final List<Consumer<QueueMessage>> subscribers = new CopyOnWriteArrayList<>();
+  private final Semaphore outstanding;
+  private final long blockTimeoutMs;
+  private final ExecutorService dispatcher;
+
+  private final LongAdder published = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+
+  /**
+   * Creates a publisher.
+   *
+   * @param maxOutstanding maximum number of messages waiting for dispatch
+   * @param blockTimeoutMs how long a publish waits for room before failing
+   */
+  public InMemoryPublisher(int maxOutstanding, long blockTimeoutMs) {
+    if (maxOutstanding < 1) {
+      throw new IllegalArgumentException("maxOutstanding must be >= 1");
+    }
+    this.outstanding = new Semaphore(maxOutstanding);
+    this.blockTimeoutMs = blockTimeoutMs;
+    this.dispatcher = Executors.newSingleThreadExecutor(r -> {
+      Thread t = new Thread(r, "in-memory-publisher");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * Registers a subscriber that receives every message published afterwards.
+   *
+   * @param subscriber message callback; an exception fails the publish of that message
+   */
+  public void subscribe(Consumer<QueueMessage> subscriber) {
+    subscribers.add(Objects.requireNonNull(subscriber, "subscriber"));
+  }
+
+  @Override
+  public CompletableFuture<PublishResult> publishAsync(QueueMessage msg) {
+    Objects.requireNonNull(msg, "msg");
+    try {
+      if (!outstanding.tryAcquire(blockTimeoutMs, TimeUnit.MILLISECONDS)) {
+        return CompletableFuture.failedFuture(
+            new TimeoutException("Too many outstanding publishes"));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return CompletableFuture.failedFuture(e);
+    }
+
+    CompletableFuture<PublishResult> result = new CompletableFuture<>();
+    try {
+      dispatcher.execute(() -> {
+        try {
+          for (Consumer<QueueMessage> subscriber : subscribers) {
+            subscriber.accept(msg);
+          }
+          published.increment();
+          result.complete(new PublishResult(msg.getMessageId(), false));
+        } catch (RuntimeException e) {
+          failed.increment();
+          result.completeExceptionally(e);
+        } finally {
+          outstanding.release();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      outstanding.release();
+      result.completeExceptionally(e);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the number of messages delivered to subscribers.
+   */
+  public long published() {
+    return published.sum();
+  }
+
+  /**
+   * Returns the number of messages a subscriber failed on.
+   */
+  public long failed() {
+    return failed.sum();
+  }
+
+  @Override
+  public void close() throws Exception {
+    dispatcher.shutdown();
+    dispatcher.awaitTermination(5, TimeUnit.SECONDS);
+  }
+}
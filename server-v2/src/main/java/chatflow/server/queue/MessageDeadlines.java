@@ -0,0 +1,109 @@
+package chatflow.server.queue;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Maximum age of a message per message type, measured from the time the server received it.
+ *
+ * <p>A message older than its type's maximum age is stale: after a lag spike it is skipped
+ * rather than broadcast late, so the pipeline catches up on fresh traffic instead of working
+ * through a backlog. Skipped messages are counted per type.
+ */
+public final class MessageDeadlines {
+
+  /** Deadlines that never expire anything. */
+  public static final MessageDeadlines NONE = new MessageDeadlines(Map.of(), 0L);
+
+  private static final String ANY_TYPE = "*";
+
+  private final Map<String, Long> maxAgeByType;
+  private final long defaultMaxAgeMs;
+  private final Map<String, LongAdder> shed = new ConcurrentHashMap<>();
+
+  private MessageDeadlines(Map<String, Long> maxAgeByType, long defaultMaxAgeMs) {
+    this.maxAgeByType = Map.copyOf(maxAgeByType);
+    this.defaultMaxAgeMs = defaultMaxAgeMs;
+  }
+
+  /**
+   * Parses a spec such as {@code TEXT=5000,JOIN=30000,*=60000}; {@code *} applies to types not
+   * listed. An empty or null spec disables deadlines.
+   *
+   * @param spec comma-separated {@code TYPE=milliseconds} entries
+   * @return deadlines
+   */
+  public static MessageDeadlines parse(String spec) {
+    if (spec == null || spec.isBlank()) {
+      return NONE;
+    }
+    Map<String, Long> byType = new HashMap<>();
+    long defaultMaxAge = 0L;
+    for (String entry : spec.split(",")) {
+      String[] typeAndAge = entry.split("=", 2);
+      if (typeAndAge.length != 2) {
+        throw new IllegalArgumentException("Max age entry must be TYPE=ms: " + entry);
+      }
+      String type = typeAndAge[0].trim();
+      long maxAge = Long.parseLong(typeAndAge[1].trim());
+      if (maxAge < 0) {
+        throw new IllegalArgumentException("Max age must be >= 0: " + entry);
+      }
+      if (ANY_TYPE.equals(type)) {
+        defaultMaxAge = maxAge;
+      } else {
+        byType.put(type, maxAge);
+      }
+    }
+    return new MessageDeadlines(byType, defaultMaxAge);
+  }
+
+  /**
+   * Returns the maximum age of a message type in milliseconds, or 0 if it never goes stale.
+   */
+  public long maxAgeMillis(String messageType) {
+    Long maxAge = messageType == null ? null : maxAgeByType.get(messageType);
+    return maxAge != null ? maxAge : defaultMaxAgeMs;
+  }
+
+  /**
+   * Returns how long the message stays fresh, or {@link Long#MAX_VALUE} if it has no
+   * deadline. Zero or less means it is already stale.
+   *
+   * @param msg queue message
+   * @param nowMillis current epoch milliseconds
+   */
+  public long remainingMillis(QueueMessage msg, long nowMillis) {
+    long maxAge = maxAgeMillis(msg.getMessageType());
+    if (maxAge == 0 || msg.getReceivedAt() <= 0) {
+      return Long.MAX_VALUE;
+    }
+    return msg.getReceivedAt() + maxAge - nowMillis;
+  }
+
+  /**
+   * Returns whether the message is stale and should be skipped, counting it if so.
+   *
+   * @param msg queue message
+   */
+  public boolean shed(QueueMessage msg) {
+    if (remainingMillis(msg, System.currentTimeMillis()) > 0) {
+      return false;
+    }
+    String type = msg.getMessageType() == null ? "unknown" : msg.getMessageType();
+    shed.computeIfAbsent(type, k -> new LongAdder()).increment();
+    return true;
+  }
+
+  /**
+   * Returns the number of stale messages skipped per message type.
+   */
+  public Map<String, Long> shedCounts() {
+    Map<String, Long> snapshot = new LinkedHashMap<>();
+    shed.forEach((type, count) -> snapshot.put(type, count.sum()));
+    return snapshot;
+  }
+}
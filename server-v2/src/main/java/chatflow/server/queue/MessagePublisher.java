@@ -1,17 +1,62 @@
 package chatflow.server.queue;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
 /**
  * Publishes messages to a backing message queue.
+ *
+ * <p>Implementations bound the number of outstanding publishes: when the bound is reached,
+ * {@link #publishAsync} blocks the caller for a limited time and then returns a failed
+ * future, rather than queueing without limit.
  */
 public interface MessagePublisher {
 
   /**
-   * Publishes the given message.
+   * Publishes the given message and waits until it is published.
    *
    * @param msg queue message
    * @throws Exception if publishing fails
    */
-  void publish(QueueMessage msg) throws Exception;
+  default void publish(QueueMessage msg) throws Exception {
+    try {
+      publishAsync(msg).get();
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    }
+  }
+
+  /**
+   * Publishes the given message without waiting for the outcome.
+   *
+   * @param msg queue message
+   * @return future completed once the message is published, or exceptionally if it failed
+   */
+  CompletableFuture<PublishResult> publishAsync(QueueMessage msg);
+
+  /**
+   * Publishes several messages.
+   *
+   * @param msgs queue messages
+   * @return future completed with one result per message, in order, once all are published;
+   *     completes exceptionally if any of them failed
+   */
+  default CompletableFuture<List<PublishResult>> publishBatch(List<QueueMessage> msgs) {
+    List<CompletableFuture<PublishResult>> futures = new ArrayList<>(msgs.size());
+    for (QueueMessage msg : msgs) {
+      futures.add(publishAsync(msg));
+    }
+    return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+        .thenApply(v -> {
+          List<PublishResult> results = new ArrayList<>(futures.size());
+          for (CompletableFuture<PublishResult> f : futures) {
+            results.add(f.join());
+          }
+          return results;
+        });
+  }
 
   /**
    * Closes any underlying resources.
@@ -19,4 +64,4 @@ public interface MessagePublisher {
    * @throws Exception if close fails
    */
   void close() throws Exception;
-}
\ No newline at end of file
+}
@@ -0,0 +1,161 @@
+package chatflow.server.queue;
+
+import chatflow.server.metrics.LatencyHistogram;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publisher with a control lane that bypasses the backlog of bulk messages.
+ *
+ * <p>Messages of a control type (for example JOIN and LEAVE) are published at once on the
+ * caller's thread through their own publisher, which should own its channels and outstanding
+ * bound. All other messages are handed off to a bounded queue drained by {@code bulkWorkers}
+ * threads, which block on the bulk publisher's backpressure instead of the caller. When the
+ * hand-off queue is full a bulk publish fails at once, so a flood of bulk traffic never stalls
+ * the threads that also carry control messages.
+ *
+ * <p>Control messages overtake bulk messages queued before them. With a single bulk worker
+ * bulk messages keep their publish order; with more they may be reordered.
+ */
+public final class PriorityPublisher implements MessagePublisher {
+
+  private final MessagePublisher control;
+  private final MessagePublisher bulk;
+  private final Set<String> controlTypes;
+  private final ThreadPoolExecutor bulkWorkers;
+
+  private final LongAdder controlPublished = new LongAdder();
+  private final LongAdder bulkPublished = new LongAdder();
+  private final LongAdder bulkRejected = new LongAdder();
+  private final LatencyHistogram controlLatency = new LatencyHistogram();
+  private final LatencyHistogram bulkLatency = new LatencyHistogram();
+
+  /**
+   * Creates a priority publisher; it closes both publishers.
+   *
+   * @param control publisher for control messages
+   * @param bulk publisher for all other messages
+   * @param controlTypes message types published on the control lane
+   * @param bulkQueueCapacity maximum number of bulk messages waiting for a worker
+   * @param bulkWorkers number of threads publishing bulk messages
+   */
+  public PriorityPublisher(MessagePublisher control, MessagePublisher bulk,
+      Set<String> controlTypes, int bulkQueueCapacity, int bulkWorkers) {
+    this.control = Objects.requireNonNull(control, "control");
+    this.bulk = Objects.requireNonNull(bulk, "bulk");
+    this.controlTypes = Set.copyOf(controlTypes);
+    if (bulkQueueCapacity < 1) {
+      throw new IllegalArgumentException("bulkQueueCapacity must be >= 1");
+    }
+    if (bulkWorkers < 1) {
+      throw new IllegalArgumentException("bulkWorkers must be >= 1");
+    }
+    AtomicInteger threadIndex = new AtomicInteger();
+    this.bulkWorkers = new ThreadPoolExecutor(bulkWorkers, bulkWorkers, 0L,
+        TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(bulkQueueCapacity), r -> {
+          Thread t = new Thread(r, "bulk-publisher-" + threadIndex.getAndIncrement());
+          t.setDaemon(true);
+          return t;
+        });
+  }
+
+  @Override
+  public CompletableFuture<PublishResult> publishAsync(QueueMessage msg) {
+    Objects.requireNonNull(msg, "msg");
+    long start = System.nanoTime();
+    if (controlTypes.contains(msg.getMessageType())) {
+      return publishOn(control, msg).whenComplete((r, e) -> {
+        if (e == null) {
+          controlPublished.increment();
+          controlLatency.record((System.nanoTime() - start) / 1_000L);
+        }
+      });
+    }
+
+    CompletableFuture<PublishResult> result = new CompletableFuture<>();
+    try {
+      bulkWorkers.execute(() -> publishOn(bulk, msg).whenComplete((r, e) -> {
+        if (e == null) {
+          bulkPublished.increment();
+          bulkLatency.record((System.nanoTime() - start) / 1_000L);
+          result.complete(r);
+        } else {
+          result.completeExceptionally(e);
+        }
+      }));
+    } catch (RejectedExecutionException e) {
+      bulkRejected.increment();
+      result.completeExceptionally(new RejectedExecutionException("Publish queue full"));
+    }
+    return result;
+  }
+
+  private static CompletableFuture<PublishResult> publishOn(MessagePublisher publisher,
+      QueueMessage msg) {
+    try {
+      return publisher.publishAsync(msg);
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  /**
+   * Returns the number of control messages published.
+   */
+  public long controlPublished() {
+    return controlPublished.sum();
+  }
+
+  /**
+   * Returns the number of bulk messages published.
+   */
+  public long bulkPublished() {
+    return bulkPublished.sum();
+  }
+
+  /**
+   * Returns the number of bulk messages rejected because the hand-off queue was full.
+   */
+  public long bulkRejected() {
+    return bulkRejected.sum();
+  }
+
+  /**
+   * Returns the number of bulk messages waiting for a worker.
+   */
+  public int bulkQueued() {
+    return bulkWorkers.getQueue().size();
+  }
+
+  /**
+   * Returns the time from hand-off to completed publish of control messages.
+   */
+  public LatencyHistogram getControlLatency() {
+    return controlLatency;
+  }
+
+  /**
+   * Returns the time from hand-off to completed publish of bulk messages.
+   */
+  public LatencyHistogram getBulkLatency() {
+    return bulkLatency;
+  }
+
+  @Override
+  public void close() throws Exception {
+    bulkWorkers.shutdown();
+    bulkWorkers.awaitTermination(5, TimeUnit.SECONDS);
+    try {
+      bulk.close();
+    } finally {
+      control.close();
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package chatflow.server.queue;
+
+/**
+ * Outcome of a successful publish.
+ */
+public final class PublishResult {
+  private final String messageId;
+  private final boolean confirmed;
+  private final boolean queuedLocally;
+  private final boolean dropped;
+
+  /**
+   * Creates a result for a message handed to the broker.
+   *
+   * @param messageId id of the published message
+   * @param confirmed whether the broker confirmed the message, as opposed to it only having
+   *     been handed to the transport
+   */
+  public PublishResult(String messageId, boolean confirmed) {
+    this(messageId, confirmed, false);
+  }
+
+  /**
+   * Creates a result.
+   *
+   * @param messageId id of the published message
+   * @param confirmed whether the broker confirmed the message
+   * @param queuedLocally whether the message was stored on local disk to be published later
+   *     instead of reaching the broker
+   */
+  public PublishResult(String messageId, boolean confirmed, boolean queuedLocally) {
+    this(messageId, confirmed, queuedLocally, false);
+  }
+
+  private PublishResult(String messageId, boolean confirmed, boolean queuedLocally,
+      boolean dropped) {
+    this.messageId = messageId;
+    this.confirmed = confirmed;
+    this.queuedLocally = queuedLocally;
+    this.dropped = dropped;
+  }
+
+  /**
+   * Creates the result of a message spilled to local storage.
+   *
+   * @param messageId id of the message
+   * @return result marked as queued locally
+   */
+  public static PublishResult queuedLocally(String messageId) {
+    return new PublishResult(messageId, false, true);
+  }
+
+  /**
+   * Creates the result of a message that was deliberately not published, because it was
+   * already stale or its tier drops messages when the publisher is busy.
+   *
+   * @param messageId id of the message
+   * @return result marked as dropped
+   */
+  public static PublishResult dropped(String messageId) {
+    return new PublishResult(messageId, false, false, true);
+  }
+
+  public String getMessageId() {
+    return messageId;
+  }
+
+  public boolean isConfirmed() {
+    return confirmed;
+  }
+
+  public boolean isQueuedLocally() {
+    return queuedLocally;
+  }
+
+  public boolean isDropped() {
+    return dropped;
+  }
+}
@@ -0,0 +1,69 @@
+package chatflow.server.queue;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publisher that routes each message to the publisher configured for its message type.
+ *
+ * <p>Types without an entry go to the fallback publisher. Per-type counts are kept so the mix
+ * of traffic across tiers can be reported.
+ */
+public final class TieredPublisher implements MessagePublisher {
+
+  private final Map<String, MessagePublisher> byType;
+  private final MessagePublisher fallback;
+  private final Map<String, LongAdder> counts = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a tiered publisher; it closes every publisher it routes to.
+   *
+   * @param byType publisher per message type
+   * @param fallback publisher for message types without an entry
+   */
+  public TieredPublisher(Map<String, MessagePublisher> byType, MessagePublisher fallback) {
+    this.byType = Map.copyOf(byType);
+    this.fallback = Objects.requireNonNull(fallback, "fallback");
+  }
+
+  @Override
+  public CompletableFuture<PublishResult> publishAsync(QueueMessage msg) {
+    String type = msg.getMessageType();
+    MessagePublisher target = type == null ? null : byType.get(type);
+    counts.computeIfAbsent(target == null ? "default" : type, k -> new LongAdder()).increment();
+    return (target == null ? fallback : target).publishAsync(msg);
+  }
+
+  /**
+   * Returns the number of messages published per message type, with unmapped types counted
+   * under {@code default}.
+   */
+  public Map<String, Long> counts() {
+    Map<String, Long> snapshot = new LinkedHashMap<>();
+    counts.forEach((type, count) -> snapshot.put(type, count.sum()));
+    return snapshot;
+  }
+
+  @Override
+  public void close() throws Exception {
+    Set<MessagePublisher> all = new LinkedHashSet<>(byType.values());
+    all.add(fallback);
+    Exception failure = null;
+    for (MessagePublisher publisher : all) {
+      try {
+        publisher.close();
+      } catch (Exception e) {
+        failure = e;
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+}
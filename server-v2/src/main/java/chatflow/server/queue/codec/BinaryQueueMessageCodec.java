@@ -0,0 +1,389 @@
+package chatflow.server.queue.codec;
+
+import chatflow.server.queue.QueueMessage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compact binary codec for {@link QueueMessage}.
+ *
+ * <p>Layout: a version byte, a 2-byte bit set of the fields present, a 2-byte bit set of the
+ * fields written in compact form, then every present field in declaration order. A field is
+ * either a varint length followed by raw UTF-8, or its compact form: a UUID message id as 16
+ * bytes, a numeric room or user id as a varint, a known message type as one byte. The
+ * server receive time follows the string fields as a varint of epoch milliseconds; decoders
+ * that predate it ignore it, since it is the last field.
+ *
+ * <p>Encoding writes into a per-thread buffer that is reused across messages, so the only
+ * allocation is the exact-size result. Decoding reads strings straight out of the body and
+ * returns shared instances for room ids, server ids and client IPs, which repeat across
+ * nearly every message.
+ */
+public final class BinaryQueueMessageCodec implements QueueMessageCodec {
+
+  /** AMQP content type of binary bodies. */
+  public static final String CONTENT_TYPE = "application/vnd.chatflow.message";
+
+  /** Current format version. */
+  public static final byte VERSION = 1;
+
+  /** Shared instance; the codec keeps only per-thread scratch state. */
+  public static final BinaryQueueMessageCodec INSTANCE = new BinaryQueueMessageCodec();
+
+  private static final int MESSAGE_ID = 0;
+  private static final int ROOM_ID = 1;
+  private static final int USER_ID = 2;
+  private static final int USERNAME = 3;
+  private static final int MESSAGE = 4;
+  private static final int TIMESTAMP = 5;
+  private static final int MESSAGE_TYPE = 6;
+  private static final int SERVER_ID = 7;
+  private static final int CLIENT_IP = 8;
+  private static final int FIELDS = 9;
+  private static final int RECEIVED_AT = 9;
+
+  private static final int MASKS_END = 5;
+  private static final int INITIAL_BUFFER = 512;
+  private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+  private static final String[] MESSAGE_TYPES = {"TEXT", "JOIN", "LEAVE"};
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+  private static final byte[] HEX_VALUES = new byte[128];
+
+  static {
+    Arrays.fill(HEX_VALUES, (byte) -1);
+    for (int i = 0; i < HEX.length; i++) {
+      HEX_VALUES[HEX[i]] = (byte) i;
+    }
+  }
+
+  private final ThreadLocal<Writer> writers = ThreadLocal.withInitial(Writer::new);
+  private final StringTable roomIds = new StringTable();
+  private final StringTable serverIds = new StringTable();
+  private final StringTable clientIps = new StringTable();
+
+  private BinaryQueueMessageCodec() {}
+
+  @Override
+  public String contentType() {
+    return CONTENT_TYPE;
+  }
+
+  @Override
+  public byte[] encode(QueueMessage msg) {
+    Writer w = writers.get();
+    w.pos = MASKS_END;
+    w.present = 0;
+    w.compact = 0;
+    w.field(MESSAGE_ID, msg.getMessageId());
+    w.field(ROOM_ID, msg.getRoomId());
+    w.field(USER_ID, msg.getUserId());
+    w.field(USERNAME, msg.getUsername());
+    w.field(MESSAGE, msg.getMessage());
+    w.field(TIMESTAMP, msg.getTimestamp());
+    w.field(MESSAGE_TYPE, msg.getMessageType());
+    w.field(SERVER_ID, msg.getServerId());
+    w.field(CLIENT_IP, msg.getClientIp());
+    if (msg.getReceivedAt() > 0) {
+      w.present |= 1 << RECEIVED_AT;
+      w.compact |= 1 << RECEIVED_AT;
+      w.varint(msg.getReceivedAt());
+    }
+
+    byte[] buf = w.buf;
+    buf[0] = VERSION;
+    buf[1] = (byte) (w.present >>> 8);
+    buf[2] = (byte) w.present;
+    buf[3] = (byte) (w.compact >>> 8);
+    buf[4] = (byte) w.compact;
+    byte[] body = Arrays.copyOf(buf, w.pos);
+    if (buf.length > MAX_RETAINED_BUFFER) {
+      w.buf = new byte[INITIAL_BUFFER];
+    }
+    return body;
+  }
+
+  @Override
+  public QueueMessage decode(byte[] body) throws IOException {
+    try {
+      Reader r = new Reader(body);
+      byte version = body[0];
+      if (version != VERSION) {
+        throw new IOException("Unsupported binary message version " + version);
+      }
+      int present = (body[1] & 0xFF) << 8 | (body[2] & 0xFF);
+      int compact = (body[3] & 0xFF) << 8 | (body[4] & 0xFF);
+      r.pos = MASKS_END;
+      String[] fields = new String[FIELDS];
+      for (int i = 0; i < FIELDS; i++) {
+        if ((present & (1 << i)) == 0) {
+          continue;
+        }
+        if ((compact & (1 << i)) == 0) {
+          fields[i] = r.string(tableFor(i));
+        } else if (i == MESSAGE_ID) {
+          fields[i] = r.uuid();
+        } else if (i == MESSAGE_TYPE) {
+          fields[i] = MESSAGE_TYPES[body[r.pos++]];
+        } else if (i == ROOM_ID) {
+          fields[i] = roomIds.number(r.varint());
+        } else {
+          fields[i] = Long.toString(r.varint());
+        }
+      }
+      long receivedAt = (present & (1 << RECEIVED_AT)) != 0 ? r.varint() : 0L;
+      return QueueMessage.of(fields[MESSAGE_ID], fields[ROOM_ID], fields[USER_ID],
+          fields[USERNAME], fields[MESSAGE], fields[TIMESTAMP], fields[MESSAGE_TYPE],
+          fields[SERVER_ID], fields[CLIENT_IP], receivedAt);
+    } catch (IndexOutOfBoundsException e) {
+      throw new IOException("Truncated binary message", e);
+    }
+  }
+
+  private StringTable tableFor(int field) {
+    switch (field) {
+      case ROOM_ID:
+        return roomIds;
+      case SERVER_ID:
+        return serverIds;
+      case CLIENT_IP:
+        return clientIps;
+      default:
+        return null;
+    }
+  }
+
+  private static int messageTypeCode(String value) {
+    for (int i = 0; i < MESSAGE_TYPES.length; i++) {
+      if (MESSAGE_TYPES[i].equals(value)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int hexValue(char c) {
+    return c < HEX_VALUES.length ? HEX_VALUES[c] : -1;
+  }
+
+  /** Reusable growable output buffer, one per encoding thread. */
+  private static final class Writer {
+    private byte[] buf = new byte[INITIAL_BUFFER];
+    private int pos;
+    private int present;
+    private int compact;
+
+    private void field(int field, String value) {
+      if (value == null) {
+        return;
+      }
+      present |= 1 << field;
+      boolean written;
+      switch (field) {
+        case MESSAGE_ID:
+          written = uuid(value);
+          break;
+        case ROOM_ID:
+        case USER_ID:
+          written = number(value);
+          break;
+        case MESSAGE_TYPE:
+          int code = messageTypeCode(value);
+          written = code >= 0;
+          if (written) {
+            ensure(1);
+            buf[pos++] = (byte) code;
+          }
+          break;
+        default:
+          written = false;
+      }
+      if (written) {
+        compact |= 1 << field;
+      } else {
+        string(value);
+      }
+    }
+
+    private void ensure(int extra) {
+      if (pos + extra > buf.length) {
+        buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + extra));
+      }
+    }
+
+    private void varint(long v) {
+      ensure(10);
+      while ((v & ~0x7FL) != 0) {
+        buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+        v >>>= 7;
+      }
+      buf[pos++] = (byte) v;
+    }
+
+    private void string(String s) {
+      int n = s.length();
+      for (int i = 0; i < n; i++) {
+        if (s.charAt(i) >= 0x80) {
+          byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+          varint(bytes.length);
+          ensure(bytes.length);
+          System.arraycopy(bytes, 0, buf, pos, bytes.length);
+          pos += bytes.length;
+          return;
+        }
+      }
+      // ASCII: one byte per char, written without an intermediate byte[].
+      varint(n);
+      ensure(n);
+      byte[] b = buf;
+      int p = pos;
+      for (int i = 0; i < n; i++) {
+        b[p + i] = (byte) s.charAt(i);
+      }
+      pos = p + n;
+    }
+
+    /** Writes a lowercase canonical UUID as 16 bytes; writes nothing for any other form. */
+    private boolean uuid(String s) {
+      if (s.length() != 36) {
+        return false;
+      }
+      ensure(16);
+      int start = pos;
+      int c = 0;
+      for (int b = 0; b < 16; b++) {
+        if ((b == 4 || b == 6 || b == 8 || b == 10) && s.charAt(c++) != '-') {
+          pos = start;
+          return false;
+        }
+        int hi = hexValue(s.charAt(c++));
+        int lo = hexValue(s.charAt(c++));
+        if (hi < 0 || lo < 0) {
+          pos = start;
+          return false;
+        }
+        buf[pos++] = (byte) (hi << 4 | lo);
+      }
+      return true;
+    }
+
+    /** Writes a canonical decimal of up to 18 digits as a varint; writes nothing otherwise. */
+    private boolean number(String s) {
+      int n = s.length();
+      if (n == 0 || n > 18 || (n > 1 && s.charAt(0) == '0')) {
+        return false;
+      }
+      long v = 0;
+      for (int i = 0; i < n; i++) {
+        char c = s.charAt(i);
+        if (c < '0' || c > '9') {
+          return false;
+        }
+        v = v * 10 + (c - '0');
+      }
+      varint(v);
+      return true;
+    }
+  }
+
+  /** Cursor over a body being decoded. */
+  private static final class Reader {
+    private final byte[] buf;
+    private int pos;
+
+    private Reader(byte[] buf) {
+      this.buf = buf;
+    }
+
+    private long varint() throws IOException {
+      long v = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        byte b = buf[pos++];
+        v |= (long) (b & 0x7F) << shift;
+        if (b >= 0) {
+          return v;
+        }
+      }
+      throw new IOException("Malformed varint");
+    }
+
+    private String string(StringTable table) throws IOException {
+      long len = varint();
+      if (len < 0 || len > buf.length - pos) {
+        throw new IOException("Invalid string length " + len);
+      }
+      int n = (int) len;
+      String s = table != null
+          ? table.get(buf, pos, n)
+          : new String(buf, pos, n, StandardCharsets.UTF_8);
+      pos += n;
+      return s;
+    }
+
+    private String uuid() {
+      char[] out = new char[36];
+      int o = 0;
+      for (int i = 0; i < 16; i++) {
+        if (i == 4 || i == 6 || i == 8 || i == 10) {
+          out[o++] = '-';
+        }
+        int b = buf[pos++] & 0xFF;
+        out[o++] = HEX[b >>> 4];
+        out[o++] = HEX[b & 0x0F];
+      }
+      return new String(out);
+    }
+  }
+
+  /**
+   * Small direct-mapped table of recently decoded strings. A hit returns the cached instance
+   * without allocating; a miss replaces the slot. Slots hold immutable entries, so racing
+   * decoder threads at worst overwrite each other's entry.
+   */
+  private static final class StringTable {
+    private static final int SLOTS = 256;
+    private static final int SMALL_NUMBERS = 1024;
+
+    private final Entry[] entries = new Entry[SLOTS];
+    private final String[] numbers = new String[SMALL_NUMBERS];
+
+    private static final class Entry {
+      private final byte[] utf8;
+      private final String value;
+
+      private Entry(byte[] utf8, String value) {
+        this.utf8 = utf8;
+        this.value = value;
+      }
+    }
+
+    private String get(byte[] buf, int off, int len) {
+      int h = 1;
+      for (int i = off; i < off + len; i++) {
+        h = 31 * h + buf[i];
+      }
+      int slot = (h ^ (h >>> 16)) & (SLOTS - 1);
+      Entry e = entries[slot];
+      if (e != null && Arrays.equals(e.utf8, 0, e.utf8.length, buf, off, off + len)) {
+        return e.value;
+      }
+      byte[] utf8 = Arrays.copyOfRange(buf, off, off + len);
+      String value = new String(utf8, StandardCharsets.UTF_8);
+      entries[slot] = new Entry(utf8, value);
+      return value;
+    }
+
+    private String number(long n) {
+      if (n < 0 || n >= SMALL_NUMBERS) {
+        return Long.toString(n);
+      }
+      String s = numbers[(int) n];
+      if (s == null) {
+        s = Long.toString(n);
+        numbers[(int) n] = s;
+      }
+      return s;
+    }
+  }
+}
@@ -0,0 +1,154 @@
+package chatflow.server.queue.codec;
+
+import chatflow.server.queue.QueueMessage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Builds a preset dictionary for {@link PayloadCompressor} from sample payloads.
+ *
+ * <p>Every {@value #GRAM}-byte substring is counted once per sample it occurs in. Starting from
+ * the most common ones, each substring is grown to the left and right for as long as the
+ * neighbouring substrings stay about as common, and the resulting segments are concatenated
+ * until the dictionary is full. The most common segments go last, where zlib reaches them with
+ * the shortest distances.
+ *
+ * <p>Run as {@code DictionaryTrainer <json|binary> <samples.txt> <dictionary.bin> [maxBytes]}:
+ * each line of the samples file is the text of one chat message, which is wrapped in a queue
+ * message and encoded with the given codec, so the dictionary matches what is on the wire.
+ */
+public final class DictionaryTrainer {
+
+  private static final int GRAM = 8;
+  private static final int MAX_SEGMENT = 64;
+
+  private DictionaryTrainer() {}
+
+  /**
+   * Trains a dictionary.
+   *
+   * @param samples sample bodies
+   * @param maxBytes maximum dictionary size
+   * @return dictionary, empty if the samples share nothing
+   */
+  public static byte[] train(List<byte[]> samples, int maxBytes) {
+    Map<String, Integer> counts = new HashMap<>();
+    for (byte[] sample : samples) {
+      Set<String> seen = new HashSet<>();
+      String s = new String(sample, StandardCharsets.ISO_8859_1);
+      for (int i = 0; i + GRAM <= s.length(); i++) {
+        String gram = s.substring(i, i + GRAM);
+        if (seen.add(gram)) {
+          counts.merge(gram, 1, Integer::sum);
+        }
+      }
+    }
+    List<Map.Entry<String, Integer>> ranked = new ArrayList<>(counts.entrySet());
+    ranked.removeIf(e -> e.getValue() < 2);
+    ranked.sort(Map.Entry.<String, Integer>comparingByValue(Comparator.reverseOrder())
+        .thenComparing(Map.Entry.comparingByKey()));
+
+    List<String> segments = new ArrayList<>();
+    StringBuilder covered = new StringBuilder();
+    int size = 0;
+    for (Map.Entry<String, Integer> entry : ranked) {
+      if (size >= maxBytes) {
+        break;
+      }
+      if (covered.indexOf(entry.getKey()) >= 0) {
+        continue;
+      }
+      String segment = grow(entry.getKey(), entry.getValue(), counts);
+      segment = segment.substring(0, Math.min(segment.length(), maxBytes - size));
+      segments.add(segment);
+      covered.append(segment).append('\0');
+      size += segment.length();
+    }
+
+    StringBuilder dictionary = new StringBuilder(size);
+    for (int i = segments.size() - 1; i >= 0; i--) {
+      dictionary.append(segments.get(i));
+    }
+    return dictionary.toString().getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  private static String grow(String gram, int count, Map<String, Integer> counts) {
+    int threshold = Math.max(2, count / 2);
+    StringBuilder segment = new StringBuilder(gram);
+    while (segment.length() < MAX_SEGMENT) {
+      String tail = segment.substring(segment.length() - GRAM + 1);
+      char best = 0;
+      int bestCount = 0;
+      for (char c = 0; c < 256; c++) {
+        int n = counts.getOrDefault(tail + c, 0);
+        if (n > bestCount) {
+          best = c;
+          bestCount = n;
+        }
+      }
+      if (bestCount < threshold) {
+        break;
+      }
+      segment.append(best);
+    }
+    while (segment.length() < MAX_SEGMENT) {
+      String head = segment.substring(0, GRAM - 1);
+      char best = 0;
+      int bestCount = 0;
+      for (char c = 0; c < 256; c++) {
+        int n = counts.getOrDefault(c + head, 0);
+        if (n > bestCount) {
+          best = c;
+          bestCount = n;
+        }
+      }
+      if (bestCount < threshold) {
+        break;
+      }
+      segment.insert(0, best);
+    }
+    return segment.toString();
+  }
+
+  /**
+   * Trains a dictionary from a file of chat message texts and writes it to a file.
+   *
+   * @param args codec name, samples file, output file and optional maximum size
+   * @throws IOException if a file cannot be read or written
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 3) {
+      System.out.println("Usage: DictionaryTrainer <json|binary> <samples.txt> <dictionary.bin>"
+          + " [maxBytes]");
+      return;
+    }
+    QueueMessageCodec codec = QueueMessageCodec.forName(args[0]);
+    int maxBytes = args.length > 3 ? Integer.parseInt(args[3]) : 4096;
+    List<byte[]> samples = new ArrayList<>();
+    int n = 0;
+    for (String line : Files.readAllLines(Path.of(args[1]), StandardCharsets.UTF_8)) {
+      if (line.isBlank()) {
+        continue;
+      }
+      n++;
+      samples.add(codec.encode(QueueMessage.of(UUID.randomUUID().toString(),
+          String.valueOf(1 + n % 20), String.valueOf(1 + n % 100_000), "user" + (n % 100_000),
+          line, "2026-01-01T00:00:00.000Z", "TEXT", "server-1", "10.0.0.1",
+          System.currentTimeMillis())));
+    }
+    byte[] dictionary = train(samples, maxBytes);
+    Files.write(Path.of(args[2]), dictionary);
+    System.out.println("Wrote " + dictionary.length + " byte dictionary from " + samples.size()
+        + " samples to " + args[2]);
+  }
+}
@@ -0,0 +1,38 @@
+package chatflow.server.queue.codec;
+
+import chatflow.server.queue.QueueMessage;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+
+/**
+ * Jackson JSON codec; verbose, but readable in the management UI and when debugging.
+ */
+public final class JsonQueueMessageCodec implements QueueMessageCodec {
+
+  /** AMQP content type of JSON bodies. */
+  public static final String CONTENT_TYPE = "application/json";
+
+  /** Shared instance; the codec is stateless. */
+  public static final JsonQueueMessageCodec INSTANCE = new JsonQueueMessageCodec();
+
+  private static final ObjectMapper MAPPER = new ObjectMapper()
+      .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+  private JsonQueueMessageCodec() {}
+
+  @Override
+  public String contentType() {
+    return CONTENT_TYPE;
+  }
+
+  @Override
+  public byte[] encode(QueueMessage msg) throws IOException {
+    return MAPPER.writeValueAsBytes(msg);
+  }
+
+  @Override
+  public QueueMessage decode(byte[] body) throws IOException {
+    return MAPPER.readValue(body, QueueMessage.class);
+  }
+}
@@ -0,0 +1,174 @@
+package chatflow.server.queue.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses message bodies on the queue hop with zlib, optionally using a preset dictionary.
+ *
+ * <p>Bodies shorter than the threshold, or that do not get smaller, are published as they
+ * are. Compressed bodies carry the AMQP content encoding {@value #CONTENT_ENCODING}; the zlib
+ * header records the Adler-32 checksum of the dictionary they were compressed with, so a
+ * reader with a different dictionary fails instead of producing garbage. A dictionary is
+ * trained from sample chat payloads with {@link DictionaryTrainer}.
+ *
+ * <p>Deflaters and inflaters are kept per thread, since creating them allocates native memory.
+ */
+public final class PayloadCompressor {
+
+  /** AMQP content encoding of compressed bodies. */
+  public static final String CONTENT_ENCODING = "deflate";
+
+  /** Largest body a compressed payload may expand to. */
+  private static final int MAX_INFLATED_BYTES = 16 * 1024 * 1024;
+
+  private final int minBytes;
+  private final byte[] dictionary;
+  private final int dictionaryId;
+  private final ThreadLocal<Deflater> deflaters;
+  private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+  private final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[4096]);
+
+  private final LongAdder compressed = new LongAdder();
+  private final LongAdder skipped = new LongAdder();
+  private final LongAdder bytesIn = new LongAdder();
+  private final LongAdder bytesOut = new LongAdder();
+
+  /**
+   * Creates a compressor.
+   *
+   * @param minBytes smallest body that is compressed
+   * @param level zlib level, 1 (fastest) to 9 (smallest)
+   * @param dictionary preset dictionary, or null for none
+   */
+  public PayloadCompressor(int minBytes, int level, byte[] dictionary) {
+    if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException("level must be between 1 and 9");
+    }
+    this.minBytes = minBytes;
+    this.dictionary = dictionary == null || dictionary.length == 0 ? null : dictionary.clone();
+    this.dictionaryId = this.dictionary == null ? 0 : adler32(this.dictionary);
+    this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level));
+  }
+
+  /**
+   * Reads a dictionary written by {@link DictionaryTrainer}.
+   *
+   * @param path dictionary file, or null or empty for none
+   * @return dictionary bytes, or null
+   * @throws IOException if the file cannot be read
+   */
+  public static byte[] loadDictionary(String path) throws IOException {
+    return path == null || path.isEmpty() ? null : Files.readAllBytes(Path.of(path));
+  }
+
+  /**
+   * Compresses a body.
+   *
+   * @param body encoded body
+   * @return compressed body, or null if the body should be sent uncompressed
+   */
+  public byte[] compress(byte[] body) {
+    if (body.length < minBytes) {
+      return null;
+    }
+    Deflater deflater = deflaters.get();
+    deflater.reset();
+    if (dictionary != null) {
+      deflater.setDictionary(dictionary);
+    }
+    deflater.setInput(body);
+    deflater.finish();
+    byte[] out = buffer(body.length);
+    int n = deflater.deflate(out, 0, body.length);
+    if (!deflater.finished() || n >= body.length) {
+      skipped.increment();
+      return null;
+    }
+    compressed.increment();
+    bytesIn.add(body.length);
+    bytesOut.add(n);
+    return Arrays.copyOf(out, n);
+  }
+
+  /**
+   * Restores a body published with {@link #CONTENT_ENCODING}.
+   *
+   * @param body compressed body
+   * @return original body
+   * @throws IOException if the body is corrupt, too large or needs another dictionary
+   */
+  public byte[] decompress(byte[] body) throws IOException {
+    Inflater inflater = inflaters.get();
+    inflater.reset();
+    inflater.setInput(body);
+    ByteArrayOutputStream out = new ByteArrayOutputStream(body.length * 4);
+    byte[] chunk = buffer(4096);
+    try {
+      while (!inflater.finished()) {
+        int n = inflater.inflate(chunk);
+        if (n > 0) {
+          out.write(chunk, 0, n);
+          if (out.size() > MAX_INFLATED_BYTES) {
+            throw new IOException("Compressed body expands beyond " + MAX_INFLATED_BYTES);
+          }
+        } else if (inflater.needsDictionary()) {
+          if (dictionary == null || inflater.getAdler() != dictionaryId) {
+            throw new IOException("Body was compressed with an unknown dictionary");
+          }
+          inflater.setDictionary(dictionary);
+        } else if (inflater.needsInput()) {
+          throw new IOException("Truncated compressed body");
+        }
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt compressed body", e);
+    }
+    return out.toByteArray();
+  }
+
+  private byte[] buffer(int size) {
+    byte[] buf = buffers.get();
+    if (buf.length < size) {
+      buf = new byte[Math.max(size, buf.length * 2)];
+      buffers.set(buf);
+    }
+    return buf;
+  }
+
+  private static int adler32(byte[] data) {
+    Adler32 adler = new Adler32();
+    adler.update(data);
+    return (int) adler.getValue();
+  }
+
+  /**
+   * Returns the number of bodies published compressed.
+   */
+  public long compressed() {
+    return compressed.sum();
+  }
+
+  /**
+   * Returns the number of bodies above the threshold that did not get smaller.
+   */
+  public long skipped() {
+    return skipped.sum();
+  }
+
+  /**
+   * Returns the compressed size of compressed bodies as a fraction of their original size.
+   */
+  public double ratio() {
+    long in = bytesIn.sum();
+    return in == 0 ? 1.0 : (double) bytesOut.sum() / in;
+  }
+}
@@ -0,0 +1,63 @@
+package chatflow.server.queue.codec;
+
+import chatflow.server.queue.QueueMessage;
+import java.io.IOException;
+
+/**
+ * Wire format of {@link QueueMessage} bodies published to the broker.
+ */
+public interface QueueMessageCodec {
+
+  /**
+   * Returns the AMQP content type published with encoded bodies.
+   */
+  String contentType();
+
+  /**
+   * Encodes a message.
+   *
+   * @param msg queue message
+   * @return encoded body
+   * @throws IOException if the message cannot be encoded
+   */
+  byte[] encode(QueueMessage msg) throws IOException;
+
+  /**
+   * Decodes a message.
+   *
+   * @param body encoded body
+   * @return queue message
+   * @throws IOException if the body is malformed
+   */
+  QueueMessage decode(byte[] body) throws IOException;
+
+  /**
+   * Returns the codec configured by name.
+   *
+   * @param name {@code json} or {@code binary}
+   * @return codec
+   */
+  static QueueMessageCodec forName(String name) {
+    switch (name.toLowerCase()) {
+      case "json":
+        return JsonQueueMessageCodec.INSTANCE;
+      case "binary":
+        return BinaryQueueMessageCodec.INSTANCE;
+      default:
+        throw new IllegalArgumentException("Unknown queue codec: " + name);
+    }
+  }
+
+  /**
+   * Returns the codec that reads bodies of the given content type. Anything that is not the
+   * binary format is read as JSON, which is what older publishers sent.
+   *
+   * @param contentType AMQP content type, may be null
+   * @return codec
+   */
+  static QueueMessageCodec forContentType(String contentType) {
+    return BinaryQueueMessageCodec.CONTENT_TYPE.equals(contentType)
+        ? BinaryQueueMessageCodec.INSTANCE
+        : JsonQueueMessageCodec.INSTANCE;
+  }
+}
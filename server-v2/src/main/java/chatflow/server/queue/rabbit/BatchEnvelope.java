@@ -0,0 +1,84 @@
+package chatflow.server.queue.rabbit;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Envelope that carries several encoded queue messages in a single AMQP publish.
+ *
+ * <p>Layout: one version byte, a 4-byte message count, then for every message a 4-byte
+ * length followed by that many bytes of the message body. Envelopes are published with
+ * {@link #CONTENT_TYPE} so consumers can tell them apart from single messages, and with
+ * {@link #ENTRY_TYPE_HEADER} naming the codec the entries were encoded with.
+ */
+public final class BatchEnvelope {
+
+  /** AMQP content type of an envelope. */
+  public static final String CONTENT_TYPE = "application/vnd.chatflow.batch";
+
+  /** Header naming the content type of the entries; JSON when absent. */
+  public static final String ENTRY_TYPE_HEADER = "x-entry-content-type";
+
+  /** Current envelope format version. */
+  public static final byte VERSION = 1;
+
+  private BatchEnvelope() {}
+
+  /**
+   * Packs message bodies into an envelope.
+   *
+   * @param bodies encoded messages
+   * @return envelope bytes
+   */
+  public static byte[] encode(List<byte[]> bodies) {
+    int size = 1 + 4;
+    for (byte[] body : bodies) {
+      size += 4 + body.length;
+    }
+    ByteBuffer buf = ByteBuffer.allocate(size);
+    buf.put(VERSION);
+    buf.putInt(bodies.size());
+    for (byte[] body : bodies) {
+      buf.putInt(body.length);
+      buf.put(body);
+    }
+    return buf.array();
+  }
+
+  /**
+   * Unpacks the message bodies of an envelope.
+   *
+   * @param envelope envelope bytes
+   * @return encoded messages in publish order
+   * @throws IOException if the envelope is truncated or has an unknown version
+   */
+  public static List<byte[]> decode(byte[] envelope) throws IOException {
+    try {
+      ByteBuffer buf = ByteBuffer.wrap(envelope);
+      byte version = buf.get();
+      if (version != VERSION) {
+        throw new IOException("Unsupported batch envelope version " + version);
+      }
+      int count = buf.getInt();
+      if (count < 0 || count > buf.remaining() / 4) {
+        throw new IOException("Invalid batch envelope count " + count);
+      }
+      List<byte[]> bodies = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        int length = buf.getInt();
+        if (length < 0 || length > buf.remaining()) {
+          throw new IOException("Invalid batch envelope entry length " + length);
+        }
+        byte[] body = new byte[length];
+        buf.get(body);
+        bodies.add(body);
+      }
+      return bodies;
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Truncated batch envelope", e);
+    }
+  }
+}
@@ -0,0 +1,188 @@
+package chatflow.server.queue.rabbit;
+
+import chatflow.server.metrics.LatencyHistogram;
+import chatflow.server.queue.MessagePublisher;
+import chatflow.server.queue.PublishResult;
+import chatflow.server.queue.QueueMessage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publisher that packs messages for the same room into one AMQP publish.
+ *
+ * <p>Messages are collected per routing key until {@code maxBatch} have arrived or the
+ * oldest has waited {@code lingerMicros}, then published as one {@link BatchEnvelope}. A
+ * batch that holds a single message is published as a plain message. The future returned by
+ * {@link #publishAsync} completes once the batch carrying the message has been published (or
+ * confirmed, when the delegate uses publisher confirms), so callers can ack their clients from
+ * it; if a drop-when-busy delegate drops the batch, every message in it completes as
+ * {@link PublishResult#dropped}. Backpressure comes from the delegate's bound on outstanding
+ * publishes.
+ *
+ * <p>Full batches are sent by the thread that completed them. Batches whose linger expired
+ * are handed from the timer to a small pool of flush threads, because the delegate may block
+ * waiting for a channel or an outstanding-publish slot, and a blocked timer would hold back
+ * the batches of every other room.
+ */
+public final class BatchingRabbitPublisher implements MessagePublisher {
+
+  private static final class Batch {
+    private final String roomId;
+    private final long createdAtMicros = LatencyHistogram.nowMicros();
+    private final List<byte[]> bodies = new ArrayList<>();
+    private final CompletableFuture<Boolean> published = new CompletableFuture<>();
+
+    private Batch(String roomId) {
+      this.roomId = roomId;
+    }
+  }
+
+  private static final int FLUSH_THREADS = 4;
+
+  private final RabbitMqPublisher delegate;
+  private final int maxBatch;
+  private final long lingerNanos;
+  private final Map<String, Batch> open = new HashMap<>();
+  private final ScheduledExecutorService timer;
+  private final ExecutorService flushers;
+
+  private final LongAdder batches = new LongAdder();
+  private final LongAdder messages = new LongAdder();
+
+  /**
+   * Creates a batching publisher.
+   *
+   * @param delegate publisher used to send the batches, closed together with this one
+   * @param maxBatch maximum messages per batch
+   * @param lingerMicros maximum time a message waits for its batch to fill
+   */
+  public BatchingRabbitPublisher(RabbitMqPublisher delegate, int maxBatch, long lingerMicros) {
+    this.delegate = Objects.requireNonNull(delegate, "delegate");
+    if (maxBatch < 1) {
+      throw new IllegalArgumentException("maxBatch must be >= 1");
+    }
+    this.maxBatch = maxBatch;
+    this.lingerNanos = lingerMicros * 1_000L;
+    this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "publish-batch-timer");
+      t.setDaemon(true);
+      return t;
+    });
+    AtomicInteger flusherId = new AtomicInteger();
+    this.flushers = Executors.newFixedThreadPool(FLUSH_THREADS, r -> {
+      Thread t = new Thread(r, "publish-batch-flush-" + flusherId.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  @Override
+  public CompletableFuture<PublishResult> publishAsync(QueueMessage msg) {
+    Objects.requireNonNull(msg, "msg");
+    byte[] body;
+    try {
+      body = delegate.encode(msg);
+    } catch (Exception e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    String roomId = msg.getRoomId();
+
+    Batch full = null;
+    CompletableFuture<Boolean> published;
+    synchronized (open) {
+      Batch batch = open.get(roomId);
+      if (batch == null) {
+        batch = new Batch(roomId);
+        open.put(roomId, batch);
+        Batch scheduled = batch;
+        timer.schedule(() -> flushers.execute(() -> flushIfOpen(scheduled)), lingerNanos,
+            TimeUnit.NANOSECONDS);
+      }
+      batch.bodies.add(body);
+      published = batch.published;
+      if (batch.bodies.size() >= maxBatch) {
+        open.remove(roomId);
+        full = batch;
+      }
+    }
+    if (full != null) {
+      send(full);
+    }
+    String messageId = msg.getMessageId();
+    boolean confirmed = delegate.confirmsEnabled();
+    return published.thenApply(sent -> sent
+        ? new PublishResult(messageId, confirmed)
+        : PublishResult.dropped(messageId));
+  }
+
+  private void flushIfOpen(Batch batch) {
+    synchronized (open) {
+      if (open.get(batch.roomId) != batch) {
+        return;
+      }
+      open.remove(batch.roomId);
+    }
+    send(batch);
+  }
+
+  private void send(Batch batch) {
+    batches.increment();
+    messages.add(batch.bodies.size());
+    CompletableFuture<Boolean> sent;
+    if (batch.bodies.size() == 1) {
+      sent = delegate.send(batch.roomId,
+          delegate.messageProperties(batch.createdAtMicros), batch.bodies.get(0));
+    } else {
+      sent = delegate.send(batch.roomId,
+          delegate.batchProperties(batch.createdAtMicros),
+          BatchEnvelope.encode(batch.bodies));
+    }
+    sent.whenComplete((v, e) -> {
+      if (e == null) {
+        batch.published.complete(v);
+      } else {
+        batch.published.completeExceptionally(e);
+      }
+    });
+  }
+
+  /**
+   * Returns the number of AMQP publishes made.
+   */
+  public long batches() {
+    return batches.sum();
+  }
+
+  /**
+   * Returns the number of messages published in batches.
+   */
+  public long messages() {
+    return messages.sum();
+  }
+
+  @Override
+  public void close() throws Exception {
+    timer.shutdown();
+    flushers.shutdown();
+    flushers.awaitTermination(5, TimeUnit.SECONDS);
+    List<Batch> remaining;
+    synchronized (open) {
+      remaining = new ArrayList<>(open.values());
+      open.clear();
+    }
+    for (Batch batch : remaining) {
+      send(batch);
+    }
+    delegate.close();
+  }
+}
@@ -1,19 +1,63 @@
 package chatflow.server.queue.rabbit;
 
+import chatflow.server.metrics.LatencyHistogram;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
+import com.rabbitmq.client.ReturnListener;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Simple channel pool for RabbitMQ publishing.
+ * Channel pool for RabbitMQ publishing.
+ *
+ * <p>Each channel has a lease flag in its own cache line. A borrowing thread first tries the
+ * channel it used last, then scans the others, claiming a free one with a single CAS, so the
+ * common case takes no lock and touches no shared counter. Only when every channel is leased
+ * does the borrower wait on a condition, for at most the borrow timeout, after which it
+ * fails with a {@link TimeoutException}.
+ *
+ * <p>Channels are spread round-robin over one or more connections, so publishing is not
+ * limited to a single socket and client I/O thread. When a connection shuts down its channels
+ * are skipped until automatic recovery brings it back; the channels on the other connections
+ * keep serving borrowers in the meantime.
  */
 public final class ChannelPool implements AutoCloseable {
 
-  private final BlockingQueue<Channel> pool;
-  private final Connection connection;
+  /** Default time a borrower waits for a free channel. */
+  public static final long DEFAULT_BORROW_TIMEOUT_MS = 5_000L;
+
+  private static final int PAD = 16;
+
+  private final List<Connection> connections;
+  private final Channel[] channels;
+  private final int[] connectionOfSlot;
+  private final AtomicIntegerArray connectionUp;
+  private final AtomicIntegerArray connectionBlocked;
+  private final Map<Channel, Integer> slotByChannel = new IdentityHashMap<>();
+  private final Map<Channel, ConfirmTracker> confirmTrackers = new IdentityHashMap<>();
+  private final AtomicIntegerArray leased;
+  private final long borrowTimeoutNanos;
+  private final ThreadLocal<int[]> preferredSlot;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition released = lock.newCondition();
+  private volatile int waiters;
+
+  private final LatencyHistogram waitTimes = new LatencyHistogram();
+  private final LongAdder exhaustions = new LongAdder();
 
   /**
    * Creates a pool with a single shared connection and pre-created channels.
@@ -27,34 +71,226 @@ public final class ChannelPool implements AutoCloseable {
    */
   public ChannelPool(
       String host, int port, String username, String password, int poolSize) throws Exception {
-    Objects.requireNonNull(host, "host");
-    if (poolSize < 1) {
-      throw new IllegalArgumentException("poolSize must be >= 1");
+    this(host, port, username, password, poolSize, 1, false, DEFAULT_BORROW_TIMEOUT_MS);
+  }
+
+  /**
+   * Creates a pool whose channels are spread over several connections.
+   *
+   * @param host rabbitmq host
+   * @param port rabbitmq port
+   * @param username rabbitmq username
+   * @param password rabbitmq password
+   * @param poolSize number of channels to pre-create
+   * @param connectionCount number of connections the channels are spread over
+   * @param confirms whether channels are put in confirm-select mode
+   * @param borrowTimeoutMs how long {@link #borrow()} waits for a free channel
+   * @throws Exception if initialization fails
+   */
+  public ChannelPool(String host, int port, String username, String password, int poolSize,
+      int connectionCount, boolean confirms, long borrowTimeoutMs) throws Exception {
+    this(newConnections(host, port, username, password, connectionCount), poolSize, confirms,
+        borrowTimeoutMs);
+  }
+
+  /**
+   * Creates a pool over an existing connection, e.g. a stub in benchmarks.
+   *
+   * @param connection open connection, closed together with the pool
+   * @param poolSize number of channels to pre-create
+   * @param confirms whether channels are put in confirm-select mode
+   * @param borrowTimeoutMs how long {@link #borrow()} waits for a free channel
+   * @throws Exception if initialization fails
+   */
+  public ChannelPool(Connection connection, int poolSize, boolean confirms,
+      long borrowTimeoutMs) throws Exception {
+    this(List.of(Objects.requireNonNull(connection, "connection")), poolSize, confirms,
+        borrowTimeoutMs);
+  }
+
+  /**
+   * Creates a pool over existing connections. Channel {@code i} is opened on connection
+   * {@code i % connections.size()}.
+   *
+   * @param connections open connections, closed together with the pool
+   * @param poolSize number of channels to pre-create
+   * @param confirms whether channels are put in confirm-select mode
+   * @param borrowTimeoutMs how long {@link #borrow()} waits for a free channel
+   * @throws Exception if initialization fails
+   */
+  public ChannelPool(List<Connection> connections, int poolSize, boolean confirms,
+      long borrowTimeoutMs) throws Exception {
+    if (connections.isEmpty()) {
+      throw new IllegalArgumentException("at least one connection is required");
     }
+    if (poolSize < connections.size()) {
+      throw new IllegalArgumentException("poolSize must be >= number of connections");
+    }
+    if (borrowTimeoutMs < 0) {
+      throw new IllegalArgumentException("borrowTimeoutMs must be >= 0");
+    }
+    this.connections = List.copyOf(connections);
+    this.borrowTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMs);
+    this.channels = new Channel[poolSize];
+    this.connectionOfSlot = new int[poolSize];
+    this.connectionUp = new AtomicIntegerArray(this.connections.size());
+    this.connectionBlocked = new AtomicIntegerArray(this.connections.size());
+    this.leased = new AtomicIntegerArray(poolSize * PAD);
+    this.preferredSlot = ThreadLocal.withInitial(
+        () -> new int[] {(int) (Thread.currentThread().getId() % poolSize)});
+
+    for (int c = 0; c < this.connections.size(); c++) {
+      watch(this.connections.get(c), c);
+    }
+    for (int i = 0; i < poolSize; i++) {
+      int c = i % this.connections.size();
+      Channel ch = this.connections.get(c).createChannel();
+      if (confirms) {
+        enableConfirms(ch);
+      }
+      channels[i] = ch;
+      connectionOfSlot[i] = c;
+      slotByChannel.put(ch, i);
+    }
+  }
 
+  private static List<Connection> newConnections(String host, int port, String username,
+      String password, int count) throws Exception {
+    Objects.requireNonNull(host, "host");
+    if (count < 1) {
+      throw new IllegalArgumentException("connectionCount must be >= 1");
+    }
     ConnectionFactory factory = new ConnectionFactory();
     factory.setHost(host);
     factory.setPort(port);
     factory.setUsername(username);
     factory.setPassword(password);
+    factory.setAutomaticRecoveryEnabled(true);
+    List<Connection> connections = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      String name = count == 1 ? "chatflow-producer" : "chatflow-producer-" + i;
+      connections.add(factory.newConnection(name));
+    }
+    return connections;
+  }
 
-    this.connection = factory.newConnection("chatflow-producer");
-    this.pool = new ArrayBlockingQueue<>(poolSize);
+  private void watch(Connection connection, int index) {
+    connectionUp.set(index, 1);
+    connection.addShutdownListener(cause -> {
+      if (!cause.isInitiatedByApplication()) {
+        connectionUp.set(index, 0);
+        System.out.println("Producer connection " + index + " lost: " + cause.getMessage());
+      }
+    });
+    connection.addBlockedListener(
+        reason -> {
+          connectionBlocked.set(index, 1);
+          System.out.println("Producer connection " + index + " blocked by broker: " + reason);
+        },
+        () -> {
+          connectionBlocked.set(index, 0);
+          System.out.println("Producer connection " + index + " unblocked");
+        });
+    if (connection instanceof Recoverable) {
+      ((Recoverable) connection).addRecoveryListener(new RecoveryListener() {
+        @Override
+        public void handleRecovery(Recoverable recoverable) {
+          connectionUp.set(index, 1);
+          System.out.println("Producer connection " + index + " recovered");
+          signalWaiters(true);
+        }
 
-    for (int i = 0; i < poolSize; i++) {
-      Channel ch = connection.createChannel();
-      pool.add(ch);
+        @Override
+        public void handleRecoveryStarted(Recoverable recoverable) {
+        }
+      });
+    }
+  }
+
+  /**
+   * Returns the confirm tracker of a pooled channel.
+   *
+   * @param channel channel obtained from {@link #borrow()}
+   * @return tracker, or null if the pool was created without confirms
+   */
+  public ConfirmTracker confirmTracker(Channel channel) {
+    return confirmTrackers.get(channel);
+  }
+
+  private void enableConfirms(Channel ch) throws IOException {
+    ch.confirmSelect();
+    ConfirmTracker tracker = new ConfirmTracker();
+    ch.addConfirmListener(tracker);
+    ch.addReturnListener(tracker);
+    ch.addShutdownListener(cause -> tracker.failAll(cause));
+    confirmTrackers.put(ch, tracker);
+  }
+
+  /**
+   * Adds a listener for publishes the broker returns, on every pooled channel.
+   *
+   * @param listener return listener
+   */
+  public void addReturnListener(ReturnListener listener) {
+    for (Channel ch : channels) {
+      ch.addReturnListener(listener);
     }
   }
 
   /**
-   * Borrows a channel from the pool (blocking).
+   * Borrows a channel from the pool, waiting at most the borrow timeout.
    *
    * @return channel
    * @throws InterruptedException if interrupted
+   * @throws TimeoutException if no channel became free in time
    */
-  public Channel borrow() throws InterruptedException {
-    return pool.take();
+  public Channel borrow() throws InterruptedException, TimeoutException {
+    Channel free = tryBorrow();
+    if (free != null) {
+      return free;
+    }
+
+    int[] preferred = preferredSlot.get();
+    int slot;
+    long start = System.nanoTime();
+    lock.lock();
+    try {
+      waiters++;
+      long remaining = borrowTimeoutNanos;
+      while (true) {
+        slot = tryClaim(preferred[0]);
+        if (slot >= 0) {
+          preferred[0] = slot;
+          waitTimes.record((System.nanoTime() - start) / 1_000L);
+          return channels[slot];
+        }
+        if (remaining <= 0L) {
+          exhaustions.increment();
+          throw new TimeoutException("Channel pool exhausted: no channel free after "
+              + TimeUnit.NANOSECONDS.toMillis(borrowTimeoutNanos) + " ms (pool size "
+              + channels.length + ")");
+        }
+        remaining = released.awaitNanos(remaining);
+      }
+    } finally {
+      waiters--;
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Borrows a channel if one is free, without waiting.
+   *
+   * @return channel, or null if every channel is leased
+   */
+  public Channel tryBorrow() {
+    int[] preferred = preferredSlot.get();
+    int slot = tryClaim(preferred[0]);
+    if (slot < 0) {
+      return null;
+    }
+    preferred[0] = slot;
+    return channels[slot];
   }
 
   /**
@@ -63,19 +299,134 @@ public final class ChannelPool implements AutoCloseable {
    * @param channel channel to return
    */
   public void release(Channel channel) {
-    if (channel != null) {
-      pool.offer(channel);
+    if (channel == null) {
+      return;
+    }
+    Integer slot = slotByChannel.get(channel);
+    if (slot == null) {
+      return;
+    }
+    leased.set(slot * PAD, 0);
+    signalWaiters(false);
+  }
+
+  private void signalWaiters(boolean all) {
+    if (waiters > 0) {
+      lock.lock();
+      try {
+        if (all) {
+          released.signalAll();
+        } else {
+          released.signal();
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Returns the distribution of time spent waiting in {@link #borrow()}, in microseconds.
+   *
+   * <p>Only borrows that found every channel leased are recorded; the lock-free path is not
+   * timed so that it stays free of shared writes.
+   */
+  public LatencyHistogram getWaitTimes() {
+    return waitTimes;
+  }
+
+  /**
+   * Returns the fraction of channels currently leased.
+   */
+  public double utilization() {
+    int inUse = 0;
+    for (int i = 0; i < channels.length; i++) {
+      inUse += leased.get(i * PAD);
     }
+    return (double) inUse / channels.length;
+  }
+
+  /**
+   * Returns how many borrows failed because the pool stayed exhausted.
+   */
+  public long exhaustions() {
+    return exhaustions.sum();
+  }
+
+  /**
+   * Returns the number of channels in the pool.
+   */
+  public int size() {
+    return channels.length;
+  }
+
+  /**
+   * Returns the number of connections the channels are spread over.
+   */
+  public int connectionCount() {
+    return connections.size();
+  }
+
+  /**
+   * Returns the number of connections that are currently open.
+   */
+  public int healthyConnections() {
+    int up = 0;
+    for (int i = 0; i < connections.size(); i++) {
+      up += connectionUp.get(i);
+    }
+    return up;
+  }
+
+  /**
+   * Returns the number of connections the broker has blocked for flow control.
+   */
+  public int blockedConnections() {
+    int blocked = 0;
+    for (int i = 0; i < connections.size(); i++) {
+      blocked += connectionBlocked.get(i);
+    }
+    return blocked;
+  }
+
+  /**
+   * Returns whether at least one connection is open and not blocked by the broker.
+   */
+  public boolean canPublish() {
+    for (int i = 0; i < connections.size(); i++) {
+      if (connectionUp.get(i) == 1 && connectionBlocked.get(i) == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private int tryClaim(int start) {
+    int n = channels.length;
+    for (int i = 0; i < n; i++) {
+      int slot = start + i < n ? start + i : start + i - n;
+      if (leased.get(slot * PAD) == 0
+          && connectionUp.get(connectionOfSlot[slot]) == 1
+          && leased.compareAndSet(slot * PAD, 0, 1)) {
+        return slot;
+      }
+    }
+    return -1;
   }
 
   @Override
   public void close() throws Exception {
-    for (Channel ch : pool) {
+    for (Channel ch : channels) {
       try {
         ch.close();
       } catch (Exception ignored) {
       }
     }
-    connection.close();
+    for (Connection connection : connections) {
+      try {
+        connection.close();
+      } catch (Exception ignored) {
+      }
+    }
   }
 }
@@ -0,0 +1,219 @@
+package chatflow.server.queue.rabbit;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.ReturnListener;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Tracks outstanding publisher confirms for one confirm-select channel.
+ *
+ * <p>Publish sequence numbers grow monotonically per channel, so outstanding entries are kept
+ * in a ring of primitive {@code long}s with a parallel list of futures, already sorted by
+ * sequence number. A {@code multiple} confirm pops every entry up to the tag from the head;
+ * a single confirm is located by binary search and tombstoned until it reaches the head.
+ * Futures of nacked publishes complete with {@link NackException}, so the publisher can retry
+ * them.
+ *
+ * <p>Mandatory publishes that carry their sequence number in {@link #SEQ_NO_HEADER} are also
+ * matched against basic.return, which the broker sends before the confirm of an unroutable
+ * message; their futures complete with {@link UnroutableException}.
+ */
+public final class ConfirmTracker implements ConfirmListener, ReturnListener {
+
+  /** Header carrying the publish sequence number of a mandatory publish. */
+  public static final String SEQ_NO_HEADER = "x-publish-seq";
+
+  /**
+   * Signals that the broker nacked a publish.
+   */
+  public static final class NackException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates the exception.
+     *
+     * @param seqNo publish sequence number that was nacked
+     */
+    public NackException(long seqNo) {
+      super("Publish " + seqNo + " nacked by broker");
+    }
+  }
+
+  /**
+   * Signals that the broker returned a mandatory publish that no queue was bound for.
+   */
+  public static final class UnroutableException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates the exception.
+     *
+     * @param routingKey routing key of the returned publish
+     * @param replyText broker's reason
+     */
+    public UnroutableException(String routingKey, String replyText) {
+      super("Publish to " + routingKey + " returned by broker: " + replyText);
+    }
+  }
+
+  private long[] seqNos = new long[256];
+  private List<CompletableFuture<Void>> futures = slots(256);
+  private int head;
+  private int size;
+
+  /**
+   * Registers a publish that is about to be sent with the given sequence number.
+   *
+   * @param seqNo value of {@code Channel.getNextPublishSeqNo()} before publishing
+   * @return future completed when the broker confirms the publish
+   */
+  public synchronized CompletableFuture<Void> register(long seqNo) {
+    if (size == seqNos.length) {
+      grow();
+    }
+    int idx = (head + size) & (seqNos.length - 1);
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    seqNos[idx] = seqNo;
+    futures.set(idx, future);
+    size++;
+    return future;
+  }
+
+  /**
+   * Returns the number of publishes awaiting a confirm.
+   */
+  public synchronized int outstanding() {
+    int live = 0;
+    for (int i = 0; i < size; i++) {
+      if (futures.get((head + i) & (seqNos.length - 1)) != null) {
+        live++;
+      }
+    }
+    return live;
+  }
+
+  /**
+   * Forgets a registered publish without completing its future, e.g. because
+   * {@code basicPublish} threw and the broker will never confirm it.
+   *
+   * @param seqNo sequence number passed to {@link #register}
+   * @return whether the publish was still outstanding
+   */
+  public boolean deregister(long seqNo) {
+    return !take(seqNo, false).isEmpty();
+  }
+
+  @Override
+  public void handleAck(long deliveryTag, boolean multiple) {
+    for (CompletableFuture<Void> f : take(deliveryTag, multiple)) {
+      f.complete(null);
+    }
+  }
+
+  @Override
+  public void handleNack(long deliveryTag, boolean multiple) {
+    for (CompletableFuture<Void> f : take(deliveryTag, multiple)) {
+      f.completeExceptionally(new NackException(deliveryTag));
+    }
+  }
+
+  @Override
+  public void handleReturn(int replyCode, String replyText, String exchange, String routingKey,
+      AMQP.BasicProperties properties, byte[] body) {
+    Object seqNo = properties.getHeaders() == null
+        ? null
+        : properties.getHeaders().get(SEQ_NO_HEADER);
+    if (!(seqNo instanceof Number)) {
+      return;
+    }
+    for (CompletableFuture<Void> f : take(((Number) seqNo).longValue(), false)) {
+      f.completeExceptionally(new UnroutableException(routingKey, replyText));
+    }
+  }
+
+  /**
+   * Fails every outstanding publish, e.g. when the channel shuts down.
+   *
+   * @param cause failure cause
+   */
+  public void failAll(Throwable cause) {
+    List<CompletableFuture<Void>> pending;
+    synchronized (this) {
+      pending = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        int idx = (head + i) & (seqNos.length - 1);
+        CompletableFuture<Void> future = futures.set(idx, null);
+        if (future != null) {
+          pending.add(future);
+        }
+      }
+      head = 0;
+      size = 0;
+    }
+    for (CompletableFuture<Void> f : pending) {
+      f.completeExceptionally(cause);
+    }
+  }
+
+  private synchronized List<CompletableFuture<Void>> take(long tag, boolean multiple) {
+    List<CompletableFuture<Void>> done = new ArrayList<>(multiple ? Math.min(size, 64) : 1);
+    int mask = seqNos.length - 1;
+    if (multiple) {
+      while (size > 0 && seqNos[head] <= tag) {
+        CompletableFuture<Void> future = futures.set(head, null);
+        if (future != null) {
+          done.add(future);
+        }
+        head = (head + 1) & mask;
+        size--;
+      }
+      return done;
+    }
+
+    int lo = 0;
+    int hi = size - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      long seq = seqNos[(head + mid) & mask];
+      if (seq < tag) {
+        lo = mid + 1;
+      } else if (seq > tag) {
+        hi = mid - 1;
+      } else {
+        CompletableFuture<Void> future = futures.set((head + mid) & mask, null);
+        if (future != null) {
+          done.add(future);
+        }
+        break;
+      }
+    }
+    while (size > 0 && futures.get(head) == null) {
+      head = (head + 1) & mask;
+      size--;
+    }
+    return done;
+  }
+
+  private void grow() {
+    int capacity = seqNos.length;
+    long[] newSeqNos = new long[capacity * 2];
+    List<CompletableFuture<Void>> newFutures = slots(capacity * 2);
+    for (int i = 0; i < size; i++) {
+      int idx = (head + i) & (capacity - 1);
+      newSeqNos[i] = seqNos[idx];
+      newFutures.set(i, futures.get(idx));
+    }
+    seqNos = newSeqNos;
+    futures = newFutures;
+    head = 0;
+  }
+
+  private static List<CompletableFuture<Void>> slots(int capacity) {
+    return new ArrayList<>(Collections.nCopies(capacity, null));
+  }
+}
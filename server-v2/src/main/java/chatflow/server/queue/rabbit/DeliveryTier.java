@@ -0,0 +1,139 @@
+package chatflow.server.queue.rabbit;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Delivery guarantees applied to a class of messages.
+ *
+ * <p>Each tier publishes to its own exchange, {@code <main exchange>.<tier>}, which is bound to
+ * the main exchange with {@code #}. Messages therefore reach the same room queues as before and
+ * consumers need no changes, while each tier's traffic can be observed and given policies on
+ * its own exchange.
+ */
+public final class DeliveryTier {
+
+  /** Persistent messages, each confirmed by the broker before the client is acked. */
+  public static final DeliveryTier DURABLE = new DeliveryTier("durable", true, true, 0L, false);
+
+  /** Non-persistent messages that are not written to disk and not confirmed. */
+  public static final DeliveryTier TRANSIENT =
+      new DeliveryTier("transient", false, false, 0L, false);
+
+  /**
+   * Non-persistent, unconfirmed messages that expire after five seconds in a queue and are
+   * dropped instead of waiting when the publisher is at its outstanding bound.
+   */
+  public static final DeliveryTier FIRE_AND_FORGET =
+      new DeliveryTier("fire-and-forget", false, false, 5_000L, true);
+
+  private final String name;
+  private final boolean persistent;
+  private final boolean confirms;
+  private final long expirationMs;
+  private final boolean dropWhenBusy;
+
+  /**
+   * Creates a tier.
+   *
+   * @param name tier name, used in the exchange name
+   * @param persistent whether messages are published with delivery mode 2
+   * @param confirms whether publishes wait for broker confirms
+   * @param expirationMs per-message TTL in queues, or 0 for none
+   * @param dropWhenBusy whether a publish that finds the publisher at its outstanding bound
+   *     is dropped instead of waiting
+   */
+  public DeliveryTier(String name, boolean persistent, boolean confirms, long expirationMs,
+      boolean dropWhenBusy) {
+    this.name = Objects.requireNonNull(name, "name");
+    if (expirationMs < 0) {
+      throw new IllegalArgumentException("expirationMs must be >= 0");
+    }
+    this.persistent = persistent;
+    this.confirms = confirms;
+    this.expirationMs = expirationMs;
+    this.dropWhenBusy = dropWhenBusy;
+  }
+
+  /**
+   * Returns a predefined tier by name.
+   *
+   * @param name {@code durable}, {@code transient} or {@code fire-and-forget}
+   * @return tier
+   */
+  public static DeliveryTier forName(String name) {
+    switch (name.trim().toLowerCase(Locale.ROOT)) {
+      case "durable":
+        return DURABLE;
+      case "transient":
+        return TRANSIENT;
+      case "fire-and-forget":
+        return FIRE_AND_FORGET;
+      default:
+        throw new IllegalArgumentException("Unknown delivery tier: " + name);
+    }
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public boolean isPersistent() {
+    return persistent;
+  }
+
+  public boolean isConfirms() {
+    return confirms;
+  }
+
+  public long getExpirationMs() {
+    return expirationMs;
+  }
+
+  public boolean isDropWhenBusy() {
+    return dropWhenBusy;
+  }
+
+  /**
+   * Returns the exchange this tier publishes to.
+   *
+   * @param mainExchange exchange the room queues are bound to
+   */
+  public String exchangeFor(String mainExchange) {
+    return mainExchange + "." + name;
+  }
+
+  /**
+   * Declares the tier exchange and binds it to the main exchange.
+   *
+   * @param channel channel to declare on
+   * @param mainExchange exchange the room queues are bound to
+   * @throws IOException if a declaration fails
+   */
+  public void declare(Channel channel, String mainExchange) throws IOException {
+    String exchange = exchangeFor(mainExchange);
+    channel.exchangeDeclare(mainExchange, BuiltinExchangeType.TOPIC, true);
+    channel.exchangeDeclare(exchange, BuiltinExchangeType.TOPIC, true);
+    channel.exchangeBind(mainExchange, exchange, "#");
+  }
+
+  /**
+   * Applies the tier's delivery mode and expiration to a properties builder.
+   */
+  AMQP.BasicProperties.Builder apply(AMQP.BasicProperties.Builder builder) {
+    builder.deliveryMode(persistent ? 2 : 1);
+    if (expirationMs > 0) {
+      builder.expiration(Long.toString(expirationMs));
+    }
+    return builder;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
@@ -0,0 +1,240 @@
+package chatflow.server.queue.rabbit;
+
+import chatflow.server.broadcast.BroadcastRequest;
+import chatflow.server.broadcast.DedupWindow;
+import chatflow.server.metrics.LatencyHistogram;
+import chatflow.server.queue.MessageDeadlines;
+import chatflow.server.queue.QueueMessage;
+import chatflow.server.queue.codec.PayloadCompressor;
+import chatflow.server.queue.codec.QueueMessageCodec;
+import chatflow.server.room.RoomManager;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Delivery;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Consumer that runs inside the server and broadcasts room traffic to local sessions.
+ *
+ * <p>The server declares its own exclusive queue on the chat exchange and a
+ * {@link RoomSubscriptionManager} binds {@code room.<id>} only while the room has local
+ * sessions. After the connection recovers, the queue is redeclared and the bindings are
+ * reconciled with current membership. Deliveries go straight from the
+ * queue into {@link RoomManager#broadcast}, skipping the standalone consumer and its extra
+ * network hop. Batch envelopes from {@link BatchingRabbitPublisher} are unpacked and their
+ * messages broadcast in order. Messages older than their type's maximum age are acked without
+ * being broadcast.
+ */
+public final class EmbeddedRoomConsumer implements AutoCloseable {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private final ConnectionFactory factory;
+  private final String exchangeName;
+  private final String queueName;
+  private final int prefetch;
+  private final long unbindDebounceMs;
+  private final RoomRouting routing;
+  private final PayloadCompressor compressor;
+  private final DedupWindow dedup;
+  private final MessageDeadlines deadlines;
+  private final RoomManager roomManager;
+
+  private final LatencyHistogram endToEnd = new LatencyHistogram();
+  private final LongAdder duplicates = new LongAdder();
+
+  private Connection connection;
+  private Channel channel;
+  private RoomSubscriptionManager subscriptions;
+
+  /**
+   * Creates an embedded consumer.
+   *
+   * @param host rabbitmq host
+   * @param port rabbitmq port
+   * @param username rabbitmq username
+   * @param password rabbitmq password
+   * @param exchangeName topic exchange name
+   * @param serverId server identifier, used to name the server's queue
+   * @param prefetch basicQos prefetch
+   * @param unbindDebounceMs how long a room must stay empty before it is unbound
+   * @param routing mapping of rooms to routing keys, as used by the publishers
+   * @param compressor decompresses deliveries published compressed
+   * @param dedup dedup window for message ids
+   * @param deadlines maximum message age per type
+   * @param roomManager room manager that owns local sessions
+   */
+  public EmbeddedRoomConsumer(String host, int port, String username, String password,
+      String exchangeName, String serverId, int prefetch, long unbindDebounceMs,
+      RoomRouting routing, PayloadCompressor compressor, DedupWindow dedup,
+      MessageDeadlines deadlines, RoomManager roomManager) {
+    this.factory = new ConnectionFactory();
+    factory.setHost(Objects.requireNonNull(host, "host"));
+    factory.setPort(port);
+    factory.setUsername(username);
+    factory.setPassword(password);
+    this.exchangeName = Objects.requireNonNull(exchangeName, "exchangeName");
+    this.queueName = "server." + Objects.requireNonNull(serverId, "serverId");
+    this.prefetch = prefetch;
+    this.unbindDebounceMs = unbindDebounceMs;
+    this.routing = Objects.requireNonNull(routing, "routing");
+    this.compressor = Objects.requireNonNull(compressor, "compressor");
+    this.dedup = Objects.requireNonNull(dedup, "dedup");
+    this.deadlines = Objects.requireNonNull(deadlines, "deadlines");
+    this.roomManager = Objects.requireNonNull(roomManager, "roomManager");
+  }
+
+  /**
+   * Declares the server queue, binds rooms that already have sessions and starts consuming.
+   *
+   * @throws Exception if the broker cannot be reached
+   */
+  public void start() throws Exception {
+    this.connection = factory.newConnection("chatflow-embedded-consumer");
+    try (Channel declare = connection.createChannel()) {
+      declare.exchangeDeclare(exchangeName, BuiltinExchangeType.TOPIC, true);
+      declare.queueDeclare(queueName, false, true, true, null);
+    }
+
+    this.subscriptions = new RoomSubscriptionManager(
+        connection, exchangeName, queueName, routing, roomManager, unbindDebounceMs);
+    roomManager.addMembershipListener(subscriptions);
+    subscriptions.reconcile();
+
+    if (connection instanceof Recoverable) {
+      ((Recoverable) connection).addRecoveryListener(new RecoveryListener() {
+        @Override
+        public void handleRecovery(Recoverable recoverable) {
+          try (Channel declare = connection.createChannel()) {
+            declare.queueDeclare(queueName, false, true, true, null);
+          } catch (Exception e) {
+            System.out.println("Embedded consumer queue redeclare failed: " + e.getMessage());
+          }
+          subscriptions.reconcile();
+        }
+
+        @Override
+        public void handleRecoveryStarted(Recoverable recoverable) {
+        }
+      });
+    }
+
+    this.channel = connection.createChannel();
+    channel.basicQos(prefetch);
+    channel.basicConsume(queueName, false, (tag, delivery) -> handle(delivery), tag -> { });
+  }
+
+  /**
+   * Returns the publish-to-broadcast latency histogram.
+   */
+  public LatencyHistogram getEndToEndLatency() {
+    return endToEnd;
+  }
+
+  /**
+   * Returns the subscription manager, or null before {@link #start()}.
+   */
+  public RoomSubscriptionManager getSubscriptions() {
+    return subscriptions;
+  }
+
+  /**
+   * Returns the number of deliveries dropped as duplicates.
+   */
+  public long duplicates() {
+    return duplicates.sum();
+  }
+
+  private void handle(Delivery delivery) throws IOException {
+    long tag = delivery.getEnvelope().getDeliveryTag();
+    byte[] payload = delivery.getBody();
+    if (PayloadCompressor.CONTENT_ENCODING.equals(delivery.getProperties().getContentEncoding())) {
+      try {
+        payload = compressor.decompress(payload);
+      } catch (IOException e) {
+        channel.basicNack(tag, false, false);
+        return;
+      }
+    }
+    String contentType = delivery.getProperties().getContentType();
+    if (!BatchEnvelope.CONTENT_TYPE.equals(contentType)) {
+      try {
+        broadcast(payload, QueueMessageCodec.forContentType(contentType), delivery);
+      } catch (IOException e) {
+        channel.basicNack(tag, false, false);
+        return;
+      }
+      channel.basicAck(tag, false);
+      return;
+    }
+
+    List<byte[]> bodies;
+    try {
+      bodies = BatchEnvelope.decode(payload);
+    } catch (IOException e) {
+      channel.basicNack(tag, false, false);
+      return;
+    }
+    QueueMessageCodec codec = QueueMessageCodec.forContentType(
+        header(delivery, BatchEnvelope.ENTRY_TYPE_HEADER));
+    for (byte[] body : bodies) {
+      try {
+        broadcast(body, codec, delivery);
+      } catch (IOException e) {
+        // A malformed entry is dropped like a malformed single message.
+      }
+    }
+    channel.basicAck(tag, false);
+  }
+
+  private void broadcast(byte[] body, QueueMessageCodec codec, Delivery delivery)
+      throws IOException {
+    QueueMessage qm = codec.decode(body);
+    if (deadlines.shed(qm)) {
+      return;
+    }
+    if (dedup.seen(qm.getMessageId())) {
+      duplicates.increment();
+      return;
+    }
+    BroadcastRequest request = new BroadcastRequest(qm.getMessageId(), qm.getRoomId(),
+        qm.getUserId(), qm.getUsername(), qm.getMessage(), qm.getTimestamp(),
+        qm.getMessageType(), qm.getServerId(), qm.getClientIp());
+    roomManager.broadcast(qm.getRoomId(), MAPPER.writeValueAsString(request));
+    recordLatency(delivery);
+  }
+
+  private static String header(Delivery delivery, String name) {
+    Map<String, Object> headers = delivery.getProperties().getHeaders();
+    Object value = headers == null ? null : headers.get(name);
+    return value == null ? null : value.toString();
+  }
+
+  private void recordLatency(Delivery delivery) {
+    Map<String, Object> headers = delivery.getProperties().getHeaders();
+    Object publishedAt =
+        headers == null ? null : headers.get(RabbitMqPublisher.PUBLISHED_AT_HEADER);
+    if (publishedAt instanceof Number) {
+      endToEnd.record(LatencyHistogram.nowMicros() - ((Number) publishedAt).longValue());
+    }
+  }
+
+  @Override
+  public void close() throws Exception {
+    if (subscriptions != null) {
+      subscriptions.close();
+    }
+    if (connection != null) {
+      connection.close();
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package chatflow.server.queue.rabbit;
+
+import com.rabbitmq.client.Channel;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed room-to-channel publishing lanes.
+ *
+ * <p>Each lane owns one channel leased from the pool for the lifetime of the lanes and a
+ * single thread that performs every publish on it. A room always hashes to the same lane, so
+ * messages for one room leave on one channel in submission order and reach the queue in that
+ * order. Different rooms still publish in parallel on different lanes.
+ */
+final class PublishLanes implements AutoCloseable {
+
+  /**
+   * Work performed on a lane's channel.
+   *
+   * @param <T> result type
+   */
+  interface ChannelTask<T> {
+    T run(Channel channel) throws Exception;
+  }
+
+  private final ChannelPool channelPool;
+  private final Channel[] channels;
+  private final ExecutorService[] executors;
+
+  /**
+   * Leases {@code laneCount} channels and starts one thread per lane.
+   *
+   * @param channelPool pool to lease the lane channels from
+   * @param laneCount number of lanes, at most the pool size
+   * @throws Exception if a channel cannot be leased
+   */
+  PublishLanes(ChannelPool channelPool, int laneCount) throws Exception {
+    this.channelPool = Objects.requireNonNull(channelPool, "channelPool");
+    if (laneCount < 1 || laneCount > channelPool.size()) {
+      throw new IllegalArgumentException("laneCount must be between 1 and the pool size");
+    }
+    this.channels = new Channel[laneCount];
+    this.executors = new ExecutorService[laneCount];
+    for (int i = 0; i < laneCount; i++) {
+      channels[i] = channelPool.borrow();
+      int lane = i;
+      executors[i] = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "publish-lane-" + lane);
+        t.setDaemon(true);
+        return t;
+      });
+    }
+  }
+
+  /**
+   * Returns the lane a room publishes on.
+   *
+   * @param roomId room id
+   * @return lane index
+   */
+  int laneFor(String roomId) {
+    return Math.floorMod(roomId.hashCode(), channels.length);
+  }
+
+  /**
+   * Runs the task on the room's lane after every task submitted before it for that lane.
+   *
+   * @param roomId room id
+   * @param task work to do on the lane's channel
+   * @param <T> result type
+   * @return future completed with the task's result
+   */
+  <T> CompletableFuture<T> submit(String roomId, ChannelTask<T> task) {
+    int lane = laneFor(roomId);
+    Channel ch = channels[lane];
+    CompletableFuture<T> result = new CompletableFuture<>();
+    executors[lane].execute(() -> {
+      try {
+        result.complete(task.run(ch));
+      } catch (Throwable e) {
+        result.completeExceptionally(e);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Returns the number of lanes.
+   */
+  int size() {
+    return channels.length;
+  }
+
+  @Override
+  public void close() throws InterruptedException {
+    for (ExecutorService executor : executors) {
+      executor.shutdown();
+    }
+    for (int i = 0; i < executors.length; i++) {
+      executors[i].awaitTermination(5, TimeUnit.SECONDS);
+      channelPool.release(channels[i]);
+    }
+  }
+}
@@ -1,22 +1,110 @@
 package chatflow.server.queue.rabbit;
 
+import chatflow.server.metrics.LatencyHistogram;
+import chatflow.server.queue.MessageDeadlines;
 import chatflow.server.queue.MessagePublisher;
+import chatflow.server.queue.PublishResult;
 import chatflow.server.queue.QueueMessage;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import chatflow.server.queue.codec.JsonQueueMessageCodec;
+import chatflow.server.queue.codec.PayloadCompressor;
+import chatflow.server.queue.codec.QueueMessageCodec;
+import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.MessageProperties;
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 /**
  * RabbitMQ publisher using a topic exchange and per-room routing keys.
+ *
+ * <p>When the channel pool runs in confirm-select mode, publishes are tracked by the
+ * channel's {@link ConfirmTracker} and complete asynchronously when the broker confirms
+ * them. At most {@code maxInFlight} publishes may be unconfirmed at once; nacked publishes
+ * are retried with a short backoff on a timer thread that never waits for a channel.
+ *
+ * <p>{@link #publishAsync} applies backpressure: once the maximum number of publishes is
+ * outstanding (unconfirmed with confirms on, queued or in progress otherwise) the caller
+ * blocks until one completes, and gets a failed future after the confirm timeout.
+ *
+ * <p>With ordered lanes enabled every room is published on one fixed channel by one thread
+ * (see {@link PublishLanes}), so messages of a room reach its queue in the order they were
+ * handed to the publisher. A nacked message that is retried is re-sent behind later messages
+ * of its room, so confirms with retries only preserve order in the absence of nacks.
+ *
+ * <p>With {@link MessageDeadlines} configured, each message's AMQP expiration is set to the
+ * time it has left, so the broker drops it once it is stale, and a message that is already
+ * stale when published is skipped and completes with {@link PublishResult#dropped}. Batches
+ * apply the same per-message checks.
+ *
+ * <p>Routing keys come from a {@link RoomRouting}: {@code room.<id>}, or {@code part.<n>} when
+ * rooms are partitioned. A control-lane publisher (see {@link #controlLane}) appends
+ * {@value #CONTROL_ROUTING_SUFFIX}, which reaches the consumer's separate control queues. Those
+ * queues exist only when the consumer declares them, so control publishes are mandatory: with
+ * confirms a publish the broker returns as unroutable fails with
+ * {@link ConfirmTracker.UnroutableException}, and without them it is counted in
+ * {@link #returned()}.
+ *
+ * <p>With a {@link PayloadCompressor}, bodies above its threshold, batch envelopes included,
+ * are compressed and published with its content encoding.
  */
 public final class RabbitMqPublisher implements MessagePublisher {
 
-  private static final ObjectMapper MAPPER = new ObjectMapper();
+  /** Header carrying the publish time in epoch microseconds, for end-to-end latency. */
+  public static final String PUBLISHED_AT_HEADER = "x-published-us";
+
+  /** Suffix of the routing keys used by control-lane publishers. */
+  public static final String CONTROL_ROUTING_SUFFIX = ".control";
+
+  private static final int MAX_PUBLISH_ATTEMPTS = 3;
+  private static final long RETRY_BACKOFF_MS = 50L;
+  private static final int DEFAULT_MAX_OUTSTANDING = 4096;
+  private static final long DEFAULT_BACKPRESSURE_TIMEOUT_MS = 5_000L;
+
+  /** Schedules retries of nacked publishes; its tasks never block. */
+  private static final ScheduledExecutorService RETRY_TIMER =
+      Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "publish-retry");
+        t.setDaemon(true);
+        return t;
+      });
+
+  /** Delivery of publishers created without a tier: persistent, confirms as configured. */
+  private static final DeliveryTier DEFAULT_TIER =
+      new DeliveryTier("default", true, false, 0L, false);
 
   private final ChannelPool channelPool;
   private final String exchangeName;
+  private final QueueMessageCodec codec;
+  private final DeliveryTier tier;
+  private final MessageDeadlines deadlines;
+  private final boolean confirms;
+  private final Semaphore outstanding;
+  private final int maxOutstanding;
+  private final long confirmTimeoutMs;
+  private final long backpressureTimeoutMs;
+  private final PublishLanes lanes;
+  private final RoomRouting routing;
+  private final String routingSuffix;
+  private final boolean mandatory;
+  private final PayloadCompressor compressor;
+
+  private final LongAdder confirmed = new LongAdder();
+  private final LongAdder nacked = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+  private final LongAdder returned = new LongAdder();
 
   /**
    * Creates a publisher.
@@ -25,31 +113,492 @@ public final class RabbitMqPublisher implements MessagePublisher {
    * @param exchangeName topic exchange name
    */
   public RabbitMqPublisher(ChannelPool channelPool, String exchangeName) {
+    this(channelPool, exchangeName, 0, 0L);
+  }
+
+  /**
+   * Creates a publisher that waits for publisher confirms.
+   *
+   * @param channelPool channel pool created with confirms enabled
+   * @param exchangeName topic exchange name
+   * @param maxInFlight maximum number of unconfirmed publishes, or 0 to disable confirms
+   * @param confirmTimeoutMs how long {@link #publish} waits for a confirm
+   */
+  public RabbitMqPublisher(ChannelPool channelPool, String exchangeName, int maxInFlight,
+      long confirmTimeoutMs) {
+    this(channelPool, exchangeName, JsonQueueMessageCodec.INSTANCE, DEFAULT_TIER,
+        MessageDeadlines.NONE, RoomRouting.PER_ROOM, null, maxInFlight, confirmTimeoutMs, null,
+        "");
+  }
+
+  /**
+   * Creates a publisher with a chosen wire format that optionally keeps per-room order by
+   * publishing each room on a fixed lane.
+   *
+   * @param channelPool channel pool; {@code orderedLanes} of its channels are dedicated to
+   *     the lanes
+   * @param exchangeName topic exchange name
+   * @param codec wire format of message bodies
+   * @param deadlines maximum message age per type
+   * @param routing mapping of rooms to routing keys
+   * @param compressor body compression, or null to publish bodies as they are
+   * @param maxInFlight maximum number of unconfirmed publishes, or 0 to disable confirms
+   * @param confirmTimeoutMs how long {@link #publish} waits for a confirm
+   * @param orderedLanes number of lanes, at most the pool size, or 0 for unordered publishing
+   * @throws Exception if the lane channels cannot be leased
+   */
+  public RabbitMqPublisher(ChannelPool channelPool, String exchangeName,
+      QueueMessageCodec codec, MessageDeadlines deadlines, RoomRouting routing,
+      PayloadCompressor compressor, int maxInFlight, long confirmTimeoutMs, int orderedLanes)
+      throws Exception {
+    this(channelPool, exchangeName, codec, DEFAULT_TIER, deadlines, routing, compressor,
+        maxInFlight, confirmTimeoutMs,
+        orderedLanes > 0 ? new PublishLanes(channelPool, orderedLanes) : null, "");
+  }
+
+  /**
+   * Creates a publisher for one delivery tier, publishing to the tier's exchange.
+   *
+   * @param channelPool channel pool, created with confirms if the tier uses them
+   * @param mainExchange exchange the room queues are bound to
+   * @param codec wire format of message bodies
+   * @param tier delivery mode, expiration and confirm setting of the messages
+   * @param deadlines maximum message age per type
+   * @param routing mapping of rooms to routing keys
+   * @param compressor body compression, or null to publish bodies as they are
+   * @param maxOutstanding maximum number of outstanding publishes
+   * @param confirmTimeoutMs how long {@link #publish} waits for a confirm
+   */
+  public RabbitMqPublisher(ChannelPool channelPool, String mainExchange,
+      QueueMessageCodec codec, DeliveryTier tier, MessageDeadlines deadlines, RoomRouting routing,
+      PayloadCompressor compressor, int maxOutstanding, long confirmTimeoutMs) {
+    this(channelPool, tier.exchangeFor(mainExchange), codec, tier, deadlines, routing,
+        compressor, tier.isConfirms() ? requirePositive(maxOutstanding) : 0, confirmTimeoutMs,
+        null, "");
+  }
+
+  private RabbitMqPublisher(ChannelPool channelPool, String exchangeName,
+      QueueMessageCodec codec, DeliveryTier tier, MessageDeadlines deadlines, RoomRouting routing,
+      PayloadCompressor compressor, int maxInFlight, long confirmTimeoutMs, PublishLanes lanes,
+      String routingSuffix) {
     this.channelPool = Objects.requireNonNull(channelPool, "channelPool");
     this.exchangeName = Objects.requireNonNull(exchangeName, "exchangeName");
+    this.codec = Objects.requireNonNull(codec, "codec");
+    this.tier = Objects.requireNonNull(tier, "tier");
+    this.deadlines = Objects.requireNonNull(deadlines, "deadlines");
+    this.routing = Objects.requireNonNull(routing, "routing");
+    this.compressor = compressor;
+    this.confirms = maxInFlight > 0;
+    this.maxOutstanding = confirms ? maxInFlight : DEFAULT_MAX_OUTSTANDING;
+    this.outstanding = new Semaphore(maxOutstanding);
+    this.confirmTimeoutMs = confirmTimeoutMs;
+    this.backpressureTimeoutMs = confirms ? confirmTimeoutMs : DEFAULT_BACKPRESSURE_TIMEOUT_MS;
+    this.lanes = lanes;
+    this.routingSuffix = routingSuffix;
+    this.mandatory = !routingSuffix.isEmpty();
+    if (mandatory) {
+      channelPool.addReturnListener((code, text, exchange, key, properties, returnedBody) -> {
+        returned.increment();
+        if (returned.sum() == 1) {
+          System.out.println("Control publish to " + key + " returned by broker (" + text
+              + "); are the consumer's control queues declared?");
+        }
+      });
+    }
+  }
+
+  /**
+   * Creates a publisher for control messages, routed to the rooms' control queues.
+   *
+   * @param channelPool channel pool used only by this publisher
+   * @param exchangeName topic exchange name
+   * @param codec wire format of message bodies
+   * @param deadlines maximum message age per type
+   * @param routing mapping of rooms to routing keys
+   * @param compressor body compression, or null to publish bodies as they are
+   * @param maxInFlight maximum number of unconfirmed publishes, or 0 to disable confirms
+   * @param confirmTimeoutMs how long {@link #publish} waits for a confirm
+   * @return control-lane publisher
+   */
+  public static RabbitMqPublisher controlLane(ChannelPool channelPool, String exchangeName,
+      QueueMessageCodec codec, MessageDeadlines deadlines, RoomRouting routing,
+      PayloadCompressor compressor, int maxInFlight, long confirmTimeoutMs) {
+    return new RabbitMqPublisher(channelPool, exchangeName, codec, DEFAULT_TIER, deadlines,
+        routing, compressor, maxInFlight, confirmTimeoutMs, null, CONTROL_ROUTING_SUFFIX);
+  }
+
+  private static int requirePositive(int maxOutstanding) {
+    if (maxOutstanding < 1) {
+      throw new IllegalArgumentException("maxOutstanding must be >= 1");
+    }
+    return maxOutstanding;
   }
 
   @Override
-  public void publish(QueueMessage msg) throws Exception {
+  public CompletableFuture<PublishResult> publishAsync(QueueMessage msg) {
     Objects.requireNonNull(msg, "msg");
-    String routingKey = "room." + msg.getRoomId();
-    byte[] body = MAPPER.writeValueAsString(msg).getBytes(StandardCharsets.UTF_8);
+    byte[] body;
+    try {
+      body = codec.encode(msg);
+    } catch (Exception e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    String messageId = msg.getMessageId();
+    long remainingMs = deadlines.remainingMillis(msg, System.currentTimeMillis());
+    if (remainingMs <= 0 && deadlines.shed(msg)) {
+      return CompletableFuture.completedFuture(PublishResult.dropped(messageId));
+    }
+    return send(msg.getRoomId(), properties(remainingMs), body)
+        .thenApply(published -> published
+            ? new PublishResult(messageId, confirms)
+            : PublishResult.dropped(messageId));
+  }
+
+  /**
+   * Publishes the messages, leasing a single pooled channel for all of them when neither
+   * confirms nor ordered lanes are on. Batches larger than the outstanding-publish bound are
+   * published in chunks that each fit it, each chunk starting when the previous one is done.
+   * Stale messages are skipped and the control lane publishes mandatory, as for single
+   * messages.
+   */
+  @Override
+  public CompletableFuture<List<PublishResult>> publishBatch(List<QueueMessage> msgs) {
+    if (confirms || lanes != null || msgs.size() < 2) {
+      return MessagePublisher.super.publishBatch(msgs);
+    }
+    List<PublishResult> published = new ArrayList<>(msgs.size());
+    CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+    for (int from = 0; from < msgs.size(); from += maxOutstanding) {
+      List<QueueMessage> chunk =
+          msgs.subList(from, Math.min(msgs.size(), from + maxOutstanding));
+      chain = chain.thenCompose(v -> publishChunk(chunk)).thenAccept(published::addAll);
+    }
+    return chain.thenApply(v -> published);
+  }
+
+  private CompletableFuture<List<PublishResult>> publishChunk(List<QueueMessage> msgs) {
+    List<byte[]> bodies = new ArrayList<>(msgs.size());
+    try {
+      for (QueueMessage msg : msgs) {
+        bodies.add(codec.encode(msg));
+      }
+      acquire(msgs.size());
+    } catch (Exception e) {
+      return CompletableFuture.failedFuture(e);
+    }
+
+    long now = System.currentTimeMillis();
+    CompletableFuture<List<PublishResult>> result = onChannel(null, ch -> {
+      List<PublishResult> published = new ArrayList<>(msgs.size());
+      for (int i = 0; i < msgs.size(); i++) {
+        QueueMessage msg = msgs.get(i);
+        long remainingMs = deadlines.remainingMillis(msg, now);
+        if (remainingMs <= 0 && deadlines.shed(msg)) {
+          published.add(PublishResult.dropped(msg.getMessageId()));
+          continue;
+        }
+        AMQP.BasicProperties props = properties(remainingMs);
+        byte[] body = bodies.get(i);
+        byte[] packed = compressor == null ? null : compressor.compress(body);
+        if (packed != null) {
+          props = props.builder().contentEncoding(PayloadCompressor.CONTENT_ENCODING).build();
+          body = packed;
+        }
+        ch.basicPublish(exchangeName, routingKey(msg.getRoomId()), mandatory, props, body);
+        published.add(new PublishResult(msg.getMessageId(), false));
+      }
+      return published;
+    });
+    result.whenComplete((v, e) -> outstanding.release(msgs.size()));
+    return result;
+  }
+
+  /**
+   * Publishes an already encoded body to the room's routing key.
+   *
+   * <p>Blocks while the maximum number of publishes is outstanding, and fails with a
+   * {@link TimeoutException} if no slot frees up within the confirm timeout. A tier that drops
+   * when busy instead completes at once without publishing, and does the same when every
+   * pooled channel is leased.
+   *
+   * @param roomId room id
+   * @param props message properties
+   * @param body message body
+   * @return future completed with true once the body is published, or confirmed when confirms
+   *     are on, or with false if a drop-when-busy tier dropped it
+   */
+  CompletableFuture<Boolean> send(String roomId, AMQP.BasicProperties props, byte[] body) {
+    byte[] packed = compressor == null ? null : compressor.compress(body);
+    if (packed != null) {
+      return sendEncoded(roomId,
+          props.builder().contentEncoding(PayloadCompressor.CONTENT_ENCODING).build(), packed);
+    }
+    return sendEncoded(roomId, props, body);
+  }
+
+  private CompletableFuture<Boolean> sendEncoded(String roomId, AMQP.BasicProperties props,
+      byte[] body) {
+    if (tier.isDropWhenBusy()) {
+      if (!outstanding.tryAcquire()) {
+        dropped.increment();
+        return CompletableFuture.completedFuture(false);
+      }
+    } else {
+      try {
+        acquire(1);
+      } catch (Exception e) {
+        return CompletableFuture.failedFuture(e);
+      }
+    }
+    String routingKey = routingKey(roomId);
+    CompletableFuture<Boolean> sent;
+    if (confirms) {
+      sent = sendWithRetry(roomId, routingKey, props, body, 1,
+          System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(confirmTimeoutMs));
+    } else {
+      sent = onChannel(roomId, ch -> {
+        ch.basicPublish(exchangeName, routingKey, mandatory, props, body);
+        return true;
+      }, !tier.isDropWhenBusy());
+      if (sent == null) {
+        dropped.increment();
+        sent = CompletableFuture.completedFuture(false);
+      }
+    }
+    sent.whenComplete((v, e) -> outstanding.release());
+    return confirms ? sent.orTimeout(confirmTimeoutMs, TimeUnit.MILLISECONDS) : sent;
+  }
+
+  private String routingKey(String roomId) {
+    return routing.routingKey(roomId) + routingSuffix;
+  }
+
+  private void acquire(int permits) throws InterruptedException, TimeoutException {
+    if (!outstanding.tryAcquire(permits, backpressureTimeoutMs, TimeUnit.MILLISECONDS)) {
+      throw new TimeoutException("Too many outstanding publishes");
+    }
+  }
+
+  /**
+   * Returns whether publishes wait for broker confirms.
+   */
+  boolean confirmsEnabled() {
+    return confirms;
+  }
+
+  /**
+   * Returns the number of confirmed publishes.
+   */
+  public long confirmed() {
+    return confirmed.sum();
+  }
+
+  /**
+   * Returns the number of publishes nacked by the broker, including retried ones.
+   */
+  public long nacked() {
+    return nacked.sum();
+  }
+
+  /**
+   * Returns the number of publishes dropped because a drop-when-busy tier was at its bound or
+   * found no free channel.
+   */
+  public long dropped() {
+    return dropped.sum();
+  }
 
+  /**
+   * Returns the number of control publishes the broker returned because no queue was bound
+   * for their routing key.
+   */
+  public long returned() {
+    return returned.sum();
+  }
+
+  /**
+   * Returns the delivery tier of this publisher.
+   */
+  public DeliveryTier getTier() {
+    return tier;
+  }
+
+  private CompletableFuture<Boolean> sendWithRetry(String roomId, String routingKey,
+      AMQP.BasicProperties props, byte[] body, int attempt, long deadlineNanos) {
+    // Retries run on the retry timer, which must never block, so they only take a free
+    // channel and otherwise try again after the backoff.
+    boolean retry = attempt > 1;
+    CompletableFuture<Void> sent;
+    try {
+      sent = sendConfirmed(roomId, routingKey, props, body, !retry && !tier.isDropWhenBusy());
+    } catch (Exception e) {
+      sent = CompletableFuture.failedFuture(e);
+    }
+    if (sent == null) {
+      if (!retry) {
+        dropped.increment();
+        return CompletableFuture.completedFuture(false);
+      }
+      if (System.nanoTime() - deadlineNanos >= 0) {
+        return CompletableFuture.failedFuture(
+            new TimeoutException("No channel free to retry a nacked publish"));
+      }
+      return later(RETRY_BACKOFF_MS,
+          () -> sendWithRetry(roomId, routingKey, props, body, attempt, deadlineNanos));
+    }
+    return sent.handle((v, e) -> {
+      if (e == null) {
+        confirmed.increment();
+        return CompletableFuture.completedFuture(true);
+      }
+      Throwable cause = e instanceof CompletionException && e.getCause() != null
+          ? e.getCause()
+          : e;
+      if (cause instanceof ConfirmTracker.NackException) {
+        nacked.increment();
+        if (attempt < MAX_PUBLISH_ATTEMPTS) {
+          return later(RETRY_BACKOFF_MS * attempt,
+              () -> sendWithRetry(roomId, routingKey, props, body, attempt + 1, deadlineNanos));
+        }
+      }
+      return CompletableFuture.<Boolean>failedFuture(cause);
+    }).thenCompose(f -> f);
+  }
+
+  /**
+   * Runs the action on the retry timer after the delay.
+   */
+  private static <T> CompletableFuture<T> later(long delayMs,
+      Supplier<CompletableFuture<T>> action) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    RETRY_TIMER.schedule(() -> {
+      try {
+        action.get().whenComplete((v, e) -> {
+          if (e == null) {
+            result.complete(v);
+          } else {
+            result.completeExceptionally(e);
+          }
+        });
+      } catch (RuntimeException e) {
+        result.completeExceptionally(e);
+      }
+    }, delayMs, TimeUnit.MILLISECONDS);
+    return result;
+  }
+
+  /**
+   * Publishes with a confirm, or returns null if {@code wait} is false and no channel is free.
+   */
+  private CompletableFuture<Void> sendConfirmed(String roomId, String routingKey,
+      AMQP.BasicProperties props, byte[] body, boolean wait) {
+    CompletableFuture<CompletableFuture<Void>> published = onChannel(roomId, ch -> {
+      ConfirmTracker tracker = channelPool.confirmTracker(ch);
+      if (tracker == null) {
+        throw new IllegalStateException("Channel pool was created without confirms");
+      }
+      long seqNo = ch.getNextPublishSeqNo();
+      CompletableFuture<Void> registered = tracker.register(seqNo);
+      try {
+        if (mandatory) {
+          Map<String, Object> headers = new HashMap<>(props.getHeaders());
+          headers.put(ConfirmTracker.SEQ_NO_HEADER, seqNo);
+          AMQP.BasicProperties tagged = props.builder().headers(headers).build();
+          ch.basicPublish(exchangeName, routingKey, true, tagged, body);
+        } else {
+          ch.basicPublish(exchangeName, routingKey, props, body);
+        }
+      } catch (Exception e) {
+        tracker.deregister(seqNo);
+        registered.completeExceptionally(e);
+      }
+      return registered;
+    }, wait);
+    return published == null ? null : published.thenCompose(f -> f);
+  }
+
+  /**
+   * Runs the task on the room's lane, or on any pooled channel when lanes are disabled.
+   */
+  private <T> CompletableFuture<T> onChannel(String roomId, PublishLanes.ChannelTask<T> task) {
+    return onChannel(roomId, task, true);
+  }
+
+  /**
+   * Runs the task on the room's lane, or on a pooled channel when lanes are disabled. Unless
+   * {@code wait} is set, returns null instead of waiting for a pooled channel to free up.
+   */
+  private <T> CompletableFuture<T> onChannel(String roomId, PublishLanes.ChannelTask<T> task,
+      boolean wait) {
+    if (lanes != null) {
+      return lanes.submit(roomId, task);
+    }
     Channel ch = null;
     try {
-      ch = channelPool.borrow();
-      ch.basicPublish(
-          exchangeName,
-          routingKey,
-          MessageProperties.PERSISTENT_TEXT_PLAIN,
-          body);
+      ch = wait ? channelPool.borrow() : channelPool.tryBorrow();
+      if (ch == null) {
+        return null;
+      }
+      return CompletableFuture.completedFuture(task.run(ch));
+    } catch (Exception e) {
+      if (e instanceof InterruptedException) {
+        Thread.currentThread().interrupt();
+      }
+      return CompletableFuture.failedFuture(e);
     } finally {
       channelPool.release(ch);
     }
   }
 
+  private AMQP.BasicProperties properties(long remainingMs) {
+    AMQP.BasicProperties.Builder builder = messageBuilder(LatencyHistogram.nowMicros());
+    long tierTtl = tier.getExpirationMs() > 0 ? tier.getExpirationMs() : Long.MAX_VALUE;
+    if (remainingMs < tierTtl) {
+      builder.expiration(Long.toString(Math.max(0L, remainingMs)));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Returns the properties of a single message.
+   *
+   * @param publishedAtMicros publish time in epoch microseconds
+   */
+  AMQP.BasicProperties messageProperties(long publishedAtMicros) {
+    return messageBuilder(publishedAtMicros).build();
+  }
+
+  private AMQP.BasicProperties.Builder messageBuilder(long publishedAtMicros) {
+    return tier.apply(MessageProperties.PERSISTENT_BASIC.builder())
+        .contentType(codec.contentType())
+        .headers(Map.of(PUBLISHED_AT_HEADER, publishedAtMicros));
+  }
+
+  /**
+   * Returns the properties of a batch envelope.
+   *
+   * @param publishedAtMicros publish time of the oldest message in the batch
+   */
+  AMQP.BasicProperties batchProperties(long publishedAtMicros) {
+    return tier.apply(MessageProperties.PERSISTENT_BASIC.builder())
+        .contentType(BatchEnvelope.CONTENT_TYPE)
+        .headers(Map.of(PUBLISHED_AT_HEADER, publishedAtMicros,
+            BatchEnvelope.ENTRY_TYPE_HEADER, codec.contentType()))
+        .build();
+  }
+
+  /**
+   * Encodes a message the way {@link #publish} puts it on the wire.
+   */
+  byte[] encode(QueueMessage msg) throws IOException {
+    return codec.encode(msg);
+  }
+
   @Override
   public void close() throws Exception {
+    if (lanes != null) {
+      lanes.close();
+    }
     channelPool.close();
   }
 }
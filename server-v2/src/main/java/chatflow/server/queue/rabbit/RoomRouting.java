@@ -0,0 +1,77 @@
+package chatflow.server.queue.rabbit;
+
+/**
+ * Maps rooms to routing keys.
+ *
+ * <p>By default every room has its own key, {@code room.<id>}. With partitioning, rooms are
+ * spread over a fixed number of partitions with a stable hash and routed as
+ * {@code part.<n>}, so the number of queues and bindings no longer grows with the number of
+ * rooms. The hash must stay identical to the consumer's copy of this class.
+ */
+public final class RoomRouting {
+
+  /** One routing key per room. */
+  public static final RoomRouting PER_ROOM = new RoomRouting(0);
+
+  private final int partitions;
+
+  private RoomRouting(int partitions) {
+    this.partitions = partitions;
+  }
+
+  /**
+   * Returns routing over a fixed number of partitions.
+   *
+   * @param partitions number of partitions, or 0 for one routing key per room
+   * @return room routing
+   */
+  public static RoomRouting partitioned(int partitions) {
+    if (partitions < 0) {
+      throw new IllegalArgumentException("partitions must be >= 0");
+    }
+    return partitions == 0 ? PER_ROOM : new RoomRouting(partitions);
+  }
+
+  /**
+   * Returns the number of partitions, or 0 if every room has its own key.
+   */
+  public int partitions() {
+    return partitions;
+  }
+
+  /**
+   * Returns the partition a room belongs to.
+   *
+   * @param roomId room id
+   * @return partition in {@code [0, partitions)}
+   */
+  public int partitionOf(String roomId) {
+    if (partitions == 0) {
+      throw new IllegalStateException("Routing is not partitioned");
+    }
+    // String.hashCode is specified, so the mapping is the same in every JVM; the finalizer
+    // of MurmurHash3 spreads sequential room ids evenly.
+    int h = roomId.hashCode();
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return Math.floorMod(h, partitions);
+  }
+
+  /**
+   * Returns the routing key of a room.
+   *
+   * @param roomId room id
+   * @return {@code room.<id>}, or {@code part.<n>} when partitioned
+   */
+  public String routingKey(String roomId) {
+    return partitions == 0 ? "room." + roomId : "part." + partitionOf(roomId);
+  }
+
+  @Override
+  public String toString() {
+    return partitions == 0 ? "per-room" : partitions + " partitions";
+  }
+}
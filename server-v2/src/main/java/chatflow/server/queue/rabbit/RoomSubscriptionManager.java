@@ -0,0 +1,210 @@
+package chatflow.server.queue.rabbit;
+
+import chatflow.server.room.RoomManager;
+import chatflow.server.room.RoomMembershipListener;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps a server queue's room bindings, and the matching control-lane bindings, in line with
+ * local room membership.
+ *
+ * <p>Rooms are bound by their {@link RoomRouting} key. With partitioned routing several rooms
+ * share a key, which is bound while any of its rooms has local sessions; the queue then also
+ * receives messages of the partition's other rooms, which have nobody to broadcast to.
+ *
+ * <p>A room is bound as soon as it gets its first local session. When the last session
+ * leaves, the unbind is delayed by a debounce interval and skipped if someone rejoins in the
+ * meantime, so rooms with churning membership do not flap. All broker operations run on one
+ * scheduler thread, which owns the set of bound rooms and the channel they use. Failed
+ * operations are retried, on a new channel if the broker closed the old one, and
+ * {@link #reconcile()} rebuilds every binding from current membership after a reconnect.
+ */
+public final class RoomSubscriptionManager implements RoomMembershipListener, AutoCloseable {
+
+  private static final long RETRY_DELAY_MS = 1_000L;
+
+  private final Connection connection;
+  private final String exchangeName;
+  private final String queueName;
+  private final RoomRouting routing;
+  private final RoomManager roomManager;
+  private final long unbindDebounceMs;
+
+  private final Set<String> boundRooms = new HashSet<>();
+  private final Map<String, Integer> roomsPerKey = new HashMap<>();
+  private final Map<String, ScheduledFuture<?>> pendingUnbinds = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService scheduler =
+      Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "room-subscriptions");
+        t.setDaemon(true);
+        return t;
+      });
+
+  private final LongAdder binds = new LongAdder();
+  private final LongAdder unbinds = new LongAdder();
+  private final LongAdder debounced = new LongAdder();
+  private volatile int boundCount;
+  private Channel channel;
+
+  /**
+   * Creates a subscription manager.
+   *
+   * @param connection connection on which the manager opens its channel for bind and unbind
+   *     operations
+   * @param exchangeName topic exchange name
+   * @param queueName server queue to bind
+   * @param routing mapping of rooms to routing keys
+   * @param roomManager room manager that owns local sessions
+   * @param unbindDebounceMs how long a room must stay empty before it is unbound
+   */
+  public RoomSubscriptionManager(Connection connection, String exchangeName, String queueName,
+      RoomRouting routing, RoomManager roomManager, long unbindDebounceMs) {
+    this.connection = Objects.requireNonNull(connection, "connection");
+    this.exchangeName = Objects.requireNonNull(exchangeName, "exchangeName");
+    this.queueName = Objects.requireNonNull(queueName, "queueName");
+    this.routing = Objects.requireNonNull(routing, "routing");
+    this.roomManager = Objects.requireNonNull(roomManager, "roomManager");
+    this.unbindDebounceMs = unbindDebounceMs;
+  }
+
+  @Override
+  public void onRoomActive(String roomId) {
+    ScheduledFuture<?> pending = pendingUnbinds.remove(roomId);
+    if (pending != null && pending.cancel(false)) {
+      debounced.increment();
+    }
+    scheduler.execute(() -> sync(roomId));
+  }
+
+  @Override
+  public void onRoomIdle(String roomId) {
+    ScheduledFuture<?> unbind = scheduler.schedule(() -> {
+      pendingUnbinds.remove(roomId);
+      sync(roomId);
+    }, unbindDebounceMs, TimeUnit.MILLISECONDS);
+    ScheduledFuture<?> previous = pendingUnbinds.put(roomId, unbind);
+    if (previous != null) {
+      previous.cancel(false);
+    }
+  }
+
+  /**
+   * Re-applies every binding from current membership, e.g. after the connection recovered.
+   */
+  public void reconcile() {
+    scheduler.execute(() -> {
+      Set<String> wanted = roomManager.getActiveRooms();
+      Set<String> known = new HashSet<>(boundRooms);
+      boundRooms.clear();
+      roomsPerKey.clear();
+      for (String roomId : wanted) {
+        sync(roomId);
+      }
+      for (String roomId : known) {
+        String key = routing.routingKey(roomId);
+        if (!wanted.contains(roomId) && !roomsPerKey.containsKey(key)) {
+          // Bound before but no longer wanted, and no wanted room shares its key.
+          boundRooms.add(roomId);
+          roomsPerKey.put(key, 1);
+          sync(roomId);
+        }
+      }
+    });
+  }
+
+  /**
+   * Returns the number of routing keys bound.
+   */
+  public long binds() {
+    return binds.sum();
+  }
+
+  /**
+   * Returns the number of routing keys unbound.
+   */
+  public long unbinds() {
+    return unbinds.sum();
+  }
+
+  /**
+   * Returns the number of unbinds avoided because the room was rejoined in time.
+   */
+  public long debounced() {
+    return debounced.sum();
+  }
+
+  /**
+   * Returns the number of rooms currently bound.
+   */
+  public int boundRooms() {
+    return boundCount;
+  }
+
+  private void sync(String roomId) {
+    boolean wanted = roomManager.getSessionCount(roomId) > 0;
+    boolean bound = boundRooms.contains(roomId);
+    if (wanted == bound) {
+      return;
+    }
+    String key = routing.routingKey(roomId);
+    int roomsOnKey = roomsPerKey.getOrDefault(key, 0);
+    try {
+      Channel channel = channel();
+      if (wanted) {
+        if (roomsOnKey == 0) {
+          channel.queueBind(queueName, exchangeName, key);
+          channel.queueBind(queueName, exchangeName,
+              key + RabbitMqPublisher.CONTROL_ROUTING_SUFFIX);
+          binds.increment();
+        }
+        roomsPerKey.put(key, roomsOnKey + 1);
+        boundRooms.add(roomId);
+      } else {
+        if (roomsOnKey == 1) {
+          channel.queueUnbind(queueName, exchangeName, key);
+          channel.queueUnbind(queueName, exchangeName,
+              key + RabbitMqPublisher.CONTROL_ROUTING_SUFFIX);
+          unbinds.increment();
+          roomsPerKey.remove(key);
+        } else {
+          roomsPerKey.put(key, roomsOnKey - 1);
+        }
+        boundRooms.remove(roomId);
+      }
+      boundCount = boundRooms.size();
+    } catch (IOException | RuntimeException e) {
+      System.out.println("Room subscription update failed for room " + roomId + ": "
+          + e.getMessage());
+      scheduler.schedule(() -> sync(roomId), RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Returns the channel for broker operations. A failed bind, e.g. to an exchange that is
+   * gone, closes the channel for good, so retries open a new one rather than fail forever.
+   */
+  private Channel channel() throws IOException {
+    if (channel == null || !channel.isOpen()) {
+      channel = connection.createChannel();
+    }
+    return channel;
+  }
+
+  @Override
+  public void close() {
+    scheduler.shutdownNow();
+  }
+}
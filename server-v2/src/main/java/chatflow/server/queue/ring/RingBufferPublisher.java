@@ -0,0 +1,382 @@
+package chatflow.server.queue.ring;
+
+import chatflow.server.metrics.LatencyHistogram;
+import chatflow.server.queue.MessagePublisher;
+import chatflow.server.queue.PublishResult;
+import chatflow.server.queue.QueueMessage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-process publisher backed by a preallocated multi-producer ring buffer.
+ *
+ * <p>Producers claim a sequence with a CAS on the cursor, fill the slot it maps to and mark
+ * the slot available by storing the sequence's lap number. Each {@link RingConsumer} runs on
+ * its own thread with its own sequence, reads every available slot in order and then
+ * advances its sequence; the slowest consumer gates how far producers may run ahead. No
+ * allocation happens per message beyond the returned future, and nothing leaves the process,
+ * so this publisher suits single-node deployments and runs without a broker.
+ *
+ * <p>A publish completes as soon as the message is in the ring. When the ring is full a
+ * producer waits up to {@code publishTimeoutMs} for consumers to free a slot and then fails
+ * with a {@link TimeoutException}. Idle consumers spin briefly, then yield, then block until
+ * a producer signals them. A slot drops its message once every consumer has handled it.
+ *
+ * <p>{@link #close()} waits for producers already inside a publish to finish, then lets the
+ * consumers drain up to the last claimed sequence, so every publish that reported success is
+ * handled.
+ */
+public final class RingBufferPublisher implements MessagePublisher {
+
+  /** Spinning only helps when the producer can run on another core meanwhile. */
+  private static final int SPIN_TRIES = Runtime.getRuntime().availableProcessors() > 1 ? 100 : 0;
+  private static final int YIELD_TRIES = 100;
+  private static final long MAX_PRODUCER_PARK_NANOS = 100_000L;
+
+  /** Preallocated message holder, overwritten once every consumer has passed it. */
+  private static final class Slot {
+    private QueueMessage message;
+    private long publishedAtMicros;
+  }
+
+  private static final class ConsumerState {
+    private final RingConsumer consumer;
+    private final AtomicLong sequence = new AtomicLong(-1);
+    private final LongAdder errors = new LongAdder();
+    private Thread thread;
+
+    private ConsumerState(RingConsumer consumer) {
+      this.consumer = consumer;
+    }
+  }
+
+  private final int size;
+  private final int mask;
+  private final int indexShift;
+  private final Slot[] slots;
+  private final AtomicIntegerArray available;
+  private final AtomicIntegerArray readers;
+  private final long publishTimeoutNanos;
+
+  private final AtomicLong cursor = new AtomicLong(-1);
+  private volatile long cachedGatingSequence = -1;
+
+  private final List<ConsumerState> pending = new ArrayList<>();
+  private volatile ConsumerState[] consumers;
+  private volatile boolean running;
+  private final AtomicInteger activeProducers = new AtomicInteger();
+  /** Last sequence consumers handle before exiting, set once producers have stopped. */
+  private volatile long stopSequence = Long.MAX_VALUE;
+
+  private final ReentrantLock waitLock = new ReentrantLock();
+  private final Condition published = waitLock.newCondition();
+  private final AtomicInteger blockedConsumers = new AtomicInteger();
+
+  private final LongAdder publishedCount = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+
+  /**
+   * Creates a publisher; register consumers with {@link #subscribe} and then call
+   * {@link #start()}.
+   *
+   * @param size number of slots, a power of two
+   * @param publishTimeoutMs how long a producer waits for a free slot before failing
+   */
+  public RingBufferPublisher(int size, long publishTimeoutMs) {
+    if (size < 1 || Integer.bitCount(size) != 1) {
+      throw new IllegalArgumentException("size must be a power of two");
+    }
+    this.size = size;
+    this.mask = size - 1;
+    this.indexShift = Integer.numberOfTrailingZeros(size);
+    this.slots = new Slot[size];
+    for (int i = 0; i < size; i++) {
+      slots[i] = new Slot();
+    }
+    this.available = new AtomicIntegerArray(size);
+    for (int i = 0; i < size; i++) {
+      available.set(i, -1);
+    }
+    this.readers = new AtomicIntegerArray(size);
+    this.publishTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(publishTimeoutMs);
+  }
+
+  /**
+   * Registers a consumer. Must be called before {@link #start()}.
+   *
+   * @param consumer message handler
+   */
+  public synchronized void subscribe(RingConsumer consumer) {
+    if (consumers != null) {
+      throw new IllegalStateException("Consumers must be registered before start");
+    }
+    pending.add(new ConsumerState(Objects.requireNonNull(consumer, "consumer")));
+  }
+
+  /**
+   * Starts one thread per registered consumer and opens the ring for publishing.
+   */
+  public synchronized void start() {
+    if (consumers != null) {
+      throw new IllegalStateException("Already started");
+    }
+    if (pending.isEmpty()) {
+      throw new IllegalStateException("At least one consumer is required");
+    }
+    ConsumerState[] states = pending.toArray(new ConsumerState[0]);
+    running = true;
+    consumers = states;
+    for (int i = 0; i < states.length; i++) {
+      ConsumerState state = states[i];
+      state.thread = new Thread(() -> consume(state), "ring-consumer-" + i);
+      state.thread.setDaemon(true);
+      state.thread.start();
+    }
+  }
+
+  @Override
+  public CompletableFuture<PublishResult> publishAsync(QueueMessage msg) {
+    Objects.requireNonNull(msg, "msg");
+    // Announce the publish before checking running; close() sets running and then waits for
+    // the announced publishes, so a publish either sees the stop or is drained by it.
+    activeProducers.incrementAndGet();
+    try {
+      if (!running) {
+        return CompletableFuture.failedFuture(
+            new IllegalStateException("Publisher not running"));
+      }
+      long sequence;
+      try {
+        sequence = claim();
+      } catch (TimeoutException e) {
+        rejected.increment();
+        return CompletableFuture.failedFuture(e);
+      }
+      int index = (int) sequence & mask;
+      Slot slot = slots[index];
+      slot.message = msg;
+      slot.publishedAtMicros = LatencyHistogram.nowMicros();
+      ConsumerState[] states = consumers;
+      if (states.length > 1) {
+        readers.set(index, states.length);
+      }
+      available.set(index, (int) (sequence >>> indexShift));
+    } finally {
+      activeProducers.decrementAndGet();
+    }
+    publishedCount.increment();
+    if (blockedConsumers.get() > 0) {
+      signalConsumers();
+    }
+    return CompletableFuture.completedFuture(new PublishResult(msg.getMessageId(), false));
+  }
+
+  private long claim() throws TimeoutException {
+    long deadline = 0;
+    long parkNanos = 1_000L;
+    while (true) {
+      long current = cursor.get();
+      long next = current + 1;
+      long wrapPoint = next - size;
+      if (wrapPoint > cachedGatingSequence) {
+        long gating = minimumConsumerSequence(current);
+        cachedGatingSequence = gating;
+        if (wrapPoint > gating) {
+          long now = System.nanoTime();
+          if (deadline == 0) {
+            deadline = now + publishTimeoutNanos;
+          } else if (now - deadline >= 0) {
+            throw new TimeoutException("Ring buffer full");
+          }
+          LockSupport.parkNanos(parkNanos);
+          parkNanos = Math.min(parkNanos * 2, MAX_PRODUCER_PARK_NANOS);
+          continue;
+        }
+      }
+      if (cursor.compareAndSet(current, next)) {
+        return next;
+      }
+    }
+  }
+
+  private long minimumConsumerSequence(long fallback) {
+    long min = fallback;
+    for (ConsumerState state : consumers) {
+      min = Math.min(min, state.sequence.get());
+    }
+    return min;
+  }
+
+  private boolean isAvailable(long sequence) {
+    return available.get((int) sequence & mask) == (int) (sequence >>> indexShift);
+  }
+
+  private long highestPublished(long from, long upTo) {
+    for (long s = from; s <= upTo; s++) {
+      if (!isAvailable(s)) {
+        return s - 1;
+      }
+    }
+    return upTo;
+  }
+
+  private void consume(ConsumerState state) {
+    boolean shared = consumers.length > 1;
+    long next = state.sequence.get() + 1;
+    while (true) {
+      long highest = waitFor(next);
+      if (highest < next) {
+        // Stopped, and everything published before the stop has been handled.
+        return;
+      }
+      for (long s = next; s <= highest; s++) {
+        int index = (int) s & mask;
+        Slot slot = slots[index];
+        try {
+          state.consumer.onMessage(slot.message, slot.publishedAtMicros, s == highest);
+        } catch (Exception e) {
+          state.errors.increment();
+        }
+        // Producers cannot reuse the slot before this consumer advances its sequence, so the
+        // last reader can drop the message without racing the next lap.
+        if (!shared || readers.decrementAndGet(index) == 0) {
+          slot.message = null;
+        }
+      }
+      state.sequence.set(highest);
+      next = highest + 1;
+    }
+  }
+
+  /**
+   * Waits until {@code sequence} is available and returns the highest contiguous available
+   * sequence, or a value below {@code sequence} once the publisher is stopped and drained.
+   */
+  private long waitFor(long sequence) {
+    int tries = 0;
+    while (true) {
+      long highest = highestPublished(sequence, cursor.get());
+      if (highest >= sequence) {
+        return highest;
+      }
+      if (sequence > stopSequence) {
+        return highest;
+      }
+      if (tries < SPIN_TRIES) {
+        Thread.onSpinWait();
+      } else if (tries < SPIN_TRIES + YIELD_TRIES) {
+        Thread.yield();
+      } else {
+        block(sequence);
+      }
+      tries++;
+    }
+  }
+
+  private void block(long sequence) {
+    blockedConsumers.incrementAndGet();
+    waitLock.lock();
+    try {
+      // Recheck after announcing ourselves, so a producer that published in between
+      // either is seen here or sees the blocked count and signals.
+      if (sequence <= stopSequence && !isAvailable(sequence)) {
+        published.await(10, TimeUnit.MILLISECONDS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      waitLock.unlock();
+      blockedConsumers.decrementAndGet();
+    }
+  }
+
+  private void signalConsumers() {
+    waitLock.lock();
+    try {
+      published.signalAll();
+    } finally {
+      waitLock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of slots.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the number of slots producers can still claim before waiting on consumers.
+   */
+  public long remainingCapacity() {
+    long produced = cursor.get();
+    ConsumerState[] states = consumers;
+    long consumed = states == null ? produced : minimumConsumerSequence(produced);
+    return size - (produced - consumed);
+  }
+
+  /**
+   * Returns the number of messages published into the ring.
+   */
+  public long published() {
+    return publishedCount.sum();
+  }
+
+  /**
+   * Returns the number of publishes that timed out on a full ring.
+   */
+  public long rejected() {
+    return rejected.sum();
+  }
+
+  /**
+   * Returns the number of messages consumers failed on.
+   */
+  public long consumerErrors() {
+    ConsumerState[] states = consumers;
+    long sum = 0;
+    if (states != null) {
+      for (ConsumerState state : states) {
+        sum += state.errors.sum();
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * Stops accepting messages and waits for consumers to handle everything already published.
+   */
+  @Override
+  public void close() throws Exception {
+    ConsumerState[] states;
+    synchronized (this) {
+      states = consumers;
+      running = false;
+    }
+    if (states == null) {
+      return;
+    }
+    // Producers still inside a publish finish within the publish timeout, since consumers
+    // keep freeing slots until the stop sequence is set.
+    while (activeProducers.get() > 0) {
+      LockSupport.parkNanos(MAX_PRODUCER_PARK_NANOS);
+    }
+    stopSequence = cursor.get();
+    signalConsumers();
+    for (ConsumerState state : states) {
+      state.thread.join(TimeUnit.SECONDS.toMillis(5));
+    }
+  }
+}
@@ -0,0 +1,23 @@
+package chatflow.server.queue.ring;
+
+import chatflow.server.queue.QueueMessage;
+
+/**
+ * Handler for messages published to a {@link RingBufferPublisher}.
+ *
+ * <p>Every registered consumer sees every message, in publish order, on its own thread.
+ */
+public interface RingConsumer {
+
+  /**
+   * Handles one message.
+   *
+   * @param message published message
+   * @param publishedAtMicros publish time in epoch microseconds
+   * @param endOfBatch whether this is the last message currently available, which is a good
+   *     point to flush any work buffered across messages
+   * @throws Exception if handling fails; the error is counted and the consumer moves on
+   */
+  void onMessage(QueueMessage message, long publishedAtMicros, boolean endOfBatch)
+      throws Exception;
+}
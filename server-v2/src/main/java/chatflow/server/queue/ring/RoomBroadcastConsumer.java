@@ -0,0 +1,72 @@
+package chatflow.server.queue.ring;
+
+import chatflow.server.broadcast.BroadcastRequest;
+import chatflow.server.metrics.LatencyHistogram;
+import chatflow.server.queue.MessageDeadlines;
+import chatflow.server.queue.QueueMessage;
+import chatflow.server.room.RoomManager;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Consumer that broadcasts in-process published messages to the room's local sessions.
+ *
+ * <p>It plays the part of the embedded queue consumer when messages never leave the server:
+ * it registers on a {@link RingBufferPublisher} as a {@link RingConsumer}, or on an
+ * {@link chatflow.server.queue.InMemoryPublisher} as a plain subscriber. Messages for rooms
+ * without local sessions are skipped before they are serialized, and so are messages older
+ * than their type's maximum age.
+ */
+public final class RoomBroadcastConsumer implements RingConsumer, Consumer<QueueMessage> {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private final RoomManager roomManager;
+  private final MessageDeadlines deadlines;
+  private final LatencyHistogram endToEnd = new LatencyHistogram();
+
+  /**
+   * Creates a consumer.
+   *
+   * @param roomManager room manager that owns local sessions
+   * @param deadlines maximum message age per type
+   */
+  public RoomBroadcastConsumer(RoomManager roomManager, MessageDeadlines deadlines) {
+    this.roomManager = Objects.requireNonNull(roomManager, "roomManager");
+    this.deadlines = Objects.requireNonNull(deadlines, "deadlines");
+  }
+
+  @Override
+  public void onMessage(QueueMessage message, long publishedAtMicros, boolean endOfBatch)
+      throws Exception {
+    broadcast(message);
+    endToEnd.record(LatencyHistogram.nowMicros() - publishedAtMicros);
+  }
+
+  @Override
+  public void accept(QueueMessage message) {
+    try {
+      broadcast(message);
+    } catch (Exception e) {
+      throw new IllegalStateException("Broadcast failed for " + message.getMessageId(), e);
+    }
+  }
+
+  private void broadcast(QueueMessage qm) throws Exception {
+    if (roomManager.getSessionCount(qm.getRoomId()) == 0 || deadlines.shed(qm)) {
+      return;
+    }
+    BroadcastRequest request = new BroadcastRequest(qm.getMessageId(), qm.getRoomId(),
+        qm.getUserId(), qm.getUsername(), qm.getMessage(), qm.getTimestamp(),
+        qm.getMessageType(), qm.getServerId(), qm.getClientIp());
+    roomManager.broadcast(qm.getRoomId(), MAPPER.writeValueAsString(request));
+  }
+
+  /**
+   * Returns the publish-to-broadcast latency histogram; only ring deliveries are recorded.
+   */
+  public LatencyHistogram getEndToEndLatency() {
+    return endToEnd;
+  }
+}
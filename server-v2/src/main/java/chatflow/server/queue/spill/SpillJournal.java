@@ -0,0 +1,302 @@
+package chatflow.server.queue.spill;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of records stored in memory-mapped, fixed-size segment files.
+ *
+ * <p>Each record is a 4-byte length, a 4-byte CRC32 of the payload and the payload. The length
+ * is written last, so a record only becomes visible once it is complete; a length of zero marks
+ * the end of a segment's data. Once a record has been replayed its length is negated in place,
+ * so reopening the journal after a restart resumes with the first record not yet replayed. A
+ * segment is deleted when every record in it has been replayed and writing has moved on to a
+ * newer segment.
+ *
+ * <p>Records live in the page cache as soon as they are appended, so they survive a process
+ * crash; {@link #force()} is needed to survive a host crash. All methods are synchronized.
+ */
+public final class SpillJournal implements AutoCloseable {
+
+  private static final int RECORD_HEADER = 8;
+  private static final String PREFIX = "spill-";
+  private static final String SUFFIX = ".log";
+
+  private static final class Segment {
+    private final long id;
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    private Segment(long id, Path file, int size) throws IOException {
+      this.id = id;
+      this.file = file;
+      this.channel = FileChannel.open(file,
+          StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private void close() throws IOException {
+      buffer.force();
+      channel.close();
+    }
+  }
+
+  private final Path dir;
+  private final int segmentBytes;
+  private final CRC32 crc = new CRC32();
+  private final Deque<Segment> segments = new ArrayDeque<>();
+
+  private Segment readSegment;
+  private int readPos;
+  private int peekedPos = -1;
+  private Segment writeSegment;
+  private int writePos;
+
+  private long pending;
+  private long appended;
+  private long replayed;
+
+  /**
+   * Opens the journal in {@code dir}, picking up any records left by a previous run.
+   *
+   * @param dir directory holding the segment files, created if missing
+   * @param segmentBytes size of each segment file
+   * @throws IOException if the segments cannot be opened or mapped
+   */
+  public SpillJournal(Path dir, int segmentBytes) throws IOException {
+    this.dir = Objects.requireNonNull(dir, "dir");
+    if (segmentBytes < 1024) {
+      throw new IllegalArgumentException("segmentBytes must be >= 1024");
+    }
+    this.segmentBytes = segmentBytes;
+    Files.createDirectories(dir);
+
+    List<Long> ids = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        ids.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+      }
+    }
+    Collections.sort(ids);
+    for (long id : ids) {
+      segments.addLast(new Segment(id, segmentFile(id), segmentBytes));
+    }
+    if (segments.isEmpty()) {
+      segments.addLast(new Segment(0, segmentFile(0), segmentBytes));
+    }
+    recover();
+    if (pending > 0) {
+      System.out.println("Spill journal opened with " + pending + " records to replay: " + dir);
+    }
+  }
+
+  /** Scans every segment for records not yet replayed and finds the append position. */
+  private void recover() throws IOException {
+    for (Segment segment : segments) {
+      int pos = 0;
+      while (true) {
+        int len = validRecordLength(segment, pos);
+        if (len == 0) {
+          break;
+        }
+        if (len > 0) {
+          pending++;
+          if (readSegment == null) {
+            readSegment = segment;
+            readPos = pos;
+          }
+        }
+        pos += RECORD_HEADER + Math.abs(len);
+      }
+      writeSegment = segment;
+      writePos = pos;
+    }
+    if (readSegment == null) {
+      readSegment = writeSegment;
+      readPos = writePos;
+    }
+    dropReplayedSegments();
+  }
+
+  /**
+   * Returns the stored length of the record at {@code pos}: positive if pending, negative if
+   * replayed, zero at the end of the data or if the record is torn or corrupt.
+   */
+  private int validRecordLength(Segment segment, int pos) {
+    MappedByteBuffer buf = segment.buffer;
+    if (pos + RECORD_HEADER > segmentBytes) {
+      return 0;
+    }
+    int len = buf.getInt(pos);
+    int size = Math.abs(len);
+    if (len == 0 || len == Integer.MIN_VALUE || size > segmentBytes - pos - RECORD_HEADER) {
+      return 0;
+    }
+    if (checksum(buf, pos + RECORD_HEADER, size) != buf.getInt(pos + 4)) {
+      return 0;
+    }
+    return len;
+  }
+
+  private int checksum(MappedByteBuffer buf, int off, int len) {
+    crc.reset();
+    crc.update(buf.slice(off, len));
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Appends a record.
+   *
+   * @param record payload
+   * @throws IOException if a new segment cannot be created
+   */
+  public synchronized void append(byte[] record) throws IOException {
+    if (record.length == 0 || record.length > segmentBytes - RECORD_HEADER) {
+      throw new IllegalArgumentException("record size must be between 1 and "
+          + (segmentBytes - RECORD_HEADER) + " bytes");
+    }
+    if (writePos + RECORD_HEADER + record.length > segmentBytes) {
+      rotate();
+    }
+    MappedByteBuffer buf = writeSegment.buffer;
+    buf.put(writePos + RECORD_HEADER, record);
+    crc.reset();
+    crc.update(record);
+    buf.putInt(writePos + 4, (int) crc.getValue());
+    buf.putInt(writePos, record.length);
+    writePos += RECORD_HEADER + record.length;
+    pending++;
+    appended++;
+  }
+
+  private void rotate() throws IOException {
+    writeSegment.buffer.force();
+    long id = writeSegment.id + 1;
+    writeSegment = new Segment(id, segmentFile(id), segmentBytes);
+    writePos = 0;
+    segments.addLast(writeSegment);
+  }
+
+  /**
+   * Returns the oldest record not yet replayed without consuming it.
+   *
+   * @return payload, or null if every record has been replayed
+   */
+  public synchronized byte[] peek() {
+    while (true) {
+      int len = readSegment == writeSegment && readPos >= writePos
+          ? 0 : validRecordLength(readSegment, readPos);
+      if (len > 0) {
+        byte[] record = new byte[len];
+        readSegment.buffer.get(readPos + RECORD_HEADER, record);
+        peekedPos = readPos;
+        return record;
+      }
+      if (len < 0) {
+        readPos += RECORD_HEADER - len;
+        continue;
+      }
+      if (readSegment == writeSegment) {
+        return null;
+      }
+      nextReadSegment();
+    }
+  }
+
+  /**
+   * Marks the record returned by the last {@link #peek()} as replayed.
+   */
+  public synchronized void commit() {
+    if (peekedPos < 0) {
+      throw new IllegalStateException("Nothing peeked");
+    }
+    int len = readSegment.buffer.getInt(peekedPos);
+    readSegment.buffer.putInt(peekedPos, -len);
+    readPos = peekedPos + RECORD_HEADER + len;
+    peekedPos = -1;
+    pending--;
+    replayed++;
+  }
+
+  private void nextReadSegment() {
+    delete(segments.pollFirst());
+    readSegment = segments.peekFirst();
+    readPos = 0;
+  }
+
+  private void dropReplayedSegments() {
+    while (segments.peekFirst() != readSegment) {
+      delete(segments.pollFirst());
+    }
+  }
+
+  private static void delete(Segment segment) {
+    try {
+      segment.close();
+      Files.deleteIfExists(segment.file);
+    } catch (IOException e) {
+      System.out.println("Failed to delete spill segment " + segment.file + ": "
+          + e.getMessage());
+    }
+  }
+
+  /**
+   * Returns the number of records appended but not yet replayed.
+   */
+  public synchronized long pending() {
+    return pending;
+  }
+
+  /**
+   * Returns the number of records appended since the journal was opened.
+   */
+  public synchronized long appended() {
+    return appended;
+  }
+
+  /**
+   * Returns the number of records replayed since the journal was opened.
+   */
+  public synchronized long replayed() {
+    return replayed;
+  }
+
+  /**
+   * Returns the number of segment files in use.
+   */
+  public synchronized int segmentCount() {
+    return segments.size();
+  }
+
+  /**
+   * Flushes the segment being written to disk.
+   */
+  public synchronized void force() {
+    writeSegment.buffer.force();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    for (Segment segment : segments) {
+      segment.close();
+    }
+  }
+
+  private Path segmentFile(long id) {
+    return dir.resolve(String.format("%s%020d%s", PREFIX, id, SUFFIX));
+  }
+}
@@ -0,0 +1,273 @@
+package chatflow.server.queue.spill;
+
+import chatflow.server.queue.MessagePublisher;
+import chatflow.server.queue.PublishResult;
+import chatflow.server.queue.QueueMessage;
+import chatflow.server.queue.codec.BinaryQueueMessageCodec;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Circuit-breaking publisher that spills messages to a local {@link SpillJournal} while the
+ * broker is unhealthy and replays them once it recovers.
+ *
+ * <p>The circuit opens after {@code failureThreshold} consecutive failed publishes, or while
+ * the health check reports the broker as unreachable or blocked. While it is open, messages go
+ * to the journal and their futures complete with {@link PublishResult#isQueuedLocally()} set.
+ * A failed publish is spilled as well, so it is not lost while the circuit is still closed.
+ *
+ * <p>A replay thread wakes every {@value #TICK_MS} ms. Once the circuit has been open for
+ * {@code retryMs}, it republishes the oldest journal record as a probe. Success closes the
+ * circuit and replay continues at no more than {@code replayPerSecond}, so a recovering broker
+ * is not flooded. Failure keeps the circuit open for another {@code retryMs}. New messages go
+ * straight to the broker during replay, so a replayed message can arrive after messages sent
+ * later; consumers deduplicate by message id, so a record replayed twice after a crash is
+ * harmless.
+ */
+public final class SpillingPublisher implements MessagePublisher {
+
+  private static final long TICK_MS = 10;
+  private static final long FORCE_INTERVAL_MS = 1_000;
+
+  private final MessagePublisher delegate;
+  private final SpillJournal journal;
+  private final BooleanSupplier brokerHealthy;
+  private final int failureThreshold;
+  private final long retryMs;
+  private final long replayPerSecond;
+  private final ScheduledExecutorService replayer;
+
+  private final AtomicInteger consecutiveFailures = new AtomicInteger();
+  private volatile boolean open;
+  private volatile long retryAtMillis;
+
+  private double replayAllowance;
+  private long lastTickMillis = System.currentTimeMillis();
+  private long lastForceMillis = lastTickMillis;
+  private long forcedAppends;
+
+  private final LongAdder spilled = new LongAdder();
+  private final LongAdder replayed = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+  private final LongAdder opens = new LongAdder();
+
+  /**
+   * Creates a spilling publisher and starts its replay thread.
+   *
+   * @param delegate publisher used while the broker is healthy, closed together with this one
+   * @param journal journal for spilled messages, closed together with this one
+   * @param brokerHealthy returns false while the broker cannot take publishes
+   * @param failureThreshold consecutive publish failures that open the circuit
+   * @param retryMs how long the circuit stays open before a replay probe
+   * @param replayPerSecond maximum rate at which spilled messages are replayed
+   */
+  public SpillingPublisher(MessagePublisher delegate, SpillJournal journal,
+      BooleanSupplier brokerHealthy, int failureThreshold, long retryMs, long replayPerSecond) {
+    this.delegate = Objects.requireNonNull(delegate, "delegate");
+    this.journal = Objects.requireNonNull(journal, "journal");
+    this.brokerHealthy = Objects.requireNonNull(brokerHealthy, "brokerHealthy");
+    if (failureThreshold < 1) {
+      throw new IllegalArgumentException("failureThreshold must be >= 1");
+    }
+    if (replayPerSecond < 1) {
+      throw new IllegalArgumentException("replayPerSecond must be >= 1");
+    }
+    this.failureThreshold = failureThreshold;
+    this.retryMs = retryMs;
+    this.replayPerSecond = replayPerSecond;
+    if (journal.pending() > 0) {
+      // Records left by a previous run are replayed like after an outage.
+      openCircuit("journal has " + journal.pending() + " records from a previous run");
+    }
+    this.replayer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "spill-replay");
+      t.setDaemon(true);
+      return t;
+    });
+    replayer.scheduleWithFixedDelay(this::tick, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public CompletableFuture<PublishResult> publishAsync(QueueMessage msg) {
+    Objects.requireNonNull(msg, "msg");
+    if (open || !brokerHealthy.getAsBoolean()) {
+      return spill(msg);
+    }
+    CompletableFuture<PublishResult> published;
+    try {
+      published = delegate.publishAsync(msg);
+    } catch (RuntimeException e) {
+      published = CompletableFuture.failedFuture(e);
+    }
+    return published
+        .thenApply(result -> {
+          consecutiveFailures.set(0);
+          return result;
+        })
+        .exceptionallyCompose(e -> {
+          recordFailure(e);
+          return spill(msg);
+        });
+  }
+
+  private CompletableFuture<PublishResult> spill(QueueMessage msg) {
+    try {
+      journal.append(BinaryQueueMessageCodec.INSTANCE.encode(msg));
+    } catch (IOException | RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    spilled.increment();
+    return CompletableFuture.completedFuture(PublishResult.queuedLocally(msg.getMessageId()));
+  }
+
+  private void recordFailure(Throwable cause) {
+    if (consecutiveFailures.incrementAndGet() >= failureThreshold && !open) {
+      openCircuit(String.valueOf(cause));
+    }
+  }
+
+  private synchronized void openCircuit(String reason) {
+    retryAtMillis = System.currentTimeMillis() + retryMs;
+    if (!open) {
+      open = true;
+      opens.increment();
+      System.out.println("Broker unavailable, spilling publishes to journal: " + reason);
+    }
+  }
+
+  private synchronized void closeCircuit() {
+    consecutiveFailures.set(0);
+    if (open) {
+      open = false;
+      System.out.println("Broker recovered, replaying " + journal.pending()
+          + " spilled messages at up to " + replayPerSecond + "/s");
+    }
+  }
+
+  private void tick() {
+    long now = System.currentTimeMillis();
+    long elapsed = now - lastTickMillis;
+    lastTickMillis = now;
+    forceIfDue(now);
+
+    if (!brokerHealthy.getAsBoolean()) {
+      if (!open) {
+        openCircuit("health check failed");
+      }
+      return;
+    }
+    if (open && now < retryAtMillis) {
+      return;
+    }
+    // Allow at most a tenth of a second's worth of replay to build up.
+    replayAllowance = Math.min(replayAllowance + replayPerSecond * elapsed / 1000.0,
+        Math.max(1.0, replayPerSecond / 10.0));
+    if (open) {
+      replayAllowance = Math.max(replayAllowance, 1.0);
+    }
+    while (replayAllowance >= 1.0) {
+      byte[] record = journal.peek();
+      if (record == null) {
+        if (open) {
+          closeCircuit();
+        }
+        return;
+      }
+      QueueMessage msg;
+      try {
+        msg = BinaryQueueMessageCodec.INSTANCE.decode(record);
+      } catch (IOException e) {
+        dropped.increment();
+        journal.commit();
+        continue;
+      }
+      try {
+        delegate.publish(msg);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (Exception e) {
+        openCircuit("replay failed: " + e);
+        return;
+      }
+      journal.commit();
+      replayed.increment();
+      replayAllowance -= 1.0;
+      if (open) {
+        closeCircuit();
+      }
+    }
+  }
+
+  private void forceIfDue(long now) {
+    if (now - lastForceMillis < FORCE_INTERVAL_MS) {
+      return;
+    }
+    lastForceMillis = now;
+    long appended = journal.appended();
+    if (appended != forcedAppends) {
+      forcedAppends = appended;
+      journal.force();
+    }
+  }
+
+  /**
+   * Returns whether publishes currently go to the journal.
+   */
+  public boolean isOpen() {
+    return open;
+  }
+
+  /**
+   * Returns the number of messages written to the journal.
+   */
+  public long spilled() {
+    return spilled.sum();
+  }
+
+  /**
+   * Returns the number of journal messages republished to the broker.
+   */
+  public long replayed() {
+    return replayed.sum();
+  }
+
+  /**
+   * Returns the number of journal records dropped because they could not be decoded.
+   */
+  public long dropped() {
+    return dropped.sum();
+  }
+
+  /**
+   * Returns how many times the circuit has opened.
+   */
+  public long opens() {
+    return opens.sum();
+  }
+
+  /**
+   * Returns the journal.
+   */
+  public SpillJournal getJournal() {
+    return journal;
+  }
+
+  @Override
+  public void close() throws Exception {
+    replayer.shutdown();
+    replayer.awaitTermination(5, TimeUnit.SECONDS);
+    try {
+      delegate.close();
+    } finally {
+      journal.close();
+    }
+  }
+}
@@ -1,7 +1,9 @@
 package chatflow.server.room;
 
 import chatflow.server.model.UserInfo;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.atomic.AtomicLong;
 import org.java_websocket.WebSocket;
@@ -15,10 +17,29 @@ public class RoomManager {
 
   private final ConcurrentHashMap<WebSocket, UserInfo> sessionUserMap = new ConcurrentHashMap<>();
 
+  private final CopyOnWriteArrayList<RoomMembershipListener> listeners =
+      new CopyOnWriteArrayList<>();
+
   public final AtomicLong messagesProcessed = new AtomicLong(0);
 
+  public void addMembershipListener(RoomMembershipListener listener) {
+    listeners.add(listener);
+  }
+
   public void addSession(String roomId, WebSocket ws) {
-    roomSessions.computeIfAbsent(roomId, k -> new CopyOnWriteArraySet<>()).add(ws);
+    boolean[] activated = new boolean[1];
+    roomSessions.compute(roomId, (k, sessions) -> {
+      if (sessions == null) {
+        sessions = new CopyOnWriteArraySet<>();
+      }
+      activated[0] = sessions.add(ws) && sessions.size() == 1;
+      return sessions;
+    });
+    if (activated[0]) {
+      for (RoomMembershipListener listener : listeners) {
+        listener.onRoomActive(roomId);
+      }
+    }
   }
 
   public void registerUser(WebSocket ws, UserInfo userInfo) {
@@ -27,9 +48,18 @@ public class RoomManager {
   }
 
   public void removeSession(String roomId, WebSocket ws) {
-    CopyOnWriteArraySet<WebSocket> sessions = roomSessions.get(roomId);
-    if (sessions != null) {
-      sessions.remove(ws);
+    boolean[] idled = new boolean[1];
+    roomSessions.computeIfPresent(roomId, (k, sessions) -> {
+      if (sessions.remove(ws) && sessions.isEmpty()) {
+        idled[0] = true;
+        return null;
+      }
+      return sessions;
+    });
+    if (idled[0]) {
+      for (RoomMembershipListener listener : listeners) {
+        listener.onRoomIdle(roomId);
+      }
     }
     UserInfo userInfo = sessionUserMap.remove(ws);
     if (userInfo != null) {
@@ -58,4 +88,8 @@ public class RoomManager {
     return sessions == null ? 0 : sessions.size();
   }
 
+  public Set<String> getActiveRooms() {
+    return Set.copyOf(roomSessions.keySet());
+  }
+
 }
@@ -0,0 +1,25 @@
+package chatflow.server.room;
+
+/**
+ * Receives notifications when a room gains its first or loses its last local session.
+ *
+ * <p>Callbacks run on the thread that changed the membership and may arrive out of order
+ * under concurrent joins and leaves, so listeners should re-check
+ * {@link RoomManager#getSessionCount(String)} rather than trust the event alone.
+ */
+public interface RoomMembershipListener {
+
+  /**
+   * Called after a room goes from zero to one local session.
+   *
+   * @param roomId room id
+   */
+  void onRoomActive(String roomId);
+
+  /**
+   * Called after a room goes from one to zero local sessions.
+   *
+   * @param roomId room id
+   */
+  void onRoomIdle(String roomId);
+}
@@ -10,11 +10,14 @@ import java.util.regex.Pattern;
  * Validates incoming {@link ChatMessage} instances against required formatting and constraints.
  *
  * <p>This validator checks user ID range, username format, message length, ISO-8601 timestamp parsing,
- * and supported message types (TEXT, JOIN, LEAVE). It returns a list of human-readable error messages.
+ * supported message types (TEXT, JOIN, LEAVE) and the optional client message ID. It returns a list
+ * of human-readable error messages.
  */
 public final class MessageValidator {
 
   private static final Pattern USERNAME_PATTERN = Pattern.compile("^[A-Za-z0-9]{3,20}$");
+  private static final Pattern CLIENT_MESSAGE_ID_PATTERN =
+      Pattern.compile("^[A-Za-z0-9_.:-]{1,64}$");
 
   private MessageValidator() {}
 
@@ -37,6 +40,7 @@ public final class MessageValidator {
     validateMessage(chatMessage.getMessage(), errors);
     validateTimeStamp(chatMessage.getTimestamp(), errors);
     validateMessageType(chatMessage.getMessageType(), errors);
+    validateClientMessageId(chatMessage.getClientMessageId(), errors);
 
     return errors;
   }
@@ -136,4 +140,19 @@ public final class MessageValidator {
       errors.add("MessageType must be one of " + validMessageTypes);
     }
   }
+
+  /**
+   * Validates the optional client message ID used as an idempotency key.
+   *
+   * @param clientMessageId the client message ID, may be null
+   * @param errors the error list to append to
+   */
+  private static void validateClientMessageId(String clientMessageId, List<String> errors) {
+    if (clientMessageId == null) {
+      return;
+    }
+    if (!CLIENT_MESSAGE_ID_PATTERN.matcher(clientMessageId).matches()) {
+      errors.add("ClientMessageId must be 1-64 characters of [A-Za-z0-9_.:-]");
+    }
+  }
 }
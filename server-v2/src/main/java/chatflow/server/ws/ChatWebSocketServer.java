@@ -3,10 +3,13 @@ package chatflow.server.ws;
 import chatflow.server.model.ChatMessage;
 import chatflow.server.model.ChatResponse;
 import chatflow.server.model.UserInfo;
+import chatflow.server.queue.IdempotencyCache;
 import chatflow.server.queue.MessagePublisher;
+import chatflow.server.queue.PublishResult;
 import chatflow.server.queue.QueueMessage;
 import chatflow.server.room.RoomManager;
 import chatflow.server.validation.MessageValidator;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.net.InetSocketAddress;
 import java.time.Instant;
@@ -14,6 +17,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import org.java_websocket.WebSocket;
 import org.java_websocket.handshake.ClientHandshake;
@@ -30,6 +34,7 @@ public class ChatWebSocketServer extends WebSocketServer {
   private final MessagePublisher publisher;
   private final String serverId;
   private final RoomManager roomManager;
+  private final IdempotencyCache idempotencyCache;
 
   /**
    * Creates a chat WebSocket server.
@@ -38,13 +43,15 @@ public class ChatWebSocketServer extends WebSocketServer {
    * @param publisher queue publisher
    * @param serverId server identifier
    * @param roomManager room manager
+   * @param idempotencyCache window of client message IDs already published
    */
   public ChatWebSocketServer(int port, MessagePublisher publisher, String serverId,
-      RoomManager roomManager) {
+      RoomManager roomManager, IdempotencyCache idempotencyCache) {
     super(new InetSocketAddress(port));
     this.publisher = Objects.requireNonNull(publisher, "publisher");
     this.serverId = Objects.requireNonNull(serverId, "serverId");
     this.roomManager = roomManager;
+    this.idempotencyCache = Objects.requireNonNull(idempotencyCache, "idempotencyCache");
   }
 
   @Override
@@ -64,8 +71,14 @@ public class ChatWebSocketServer extends WebSocketServer {
 
   @Override
   public void onMessage(WebSocket webSocket, String s) {
+    ChatMessage msg;
+    try {
+      msg = MAPPER.readValue(s, ChatMessage.class);
+    } catch (JsonProcessingException e) {
+      sendError(webSocket, "Invalid JSON");
+      return;
+    }
     try {
-      ChatMessage msg = MAPPER.readValue(s, ChatMessage.class);
       List<String> errors = MessageValidator.validate(msg);
 
       ChatResponse chatResponse = new ChatResponse();
@@ -94,23 +107,78 @@ public class ChatWebSocketServer extends WebSocketServer {
       QueueMessage qm =
           QueueMessage.from(messageId, String.valueOf(roomId), msg, serverId, clientIp);
 
-      publisher.publish(qm);
-
-      chatResponse.setStatus("OK");
-      chatResponse.setData(Map.of("messageId", messageId));
-      safeSend(webSocket, MAPPER.writeValueAsString(chatResponse));
+      String userId = msg.getUserId();
+      UserInfo userInfo = new UserInfo(userId, msg.getUsername(), String.valueOf(roomId));
+
+      // Everything that can throw runs before the claim; from here on the outcome is always
+      // completed, so retries never wait on a claim that nothing will finish.
+      String clientMessageId = msg.getClientMessageId();
+      CompletableFuture<PublishResult> outcome = new CompletableFuture<>();
+      if (clientMessageId != null) {
+        CompletableFuture<PublishResult> earlier =
+            idempotencyCache.claim(userId, clientMessageId, outcome);
+        if (earlier != null) {
+          // The first attempt may still be in flight; ack the retry with its outcome.
+          earlier.whenComplete((result, e) -> sendAck(webSocket, result, e));
+          return;
+        }
+      }
 
-      UserInfo userInfo = new UserInfo(msg.getUserId(), msg.getUsername(), String.valueOf(roomId));
-      roomManager.registerUser(webSocket, userInfo);
-    } catch (Exception e) {
-      ChatResponse chatResponse = new ChatResponse();
-      chatResponse.setStatus("ERROR");
-      chatResponse.setServerTimestamp(Instant.now().toString());
-      chatResponse.setErrors(List.of("Invalid JSON"));
+      // The client is acked from the publish callback, so this thread is free for the next
+      // frame; it blocks only while the publisher is at its outstanding-publish bound.
+      CompletableFuture<PublishResult> published;
       try {
-        safeSend(webSocket, MAPPER.writeValueAsString(chatResponse));
-      } catch (Exception ignored) {
+        published = publisher.publishAsync(qm);
+      } catch (RuntimeException e) {
+        published = CompletableFuture.failedFuture(e);
       }
+      published.whenComplete((result, e) -> {
+        // A dropped message was never published, so a retry must be free to publish it.
+        boolean dropped = e == null && result.isDropped();
+        if ((e != null || dropped) && clientMessageId != null) {
+          idempotencyCache.release(userId, clientMessageId, outcome);
+        }
+        if (e == null) {
+          outcome.complete(result);
+        } else {
+          outcome.completeExceptionally(e);
+        }
+        sendAck(webSocket, result, e);
+        if (e == null && !dropped) {
+          roomManager.registerUser(webSocket, userInfo);
+        }
+      });
+    } catch (Exception e) {
+      System.out.println("Failed to handle message: " + e);
+      sendError(webSocket, "Failed to process message");
+    }
+  }
+
+  private void sendError(WebSocket webSocket, String error) {
+    ChatResponse chatResponse = new ChatResponse();
+    chatResponse.setStatus("ERROR");
+    chatResponse.setServerTimestamp(Instant.now().toString());
+    chatResponse.setErrors(List.of(error));
+    try {
+      safeSend(webSocket, MAPPER.writeValueAsString(chatResponse));
+    } catch (Exception ignored) {
+    }
+  }
+
+  private void sendAck(WebSocket webSocket, PublishResult result, Throwable e) {
+    ChatResponse ack = new ChatResponse();
+    ack.setServerTimestamp(Instant.now().toString());
+    if (e == null) {
+      ack.setStatus(result.isDropped() ? "DROPPED"
+          : result.isQueuedLocally() ? "QUEUED_LOCALLY" : "OK");
+      ack.setData(Map.of("messageId", result.getMessageId()));
+    } else {
+      ack.setStatus("ERROR");
+      ack.setErrors(List.of("Failed to publish message"));
+    }
+    try {
+      safeSend(webSocket, MAPPER.writeValueAsString(ack));
+    } catch (Exception ignored) {
     }
   }
 
@@ -0,0 +1,124 @@
+package chatflow.server.broadcast;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import chatflow.server.room.RoomManager;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class BroadcastIngressServerTest {
+
+  private BroadcastIngressServer ingress;
+
+  @BeforeEach
+  void start() throws IOException {
+    ingress = new BroadcastIngressServer("127.0.0.1", 0, "s3cret", 4,
+        new MessageIdCache(1000, 60), new RoomManager());
+    ingress.start();
+  }
+
+  @AfterEach
+  void stop() throws IOException {
+    ingress.close();
+  }
+
+  private static void writeFrame(DataOutputStream out, byte[] payload) throws IOException {
+    out.writeInt(payload.length);
+    out.write(payload);
+    out.flush();
+  }
+
+  private static byte[] hello(String secret) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(BroadcastFrames.HELLO);
+    out.writeUTF(secret);
+    return bytes.toByteArray();
+  }
+
+  private static byte[] batch(long batchId, int count, String... messageIds) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(BroadcastFrames.BATCH);
+    out.writeLong(batchId);
+    out.writeInt(count);
+    for (String messageId : messageIds) {
+      out.writeBoolean(true);
+      out.writeUTF(messageId);
+      out.writeBoolean(true);
+      out.writeUTF("7");
+      for (int i = 0; i < 7; i++) {
+        out.writeBoolean(false);
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  /** Reads one credit frame and returns {@code {batchId, credits}}. */
+  private static long[] readCredit(DataInputStream in) throws IOException {
+    assertEquals(1 + 8 + 4, in.readInt());
+    assertEquals(BroadcastFrames.CREDIT, in.readByte());
+    return new long[] {in.readLong(), in.readInt()};
+  }
+
+  @Test
+  void grantsCreditsAfterTheSecretAndDedupsBatches() throws IOException {
+    try (Socket socket = new Socket("127.0.0.1", ingress.getPort())) {
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      writeFrame(out, hello("s3cret"));
+      assertEquals(4, readCredit(in)[1]);
+
+      writeFrame(out, batch(1, 2, "m1", "m2"));
+      assertEquals(1, readCredit(in)[0]);
+      writeFrame(out, batch(2, 1, "m1"));
+      assertEquals(2, readCredit(in)[0]);
+    }
+    assertEquals(2, ingress.delivered());
+    assertEquals(1, ingress.duplicates());
+  }
+
+  @Test
+  void closesConnectionsWithoutTheSecret() throws IOException {
+    try (Socket socket = new Socket("127.0.0.1", ingress.getPort())) {
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      writeFrame(out, hello("guess"));
+      assertEquals(-1, socket.getInputStream().read());
+    }
+    try (Socket socket = new Socket("127.0.0.1", ingress.getPort())) {
+      // A batch before the hello is not accepted either.
+      writeFrame(new DataOutputStream(socket.getOutputStream()), batch(1, 1, "m1"));
+      assertEquals(-1, socket.getInputStream().read());
+    }
+    assertEquals(2, ingress.rejected());
+    assertEquals(0, ingress.delivered());
+  }
+
+  @Test
+  void rejectsBatchCountsAboveTheProtocolLimit() throws IOException {
+    try (Socket socket = new Socket("127.0.0.1", ingress.getPort())) {
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      writeFrame(out, hello("s3cret"));
+      readCredit(in);
+
+      writeFrame(out, batch(1, Integer.MAX_VALUE));
+      assertThrows(EOFException.class, () -> readCredit(in));
+    }
+    assertEquals(0, ingress.batches());
+  }
+
+  @Test
+  void requiresASecret() {
+    assertThrows(IllegalArgumentException.class, () -> new BroadcastIngressServer(
+        "127.0.0.1", 0, "", 4, new MessageIdCache(), new RoomManager()));
+  }
+}
@@ -0,0 +1,74 @@
+package chatflow.server.broadcast;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MappedDedupWindowTest {
+
+  @TempDir
+  Path dir;
+
+  private static int seenCount(DedupWindow window, int from, int to) {
+    int seen = 0;
+    for (int i = from; i < to; i++) {
+      if (window.seen("m" + i)) {
+        seen++;
+      }
+    }
+    return seen;
+  }
+
+  @Test
+  void idExpiresAfterTheTtl() throws Exception {
+    try (MappedDedupWindow window = new MappedDedupWindow(dir.resolve("dedup"), 1024, 100)) {
+      assertFalse(window.seen("m1"));
+      assertTrue(window.seen("m1"));
+
+      Thread.sleep(150);
+      assertFalse(window.seen("m1"));
+      assertTrue(window.seen("m1"));
+    }
+  }
+
+  @Test
+  void fullWindowForgetsTheOldestIds() throws Exception {
+    try (MappedDedupWindow window = new MappedDedupWindow(dir.resolve("dedup"), 64, 60_000)) {
+      assertEquals(0, seenCount(window, 0, 10_000));
+
+      // Ids written within the same millisecond still evict the oldest slot first.
+      assertEquals(32, seenCount(window, 9_968, 10_000));
+      // Writing 10,000 ids into 64 slots has overwritten every early one.
+      assertEquals(0, seenCount(window, 0, 100));
+    }
+  }
+
+  @Test
+  void reopenedWindowStillKnowsEveryId() throws Exception {
+    Path file = dir.resolve("dedup");
+    try (MappedDedupWindow window = new MappedDedupWindow(file, 4096, 60_000)) {
+      assertEquals(0, seenCount(window, 0, 1_000));
+    }
+
+    try (MappedDedupWindow window = new MappedDedupWindow(file, 4096, 60_000)) {
+      assertEquals(1_000, seenCount(window, 0, 1_000));
+      assertFalse(window.seen("m1000"));
+    }
+  }
+
+  @Test
+  void reopeningWithAnotherCapacityStartsEmpty() throws Exception {
+    Path file = dir.resolve("dedup");
+    try (MappedDedupWindow window = new MappedDedupWindow(file, 1024, 60_000)) {
+      assertEquals(0, seenCount(window, 0, 100));
+    }
+
+    try (MappedDedupWindow window = new MappedDedupWindow(file, 4096, 60_000)) {
+      assertEquals(0, seenCount(window, 0, 100));
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package chatflow.server.queue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.Test;
+
+class IdempotencyCacheTest {
+
+  @Test
+  void retryWhilePublishInFlightSeesOutcomeOfFirstAttempt() {
+    IdempotencyCache cache = new IdempotencyCache(100, 60);
+    CompletableFuture<PublishResult> first = new CompletableFuture<>();
+    assertNull(cache.claim("u1", "c1", first));
+
+    CompletableFuture<PublishResult> earlier = cache.claim("u1", "c1", new CompletableFuture<>());
+    assertSame(first, earlier);
+    assertTrue(!earlier.isDone());
+
+    first.complete(new PublishResult("m1", true));
+    assertEquals("m1", earlier.join().getMessageId());
+    assertEquals(1, cache.hits());
+    assertEquals(1, cache.misses());
+  }
+
+  @Test
+  void releasedClaimLetsRetryPublishAgain() {
+    IdempotencyCache cache = new IdempotencyCache(100, 60);
+    CompletableFuture<PublishResult> first = new CompletableFuture<>();
+    cache.claim("u1", "c1", first);
+    cache.release("u1", "c1", first);
+    first.completeExceptionally(new IllegalStateException("broker down"));
+
+    assertNull(cache.claim("u1", "c1", new CompletableFuture<>()));
+  }
+
+  @Test
+  void keysAreScopedPerUser() {
+    IdempotencyCache cache = new IdempotencyCache(100, 60);
+    assertNull(cache.claim("u1", "c1", new CompletableFuture<>()));
+    assertNull(cache.claim("u2", "c1", new CompletableFuture<>()));
+  }
+
+  @Test
+  void releaseOfStaleClaimKeepsNewerOne() {
+    IdempotencyCache cache = new IdempotencyCache(100, 60);
+    CompletableFuture<PublishResult> first = new CompletableFuture<>();
+    cache.claim("u1", "c1", first);
+    cache.release("u1", "c1", first);
+    CompletableFuture<PublishResult> second = new CompletableFuture<>();
+    cache.claim("u1", "c1", second);
+
+    cache.release("u1", "c1", first);
+    assertSame(second, cache.claim("u1", "c1", new CompletableFuture<>()));
+  }
+}
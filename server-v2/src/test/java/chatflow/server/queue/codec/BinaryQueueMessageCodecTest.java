@@ -0,0 +1,56 @@
+package chatflow.server.queue.codec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import chatflow.server.queue.QueueMessage;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.InputStream;
+import java.util.HexFormat;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the encoder against the golden bodies in {@code codec/binary-messages.json}, which the
+ * consumer's decoder is tested against as well, so the two codecs cannot drift apart.
+ */
+class BinaryQueueMessageCodecTest {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private static JsonNode goldenCases() throws Exception {
+    try (InputStream in = BinaryQueueMessageCodecTest.class.getResourceAsStream(
+        "/codec/binary-messages.json")) {
+      return MAPPER.readTree(in);
+    }
+  }
+
+  @Test
+  void encodesTheGoldenBodies() throws Exception {
+    for (JsonNode golden : goldenCases()) {
+      QueueMessage msg = MAPPER.treeToValue(golden.get("message"), QueueMessage.class);
+      assertEquals(golden.get("body").asText(),
+          HexFormat.of().formatHex(BinaryQueueMessageCodec.INSTANCE.encode(msg)),
+          golden.get("name").asText());
+    }
+  }
+
+  @Test
+  void decodesWhatItEncodes() throws Exception {
+    for (JsonNode golden : goldenCases()) {
+      QueueMessage expected = MAPPER.treeToValue(golden.get("message"), QueueMessage.class);
+      QueueMessage decoded = BinaryQueueMessageCodec.INSTANCE.decode(
+          HexFormat.of().parseHex(golden.get("body").asText()));
+      String name = golden.get("name").asText();
+      assertEquals(expected.getMessageId(), decoded.getMessageId(), name);
+      assertEquals(expected.getRoomId(), decoded.getRoomId(), name);
+      assertEquals(expected.getUserId(), decoded.getUserId(), name);
+      assertEquals(expected.getUsername(), decoded.getUsername(), name);
+      assertEquals(expected.getMessage(), decoded.getMessage(), name);
+      assertEquals(expected.getTimestamp(), decoded.getTimestamp(), name);
+      assertEquals(expected.getMessageType(), decoded.getMessageType(), name);
+      assertEquals(expected.getServerId(), decoded.getServerId(), name);
+      assertEquals(expected.getClientIp(), decoded.getClientIp(), name);
+      assertEquals(expected.getReceivedAt(), decoded.getReceivedAt(), name);
+    }
+  }
+}
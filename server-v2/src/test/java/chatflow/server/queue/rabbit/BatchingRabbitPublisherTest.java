@@ -0,0 +1,119 @@
+package chatflow.server.queue.rabbit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import chatflow.server.queue.MessageDeadlines;
+import chatflow.server.queue.PublishResult;
+import chatflow.server.queue.QueueMessage;
+import chatflow.server.queue.codec.JsonQueueMessageCodec;
+import com.rabbitmq.client.Channel;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class BatchingRabbitPublisherTest {
+
+  private final StubConnection connection = new StubConnection();
+  private ChannelPool pool;
+  private BatchingRabbitPublisher publisher;
+
+  private StubChannel batchingPublisher(int maxBatch, long lingerMicros) throws Exception {
+    pool = new ChannelPool(connection.connection(), 1, false, 5_000);
+    publisher = new BatchingRabbitPublisher(new RabbitMqPublisher(pool, "chat.exchange"),
+        maxBatch, lingerMicros);
+    return connection.channels().get(0);
+  }
+
+  private static QueueMessage message(String messageId, String roomId) {
+    return QueueMessage.of(messageId, roomId, "42", "user42", "hi", "t", "TEXT", "server-1",
+        "10.0.0.1");
+  }
+
+  @AfterEach
+  void close() throws Exception {
+    if (publisher != null) {
+      publisher.close();
+    }
+  }
+
+  @Test
+  void fullBatchIsPublishedAsOneEnvelope() throws Exception {
+    StubChannel channel = batchingPublisher(2, 60_000_000);
+    CompletableFuture<PublishResult> first = publisher.publishAsync(message("m1", "7"));
+    assertFalse(first.isDone());
+    CompletableFuture<PublishResult> second = publisher.publishAsync(message("m2", "7"));
+
+    assertEquals("m1", first.get(5, TimeUnit.SECONDS).getMessageId());
+    assertEquals("m2", second.get(5, TimeUnit.SECONDS).getMessageId());
+    List<StubChannel.Published> published = channel.published();
+    assertEquals(1, published.size());
+    assertEquals("room.7", published.get(0).routingKey());
+    assertEquals(BatchEnvelope.CONTENT_TYPE, published.get(0).props().getContentType());
+  }
+
+  @Test
+  void lingerFlushesRunOffTheTimerThread() throws Exception {
+    StubChannel channel = batchingPublisher(100, 1_000);
+    List<String> threads = new CopyOnWriteArrayList<>();
+    channel.onPublish(p -> threads.add(Thread.currentThread().getName()));
+
+    publisher.publishAsync(message("m1", "7")).get(5, TimeUnit.SECONDS);
+    assertEquals(1, threads.size());
+    assertTrue(threads.get(0).startsWith("publish-batch-flush-"), threads.get(0));
+  }
+
+  @Test
+  void blockedFlushDoesNotHoldBackOtherRooms() throws Exception {
+    pool = new ChannelPool(connection.connection(), 2, false, 5_000);
+    publisher = new BatchingRabbitPublisher(new RabbitMqPublisher(pool, "chat.exchange"),
+        100, 1_000);
+    CountDownLatch unblock = new CountDownLatch(1);
+    for (StubChannel channel : connection.channels()) {
+      channel.onPublish(p -> {
+        if (p.routingKey().equals("room.7")) {
+          awaitQuietly(unblock);
+        }
+      });
+    }
+
+    CompletableFuture<PublishResult> blocked = publisher.publishAsync(message("m1", "7"));
+    Thread.sleep(50);
+    // Room 7's flush is stuck in basicPublish; room 8 still gets its linger flush.
+    publisher.publishAsync(message("m2", "8")).get(5, TimeUnit.SECONDS);
+    assertFalse(blocked.isDone());
+
+    unblock.countDown();
+    blocked.get(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  void droppedBatchCompletesEveryMessageAsDropped() throws Exception {
+    pool = new ChannelPool(connection.connection(), 1, false, 5_000);
+    publisher = new BatchingRabbitPublisher(new RabbitMqPublisher(pool, "chat.exchange",
+        JsonQueueMessageCodec.INSTANCE, DeliveryTier.FIRE_AND_FORGET, MessageDeadlines.NONE,
+        RoomRouting.PER_ROOM, null, 16, 1_000), 2, 60_000_000);
+    Channel held = pool.tryBorrow();
+
+    CompletableFuture<PublishResult> first = publisher.publishAsync(message("m1", "7"));
+    CompletableFuture<PublishResult> second = publisher.publishAsync(message("m2", "7"));
+
+    assertTrue(first.get(5, TimeUnit.SECONDS).isDropped());
+    assertTrue(second.get(5, TimeUnit.SECONDS).isDropped());
+    assertEquals(0, connection.channels().get(0).published().size());
+    pool.release(held);
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
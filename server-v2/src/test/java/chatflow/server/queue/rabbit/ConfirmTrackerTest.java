@@ -0,0 +1,106 @@
+package chatflow.server.queue.rabbit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.rabbitmq.client.AMQP;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import org.junit.jupiter.api.Test;
+
+class ConfirmTrackerTest {
+
+  private final ConfirmTracker tracker = new ConfirmTracker();
+
+  @Test
+  void multipleAckCompletesEverythingUpToTheTag() {
+    CompletableFuture<Void> first = tracker.register(1);
+    CompletableFuture<Void> second = tracker.register(2);
+    CompletableFuture<Void> third = tracker.register(3);
+
+    tracker.handleAck(2, true);
+    assertTrue(first.isDone() && second.isDone());
+    assertFalse(third.isDone());
+    assertEquals(1, tracker.outstanding());
+  }
+
+  @Test
+  void singleConfirmsCompleteOutOfOrder() {
+    CompletableFuture<Void> first = tracker.register(1);
+    CompletableFuture<Void> second = tracker.register(2);
+
+    tracker.handleNack(2, false);
+    CompletionException e = assertThrows(CompletionException.class, second::join);
+    assertInstanceOf(ConfirmTracker.NackException.class, e.getCause());
+    assertFalse(first.isDone());
+
+    tracker.handleAck(1, false);
+    first.join();
+    assertEquals(0, tracker.outstanding());
+  }
+
+  @Test
+  void growsPastTheInitialRing() {
+    List<CompletableFuture<Void>> futures = new ArrayList<>();
+    for (long seqNo = 1; seqNo <= 1000; seqNo++) {
+      futures.add(tracker.register(seqNo));
+    }
+    tracker.handleAck(600, false);
+    assertTrue(futures.get(599).isDone());
+    assertEquals(999, tracker.outstanding());
+
+    tracker.handleAck(1000, true);
+    assertTrue(futures.stream().allMatch(CompletableFuture::isDone));
+    assertEquals(0, tracker.outstanding());
+  }
+
+  @Test
+  void deregisterForgetsThePublishWithoutCompletingIt() {
+    CompletableFuture<Void> failed = tracker.register(1);
+    CompletableFuture<Void> next = tracker.register(2);
+
+    assertTrue(tracker.deregister(1));
+    assertFalse(tracker.deregister(1));
+    assertFalse(failed.isDone());
+    assertEquals(1, tracker.outstanding());
+
+    tracker.handleAck(2, true);
+    next.join();
+    assertEquals(0, tracker.outstanding());
+  }
+
+  @Test
+  void failAllFailsEveryOutstandingPublish() {
+    CompletableFuture<Void> first = tracker.register(1);
+    CompletableFuture<Void> second = tracker.register(2);
+    tracker.handleAck(1, false);
+
+    tracker.failAll(new IOException("channel closed"));
+    first.join();
+    assertThrows(CompletionException.class, second::join);
+    assertEquals(0, tracker.outstanding());
+  }
+
+  @Test
+  void returnedMandatoryPublishFailsBeforeItsAck() {
+    CompletableFuture<Void> routed = tracker.register(1);
+    CompletableFuture<Void> unroutable = tracker.register(2);
+    AMQP.BasicProperties props = new AMQP.BasicProperties.Builder()
+        .headers(Map.of(ConfirmTracker.SEQ_NO_HEADER, 2L))
+        .build();
+
+    tracker.handleReturn(312, "NO_ROUTE", "chat.exchange", "room.7.control", props, new byte[0]);
+    tracker.handleAck(2, true);
+    routed.join();
+    CompletionException e = assertThrows(CompletionException.class, unroutable::join);
+    assertInstanceOf(ConfirmTracker.UnroutableException.class, e.getCause());
+    assertEquals(0, tracker.outstanding());
+  }
+}
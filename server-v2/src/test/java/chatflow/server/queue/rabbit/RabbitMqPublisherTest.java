@@ -0,0 +1,250 @@
+package chatflow.server.queue.rabbit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import chatflow.server.queue.MessageDeadlines;
+import chatflow.server.queue.PublishResult;
+import chatflow.server.queue.QueueMessage;
+import chatflow.server.queue.codec.JsonQueueMessageCodec;
+import com.rabbitmq.client.Channel;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Drives the publisher against a stub connection in place of the broker.
+ */
+class RabbitMqPublisherTest {
+
+  private final StubConnection connection = new StubConnection();
+  private ChannelPool pool;
+  private RabbitMqPublisher publisher;
+
+  private StubChannel confirmingPublisher() throws Exception {
+    pool = new ChannelPool(connection.connection(), 1, true, 100);
+    publisher = new RabbitMqPublisher(pool, "chat.exchange", 16, 2_000);
+    return connection.channels().get(0);
+  }
+
+  private CompletableFuture<Boolean> send() {
+    return publisher.send("7", publisher.messageProperties(0), new byte[] {1});
+  }
+
+  /** Nacks the first {@code nacks} publishes on the channel and acks the rest. */
+  private static void nackFirst(StubChannel channel, int nacks) {
+    AtomicInteger seen = new AtomicInteger();
+    channel.onPublish(p -> {
+      channel.confirm(p.seqNo(), seen.incrementAndGet() > nacks);
+    });
+  }
+
+  @AfterEach
+  void close() throws Exception {
+    if (publisher != null) {
+      publisher.close();
+    }
+  }
+
+  @Test
+  void completesOnConfirm() throws Exception {
+    StubChannel channel = confirmingPublisher();
+    nackFirst(channel, 0);
+
+    send().get(5, TimeUnit.SECONDS);
+    assertEquals(1, publisher.confirmed());
+    assertEquals(0, pool.confirmTracker(channel.channel()).outstanding());
+  }
+
+  @Test
+  void failedPublishIsDeregistered() throws Exception {
+    StubChannel channel = confirmingPublisher();
+    channel.failNext("basicPublish", new IOException("connection reset"), false);
+
+    ExecutionException e =
+        assertThrows(ExecutionException.class, () -> send().get(5, TimeUnit.SECONDS));
+    assertInstanceOf(IOException.class, e.getCause());
+    assertEquals(0, pool.confirmTracker(channel.channel()).outstanding());
+  }
+
+  @Test
+  void retriesNackedPublishes() throws Exception {
+    StubChannel channel = confirmingPublisher();
+    nackFirst(channel, 2);
+
+    send().get(5, TimeUnit.SECONDS);
+    assertEquals(3, channel.published().size());
+    assertEquals(2, publisher.nacked());
+    assertEquals(1, publisher.confirmed());
+  }
+
+  @Test
+  void givesUpAfterTheLastAttempt() throws Exception {
+    StubChannel channel = confirmingPublisher();
+    nackFirst(channel, 3);
+
+    ExecutionException e =
+        assertThrows(ExecutionException.class, () -> send().get(5, TimeUnit.SECONDS));
+    assertInstanceOf(ConfirmTracker.NackException.class, e.getCause());
+    assertEquals(3, channel.published().size());
+  }
+
+  @Test
+  void retryWaitsForAFreeChannelWithoutHoldingTheTimer() throws Exception {
+    StubChannel channel = confirmingPublisher();
+    CompletableFuture<Boolean> sent = send();
+    channel.onPublish(p -> channel.confirm(p.seqNo(), true));
+
+    // Lease the only channel, then nack: the retry must not wait for it on the timer.
+    Channel held = pool.tryBorrow();
+    channel.confirm(channel.published().get(0).seqNo(), false);
+    Thread.sleep(300);
+    assertFalse(sent.isDone());
+    assertEquals(1, channel.published().size());
+
+    pool.release(held);
+    sent.get(5, TimeUnit.SECONDS);
+    assertEquals(2, channel.published().size());
+  }
+
+  @Test
+  void publishesBatchesLargerThanTheOutstandingBound() throws Exception {
+    pool = new ChannelPool(connection.connection(), 1, false, 100);
+    publisher = new RabbitMqPublisher(pool, "chat.exchange");
+    List<QueueMessage> msgs = new ArrayList<>();
+    for (int i = 0; i < 10_000; i++) {
+      msgs.add(QueueMessage.of("m" + i, String.valueOf(i % 3), "42", "user42", "hi", "t",
+          "TEXT", "server-1", "10.0.0.1"));
+    }
+
+    List<PublishResult> results = publisher.publishBatch(msgs).get(5, TimeUnit.SECONDS);
+    assertEquals(10_000, results.size());
+    assertEquals("m9999", results.get(9_999).getMessageId());
+    assertEquals(10_000, connection.channels().get(0).published().size());
+  }
+
+  @Test
+  void batchShedsStaleMessages() throws Exception {
+    pool = new ChannelPool(connection.connection(), 1, false, 100);
+    publisher = new RabbitMqPublisher(pool, "chat.exchange", JsonQueueMessageCodec.INSTANCE,
+        MessageDeadlines.parse("TEXT=1000"), RoomRouting.PER_ROOM, null, 0, 0, 0);
+    long now = System.currentTimeMillis();
+
+    List<PublishResult> results = publisher.publishBatch(
+        List.of(message("new", now), message("old", now - 5_000), message("newer", now)))
+        .get(5, TimeUnit.SECONDS);
+
+    assertEquals(3, results.size());
+    assertFalse(results.get(0).isDropped());
+    assertTrue(results.get(1).isDropped());
+    assertEquals("old", results.get(1).getMessageId());
+    assertFalse(results.get(2).isDropped());
+    assertEquals(2, connection.channels().get(0).published().size());
+  }
+
+  @Test
+  void fireAndForgetDropsWhenNoChannelIsFree() throws Exception {
+    pool = new ChannelPool(connection.connection(), 1, false, 5_000);
+    publisher = new RabbitMqPublisher(pool, "chat.exchange", JsonQueueMessageCodec.INSTANCE,
+        DeliveryTier.FIRE_AND_FORGET, MessageDeadlines.NONE, RoomRouting.PER_ROOM, null, 16,
+        1_000);
+    Channel held = pool.tryBorrow();
+
+    long start = System.nanoTime();
+    assertFalse(send().get(1, TimeUnit.SECONDS));
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+    PublishResult result = publisher.publishAsync(message("m1", 0L)).get(1, TimeUnit.SECONDS);
+    assertTrue(result.isDropped());
+    assertEquals(2, publisher.dropped());
+    assertEquals(0, connection.channels().get(0).published().size());
+
+    pool.release(held);
+    assertTrue(send().get(1, TimeUnit.SECONDS));
+    assertFalse(publisher.publishAsync(message("m2", 0L)).get(1, TimeUnit.SECONDS).isDropped());
+    assertEquals(2, publisher.dropped());
+    assertEquals(2, connection.channels().get(0).published().size());
+  }
+
+  @Test
+  void staleMessageCompletesAsDropped() throws Exception {
+    pool = new ChannelPool(connection.connection(), 1, false, 100);
+    publisher = new RabbitMqPublisher(pool, "chat.exchange", JsonQueueMessageCodec.INSTANCE,
+        MessageDeadlines.parse("TEXT=1000"), RoomRouting.PER_ROOM, null, 0, 0, 0);
+
+    PublishResult stale = publisher.publishAsync(
+        message("old", System.currentTimeMillis() - 5_000)).get(1, TimeUnit.SECONDS);
+    PublishResult fresh = publisher.publishAsync(
+        message("new", System.currentTimeMillis())).get(1, TimeUnit.SECONDS);
+
+    assertTrue(stale.isDropped());
+    assertFalse(stale.isConfirmed());
+    assertFalse(fresh.isDropped());
+    assertEquals(1, connection.channels().get(0).published().size());
+  }
+
+  private static QueueMessage message(String id, long receivedAt) {
+    return QueueMessage.of(id, "7", "42", "user42", "hi", "t", "TEXT", "server-1", "10.0.0.1",
+        receivedAt);
+  }
+
+  private RabbitMqPublisher controlLane(boolean confirms) throws Exception {
+    pool = new ChannelPool(connection.connection(), 1, confirms, 100);
+    publisher = RabbitMqPublisher.controlLane(pool, "chat.exchange",
+        JsonQueueMessageCodec.INSTANCE, MessageDeadlines.NONE, RoomRouting.PER_ROOM, null,
+        confirms ? 16 : 0, 2_000);
+    return publisher;
+  }
+
+  @Test
+  void unroutableControlPublishFailsWithConfirms() throws Exception {
+    controlLane(true);
+    StubChannel channel = connection.channels().get(0);
+    channel.onPublish(p -> {
+      channel.returnUnroutable(p);
+      channel.confirm(p.seqNo(), true);
+    });
+
+    ExecutionException e =
+        assertThrows(ExecutionException.class, () -> send().get(5, TimeUnit.SECONDS));
+    assertInstanceOf(ConfirmTracker.UnroutableException.class, e.getCause());
+    StubChannel.Published published = channel.published().get(0);
+    assertTrue(published.mandatory());
+    assertEquals("room.7.control", published.routingKey());
+    assertEquals(1, publisher.returned());
+    assertEquals(0, pool.confirmTracker(channel.channel()).outstanding());
+  }
+
+  @Test
+  void controlBatchIsPublishedMandatory() throws Exception {
+    controlLane(false);
+    StubChannel channel = connection.channels().get(0);
+    channel.onPublish(channel::returnUnroutable);
+
+    publisher.publishBatch(List.of(message("m1", 0L), message("m2", 0L)))
+        .get(5, TimeUnit.SECONDS);
+    assertEquals(2, channel.published().size());
+    assertTrue(channel.published().get(0).mandatory());
+    assertTrue(channel.published().get(1).mandatory());
+    assertEquals(2, publisher.returned());
+  }
+
+  @Test
+  void unroutableControlPublishIsCountedWithoutConfirms() throws Exception {
+    controlLane(false);
+    StubChannel channel = connection.channels().get(0);
+    channel.onPublish(channel::returnUnroutable);
+
+    send().get(5, TimeUnit.SECONDS);
+    assertTrue(channel.published().get(0).mandatory());
+    assertEquals(1, publisher.returned());
+  }
+}
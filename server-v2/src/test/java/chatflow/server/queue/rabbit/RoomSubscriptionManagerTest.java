@@ -0,0 +1,80 @@
+package chatflow.server.queue.rabbit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import chatflow.server.room.RoomManager;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import org.java_websocket.WebSocket;
+import org.junit.jupiter.api.Test;
+
+class RoomSubscriptionManagerTest {
+
+  private final StubConnection connection = new StubConnection();
+  private final RoomManager roomManager = new RoomManager();
+
+  private static WebSocket session() {
+    return (WebSocket) Proxy.newProxyInstance(WebSocket.class.getClassLoader(),
+        new Class<?>[] {WebSocket.class}, (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "hashCode":
+              return System.identityHashCode(proxy);
+            case "equals":
+              return proxy == args[0];
+            default:
+              return null;
+          }
+        });
+  }
+
+  private RoomSubscriptionManager manager() {
+    RoomSubscriptionManager manager = new RoomSubscriptionManager(connection.connection(),
+        "chat.exchange", "server.q", RoomRouting.PER_ROOM, roomManager, 0);
+    roomManager.addMembershipListener(manager);
+    return manager;
+  }
+
+  private static void await(RoomSubscriptionManager manager, long binds) throws Exception {
+    long deadline = System.currentTimeMillis() + 5_000;
+    while (manager.binds() < binds && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(binds, manager.binds());
+  }
+
+  @Test
+  void bindsTheRoomAndItsControlLane() throws Exception {
+    try (RoomSubscriptionManager manager = manager()) {
+      roomManager.addSession("7", session());
+      await(manager, 1);
+
+      assertEquals(1, connection.channels().size());
+      assertEquals(List.of("queueBind server.q chat.exchange room.7",
+          "queueBind server.q chat.exchange room.7.control"),
+          connection.channels().get(0).calls());
+      assertEquals(1, manager.boundRooms());
+    }
+  }
+
+  @Test
+  void retriesOnANewChannelAfterTheBrokerClosedTheOldOne() throws Exception {
+    connection.onCreate(ch -> {
+      if (connection.channels().size() == 1) {
+        ch.failNext("queueBind", new IOException("NOT_FOUND - no exchange"), true);
+      }
+    });
+    try (RoomSubscriptionManager manager = manager()) {
+      roomManager.addSession("7", session());
+      await(manager, 1);
+
+      List<StubChannel> channels = connection.channels();
+      assertEquals(2, channels.size());
+      assertFalse(channels.get(0).isOpen());
+      assertTrue(channels.get(1).isOpen());
+      assertEquals(2, channels.get(1).calls().size());
+    }
+  }
+}
@@ -0,0 +1,190 @@
+package chatflow.server.queue.rabbit;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.ReturnListener;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Broker stand-in for one channel. Records publishes and topology calls, hands out publish
+ * sequence numbers in confirm mode, keeps the listeners the code under test registers, and
+ * can be told to fail a call.
+ */
+final class StubChannel implements InvocationHandler {
+
+  /** One {@code basicPublish} call. */
+  record Published(String exchange, String routingKey, boolean mandatory,
+      AMQP.BasicProperties props, byte[] body, long seqNo) {
+  }
+
+  private static final class Failure {
+    private final Exception error;
+    private final boolean closes;
+
+    private Failure(Exception error, boolean closes) {
+      this.error = error;
+      this.closes = closes;
+    }
+  }
+
+  private final Channel channel = (Channel) Proxy.newProxyInstance(
+      Channel.class.getClassLoader(), new Class<?>[] {Channel.class}, this);
+  private final List<String> calls = new ArrayList<>();
+  private final List<Published> published = new ArrayList<>();
+  private final Map<String, Failure> failures = new HashMap<>();
+  private volatile boolean open = true;
+  private boolean confirmMode;
+  private long nextSeqNo = 1;
+  private ConfirmListener confirmListener;
+  private final List<ReturnListener> returnListeners = new ArrayList<>();
+  private Consumer<Published> onPublish;
+
+  Channel channel() {
+    return channel;
+  }
+
+  /** Makes the next call of the method throw, closing the channel if {@code closes}. */
+  synchronized void failNext(String method, Exception error, boolean closes) {
+    failures.put(method, new Failure(error, closes));
+  }
+
+  /** Runs after every publish, outside the stub's lock, e.g. to confirm or return it. */
+  synchronized void onPublish(Consumer<Published> action) {
+    this.onPublish = action;
+  }
+
+  synchronized List<String> calls() {
+    return List.copyOf(calls);
+  }
+
+  synchronized List<Published> published() {
+    return List.copyOf(published);
+  }
+
+  synchronized ConfirmListener confirmListener() {
+    return confirmListener;
+  }
+
+  /** Acks or nacks a publish through the confirm listener the code under test added. */
+  void confirm(long seqNo, boolean ack) {
+    try {
+      if (ack) {
+        confirmListener().handleAck(seqNo, false);
+      } else {
+        confirmListener().handleNack(seqNo, false);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Returns a publish as unroutable to every return listener the code under test added. */
+  void returnUnroutable(Published publish) {
+    List<ReturnListener> listeners;
+    synchronized (this) {
+      listeners = List.copyOf(returnListeners);
+    }
+    try {
+      for (ReturnListener listener : listeners) {
+        listener.handleReturn(312, "NO_ROUTE", publish.exchange(), publish.routingKey(),
+            publish.props(), publish.body());
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  boolean isOpen() {
+    return open;
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+    String name = method.getName();
+    switch (name) {
+      case "toString":
+        return "StubChannel";
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "equals":
+        return proxy == args[0];
+      case "isOpen":
+        return open;
+      default:
+        break;
+    }
+    Published publish = null;
+    Consumer<Published> action;
+    synchronized (this) {
+      Failure failure = failures.remove(name);
+      if (failure != null) {
+        if (failure.closes) {
+          open = false;
+        }
+        throw failure.error;
+      }
+      switch (name) {
+        case "close":
+          open = false;
+          return null;
+        case "confirmSelect":
+          confirmMode = true;
+          return null;
+        case "getNextPublishSeqNo":
+          return confirmMode ? nextSeqNo : 0L;
+        case "addConfirmListener":
+          if (args.length == 1 && args[0] instanceof ConfirmListener) {
+            confirmListener = (ConfirmListener) args[0];
+          }
+          return null;
+        case "addReturnListener":
+          if (args.length == 1 && args[0] instanceof ReturnListener) {
+            returnListeners.add((ReturnListener) args[0]);
+          }
+          return null;
+        case "basicPublish":
+          publish = new Published((String) args[0], (String) args[1],
+              args.length > 4 && (Boolean) args[2], (AMQP.BasicProperties) args[args.length - 2],
+              (byte[]) args[args.length - 1], confirmMode ? nextSeqNo++ : 0L);
+          published.add(publish);
+          calls.add("basicPublish " + args[0] + " " + args[1]);
+          break;
+        default:
+          StringBuilder call = new StringBuilder(name);
+          for (int i = 0; args != null && i < args.length && args[i] instanceof String; i++) {
+            call.append(' ').append(args[i]);
+          }
+          calls.add(call.toString());
+          return defaultValue(method.getReturnType());
+      }
+      action = onPublish;
+    }
+    if (action != null) {
+      action.accept(publish);
+    }
+    return null;
+  }
+
+  private static Object defaultValue(Class<?> type) {
+    if (type == boolean.class) {
+      return false;
+    }
+    if (type == int.class) {
+      return 0;
+    }
+    if (type == long.class) {
+      return 0L;
+    }
+    return null;
+  }
+}
@@ -0,0 +1,56 @@
+package chatflow.server.queue.rabbit;
+
+import com.rabbitmq.client.Connection;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Broker stand-in for a connection: every {@code createChannel} opens a new
+ * {@link StubChannel}.
+ */
+final class StubConnection implements InvocationHandler {
+
+  private final Connection connection = (Connection) Proxy.newProxyInstance(
+      Connection.class.getClassLoader(), new Class<?>[] {Connection.class}, this);
+  private final List<StubChannel> channels = new ArrayList<>();
+  private Consumer<StubChannel> onCreate = ch -> { };
+
+  Connection connection() {
+    return connection;
+  }
+
+  /** Runs for every channel as it is opened, e.g. to arm a failure. */
+  synchronized void onCreate(Consumer<StubChannel> action) {
+    this.onCreate = action;
+  }
+
+  synchronized List<StubChannel> channels() {
+    return List.copyOf(channels);
+  }
+
+  @Override
+  public synchronized Object invoke(Object proxy, Method method, Object[] args) {
+    switch (method.getName()) {
+      case "createChannel":
+        StubChannel channel = new StubChannel();
+        channels.add(channel);
+        onCreate.accept(channel);
+        return channel.channel();
+      case "isOpen":
+        return true;
+      case "toString":
+        return "StubConnection";
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "equals":
+        return proxy == args[0];
+      default:
+        return method.getReturnType() == boolean.class ? false
+            : method.getReturnType() == int.class ? 0 : null;
+    }
+  }
+}
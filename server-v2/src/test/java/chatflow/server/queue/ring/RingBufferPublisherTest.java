@@ -0,0 +1,135 @@
+package chatflow.server.queue.ring;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import chatflow.server.queue.PublishResult;
+import chatflow.server.queue.QueueMessage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.Test;
+
+class RingBufferPublisherTest {
+
+  private static QueueMessage message(int i) {
+    return QueueMessage.of("m" + i, "7", "42", "user42", "hi", "t", "TEXT", "server-1",
+        "10.0.0.1");
+  }
+
+  private static List<String> ids(int count) {
+    List<String> ids = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      ids.add("m" + i);
+    }
+    return ids;
+  }
+
+  @Test
+  void fullRingGatesProducersUntilTheConsumerFreesASlot() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    List<String> seen = new CopyOnWriteArrayList<>();
+    RingBufferPublisher ring = new RingBufferPublisher(4, 100);
+    ring.subscribe((msg, publishedAt, endOfBatch) -> {
+      release.await(10, TimeUnit.SECONDS);
+      seen.add(msg.getMessageId());
+    });
+    ring.start();
+
+    for (int i = 0; i < 4; i++) {
+      ring.publishAsync(message(i)).get(1, TimeUnit.SECONDS);
+    }
+    assertEquals(0, ring.remainingCapacity());
+    ExecutionException e = assertThrows(ExecutionException.class,
+        () -> ring.publishAsync(message(4)).get(1, TimeUnit.SECONDS));
+    assertInstanceOf(TimeoutException.class, e.getCause());
+    assertEquals(1, ring.rejected());
+
+    release.countDown();
+    // The sequence wraps onto slot 0 once the consumer has passed it.
+    ring.publishAsync(message(4)).get(1, TimeUnit.SECONDS);
+    ring.close();
+    assertEquals(ids(5), seen);
+  }
+
+  @Test
+  void everyConsumerSeesEveryMessageInOrder() throws Exception {
+    List<String> first = new CopyOnWriteArrayList<>();
+    List<String> second = new CopyOnWriteArrayList<>();
+    RingBufferPublisher ring = new RingBufferPublisher(8, 5_000);
+    ring.subscribe((msg, publishedAt, endOfBatch) -> first.add(msg.getMessageId()));
+    ring.subscribe((msg, publishedAt, endOfBatch) -> second.add(msg.getMessageId()));
+    ring.start();
+
+    for (int i = 0; i < 1_000; i++) {
+      ring.publishAsync(message(i)).get(5, TimeUnit.SECONDS);
+    }
+    ring.close();
+    assertEquals(ids(1_000), first);
+    assertEquals(ids(1_000), second);
+    assertEquals(8, ring.remainingCapacity());
+  }
+
+  @Test
+  void closeDrainsEverythingPublished() throws Exception {
+    List<String> seen = new CopyOnWriteArrayList<>();
+    RingBufferPublisher ring = new RingBufferPublisher(64, 5_000);
+    ring.subscribe((msg, publishedAt, endOfBatch) -> {
+      Thread.sleep(1);
+      seen.add(msg.getMessageId());
+    });
+    ring.start();
+
+    for (int i = 0; i < 50; i++) {
+      ring.publishAsync(message(i)).get(1, TimeUnit.SECONDS);
+    }
+    ring.close();
+    assertEquals(ids(50), seen);
+    ExecutionException e = assertThrows(ExecutionException.class,
+        () -> ring.publishAsync(message(50)).get(1, TimeUnit.SECONDS));
+    assertInstanceOf(IllegalStateException.class, e.getCause());
+  }
+
+  @Test
+  void publishRacingCloseIsEitherRejectedOrHandled() throws Exception {
+    for (int round = 0; round < 20; round++) {
+      Set<String> seen = ConcurrentHashMap.newKeySet();
+      RingBufferPublisher ring = new RingBufferPublisher(1024, 5_000);
+      ring.subscribe((msg, publishedAt, endOfBatch) -> seen.add(msg.getMessageId()));
+      ring.start();
+
+      Set<String> acked = ConcurrentHashMap.newKeySet();
+      List<Thread> producers = new ArrayList<>();
+      for (int p = 0; p < 4; p++) {
+        int producer = p;
+        Thread t = new Thread(() -> {
+          for (int i = 0; i < 10_000; i++) {
+            QueueMessage msg = message(producer * 10_000 + i);
+            CompletableFuture<PublishResult> result = ring.publishAsync(msg);
+            if (result.isCompletedExceptionally()) {
+              return;
+            }
+            acked.add(msg.getMessageId());
+          }
+        });
+        producers.add(t);
+        t.start();
+      }
+      Thread.sleep(1);
+      ring.close();
+      for (Thread t : producers) {
+        t.join();
+      }
+      assertTrue(seen.containsAll(acked), "acked messages lost on close");
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package chatflow.server.queue.spill;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SpillJournalTest {
+
+  private static final int RECORD = 100;
+  private static final int HEADER = 8;
+
+  @TempDir
+  Path dir;
+
+  private static byte[] record(int i) {
+    byte[] record = new byte[RECORD];
+    Arrays.fill(record, (byte) i);
+    return record;
+  }
+
+  private static void assertReplays(SpillJournal journal, int from, int to) {
+    for (int i = from; i < to; i++) {
+      assertArrayEquals(record(i), journal.peek(), "record " + i);
+      journal.commit();
+    }
+  }
+
+  @Test
+  void appendPeekCommitAcrossRotation() throws Exception {
+    try (SpillJournal journal = new SpillJournal(dir, 1024)) {
+      for (int i = 0; i < 30; i++) {
+        journal.append(record(i));
+      }
+      assertTrue(journal.segmentCount() >= 3, "segments: " + journal.segmentCount());
+      assertEquals(30, journal.pending());
+
+      // Peeking twice returns the same record until it is committed.
+      assertArrayEquals(record(0), journal.peek());
+      assertReplays(journal, 0, 30);
+      assertNull(journal.peek());
+      assertEquals(0, journal.pending());
+      assertEquals(1, journal.segmentCount());
+    }
+  }
+
+  @Test
+  void reopenResumesWithTheFirstRecordNotReplayed() throws Exception {
+    try (SpillJournal journal = new SpillJournal(dir, 1024)) {
+      for (int i = 0; i < 15; i++) {
+        journal.append(record(i));
+      }
+      assertReplays(journal, 0, 12);
+    }
+
+    try (SpillJournal journal = new SpillJournal(dir, 1024)) {
+      assertEquals(3, journal.pending());
+      assertEquals(1, journal.segmentCount());
+      journal.append(record(15));
+      assertReplays(journal, 12, 16);
+      assertNull(journal.peek());
+    }
+  }
+
+  @Test
+  void tornTrailingRecordIsIgnoredAndOverwritten() throws Exception {
+    try (SpillJournal journal = new SpillJournal(dir, 1024)) {
+      for (int i = 0; i < 3; i++) {
+        journal.append(record(i));
+      }
+    }
+    // A crash mid-append leaves a length whose payload and checksum do not match.
+    tear(dir.resolve("spill-00000000000000000000.log"), 3 * (HEADER + RECORD));
+
+    try (SpillJournal journal = new SpillJournal(dir, 1024)) {
+      assertEquals(3, journal.pending());
+      journal.append(record(3));
+      assertReplays(journal, 0, 4);
+      assertNull(journal.peek());
+    }
+  }
+
+  private static void tear(Path file, int pos) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+      raf.seek(pos);
+      raf.writeInt(RECORD);
+      raf.writeInt(0);
+      raf.write(new byte[RECORD / 2]);
+    }
+  }
+}
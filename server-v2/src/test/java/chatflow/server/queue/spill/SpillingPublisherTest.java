@@ -0,0 +1,134 @@
+package chatflow.server.queue.spill;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import chatflow.server.queue.MessagePublisher;
+import chatflow.server.queue.PublishResult;
+import chatflow.server.queue.QueueMessage;
+import chatflow.server.queue.codec.BinaryQueueMessageCodec;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SpillingPublisherTest {
+
+  /** Broker stand-in that fails every publish while it is down. */
+  private static final class FlakyPublisher implements MessagePublisher {
+    private final AtomicBoolean up = new AtomicBoolean();
+    private final AtomicInteger attempts = new AtomicInteger();
+    private final List<String> published = new CopyOnWriteArrayList<>();
+
+    @Override
+    public CompletableFuture<PublishResult> publishAsync(QueueMessage msg) {
+      attempts.incrementAndGet();
+      if (!up.get()) {
+        return CompletableFuture.failedFuture(new IOException("broker down"));
+      }
+      published.add(msg.getMessageId());
+      return CompletableFuture.completedFuture(new PublishResult(msg.getMessageId(), true));
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  @TempDir
+  Path dir;
+
+  private final FlakyPublisher broker = new FlakyPublisher();
+  private SpillingPublisher publisher;
+
+  private SpillingPublisher open(BooleanSupplier healthy) throws IOException {
+    publisher = new SpillingPublisher(broker, new SpillJournal(dir, 1 << 16), healthy, 2, 100,
+        1_000);
+    return publisher;
+  }
+
+  @AfterEach
+  void close() throws Exception {
+    if (publisher != null) {
+      publisher.close();
+    }
+  }
+
+  private static QueueMessage message(String id) {
+    return QueueMessage.of(id, "7", "42", "user42", "hi", "t", "TEXT", "server-1", "10.0.0.1");
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.nanoTime() < deadline, "timed out");
+      Thread.sleep(5);
+    }
+  }
+
+  @Test
+  void circuitOpensProbesAndClosesWithAFailingDelegate() throws Exception {
+    open(() -> true);
+
+    for (int i = 0; i < 3; i++) {
+      PublishResult result = publisher.publishAsync(message("m" + i)).get(1, TimeUnit.SECONDS);
+      assertTrue(result.isQueuedLocally());
+    }
+    assertTrue(publisher.isOpen());
+    assertEquals(1, publisher.opens());
+    assertEquals(3, publisher.spilled());
+    // The third message went straight to the journal once the circuit was open.
+    assertEquals(2, broker.attempts.get());
+
+    // Each probe after the retry interval fails and keeps the circuit open.
+    await(() -> broker.attempts.get() >= 4);
+    assertTrue(publisher.isOpen());
+    assertEquals(0, publisher.replayed());
+    assertEquals(3, publisher.getJournal().pending());
+
+    broker.up.set(true);
+    await(() -> !publisher.isOpen() && publisher.getJournal().pending() == 0);
+    assertEquals(List.of("m0", "m1", "m2"), broker.published);
+    assertEquals(3, publisher.replayed());
+
+    PublishResult direct = publisher.publishAsync(message("m3")).get(1, TimeUnit.SECONDS);
+    assertFalse(direct.isQueuedLocally());
+    assertEquals(List.of("m0", "m1", "m2", "m3"), broker.published);
+  }
+
+  @Test
+  void unhealthyBrokerSpillsWithoutTryingTheDelegate() throws Exception {
+    AtomicBoolean healthy = new AtomicBoolean(false);
+    open(healthy::get);
+
+    assertTrue(publisher.publishAsync(message("m0")).get(1, TimeUnit.SECONDS).isQueuedLocally());
+    assertEquals(0, broker.attempts.get());
+
+    broker.up.set(true);
+    healthy.set(true);
+    await(() -> publisher.replayed() == 1);
+    assertEquals(List.of("m0"), broker.published);
+  }
+
+  @Test
+  void recordsLeftByAPreviousRunAreReplayed() throws Exception {
+    try (SpillJournal journal = new SpillJournal(dir, 1 << 16)) {
+      journal.append(BinaryQueueMessageCodec.INSTANCE.encode(message("old")));
+    }
+    broker.up.set(true);
+    open(() -> true);
+
+    assertTrue(publisher.isOpen());
+    await(() -> publisher.replayed() == 1 && !publisher.isOpen());
+    assertEquals(List.of("old"), broker.published);
+  }
+}
@@ -0,0 +1,108 @@
+package chatflow.server.ws;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import chatflow.server.queue.IdempotencyCache;
+import chatflow.server.queue.MessagePublisher;
+import chatflow.server.queue.PublishResult;
+import chatflow.server.queue.QueueMessage;
+import chatflow.server.room.RoomManager;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.junit.jupiter.api.Test;
+
+class ChatWebSocketServerTest {
+
+  private final List<String> sent = new CopyOnWriteArrayList<>();
+  private final List<QueueMessage> published = new CopyOnWriteArrayList<>();
+  private volatile InetSocketAddress remote = new InetSocketAddress("127.0.0.1", 4000);
+  private volatile PublishResult nextResult;
+
+  private final WebSocket webSocket = (WebSocket) Proxy.newProxyInstance(
+      WebSocket.class.getClassLoader(), new Class<?>[] {WebSocket.class},
+      (proxy, method, args) -> {
+        switch (method.getName()) {
+          case "getRemoteSocketAddress":
+            return remote;
+          case "isOpen":
+            return true;
+          case "send":
+            sent.add((String) args[0]);
+            return null;
+          case "hashCode":
+            return System.identityHashCode(proxy);
+          case "equals":
+            return proxy == args[0];
+          case "toString":
+            return "stub-websocket";
+          default:
+            return null;
+        }
+      });
+
+  private final MessagePublisher publisher = new MessagePublisher() {
+    @Override
+    public CompletableFuture<PublishResult> publishAsync(QueueMessage msg) {
+      published.add(msg);
+      PublishResult result = nextResult;
+      return CompletableFuture.completedFuture(
+          result != null ? result : new PublishResult(msg.getMessageId(), true));
+    }
+
+    @Override
+    public void close() {
+    }
+  };
+
+  private ChatWebSocketServer openServer() {
+    ChatWebSocketServer server = new ChatWebSocketServer(0, publisher, "server-1",
+        new RoomManager(), new IdempotencyCache(100, 60));
+    ClientHandshake handshake = (ClientHandshake) Proxy.newProxyInstance(
+        ClientHandshake.class.getClassLoader(), new Class<?>[] {ClientHandshake.class},
+        (proxy, method, args) ->
+            "getResourceDescriptor".equals(method.getName()) ? "/chat/5" : null);
+    server.onOpen(webSocket, handshake);
+    return server;
+  }
+
+  private static String frame(String clientMessageId) {
+    return "{\"userId\":\"42\",\"username\":\"user42\",\"message\":\"hi\",\"timestamp\":\""
+        + Instant.now() + "\",\"messageType\":\"TEXT\",\"clientMessageId\":\""
+        + clientMessageId + "\"}";
+  }
+
+  @Test
+  void failureBeforePublishDoesNotStrandTheRetry() {
+    ChatWebSocketServer server = openServer();
+    // An unresolved address has no InetAddress, so building the queue message fails.
+    remote = InetSocketAddress.createUnresolved("client.invalid", 4000);
+    server.onMessage(webSocket, frame("c1"));
+    assertEquals(0, published.size());
+    assertTrue(sent.get(0).contains("Failed to process message"), sent.get(0));
+
+    remote = new InetSocketAddress("127.0.0.1", 4000);
+    server.onMessage(webSocket, frame("c1"));
+    assertEquals(1, published.size());
+    assertTrue(sent.get(1).contains("\"OK\""), sent.get(1));
+  }
+
+  @Test
+  void droppedPublishIsAckedAsDroppedAndMayBeRetried() {
+    ChatWebSocketServer server = openServer();
+    nextResult = PublishResult.dropped("m1");
+    server.onMessage(webSocket, frame("c1"));
+    assertTrue(sent.get(0).contains("\"DROPPED\""), sent.get(0));
+
+    nextResult = null;
+    server.onMessage(webSocket, frame("c1"));
+    assertEquals(2, published.size());
+    assertTrue(sent.get(1).contains("\"OK\""), sent.get(1));
+  }
+}